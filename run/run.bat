@@ -1,3 +1,3 @@
 @ECHO OFF
 CLS
-java -jar Braintris.jar
\ No newline at end of file
+java --add-modules jdk.incubator.vector -jar Braintris.jar
\ No newline at end of file
@@ -9,7 +9,9 @@ import java.util.regex.Pattern;
 
 import hu.nye.vpe.nn.Activation;
 import hu.nye.vpe.nn.BatchNormParameters;
+import hu.nye.vpe.nn.Precision;
 import hu.nye.vpe.nn.WeightInitStrategy;
+import hu.nye.vpe.tetris.BoardFeature;
 import hu.nye.vpe.tetris.RunMode;
 
 /**
@@ -28,6 +30,20 @@ public class GlobalConfig {
             System.err.println("Error loading configuration file: " + e.getMessage());
             throw new RuntimeException("Failed to load configuration", e);
         }
+        deriveFeedDataSize();
+    }
+
+    /**
+     * The input size follows the feature selection, ${FEED_DATA_SIZE} in other keys resolves to the derived size.
+     */
+    private void deriveFeedDataSize() {
+        int size = BoardFeature.width(getFeedFeatures());
+        String configured = properties.getProperty("FEED_DATA_SIZE");
+        if (configured != null && !configured.trim().equals(String.valueOf(size))) {
+            System.err.println("Warning: FEED_DATA_SIZE = " + configured.trim() + " ignored, the selected features need "
+                    + size + " inputs");
+        }
+        properties.setProperty("FEED_DATA_SIZE", String.valueOf(size));
     }
 
     /**
@@ -94,6 +110,20 @@ public class GlobalConfig {
         return getInt("FEED_DATA_SIZE", 30);
     }
 
+    public BoardFeature[] getFeedFeatures() {
+        return BoardFeature.parse(getString("FEED_FEATURES", BoardFeature.DEFAULT_FEATURES));
+    }
+
+    /**
+     * Names of the selected features in feed order, saved with the network so that a network trained on other
+     * inputs is not loaded.
+     *
+     * @return comma separated feature names
+     */
+    public String getFeedLayout() {
+        return String.join(",", Arrays.stream(getFeedFeatures()).map(Enum::name).toArray(String[]::new));
+    }
+
     public Boolean getNormalizeFeedData() {
         return getBoolean("NORMALIZE_FEED_DATA", true);
     }
@@ -260,6 +290,15 @@ public class GlobalConfig {
         return getDouble("BIAS_L2_LAMBDA", 0.0001);
     }
 
+    /**
+     * Get weight decay mode.
+     *
+     * @return true if the weight decay is subtracted after the Adam step, false if it is an L2 gradient term
+     */
+    public boolean getDecoupledWeightDecay() {
+        return getBoolean("DECOUPLED_WEIGHT_DECAY", true);
+    }
+
     /**
      * Get clipping min.
      *
@@ -410,6 +449,55 @@ public class GlobalConfig {
         return getDouble("DROPOUT_RATE", 0.0);
     }
 
+    public boolean getUseTranspositionTable() {
+        return getBoolean("USE_TRANSPOSITION_TABLE", false);
+    }
+
+    public int getTranspositionTableMegabytes() {
+        return getInt("TRANSPOSITION_TABLE_MB", 16);
+    }
+
+    public boolean getUseVectorMetrics() {
+        return getBoolean("USE_VECTOR_METRICS", false);
+    }
+
+    public boolean getPlayQuantized() {
+        return getBoolean("PLAY_QUANTIZED", false);
+    }
+
+    /**
+     * Threads of the data-parallel training passes, 0 for the number of processors.
+     *
+     * @return number of threads
+     */
+    public int getTrainingThreads() {
+        return getInt("TRAINING_THREADS", 0);
+    }
+
+    /**
+     * Smallest batch that is split into shards for the training threads.
+     *
+     * @return batch size threshold
+     */
+    public int getParallelMinBatch() {
+        return getInt("PARALLEL_MIN_BATCH", 512);
+    }
+
+    /**
+     * Get the numeric precision of the network from configuration.
+     *
+     * @return Precision value, defaulting to DOUBLE if not found or invalid.
+     */
+    public Precision getPrecision() {
+        String precisionString = getString("PRECISION", "DOUBLE");
+        try {
+            return Precision.valueOf(precisionString);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: Invalid PRECISION value: " + precisionString + ". Defaulting to DOUBLE.");
+            return Precision.DOUBLE;
+        }
+    }
+
 
     /**
      * Get run mode from configuration.
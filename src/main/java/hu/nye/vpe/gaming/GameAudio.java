@@ -1,7 +1,7 @@
 package hu.nye.vpe.gaming;
 
 import java.io.IOException;
-import java.util.Objects;
+import java.net.URL;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
@@ -39,12 +39,20 @@ public class GameAudio {
     public final Clip open(String audioFile) {
         Clip clip = null;
         AudioInputStream audioIn;
+        URL resource = this.getClass().getClassLoader().getResource(audioFile);
+        if (resource == null) {
+            System.err.println("Missing audio file: " + audioFile);
+            return null;
+        }
         try {
-            audioIn = AudioSystem.getAudioInputStream(Objects.requireNonNull(this.getClass().getClassLoader().getResource(audioFile)));
+            audioIn = AudioSystem.getAudioInputStream(resource);
             clip = AudioSystem.getClip();
             clip.open(audioIn);
         } catch (IOException | LineUnavailableException | UnsupportedAudioFileException e) {
             e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            // No audio device (headless run), the game is silent
+            clip = null;
         }
         return clip;
     }
@@ -57,6 +65,9 @@ public class GameAudio {
      * @param loop loop
      */
     public synchronized void play(Clip clip, boolean loop) {
+        if (clip == null) {
+            return;
+        }
         if (loop) {
             clip.loop(Integer.MAX_VALUE);
         } else {
@@ -65,7 +76,15 @@ public class GameAudio {
         }
     }
 
+    /**
+     * Stop method.
+     *
+     * @param clip sound
+     */
     public void stop(Clip clip) {
+        if (clip == null) {
+            return;
+        }
         clip.stop();
         clip.close();
     }
@@ -6,6 +6,17 @@ package hu.nye.vpe.nn;
 public enum Activation {
     SIGMOID, TANH, RELU, LEAKY_RELU, ELU, GELU, LINEAR, SWISH, MISH, SOFTMAX, SOFTMAX_SPLIT;
 
+    /**
+     * Kernel of the activation, to be resolved once by its user.
+     *
+     * @param splitIndex index to split the input, used by SOFTMAX_SPLIT only
+     *
+     * @return activation kernel
+     */
+    public ActivationKernel kernel(int splitIndex) {
+        return ActivationKernels.of(this, splitIndex);
+    }
+
     /**
      * Activate method.
      *
@@ -20,9 +31,7 @@ public enum Activation {
             throw new IllegalArgumentException("SOFTMAX_SPLIT requires a split index. Use activate(double[], Activation, int) instead.");
         } else {
             double[] result = new double[x.length];
-            for (int i = 0; i < x.length; i++) {
-                result[i] = activateSingle(x[i], type);
-            }
+            ActivationKernels.of(type, 0).apply(x, result, x.length);
             return result;
         }
     }
@@ -42,37 +51,42 @@ public enum Activation {
         return activateSoftMaxSplit(x, splitIndex);
     }
 
-    private static double activateSingle(double x, Activation type) {
-        return switch (type) {
-            case SIGMOID -> 1 / (1 + Math.exp(-x));
-            case TANH -> Math.tanh(x);
-            case RELU -> Math.max(0, x);
-            case LEAKY_RELU -> x > 0 ? x : 0.01 * x;
-            case ELU -> x > 0 ? x : 0.01 * (Math.exp(x) - 1);
-            case GELU -> 0.5 * x * (1 + Math.tanh(Math.sqrt(2 / Math.PI) * (x + 0.044715 * Math.pow(x, 3))));
-            case LINEAR -> x;
-            case SWISH -> x * sigmoid(x);
-            case MISH -> x * Math.tanh(Math.log(1 + Math.exp(x)));
-            default -> throw new IllegalArgumentException("Unsupported activation type for single value: " + type);
-        };
+    /**
+     * Activate method for a single value.
+     *
+     * @param x input value
+     * @param type activation type, not a softmax
+     * @return activated value
+     */
+    public static double activate(double x, Activation type) {
+        return ActivationKernels.of(type, 0).apply(x);
     }
 
-    private static double[] activateSoftMax(double[] x) {
-        double[] output = new double[x.length];
-        double sum = 0.0;
-        double max = x[0];
-        for (int i = 1; i < x.length; i++) {
-            if (x[i] > max) {
-                max = x[i];
+    /**
+     * Activate the first values of a vector in place, without allocation.
+     *
+     * @param x input values, overwritten with the activated values
+     * @param length number of values to activate
+     * @param type activation type
+     * @param splitIndex index to split the input, used by SOFTMAX_SPLIT only
+     */
+    public static void activateInPlace(double[] x, int length, Activation type, int splitIndex) {
+        if (type == SOFTMAX) {
+            ActivationKernels.softMax(x, 0, length);
+        } else if (type == SOFTMAX_SPLIT) {
+            if (splitIndex <= 0 || splitIndex >= length) {
+                throw new IllegalArgumentException("Split index must be between 1 and " + (length - 1));
             }
+            ActivationKernels.softMax(x, 0, splitIndex);
+            ActivationKernels.softMax(x, splitIndex, length);
+        } else {
+            ActivationKernels.of(type, 0).apply(x, x, length);
         }
-        for (int i = 0; i < x.length; i++) {
-            output[i] = Math.exp(x[i] - max);
-            sum += output[i];
-        }
-        for (int i = 0; i < x.length; i++) {
-            output[i] /= sum;
-        }
+    }
+
+    private static double[] activateSoftMax(double[] x) {
+        double[] output = x.clone();
+        ActivationKernels.softMax(output, 0, output.length);
         return output;
     }
 
@@ -81,27 +95,16 @@ public enum Activation {
             throw new IllegalArgumentException("Split index must be between 1 and " + (x.length - 1));
         }
 
-        double[] output = new double[x.length];
-        double[] firstPart = new double[splitIndex];
-        double[] secondPart = new double[x.length - splitIndex];
-
-        System.arraycopy(x, 0, firstPart, 0, splitIndex);
-        System.arraycopy(x, splitIndex, secondPart, 0, x.length - splitIndex);
-
-        double[] activatedFirst = activateSoftMax(firstPart);
-        double[] activatedSecond = activateSoftMax(secondPart);
-
-        System.arraycopy(activatedFirst, 0, output, 0, splitIndex);
-        System.arraycopy(activatedSecond, 0, output, splitIndex, x.length - splitIndex);
-
+        double[] output = x.clone();
+        ActivationKernels.softMax(output, 0, splitIndex);
+        ActivationKernels.softMax(output, splitIndex, output.length);
         return output;
     }
 
-
     /**
      * Derivative method.
      *
-     * @param x activated value or vector
+     * @param x pre-activation values, activated outputs for the softmax Jacobian
      * @param type activation type
      * @return derivative value or vector
      */
@@ -112,9 +115,7 @@ public enum Activation {
             throw new IllegalArgumentException("SOFTMAX_SPLIT requires a split index. Use derivative(double[], Activation, int) instead.");
         } else {
             double[] result = new double[x.length];
-            for (int i = 0; i < x.length; i++) {
-                result[i] = derivativeSingle(x[i], type);
-            }
+            ActivationKernels.of(type, 0).derivative(x, result, x.length);
             return result;
         }
     }
@@ -122,7 +123,7 @@ public enum Activation {
     /**
      * Derivative method for SOFTMAX_SPLIT.
      *
-     * @param x activated value or vector
+     * @param x pre-activation values, activated outputs for the softmax Jacobian
      * @param type activation type
      * @param splitIndex index to split the input
      * @return derivative value or vector
@@ -134,36 +135,6 @@ public enum Activation {
         return derivativeSoftMaxSplit(x, splitIndex);
     }
 
-    private static double derivativeSingle(double x, Activation type) {
-        return switch (type) {
-            case SIGMOID -> {
-                double sigmoid = activateSingle(x, SIGMOID);
-                yield sigmoid * (1 - sigmoid);
-            }
-            case TANH -> 1 - Math.pow(Math.tanh(x), 2);
-            case RELU -> x > 0 ? 1 : 0;
-            case LEAKY_RELU -> x > 0 ? 1 : 0.01;
-            case ELU -> x > 0 ? 1 : 0.01 * Math.exp(x);
-            case GELU -> {
-                double x1 = Math.tanh(Math.sqrt(2 / Math.PI) * (x + 0.044715 * Math.pow(x, 3)));
-                double cdf = 0.5 * (1 + x1);
-                double pdf = Math.exp(-0.5 * x * x) / Math.sqrt(2 * Math.PI);
-                yield cdf + x * pdf * (1 - Math.pow(x1, 2));
-            }
-            case LINEAR -> 1;
-            case MISH -> {
-                double sp = sigmoid(x);
-                double tanhSoftPlus = Math.tanh(Math.log(1 + Math.exp(x)));
-                yield tanhSoftPlus + x * sp * (1 - tanhSoftPlus * tanhSoftPlus);
-            }
-            case SWISH -> {
-                double sigmoid = sigmoid(x);
-                yield sigmoid + x * sigmoid * (1 - sigmoid);
-            }
-            default -> throw new IllegalArgumentException("Unsupported activation type for single value derivative: " + type);
-        };
-    }
-
     private static double[] derivativeSoftMax(double[] output) {
         double[] jacobian = new double[output.length * output.length];
         for (int i = 0; i < output.length; i++) {
@@ -206,8 +177,4 @@ public enum Activation {
 
         return jacobian;
     }
-
-    private static double sigmoid(double x) {
-        return 1 / (1 + Math.exp(-x));
-    }
 }
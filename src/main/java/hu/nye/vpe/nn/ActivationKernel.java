@@ -0,0 +1,78 @@
+package hu.nye.vpe.nn;
+
+/**
+ * Activation function of one {@link Activation} type.
+ *
+ * <p>Resolved once by {@link Activation#kernel(int)}, every type has its own final implementation, so the loops of
+ * a layer call one monomorphic kernel instead of switching on the type per value. The array variants process the
+ * first {@code n} values, the source and the destination may be the same array.</p>
+ *
+ * <p>The derivatives of the element-wise types are evaluated at the pre-activations, the values before the
+ * activation, which the layer keeps for the backward pass. The activated outputs are not enough: GELU, SWISH and
+ * MISH cannot be differentiated from their output, and the outputs kept by a layer are scaled by dropout. The
+ * derivative of a softmax is a Jacobian matrix of the activated outputs, the softmax kernels only implement its
+ * product with the gradients, {@link #backward}.</p>
+ */
+public interface ActivationKernel {
+
+    /**
+     * Activate one value.
+     *
+     * @param x input value
+     *
+     * @return activated value
+     */
+    double apply(double x);
+
+    /**
+     * Activate the first values of a vector.
+     *
+     * @param src input values
+     *
+     * @param dst activated values
+     *
+     * @param n number of values
+     */
+    void apply(double[] src, double[] dst, int n);
+
+    /**
+     * Derivative at one pre-activation.
+     *
+     * @param z pre-activation value
+     *
+     * @return derivative
+     */
+    double derivative(double z);
+
+    /**
+     * Derivatives at the first pre-activations of a vector.
+     *
+     * @param z pre-activation values
+     *
+     * @param dst derivatives
+     *
+     * @param n number of values
+     */
+    void derivative(double[] z, double[] dst, int n);
+
+    /**
+     * Gradients through the activation, the product of the gradients and the Jacobian. For the element-wise types
+     * {@code dst[i] = gradients[i] * f'(z[i])}, the softmax types use the activated outputs only.
+     *
+     * @param z pre-activation values, may be null for the softmax types
+     *
+     * @param out activated outputs
+     *
+     * @param gradients gradients of the outputs
+     *
+     * @param dst gradients of the inputs
+     *
+     * @param n number of values
+     */
+    default void backward(double[] z, double[] out, double[] gradients, double[] dst, int n) {
+        derivative(z, dst, n);
+        for (int i = 0; i < n; i++) {
+            dst[i] *= gradients[i];
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package hu.nye.vpe.nn;
+
+import java.util.Arrays;
+
+/**
+ * The {@link ActivationKernel} implementations, one final class per {@link Activation} type.
+ *
+ * <p>Every class has its own loops, so a loop calls the scalar formula of one type only and the JIT can inline it.
+ * The formulas are those of the former per-value switch, without the {@code Math.pow} calls and with the GELU
+ * constants computed once. The derivatives are taken at the pre-activation {@code x}, the GELU derivative is the
+ * exact derivative of its tanh approximation.</p>
+ */
+final class ActivationKernels {
+    private static final double GELU_SCALE = Math.sqrt(2 / Math.PI);
+
+    private static final ActivationKernel SIGMOID = new Sigmoid();
+    private static final ActivationKernel TANH = new Tanh();
+    private static final ActivationKernel RELU = new Relu();
+    private static final ActivationKernel LEAKY_RELU = new LeakyRelu();
+    private static final ActivationKernel ELU = new Elu();
+    private static final ActivationKernel GELU = new Gelu();
+    private static final ActivationKernel LINEAR = new Linear();
+    private static final ActivationKernel SWISH = new Swish();
+    private static final ActivationKernel MISH = new Mish();
+    private static final ActivationKernel SOFTMAX = new Softmax(false, 0);
+
+    private ActivationKernels() {
+    }
+
+    /**
+     * Kernel of an activation type.
+     *
+     * @param type activation type
+     *
+     * @param splitIndex index to split the input, used by SOFTMAX_SPLIT only
+     *
+     * @return kernel, shared by the element-wise types
+     */
+    static ActivationKernel of(Activation type, int splitIndex) {
+        return switch (type) {
+            case SIGMOID -> SIGMOID;
+            case TANH -> TANH;
+            case RELU -> RELU;
+            case LEAKY_RELU -> LEAKY_RELU;
+            case ELU -> ELU;
+            case GELU -> GELU;
+            case LINEAR -> LINEAR;
+            case SWISH -> SWISH;
+            case MISH -> MISH;
+            case SOFTMAX -> SOFTMAX;
+            case SOFTMAX_SPLIT -> new Softmax(true, splitIndex);
+        };
+    }
+
+    /**
+     * Softmax of {@code x[from..to)} in place.
+     */
+    static void softMax(double[] x, int from, int to) {
+        double sum = 0.0;
+        double max = x[from];
+        for (int i = from + 1; i < to; i++) {
+            if (x[i] > max) {
+                max = x[i];
+            }
+        }
+        for (int i = from; i < to; i++) {
+            x[i] = Math.exp(x[i] - max);
+            sum += x[i];
+        }
+        for (int i = from; i < to; i++) {
+            x[i] /= sum;
+        }
+    }
+
+    /**
+     * Gradients through the softmax of {@code out[from..to)}, {@code dst = y ⊙ (g − ⟨g, y⟩)}. The product with the
+     * Jacobian {@code diag(y) − y·yᵀ} in O(n), without building the matrix.
+     */
+    static void softMaxBackward(double[] out, double[] gradients, double[] dst, int from, int to) {
+        double dot = 0.0;
+        for (int i = from; i < to; i++) {
+            dot += gradients[i] * out[i];
+        }
+        for (int i = from; i < to; i++) {
+            dst[i] = out[i] * (gradients[i] - dot);
+        }
+    }
+
+    static final class Sigmoid implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return 1 / (1 + Math.exp(-x));
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = 1 / (1 + Math.exp(-x));
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            double sigmoid = 1 / (1 + Math.exp(-x));
+            return sigmoid * (1 - sigmoid);
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                double sigmoid = 1 / (1 + Math.exp(-x));
+                dst[i] = sigmoid * (1 - sigmoid);
+            }
+        }
+    }
+
+    static final class Tanh implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return Math.tanh(x);
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = Math.tanh(x);
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            double tanh = Math.tanh(x);
+            return 1 - tanh * tanh;
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                double tanh = Math.tanh(x);
+                dst[i] = 1 - tanh * tanh;
+            }
+        }
+    }
+
+    static final class Relu implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return Math.max(0, x);
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = Math.max(0, x);
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            return x > 0 ? 1 : 0;
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                dst[i] = x > 0 ? 1 : 0;
+            }
+        }
+    }
+
+    static final class LeakyRelu implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return x > 0 ? x : 0.01 * x;
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = x > 0 ? x : 0.01 * x;
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            return x > 0 ? 1 : 0.01;
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                dst[i] = x > 0 ? 1 : 0.01;
+            }
+        }
+    }
+
+    static final class Elu implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return x > 0 ? x : 0.01 * (Math.exp(x) - 1);
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = x > 0 ? x : 0.01 * (Math.exp(x) - 1);
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            return x > 0 ? 1 : 0.01 * Math.exp(x);
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                dst[i] = x > 0 ? 1 : 0.01 * Math.exp(x);
+            }
+        }
+    }
+
+    static final class Gelu implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return 0.5 * x * (1 + Math.tanh(GELU_SCALE * (x + 0.044715 * x * x * x)));
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = 0.5 * x * (1 + Math.tanh(GELU_SCALE * (x + 0.044715 * x * x * x)));
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            double t = Math.tanh(GELU_SCALE * (x + 0.044715 * x * x * x));
+            return 0.5 * (1 + t) + 0.5 * x * (1 - t * t) * GELU_SCALE * (1 + 3 * 0.044715 * x * x);
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                double t = Math.tanh(GELU_SCALE * (x + 0.044715 * x * x * x));
+                dst[i] = 0.5 * (1 + t) + 0.5 * x * (1 - t * t) * GELU_SCALE * (1 + 3 * 0.044715 * x * x);
+            }
+        }
+    }
+
+    static final class Swish implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return x * (1 / (1 + Math.exp(-x)));
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = x * (1 / (1 + Math.exp(-x)));
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            double sigmoid = 1 / (1 + Math.exp(-x));
+            return sigmoid + x * sigmoid * (1 - sigmoid);
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                double sigmoid = 1 / (1 + Math.exp(-x));
+                dst[i] = sigmoid + x * sigmoid * (1 - sigmoid);
+            }
+        }
+    }
+
+    static final class Mish implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return x * Math.tanh(Math.log(1 + Math.exp(x)));
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = src[i];
+                dst[i] = x * Math.tanh(Math.log(1 + Math.exp(x)));
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            double sigmoid = 1 / (1 + Math.exp(-x));
+            double tanhSoftPlus = Math.tanh(Math.log(1 + Math.exp(x)));
+            return tanhSoftPlus + x * sigmoid * (1 - tanhSoftPlus * tanhSoftPlus);
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                double x = z[i];
+                double sigmoid = 1 / (1 + Math.exp(-x));
+                double tanhSoftPlus = Math.tanh(Math.log(1 + Math.exp(x)));
+                dst[i] = tanhSoftPlus + x * sigmoid * (1 - tanhSoftPlus * tanhSoftPlus);
+            }
+        }
+    }
+
+    static final class Linear implements ActivationKernel {
+        @Override
+        public double apply(double x) {
+            return x;
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            if (src != dst) {
+                System.arraycopy(src, 0, dst, 0, n);
+            }
+        }
+
+        @Override
+        public double derivative(double x) {
+            return 1;
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            Arrays.fill(dst, 0, n, 1.0);
+        }
+    }
+
+    // The whole vector, or the two parts split at the split index
+    static final class Softmax implements ActivationKernel {
+        private final boolean split;
+        private final int splitIndex;
+
+        Softmax(boolean split, int splitIndex) {
+            this.split = split;
+            this.splitIndex = splitIndex;
+        }
+
+        @Override
+        public double apply(double x) {
+            throw new IllegalArgumentException("Unsupported activation type for single value: " + type());
+        }
+
+        @Override
+        public void apply(double[] src, double[] dst, int n) {
+            if (src != dst) {
+                System.arraycopy(src, 0, dst, 0, n);
+            }
+            if (!split) {
+                softMax(dst, 0, n);
+                return;
+            }
+            if (splitIndex <= 0 || splitIndex >= n) {
+                throw new IllegalArgumentException("Split index must be between 1 and " + (n - 1));
+            }
+            softMax(dst, 0, splitIndex);
+            softMax(dst, splitIndex, n);
+        }
+
+        @Override
+        public double derivative(double x) {
+            throw new IllegalArgumentException("Unsupported activation type for single value derivative: " + type());
+        }
+
+        @Override
+        public void derivative(double[] z, double[] dst, int n) {
+            throw new IllegalArgumentException("The derivative of " + type() + " is a Jacobian matrix");
+        }
+
+        @Override
+        public void backward(double[] z, double[] out, double[] gradients, double[] dst, int n) {
+            if (!split) {
+                softMaxBackward(out, gradients, dst, 0, n);
+                return;
+            }
+            if (splitIndex <= 0 || splitIndex >= n) {
+                throw new IllegalArgumentException("Split index must be between 1 and " + (n - 1));
+            }
+            softMaxBackward(out, gradients, dst, 0, splitIndex);
+            softMaxBackward(out, gradients, dst, splitIndex, n);
+        }
+
+        private Activation type() {
+            return split ? Activation.SOFTMAX_SPLIT : Activation.SOFTMAX;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package hu.nye.vpe.nn;
+
+/**
+ * Fused Adam kernels over flat parameter arrays.
+ *
+ * <p>One pass over the parameters clips the gradient, adds the L2 term, updates the first and second moments,
+ * applies the bias correction, and adds the clipped step and the decoupled weight decay to the parameter. The
+ * hyperparameters and the bias corrections of the step are taken from the {@link AdamOptimizer}. Every kernel has a
+ * double and a float ({@link Precision#FLOAT32}) overload, and a scalar and a Vector API implementation. The vector
+ * kernels do the same operations lane by lane in the same order, without fused multiply-adds, so both give the same
+ * results.</p>
+ */
+public final class AdamKernels {
+    private AdamKernels() {
+    }
+
+    /**
+     * Adam step of the parameters.
+     *
+     * @param params parameters, updated in place
+     *
+     * @param gradients gradients of the parameters
+     *
+     * @param m first moments, updated in place
+     *
+     * @param v second moments, updated in place
+     *
+     * @param length number of parameters
+     *
+     * @param optimizer hyperparameters and bias corrections of the step
+     *
+     * @param clipper clipper of the gradients and of the steps
+     *
+     * @param l2 L2 coefficient, {@code l2 * param} is added to the clipped gradient
+     *
+     * @param decay decoupled weight decay, {@code decay * param} is subtracted from the parameter
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void update(double[] params, double[] gradients, double[] m, double[] v, int length,
+                              AdamOptimizer optimizer, GradientClipper clipper, double l2, double decay,
+                              boolean vector) {
+        if (vector && MatrixKernels.isVectorApiAvailable()) {
+            AdamKernelsVector.update(params, gradients, m, v, length, optimizer, clipper, l2, decay);
+            return;
+        }
+        updateRange(params, gradients, m, v, 0, length, optimizer, clipper, l2, decay);
+    }
+
+    /**
+     * Single precision {@link #update(double[], double[], double[], double[], int, AdamOptimizer, GradientClipper,
+     * double, double, boolean)}.
+     *
+     * @param params parameters, updated in place
+     *
+     * @param gradients gradients of the parameters
+     *
+     * @param m first moments, updated in place
+     *
+     * @param v second moments, updated in place
+     *
+     * @param length number of parameters
+     *
+     * @param optimizer hyperparameters and bias corrections of the step
+     *
+     * @param clipper clipper of the gradients and of the steps
+     *
+     * @param l2 L2 coefficient, {@code l2 * param} is added to the clipped gradient
+     *
+     * @param decay decoupled weight decay, {@code decay * param} is subtracted from the parameter
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void update(float[] params, float[] gradients, float[] m, float[] v, int length,
+                              AdamOptimizer optimizer, GradientClipper clipper, double l2, double decay,
+                              boolean vector) {
+        if (vector && MatrixKernels.isVectorApiAvailable()) {
+            AdamKernelsVector.update(params, gradients, m, v, length, optimizer, clipper, l2, decay);
+            return;
+        }
+        updateRange(params, gradients, m, v, 0, length, optimizer, clipper, l2, decay);
+    }
+
+    // Parameters [from, to), also the tail of the vector kernel
+    static void updateRange(double[] params, double[] gradients, double[] m, double[] v, int from, int to,
+                            AdamOptimizer optimizer, GradientClipper clipper, double l2, double decay) {
+        final double beta1 = optimizer.getBeta1();
+        final double beta2 = optimizer.getBeta2();
+        final double oneMinusBeta1 = 1.0 - beta1;
+        final double oneMinusBeta2 = 1.0 - beta2;
+        final double rate = optimizer.getLearningRate();
+        final double epsilon = optimizer.getEpsilon();
+        final double correction1 = optimizer.getBeta1Correction();
+        final double correction2 = optimizer.getBeta2Correction();
+        for (int k = from; k < to; k++) {
+            double gradient = clipper.clip(gradients[k]) + l2 * params[k];
+            double mk = beta1 * m[k] + oneMinusBeta1 * gradient;
+            double vk = beta2 * v[k] + oneMinusBeta2 * gradient * gradient;
+            m[k] = mk;
+            v[k] = vk;
+            // A non-finite step is clipped to 0
+            double step = clipper.clip(rate * (mk * correction1) / (Math.sqrt(vk * correction2) + epsilon));
+            params[k] += step - decay * params[k];
+        }
+    }
+
+    static void updateRange(float[] params, float[] gradients, float[] m, float[] v, int from, int to,
+                            AdamOptimizer optimizer, GradientClipper clipper, double l2, double decay) {
+        // Single precision arithmetic, mixing in double would convert every operand
+        final float beta1 = (float) optimizer.getBeta1();
+        final float beta2 = (float) optimizer.getBeta2();
+        final float oneMinusBeta1 = 1.0f - beta1;
+        final float oneMinusBeta2 = 1.0f - beta2;
+        final float rate = (float) optimizer.getLearningRate();
+        final float epsilon = (float) optimizer.getEpsilon();
+        final float correction1 = (float) optimizer.getBeta1Correction();
+        final float correction2 = (float) optimizer.getBeta2Correction();
+        final float floatL2 = (float) l2;
+        final float floatDecay = (float) decay;
+        for (int k = from; k < to; k++) {
+            float gradient = clipper.clip(gradients[k]) + floatL2 * params[k];
+            float mk = beta1 * m[k] + oneMinusBeta1 * gradient;
+            float vk = beta2 * v[k] + oneMinusBeta2 * gradient * gradient;
+            m[k] = mk;
+            v[k] = vk;
+            float step = clipper.clip(rate * (mk * correction1) / ((float) Math.sqrt(vk * correction2) + epsilon));
+            params[k] += step - floatDecay * params[k];
+        }
+    }
+}
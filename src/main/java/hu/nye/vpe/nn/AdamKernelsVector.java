@@ -0,0 +1,94 @@
+package hu.nye.vpe.nn;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernels of {@link AdamKernels}, the lanes run along the parameters.
+ *
+ * <p>The clipping of {@link GradientClipper#clip(double)} is done lane by lane: non-finite values are replaced by 0,
+ * then scaled and clamped. The leftover parameters are updated by the scalar kernel. Only loaded if the
+ * {@code jdk.incubator.vector} module is present.</p>
+ */
+final class AdamKernelsVector {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+
+    private AdamKernelsVector() {
+    }
+
+    static void update(double[] params, double[] gradients, double[] m, double[] v, int length,
+                       AdamOptimizer optimizer, GradientClipper clipper, double l2, double decay) {
+        final double beta1 = optimizer.getBeta1();
+        final double beta2 = optimizer.getBeta2();
+        final double oneMinusBeta1 = 1.0 - beta1;
+        final double oneMinusBeta2 = 1.0 - beta2;
+        final double rate = optimizer.getLearningRate();
+        final double epsilon = optimizer.getEpsilon();
+        final double correction1 = optimizer.getBeta1Correction();
+        final double correction2 = optimizer.getBeta2Correction();
+        final double scale = clipper.getGradientScale();
+        final double min = clipper.getMinValue();
+        final double max = clipper.getMaxValue();
+        int bound = SPECIES.loopBound(length);
+        for (int k = 0; k < bound; k += LANES) {
+            DoubleVector w = DoubleVector.fromArray(SPECIES, params, k);
+            DoubleVector gradient = clip(DoubleVector.fromArray(SPECIES, gradients, k), scale, min, max)
+                    .add(w.mul(l2));
+            DoubleVector mk = DoubleVector.fromArray(SPECIES, m, k).mul(beta1).add(gradient.mul(oneMinusBeta1));
+            DoubleVector vk = DoubleVector.fromArray(SPECIES, v, k).mul(beta2)
+                    .add(gradient.mul(oneMinusBeta2).mul(gradient));
+            mk.intoArray(m, k);
+            vk.intoArray(v, k);
+            DoubleVector step = clip(mk.mul(correction1).mul(rate).div(vk.mul(correction2).sqrt().add(epsilon)),
+                    scale, min, max);
+            w.add(step.sub(w.mul(decay))).intoArray(params, k);
+        }
+        AdamKernels.updateRange(params, gradients, m, v, bound, length, optimizer, clipper, l2, decay);
+    }
+
+    static void update(float[] params, float[] gradients, float[] m, float[] v, int length,
+                       AdamOptimizer optimizer, GradientClipper clipper, double l2, double decay) {
+        final float beta1 = (float) optimizer.getBeta1();
+        final float beta2 = (float) optimizer.getBeta2();
+        final float oneMinusBeta1 = 1.0f - beta1;
+        final float oneMinusBeta2 = 1.0f - beta2;
+        final float rate = (float) optimizer.getLearningRate();
+        final float epsilon = (float) optimizer.getEpsilon();
+        final float correction1 = (float) optimizer.getBeta1Correction();
+        final float correction2 = (float) optimizer.getBeta2Correction();
+        final float floatL2 = (float) l2;
+        final float floatDecay = (float) decay;
+        final float scale = (float) clipper.getGradientScale();
+        final float min = (float) clipper.getMinValue();
+        final float max = (float) clipper.getMaxValue();
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (int k = 0; k < bound; k += FLOAT_LANES) {
+            FloatVector w = FloatVector.fromArray(FLOAT_SPECIES, params, k);
+            FloatVector gradient = clip(FloatVector.fromArray(FLOAT_SPECIES, gradients, k), scale, min, max)
+                    .add(w.mul(floatL2));
+            FloatVector mk = FloatVector.fromArray(FLOAT_SPECIES, m, k).mul(beta1)
+                    .add(gradient.mul(oneMinusBeta1));
+            FloatVector vk = FloatVector.fromArray(FLOAT_SPECIES, v, k).mul(beta2)
+                    .add(gradient.mul(oneMinusBeta2).mul(gradient));
+            mk.intoArray(m, k);
+            vk.intoArray(v, k);
+            FloatVector step = clip(mk.mul(correction1).mul(rate).div(vk.mul(correction2).sqrt().add(epsilon)),
+                    scale, min, max);
+            w.add(step.sub(w.mul(floatDecay))).intoArray(params, k);
+        }
+        AdamKernels.updateRange(params, gradients, m, v, bound, length, optimizer, clipper, l2, decay);
+    }
+
+    private static DoubleVector clip(DoubleVector values, double scale, double min, double max) {
+        return values.blend(0.0, values.test(VectorOperators.IS_FINITE).not()).mul(scale).min(max).max(min);
+    }
+
+    private static FloatVector clip(FloatVector values, float scale, float min, float max) {
+        return values.blend(0.0f, values.test(VectorOperators.IS_FINITE).not()).mul(scale).min(max).max(min);
+    }
+}
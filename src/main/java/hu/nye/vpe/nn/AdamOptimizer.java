@@ -2,100 +2,201 @@ package hu.nye.vpe.nn;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.List;
 
 /**
  * Adam optimizer.
+ *
+ * <p>The moments are kept in the precision of the layer, flat and row-major like the weights. With
+ * {@link Precision#FLOAT32} they are stored as floats and updated in single precision. The weights are updated by
+ * the fused kernels of {@link AdamKernels}, the bias corrections are kept as running powers of the betas. The weight
+ * decay of the layer is either decoupled, subtracted from the weights after the step, or an L2 term added to the
+ * gradients before the moments (DECOUPLED_WEIGHT_DECAY). The moment getters and setters use double row arrays in
+ * both precisions, the persistence converts through them.</p>
  */
 public class AdamOptimizer implements Serializable {
     private final double learningRate;
     private final double beta1;
     private final double beta2;
     private final double epsilon;
-    private double[][] mmean; // First moving average for weights
-    private double[][] vmean; // Second moving average for weights
+    private final int outputSize;
+    private final int inputSize;
+    private double[] mmean; // First moving average for weights
+    private double[] vmean; // Second moving average for weights
     private double[] mbias; // First moving average for biases
     private double[] vbias; // Second moving average for biases
+    private float[] floatMmean;
+    private float[] floatVmean;
+    private float[] floatMbias;
+    private float[] floatVbias;
+    private final Precision precision;
     private final double lambdaL2;
+    private final boolean decoupledDecay;
+    private final boolean vectorKernels;
     private int iter;
+    private double beta1Power;
+    private double beta2Power;
+    private double beta1Correction;
+    private double beta2Correction;
 
     public AdamOptimizer(int outputSize, int inputSize, double learningRate, double beta1, double beta2, double epsilon, double lambdaL2) {
+        this(outputSize, inputSize, learningRate, beta1, beta2, epsilon, lambdaL2, Precision.DOUBLE);
+    }
+
+    public AdamOptimizer(int outputSize, int inputSize, double learningRate, double beta1, double beta2, double epsilon,
+                         double lambdaL2, Precision precision) {
+        this(outputSize, inputSize, learningRate, beta1, beta2, epsilon, lambdaL2, precision, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param learningRate learning rate
+     *
+     * @param beta1 decay of the first moments
+     *
+     * @param beta2 decay of the second moments
+     *
+     * @param epsilon term added to the root of the second moments
+     *
+     * @param lambdaL2 decoupled decay of the biases
+     *
+     * @param precision precision of the moments
+     *
+     * @param decoupledDecay true to subtract the weight decay after the step, false to add it to the gradients
+     */
+    public AdamOptimizer(int outputSize, int inputSize, double learningRate, double beta1, double beta2, double epsilon,
+                         double lambdaL2, Precision precision, boolean decoupledDecay) {
         this.learningRate = learningRate;
         this.beta1 = beta1;
         this.beta2 = beta2;
         this.epsilon = epsilon;
-        this.mmean = new double[outputSize][inputSize];
-        this.vmean = new double[outputSize][inputSize];
-        this.mbias = new double[outputSize];
-        this.vbias = new double[outputSize];
+        this.outputSize = outputSize;
+        this.inputSize = inputSize;
+        this.precision = precision;
+        if (precision == Precision.FLOAT32) {
+            this.floatMmean = new float[outputSize * inputSize];
+            this.floatVmean = new float[outputSize * inputSize];
+            this.floatMbias = new float[outputSize];
+            this.floatVbias = new float[outputSize];
+        } else {
+            this.mmean = new double[outputSize * inputSize];
+            this.vmean = new double[outputSize * inputSize];
+            this.mbias = new double[outputSize];
+            this.vbias = new double[outputSize];
+        }
         this.lambdaL2 = lambdaL2;
-        this.iter = 0;
+        this.decoupledDecay = decoupledDecay;
+        this.vectorKernels = MatrixKernels.selectVector(outputSize * inputSize);
+        // No step done yet, beta^0
+        this.beta1Power = 1.0;
+        this.beta2Power = 1.0;
     }
 
     /**
      * Update weights.
      *
-     * @param neurons Neurons.
+     * @param weights Row-major weight matrix of the layer, updated in place.
+     *
+     * @param biases Biases of the layer, updated in place.
      *
-     * @param weightGradients Weight gradients.
+     * @param weightGradients Weight gradients, same layout as the weights.
      *
      * @param biasGradients Bias gradients.
+     *
+     * @param clipper Gradient clipper of the layer.
+     *
+     * @param weightDecay L2 weight decay of the layer.
      */
-    public void updateWeights(List<Neuron> neurons, double[][] weightGradients, double[] biasGradients) {
-        iter++;
+    public void updateWeights(double[] weights, double[] biases, double[] weightGradients, double[] biasGradients,
+                              GradientClipper clipper, double weightDecay) {
+        nextStep();
+        double l2 = decoupledDecay ? 0.0 : weightDecay;
+        double decay = decoupledDecay ? weightDecay : 0.0;
+        AdamKernels.update(weights, weightGradients, mmean, vmean, weights.length, this, clipper, l2, decay,
+                vectorKernels);
 
-        double beta1Correction = 1.0 / (1.0 - Math.pow(beta1, iter));
-        double beta2Correction = 1.0 / (1.0 - Math.pow(beta2, iter));
-
-        for (int i = 0; i < neurons.size(); i++) {
-            Neuron neuron = neurons.get(i);
-            double[] weightUpdates = new double[weightGradients[i].length];
-            GradientClipper clipper = neuron.getGradientClipper();
-
-            // Update weights
-            for (int j = 0; j < weightUpdates.length; j++) {
-                double clippedGradient = clipper.clip(weightGradients[i][j]);
-
-                // Momentum update
-                mmean[i][j] = beta1 * mmean[i][j] + (1.0 - beta1) * clippedGradient;
-                // RMSprop update
-                vmean[i][j] = beta2 * vmean[i][j] + (1.0 - beta2) * clippedGradient * clippedGradient;
-                // Bias correction
-                double mhat = mmean[i][j] * beta1Correction;
-                double vhat = vmean[i][j] * beta2Correction;
-
-                if (Double.isNaN(mhat) || Double.isInfinite(mhat)) {
-                    mhat = 0.0;
-                }
-                if (Double.isNaN(vhat) || Double.isInfinite(vhat)) {
-                    vhat = epsilon;
-                }
-
-                // Rewrite weights
-                weightUpdates[j] = clipper.clip(learningRate * mhat / (Math.sqrt(vhat) + epsilon));
-            }
-
-            // Calculate bias update
-            double clippedBiasGradient = clipper.clip(biasGradients[i]);
+        for (int i = 0; i < biases.length; i++) {
+            double clippedBiasGradient = clipper.clip(biasGradients[i]) + l2 * biases[i];
             mbias[i] = beta1 * mbias[i] + (1 - beta1) * clippedBiasGradient;
             vbias[i] = beta2 * vbias[i] + (1 - beta2) * (clippedBiasGradient * clippedBiasGradient);
 
             double mhatBias = mbias[i] * beta1Correction;
             double vhatBias = vbias[i] * beta2Correction;
 
-            if (Double.isNaN(mhatBias) || Double.isInfinite(mhatBias)) {
-                mhatBias = 0.0;
-            }
-            if (Double.isNaN(vhatBias) || Double.isInfinite(vhatBias)) {
-                vhatBias = epsilon;
-            }
-
             double biasUpdate = clipper.clip(learningRate * mhatBias / (Math.sqrt(Math.max(vhatBias, epsilon)) + epsilon)) -
-                    lambdaL2 * neuron.getBias();
-            neuron.updateWeightsWithAdam(weightUpdates, biasUpdate);
+                    lambdaL2 * biases[i];
+            biases[i] += biasUpdate - decay * biases[i];
+        }
+    }
+
+    /**
+     * Update single precision weights, the {@link Precision#FLOAT32} twin of
+     * {@link #updateWeights(double[], double[], double[], double[], GradientClipper, double)}.
+     *
+     * @param weights Row-major weight matrix of the layer, updated in place.
+     *
+     * @param biases Biases of the layer, updated in place.
+     *
+     * @param weightGradients Weight gradients, same layout as the weights.
+     *
+     * @param biasGradients Bias gradients.
+     *
+     * @param clipper Gradient clipper of the layer.
+     *
+     * @param weightDecay L2 weight decay of the layer.
+     */
+    public void updateWeights(float[] weights, float[] biases, float[] weightGradients, float[] biasGradients,
+                              GradientClipper clipper, double weightDecay) {
+        nextStep();
+        double l2 = decoupledDecay ? 0.0 : weightDecay;
+        double decay = decoupledDecay ? weightDecay : 0.0;
+        AdamKernels.update(weights, weightGradients, floatMmean, floatVmean, weights.length, this, clipper, l2, decay,
+                vectorKernels);
+
+        // Single precision arithmetic, mixing in double would convert every operand
+        final float b1 = (float) beta1;
+        final float b2 = (float) beta2;
+        final float eps = (float) epsilon;
+        final float rate = (float) learningRate;
+        final float floatL2 = (float) l2;
+        final float floatDecay = (float) decay;
+        final float floatBeta1Correction = (float) beta1Correction;
+        final float floatBeta2Correction = (float) beta2Correction;
+        for (int i = 0; i < biases.length; i++) {
+            float clippedBiasGradient = clipper.clip(biasGradients[i]) + floatL2 * biases[i];
+            floatMbias[i] = b1 * floatMbias[i] + (1 - b1) * clippedBiasGradient;
+            floatVbias[i] = b2 * floatVbias[i] + (1 - b2) * (clippedBiasGradient * clippedBiasGradient);
+
+            float mhatBias = floatMbias[i] * floatBeta1Correction;
+            float vhatBias = floatVbias[i] * floatBeta2Correction;
+
+            float biasUpdate = clipper.clip(rate * mhatBias / ((float) Math.sqrt(Math.max(vhatBias, eps)) + eps))
+                    - (float) lambdaL2 * biases[i];
+            biases[i] += biasUpdate - floatDecay * biases[i];
         }
     }
 
+    // Bias corrections 1 / (1 - beta^t) of the next step, from the running powers of the betas
+    private void nextStep() {
+        iter++;
+        beta1Power *= beta1;
+        beta2Power *= beta2;
+        beta1Correction = 1.0 / (1.0 - beta1Power);
+        beta2Correction = 1.0 / (1.0 - beta2Power);
+    }
+
+    double getBeta1Correction() {
+        return beta1Correction;
+    }
+
+    double getBeta2Correction() {
+        return beta2Correction;
+    }
+
     public double getLearningRate() {
         return learningRate;
     }
@@ -113,42 +214,116 @@ public class AdamOptimizer implements Serializable {
     }
 
     public double[][] getMmean() {
-        return mmean;
+        return rows(precision == Precision.FLOAT32 ? Precision.widen(floatMmean) : mmean);
     }
 
     public double[][] getVmean() {
-        return vmean;
+        return rows(precision == Precision.FLOAT32 ? Precision.widen(floatVmean) : vmean);
     }
 
     public double[] getMbias() {
-        return mbias;
+        return precision == Precision.FLOAT32 ? Precision.widen(floatMbias) : mbias;
     }
 
     public double[] getVbias() {
-        return vbias;
+        return precision == Precision.FLOAT32 ? Precision.widen(floatVbias) : vbias;
     }
 
     public int getIter() {
         return iter;
     }
 
+    /**
+     * Set the first moments of the weights, rounded to floats in single precision.
+     *
+     * @param mmean first moments, one row per output
+     */
     public void setMmean(double[][] mmean) {
-        this.mmean = mmean;
+        if (precision == Precision.FLOAT32) {
+            this.floatMmean = Precision.narrow(flatten(mmean));
+        } else {
+            this.mmean = flatten(mmean);
+        }
     }
 
+    /**
+     * Set the second moments of the weights, rounded to floats in single precision.
+     *
+     * @param vmean second moments, one row per output
+     */
     public void setVmean(double[][] vmean) {
-        this.vmean = vmean;
+        if (precision == Precision.FLOAT32) {
+            this.floatVmean = Precision.narrow(flatten(vmean));
+        } else {
+            this.vmean = flatten(vmean);
+        }
     }
 
+    /**
+     * Set the first moments of the biases, rounded to floats in single precision.
+     *
+     * @param mbias first moments
+     */
     public void setMbias(double[] mbias) {
-        this.mbias = mbias;
+        if (precision == Precision.FLOAT32) {
+            this.floatMbias = Precision.narrow(mbias);
+        } else {
+            this.mbias = mbias;
+        }
     }
 
+    /**
+     * Set the second moments of the biases, rounded to floats in single precision.
+     *
+     * @param vbias second moments
+     */
     public void setVbias(double[] vbias) {
-        this.vbias = vbias;
+        if (precision == Precision.FLOAT32) {
+            this.floatVbias = Precision.narrow(vbias);
+        } else {
+            this.vbias = vbias;
+        }
     }
 
+    /**
+     * Set the step count, the running powers of the betas are recomputed.
+     *
+     * @param iter number of steps done
+     */
     public void setIter(int iter) {
         this.iter = iter;
+        this.beta1Power = Math.pow(beta1, iter);
+        this.beta2Power = Math.pow(beta2, iter);
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public boolean isDecoupledDecay() {
+        return decoupledDecay;
+    }
+
+    // One row of moments per output
+    private double[][] rows(double[] flat) {
+        double[][] rows = new double[outputSize][];
+        for (int i = 0; i < outputSize; i++) {
+            rows[i] = Arrays.copyOfRange(flat, i * inputSize, (i + 1) * inputSize);
+        }
+        return rows;
+    }
+
+    private double[] flatten(double[][] rows) {
+        if (rows.length != outputSize) {
+            throw new IllegalArgumentException("Moment rows " + rows.length + " do not match the output size " + outputSize);
+        }
+        double[] flat = new double[outputSize * inputSize];
+        for (int i = 0; i < outputSize; i++) {
+            if (rows[i].length != inputSize) {
+                throw new IllegalArgumentException("Moment row " + i + " does not match the input size " + inputSize);
+            }
+            System.arraycopy(rows[i], 0, flat, i * inputSize, inputSize);
+        }
+        return flat;
     }
 }
@@ -121,6 +121,40 @@ public class BatchNormalizer implements Serializable {
         return output;
     }
 
+    /**
+     * Inference normalization of one sample in place, with the running statistics.
+     *
+     * @param values linear outputs of the layer, overwritten with the normalized values
+     */
+    public void normalizeInPlace(double[] values) {
+        for (int i = 0; i < size; i++) {
+            double stdDev = Math.sqrt(runningVariance[i] + epsilon);
+            values[i] = ((values[i] - runningMean[i]) / stdDev) * gamma[i] + beta[i];
+        }
+    }
+
+    /**
+     * Fold the inference normalization into the linear step before it. With {@code s = gamma / sqrt(var + eps)}
+     * every weight row is multiplied by {@code s} and the bias becomes {@code (b - mean) * s + beta}, so the folded
+     * linear step gives the normalized values directly.
+     *
+     * @param weights row-major weights of the layer, one row per feature, folded in place
+     *
+     * @param biases biases of the layer, folded in place
+     *
+     * @param inputSize length of a weight row
+     */
+    public void fold(double[] weights, double[] biases, int inputSize) {
+        for (int i = 0; i < size; i++) {
+            double scale = gamma[i] / Math.sqrt(runningVariance[i] + epsilon);
+            int row = i * inputSize;
+            for (int j = 0; j < inputSize; j++) {
+                weights[row + j] *= scale;
+            }
+            biases[i] = (biases[i] - runningMean[i]) * scale + beta[i];
+        }
+    }
+
     public double[][] forwardBatch(double[][] inputs, boolean isTraining) {
         return isTraining ? forwardBatchTraining(inputs) : forwardBatchInference(inputs);
     }
@@ -309,6 +343,24 @@ public class BatchNormalizer implements Serializable {
         }
     }
 
+    /**
+     * Set the scales of the features, they are otherwise only changed by training.
+     *
+     * @param gamma scale of every feature
+     */
+    void setGamma(double[] gamma) {
+        System.arraycopy(gamma, 0, this.gamma, 0, size);
+    }
+
+    /**
+     * Set the shifts of the features, they are otherwise only changed by training.
+     *
+     * @param beta shift of every feature
+     */
+    void setBeta(double[] beta) {
+        System.arraycopy(beta, 0, this.beta, 0, size);
+    }
+
     public void setLearningRate(double learningRate) {
         this.learningRate = learningRate;
     }
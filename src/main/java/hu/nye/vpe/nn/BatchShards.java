@@ -0,0 +1,188 @@
+package hu.nye.vpe.nn;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+import hu.nye.vpe.GlobalConfig;
+
+/**
+ * Data-parallel execution of the batched layer passes.
+ *
+ * <p>A batch of at least {@code minBatch} rows is split into shards of {@link #SHARD_ROWS} rows, the shards run on
+ * a {@link ForkJoinPool}. Each shard accumulates its gradients into its own buffers, the buffers are summed by
+ * {@link #reduce(double[][], int)} in a fixed pairwise order. The shards depend on the batch size only, so the sums and
+ * the trained weights are the same for every number of threads, a single thread runs the shards one after the
+ * other. Smaller batches are one shard and keep the sequential order of the sums.</p>
+ */
+public final class BatchShards {
+    /**
+     * Rows of one shard.
+     */
+    public static final int SHARD_ROWS = 32;
+
+    private static final BatchShards CONFIGURED = new BatchShards(GlobalConfig.getInstance().getTrainingThreads(),
+            GlobalConfig.getInstance().getParallelMinBatch());
+
+    private final ForkJoinPool pool;
+    private final int threads;
+    private final int minBatch;
+
+    /**
+     * Body of one shard.
+     */
+    @FunctionalInterface
+    public interface ShardBody {
+        /**
+         * Process the rows of one shard.
+         *
+         * @param shard index of the shard
+         *
+         * @param from first row
+         *
+         * @param to end of the rows, exclusive
+         */
+        void run(int shard, int from, int to);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param threads number of threads, 0 or less for the number of processors
+     *
+     * @param minBatch smallest batch that is split into shards
+     */
+    public BatchShards(int threads, int minBatch) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.minBatch = Math.max(minBatch, 2 * SHARD_ROWS);
+        this.pool = this.threads > 1 ? new ForkJoinPool(this.threads) : null;
+    }
+
+    /**
+     * The shards of the configuration, TRAINING_THREADS and PARALLEL_MIN_BATCH, shared by the layers.
+     *
+     * @return shared instance
+     */
+    public static BatchShards configured() {
+        return CONFIGURED;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMinBatch() {
+        return minBatch;
+    }
+
+    /**
+     * Number of shards of a batch.
+     *
+     * @param rows rows of the batch
+     *
+     * @return number of shards, 1 below the threshold
+     */
+    public int shardCount(int rows) {
+        if (rows < minBatch) {
+            return 1;
+        }
+        return (rows + SHARD_ROWS - 1) / SHARD_ROWS;
+    }
+
+    /**
+     * Run the body on every shard of a batch and wait for them.
+     *
+     * @param rows rows of the batch
+     *
+     * @param body shard body
+     */
+    public void forEach(int rows, ShardBody body) {
+        int shards = shardCount(rows);
+        if (shards == 1) {
+            body.run(0, 0, rows);
+            return;
+        }
+        run(shards, shard -> body.run(shard, shard * SHARD_ROWS, Math.min(rows, (shard + 1) * SHARD_ROWS)));
+    }
+
+    /**
+     * Sum the buffers of the shards into the first one, pairwise: 0+1, 2+3, ..., then 0+2, 4+6, ... The pairs of one
+     * level are summed in parallel.
+     *
+     * @param partials buffers of the shards
+     *
+     * @param count number of buffers used, the first ones
+     *
+     * @return the first buffer holding the sum
+     */
+    public double[] reduce(double[][] partials, int count) {
+        for (int stride = 1; stride < count; stride *= 2) {
+            final int step = stride;
+            run((count - step + 2 * step - 1) / (2 * step), pair -> {
+                double[] target = partials[pair * 2 * step];
+                double[] source = partials[pair * 2 * step + step];
+                for (int k = 0; k < target.length; k++) {
+                    target[k] += source[k];
+                }
+            });
+        }
+        return partials[0];
+    }
+
+    /**
+     * Single precision {@link #reduce(double[][], int)}.
+     *
+     * @param partials buffers of the shards
+     *
+     * @param count number of buffers used, the first ones
+     *
+     * @return the first buffer holding the sum
+     */
+    public float[] reduce(float[][] partials, int count) {
+        for (int stride = 1; stride < count; stride *= 2) {
+            final int step = stride;
+            run((count - step + 2 * step - 1) / (2 * step), pair -> {
+                float[] target = partials[pair * 2 * step];
+                float[] source = partials[pair * 2 * step + step];
+                for (int k = 0; k < target.length; k++) {
+                    target[k] += source[k];
+                }
+            });
+        }
+        return partials[0];
+    }
+
+    private void run(int tasks, IntConsumer task) {
+        if (pool == null || tasks == 1) {
+            for (int t = 0; t < tasks; t++) {
+                task.accept(t);
+            }
+            return;
+        }
+        pool.invoke(new Split(task, 0, tasks));
+    }
+
+    // Halves the task range until one task is left
+    private static final class Split extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient IntConsumer task;
+        private final int from;
+        private final int to;
+
+        private Split(IntConsumer task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                task.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Split(task, from, middle), new Split(task, middle, to));
+        }
+    }
+}
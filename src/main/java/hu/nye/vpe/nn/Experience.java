@@ -4,6 +4,9 @@ import java.io.Serializable;
 
 /**
  * Experience play class.
+ *
+ * <p>The states are stored in double, or as floats if created by {@link #of} in {@link Precision#FLOAT32}. The
+ * getters return double arrays in both cases, the float states widened into new arrays.</p>
  */
 public class Experience implements Serializable {
     public final double[] state;
@@ -13,6 +16,9 @@ public class Experience implements Serializable {
     public final double[][] nextPossibleStates;
     public final boolean done;
     public double priority;
+    private final float[] floatState;
+    private final float[] floatNextState;
+    private final float[][] floatNextPossibleStates;
 
     public Experience(double[] state, int[] action, double reward, double[] nextState, double[][] nextPossibleStates,
                       boolean done) {
@@ -23,6 +29,67 @@ public class Experience implements Serializable {
         this.nextPossibleStates = nextPossibleStates;
         this.done = done;
         this.priority = 1.0;
+        this.floatState = null;
+        this.floatNextState = null;
+        this.floatNextPossibleStates = null;
+    }
+
+    private Experience(float[] state, int[] action, double reward, float[] nextState, float[][] nextPossibleStates,
+                       boolean done) {
+        this.state = null;
+        this.action = action;
+        this.reward = reward;
+        this.nextState = null;
+        this.nextPossibleStates = null;
+        this.done = done;
+        this.priority = 1.0;
+        this.floatState = state;
+        this.floatNextState = nextState;
+        this.floatNextPossibleStates = nextPossibleStates;
+    }
+
+    /**
+     * Experience stored in the given precision, the states are rounded to floats in {@link Precision#FLOAT32}.
+     *
+     * @param precision storage precision
+     *
+     * @param state state
+     *
+     * @param action action
+     *
+     * @param reward reward
+     *
+     * @param nextState next state
+     *
+     * @param nextPossibleStates possible next states
+     *
+     * @param done is game over?
+     *
+     * @return experience
+     */
+    public static Experience of(Precision precision, double[] state, int[] action, double reward, double[] nextState,
+                                double[][] nextPossibleStates, boolean done) {
+        if (precision == Precision.FLOAT32) {
+            return new Experience(Precision.narrow(state), action, reward, Precision.narrow(nextState),
+                    Precision.narrow(nextPossibleStates), done);
+        }
+        return new Experience(state, action, reward, nextState, nextPossibleStates, done);
+    }
+
+    public boolean isCompact() {
+        return floatState != null;
+    }
+
+    public double[] getState() {
+        return isCompact() ? Precision.widen(floatState) : state;
+    }
+
+    public double[] getNextState() {
+        return isCompact() ? Precision.widen(floatNextState) : nextState;
+    }
+
+    public double[][] getNextPossibleStates() {
+        return isCompact() ? Precision.widen(floatNextPossibleStates) : nextPossibleStates;
     }
 
     public void setPriority(double priority) {
@@ -0,0 +1,210 @@
+package hu.nye.vpe.nn;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hu.nye.vpe.GlobalConfig;
+
+/**
+ * Immutable inference-only copy of a trained network, made by {@link NeuralNetwork#freeze()}.
+ *
+ * <p>Every layer is reduced to a double weight matrix, a bias vector and an activation kernel resolved once. The
+ * inference batch normalization of a layer (running mean and variance, gamma and beta) is folded into its weights
+ * and biases, and the input normalizer into the weights and biases of the first layer, so a state goes through one
+ * linear step and one activation per layer. There is no dropout, optimizer state, gradient or statistics buffer.
+ * The arrays are copies and never written after the construction, later changes of the source network are not seen.
+ * The single-sample buffers belong to the calling thread, so one frozen network can be shared by many games.</p>
+ */
+public final class FrozenNetwork {
+    private static final double MIN_Q = GlobalConfig.getInstance().getMinQ();
+    private static final double MAX_Q = GlobalConfig.getInstance().getMaxQ();
+    private static final double EPSILON_Q = 1e-6;
+    // Frozen models take their Q-value versions from the bottom of the range, training versions count up from 0
+    private static final AtomicLong FROZEN_VERSIONS = new AtomicLong(Long.MIN_VALUE);
+
+    private final FrozenLayer[] layers;
+    private final int feedDataSize;
+    private final int width;
+    private final long qversion = FROZEN_VERSIONS.getAndIncrement();
+    private final ThreadLocal<InferenceWorkspace> workspaces = ThreadLocal.withInitial(InferenceWorkspace::new);
+
+    FrozenNetwork(List<Layer> sourceLayers, RunningInputNormalizer inputNormalizer) {
+        this.layers = new FrozenLayer[sourceLayers.size()];
+        int maxWidth = 0;
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = new FrozenLayer(sourceLayers.get(i), i == 0 ? inputNormalizer : null);
+            maxWidth = Math.max(maxWidth, layers[i].outputSize);
+        }
+        this.feedDataSize = layers[0].inputSize;
+        this.width = maxWidth;
+    }
+
+    /**
+     * Q-value of one state without allocation, in the buffers of the calling thread.
+     *
+     * @param state state vector, the features start at index 2
+     *
+     * @return Q-value of the state, clamped to the Q-value range
+     */
+    public double predictQValue(double[] state) {
+        InferenceWorkspace workspace = workspaces.get();
+        workspace.ensureCapacity(feedDataSize, width);
+        double[] current = workspace.getInput();
+        System.arraycopy(state, 2, current, 0, feedDataSize);
+        double[] next = workspace.getPing();
+        for (FrozenLayer layer : layers) {
+            layer.infer(current, next);
+            current = next;
+            next = current == workspace.getPing() ? workspace.getPong() : workspace.getPing();
+        }
+        return Math.min(MAX_Q, Math.max(MIN_Q, current[0]));
+    }
+
+    /**
+     * Q-values of states in one batched forward pass.
+     *
+     * @param states state vectors, the features start at index 2
+     *
+     * @return Q-value of each state, clamped to the Q-value range
+     */
+    public double[] predictQValues(double[][] states) {
+        double[][] current = new double[states.length][feedDataSize];
+        for (int b = 0; b < states.length; b++) {
+            System.arraycopy(states[b], 2, current[b], 0, feedDataSize);
+        }
+        for (FrozenLayer layer : layers) {
+            current = layer.forwardBatch(current);
+        }
+        double[] qvalues = new double[states.length];
+        for (int b = 0; b < states.length; b++) {
+            qvalues[b] = Math.min(MAX_Q, Math.max(MIN_Q, current[b][0]));
+        }
+        return qvalues;
+    }
+
+    /**
+     * Greedy action, a random one of the candidates whose Q-value is within 1e-6 of the best.
+     *
+     * @param possibleActions candidate states, the first two values are the column and the rotation
+     *
+     * @return column and rotation of the chosen candidate
+     */
+    public int[] selectAction(double[][] possibleActions) {
+        return greedyAction(possibleActions, predictQValues(possibleActions));
+    }
+
+    /**
+     * Greedy action, reusing Q-values cached in the shared transposition table.
+     *
+     * <p>The weights never change, so the cached Q-values stay valid for the life of the model. The shared table is
+     * not thread-safe, only one game thread may pass state keys.</p>
+     *
+     * @param possibleActions candidate states, the first two values are the column and the rotation
+     *
+     * @param stateKeys state keys of the candidates, or null
+     *
+     * @return column and rotation of the chosen candidate
+     */
+    public int[] selectAction(double[][] possibleActions, long[] stateKeys) {
+        TranspositionTable table = stateKeys != null ? TranspositionTable.getInstance() : null;
+        if (table == null) {
+            return selectAction(possibleActions);
+        }
+        double[] qvalues = new double[possibleActions.length];
+        for (int i = 0; i < possibleActions.length; i++) {
+            qvalues[i] = table.getQValue(stateKeys[i], qversion);
+            if (Double.isNaN(qvalues[i])) {
+                qvalues[i] = predictQValue(possibleActions[i]);
+                table.putQValue(stateKeys[i], qversion, qvalues[i]);
+            }
+        }
+        return greedyAction(possibleActions, qvalues);
+    }
+
+    /**
+     * A random one of the candidates whose Q-value is within 1e-6 of the best.
+     *
+     * @param possibleActions candidate states, the first two values are the column and the rotation
+     *
+     * @param qvalues Q-value of every candidate
+     *
+     * @return column and rotation of the chosen candidate
+     */
+    static int[] greedyAction(double[][] possibleActions, double[] qvalues) {
+        double maxQ = Double.NEGATIVE_INFINITY;
+        for (double qvalue : qvalues) {
+            maxQ = Math.max(maxQ, qvalue);
+        }
+        int ties = 0;
+        for (double qvalue : qvalues) {
+            if (Math.abs(qvalue - maxQ) < EPSILON_Q) {
+                ties++;
+            }
+        }
+        int chosen = ThreadLocalRandom.current().nextInt(ties);
+        for (int i = 0; i < qvalues.length; i++) {
+            if (Math.abs(qvalues[i] - maxQ) < EPSILON_Q && chosen-- == 0) {
+                return new int[]{(int) possibleActions[i][0], (int) possibleActions[i][1]};
+            }
+        }
+        throw new IllegalStateException("No best action among " + qvalues.length + " candidates");
+    }
+
+    /**
+     * Layer sizes, the input size first.
+     *
+     * @return layer sizes
+     */
+    public int[] getLayerSizes() {
+        int[] sizes = new int[layers.length + 1];
+        sizes[0] = feedDataSize;
+        for (int i = 0; i < layers.length; i++) {
+            sizes[i + 1] = layers[i].outputSize;
+        }
+        return sizes;
+    }
+
+    /**
+     * One frozen layer.
+     */
+    private static final class FrozenLayer {
+        private final int inputSize;
+        private final int outputSize;
+        private final double[] weights;
+        private final double[] biases;
+        private final ActivationKernel activationKernel;
+        private final boolean vectorKernels;
+
+        private FrozenLayer(Layer layer, RunningInputNormalizer inputNormalizer) {
+            this.inputSize = layer.getInputSize();
+            this.outputSize = layer.getSize();
+            this.weights = layer.getWeights().clone();
+            this.biases = layer.getBiases().clone();
+            this.activationKernel = layer.getActivation().kernel(layer.getSplitIndex());
+            this.vectorKernels = MatrixKernels.selectVector(inputSize);
+
+            if (inputNormalizer != null) {
+                inputNormalizer.fold(weights, biases, inputSize);
+            }
+            if (layer.isUseBatchNorm()) {
+                layer.getBatchNormalizer().fold(weights, biases, inputSize);
+            }
+        }
+
+        private void infer(double[] inputs, double[] outputs) {
+            MatrixKernels.forward(inputs, weights, biases, inputSize, outputSize, outputs, vectorKernels);
+            activationKernel.apply(outputs, outputs, outputSize);
+        }
+
+        private double[][] forwardBatch(double[][] inputs) {
+            double[][] outputs = new double[inputs.length][outputSize];
+            MatrixKernels.forward(inputs, inputs.length, weights, biases, inputSize, outputSize, outputs,
+                    vectorKernels);
+            for (double[] output : outputs) {
+                activationKernel.apply(output, output, outputSize);
+            }
+            return outputs;
+        }
+    }
+}
@@ -13,6 +13,9 @@ public class GradientClipper implements Serializable {
     private final double maxValue;
     private final double clipNorm;
     private final double gradientScale;
+    private final float floatMinValue;
+    private final float floatMaxValue;
+    private final float floatGradientScale;
     private static final double EPSILON = 1e-5;
 
     public GradientClipper(double minValue, double maxValue, double clipNorm, double gradientScale) {
@@ -20,6 +23,9 @@ public class GradientClipper implements Serializable {
         this.maxValue = maxValue;
         this.clipNorm = clipNorm;
         this.gradientScale = gradientScale;
+        this.floatMinValue = (float) minValue;
+        this.floatMaxValue = (float) maxValue;
+        this.floatGradientScale = (float) gradientScale;
     }
 
     /**
@@ -37,6 +43,21 @@ public class GradientClipper implements Serializable {
         return Math.max(minValue, Math.min(maxValue, scaledGradient));
     }
 
+    /**
+     * Clip gradient in single precision.
+     *
+     * @param gradient Gradient.
+     *
+     * @return Clipped gradient.
+     */
+    public float clip(float gradient) {
+        if (Float.isNaN(gradient) || Float.isInfinite(gradient)) {
+            return 0.0f;
+        }
+        float scaledGradient = gradient * floatGradientScale;
+        return Math.max(floatMinValue, Math.min(floatMaxValue, scaledGradient));
+    }
+
     /**
      * Clip by value.
      *
@@ -85,4 +106,15 @@ public class GradientClipper implements Serializable {
         return clipByValue(gradients);
     }
 
+    public double getMinValue() {
+        return minValue;
+    }
+
+    public double getMaxValue() {
+        return maxValue;
+    }
+
+    public double getGradientScale() {
+        return gradientScale;
+    }
 }
@@ -0,0 +1,43 @@
+package hu.nye.vpe.nn;
+
+/**
+ * Buffers of the allocation-free single-sample inference, one workspace per thread.
+ *
+ * <p>The input buffer holds the feed data of the evaluated state. The two ping-pong buffers hold the layer
+ * outputs: each layer reads one of them and writes the other. The buffers grow to the widest layer and are
+ * reused afterwards.</p>
+ */
+final class InferenceWorkspace {
+    private double[] input = new double[0];
+    private double[] ping = new double[0];
+    private double[] pong = new double[0];
+
+    /**
+     * Grow the buffers if needed.
+     *
+     * @param inputSize size of the feed data
+     *
+     * @param width size of the widest layer
+     */
+    void ensureCapacity(int inputSize, int width) {
+        if (input.length < inputSize) {
+            input = new double[inputSize];
+        }
+        if (ping.length < width) {
+            ping = new double[width];
+            pong = new double[width];
+        }
+    }
+
+    double[] getInput() {
+        return input;
+    }
+
+    double[] getPing() {
+        return ping;
+    }
+
+    double[] getPong() {
+        return pong;
+    }
+}
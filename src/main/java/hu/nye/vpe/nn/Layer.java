@@ -1,6 +1,6 @@
 package hu.nye.vpe.nn;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
@@ -8,33 +8,78 @@ import hu.nye.vpe.GlobalConfig;
 
 /**
  * Layer class.
+ *
+ * <p>The weights are stored in one row-major matrix, the weights of output {@code i} are
+ * {@code weights[i * inputSize .. (i + 1) * inputSize - 1]}, the biases in a separate vector. The neurons returned
+ * by {@link #getNeurons()} are views of the rows.</p>
+ *
+ * <p>A {@link Precision#FLOAT32} layer stores the weights, the biases and the Adam moments as floats and runs the
+ * batched kernels in single precision. Its inputs and outputs are double arrays as in double precision, they are
+ * rounded to floats at the kernels.</p>
  */
 public class Layer {
     private static final double BETA1_MOMENTUM = GlobalConfig.getInstance().getBeta1Momentum();
     private static final double BETA2_RMSPROP = GlobalConfig.getInstance().getBeta2RmsProp();
     private static final double ADAM_MOMENTUM = GlobalConfig.getInstance().getAdamMomentum();
     private static final double BIAS_L2LAMBDA = GlobalConfig.getInstance().getBiasL2Regularization();
-
-    private final List<Neuron> neurons;
+    private static final boolean DECOUPLED_WEIGHT_DECAY = GlobalConfig.getInstance().getDecoupledWeightDecay();
+
+    private final int inputSize;
+    private final int outputSize;
+    private final Precision precision;
+    private final double[] weights;
+    private final double[] biases;
+    private final float[] floatWeights;
+    private final float[] floatBiases;
+    private final boolean vectorKernels;
+    private double lambdaL2;
+    private List<Neuron> neurons;
     private final Activation activation;
+    private final ActivationKernel activationKernel;
     private final GradientClipper gradientClipper;
     private final String name;
     private BatchNormalizer batchNormalizer;
     private double learningRate;
     private final boolean useBatchNorm;
     private double[][] batchOutputs;
+    private double[][] batchPreActivations;
+    private double[][] batchInputs;
+    private float[][] floatBatchInputs;
     private int splitIndex;
     private final AdamOptimizer optimizer;
     private final double dropoutRate;
     private boolean[] dropoutMask;
     private final Random random = new Random();
+    private BatchShards batchShards = BatchShards.configured();
 
 
     public Layer(String name, int inputSize, int outputSize, Activation activation, WeightInitStrategy initStrategy,
                  GradientClipper gradientClipper, double lambdaL2, BatchNormParameters batchNormParameters,
                  double learningRate, double dropoutRate) {
+        this(name, inputSize, outputSize, activation, initStrategy, gradientClipper, lambdaL2, batchNormParameters,
+                learningRate, dropoutRate, Precision.DOUBLE);
+    }
+
+    public Layer(String name, int inputSize, int outputSize, Activation activation, WeightInitStrategy initStrategy,
+                 GradientClipper gradientClipper, double lambdaL2, BatchNormParameters batchNormParameters,
+                 double learningRate, double dropoutRate, Precision precision) {
         this.name = name;
-        this.neurons = new ArrayList<>();
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.precision = precision;
+        if (precision == Precision.FLOAT32) {
+            this.weights = null;
+            this.biases = null;
+            this.floatWeights = new float[outputSize * inputSize];
+            this.floatBiases = new float[outputSize];
+        } else {
+            this.weights = new double[outputSize * inputSize];
+            this.biases = new double[outputSize];
+            this.floatWeights = null;
+            this.floatBiases = null;
+        }
+        this.vectorKernels = MatrixKernels.selectVector(inputSize);
+        this.lambdaL2 = lambdaL2;
         this.activation = activation;
         this.gradientClipper = gradientClipper;
         this.useBatchNorm = batchNormParameters.useBatchNorm;
@@ -42,8 +87,23 @@ public class Layer {
         this.dropoutRate = dropoutRate;
         this.dropoutMask = new boolean[outputSize];
 
+        // The arrays are written directly, neither the overridable setters nor the neuron views may see a partly
+        // built layer
         for (int i = 0; i < outputSize; i++) {
-            neurons.add(new Neuron(inputSize, outputSize, activation, initStrategy, gradientClipper, lambdaL2));
+            double[] row = WeightInitializer.initializeWeights(inputSize, outputSize, initStrategy);
+            double bias = WeightInitializer.initializeBias(initStrategy);
+            for (int j = 0; j < inputSize; j++) {
+                if (precision == Precision.FLOAT32) {
+                    floatWeights[i * inputSize + j] = (float) row[j];
+                } else {
+                    weights[i * inputSize + j] = row[j];
+                }
+            }
+            if (precision == Precision.FLOAT32) {
+                floatBiases[i] = (float) bias;
+            } else {
+                biases[i] = bias;
+            }
         }
 
         int actualBatchSize;
@@ -63,6 +123,7 @@ public class Layer {
         if (activation == Activation.SOFTMAX_SPLIT) {
             this.splitIndex = 12;
         }
+        this.activationKernel = activation.kernel(splitIndex);
 
         this.optimizer = new AdamOptimizer(
                 outputSize,
@@ -71,7 +132,9 @@ public class Layer {
                 BETA1_MOMENTUM,
                 BETA2_RMSPROP,
                 ADAM_MOMENTUM,
-                BIAS_L2LAMBDA
+                BIAS_L2LAMBDA,
+                precision,
+                DECOUPLED_WEIGHT_DECAY
         );
     }
 
@@ -85,26 +148,15 @@ public class Layer {
      * @return outputs
      */
     public double[] forward(double[] inputs, boolean isTraining) {
-        double[] linearOutputs = new double[neurons.size()];
-        for (int i = 0; i < neurons.size(); i++) {
-            linearOutputs[i] = neurons.get(i).linearTransform(inputs);
-        }
+        double[] linearOutputs = new double[outputSize];
+        forwardLinear(inputs, linearOutputs);
 
         if (useBatchNorm) {
             linearOutputs = batchNormalizer.forward(linearOutputs, isTraining);
         }
 
-        double[] activatedOutputs;
-        if (activation == Activation.SOFTMAX) {
-            activatedOutputs = Activation.activate(linearOutputs, activation);
-        } else if (activation == Activation.SOFTMAX_SPLIT) {
-            activatedOutputs = Activation.activate(linearOutputs, activation, splitIndex);
-        } else {
-            activatedOutputs = new double[neurons.size()];
-            for (int i = 0; i < neurons.size(); i++) {
-                activatedOutputs[i] = neurons.get(i).activate(linearOutputs[i]);
-            }
-        }
+        activationKernel.apply(linearOutputs, linearOutputs, outputSize);
+        double[] activatedOutputs = linearOutputs;
 
         // Apply Dropout during training
         if (dropoutRate > 0) {
@@ -124,6 +176,22 @@ public class Layer {
         return activatedOutputs;
     }
 
+    /**
+     * Inference forward pass of one sample into a caller-owned buffer, without allocation. The activation is applied
+     * in place, dropout is not applied.
+     *
+     * @param inputs inputs, at least the input size of the layer
+     *
+     * @param outputs output buffer, at least the size of the layer, must not be the input buffer
+     */
+    public void infer(double[] inputs, double[] outputs) {
+        forwardLinear(inputs, outputs);
+        if (useBatchNorm) {
+            batchNormalizer.normalizeInPlace(outputs);
+        }
+        activationKernel.apply(outputs, outputs, outputSize);
+    }
+
     /**
      * Forward batch.
      *
@@ -134,35 +202,71 @@ public class Layer {
      * @return outputs
      */
     public double[][] forwardBatch(double[][] inputs, boolean isTraining) {
-        int batchSize = inputs.length;
-
-        double[][] linearOutputs = new double[batchSize][neurons.size()];
-        double[][] outputs = new double[batchSize][neurons.size()];
+        double[][] outputs = new double[inputs.length][outputSize];
+        forwardBatch(TrainingWorkspace.Rows.of(inputs), TrainingWorkspace.Rows.of(outputs), inputs.length,
+                isTraining);
+        return outputs;
+    }
 
-        for (int b = 0; b < batchSize; b++) {
-            for (int i = 0; i < neurons.size(); i++) {
-                linearOutputs[b][i] = neurons.get(i).linearTransform(inputs[b]);
+    /**
+     * Forward batch into caller-owned rows, the buffers of a {@link TrainingWorkspace}.
+     *
+     * @param inputRows inputs, the first {@code batchSize} rows are used
+     *
+     * @param outputRows outputs, the first {@code batchSize} rows are overwritten
+     *
+     * @param batchSize rows of the batch
+     *
+     * @param isTraining is training?
+     */
+    void forwardBatch(TrainingWorkspace.Rows inputRows, TrainingWorkspace.Rows outputRows, int batchSize,
+                      boolean isTraining) {
+        double[][] inputs = inputRows.all();
+        double[][] outputs = outputRows.all();
+        // The element-wise derivatives of the backward pass are evaluated at the pre-activations
+        double[][] preActivations = isTraining ? preActivationRows(batchSize) : null;
+
+        // The rows of the shards are written into the shared output rows
+        if (precision == Precision.FLOAT32) {
+            float[][] floatInputs = new float[batchSize][];
+            float[][] floatOutputs = new float[batchSize][outputSize];
+            batchShards.forEach(batchSize, (shard, from, to) -> {
+                for (int b = from; b < to; b++) {
+                    floatInputs[b] = Precision.narrow(inputs[b]);
+                }
+                MatrixKernels.forward(rows(floatInputs, from, to), to - from, floatWeights, floatBiases, inputSize,
+                        outputSize, rows(floatOutputs, from, to), vectorKernels);
+                for (int b = from; b < to; b++) {
+                    Precision.widen(floatOutputs[b], outputs[b]);
+                }
+                if (!useBatchNorm) {
+                    activateRows(outputs, preActivations, from, to);
+                }
+            });
+            if (isTraining) {
+                // A backward pass on the same inputs reuses the rounded rows
+                batchInputs = inputs;
+                floatBatchInputs = floatInputs;
             }
+        } else if (batchShards.shardCount(batchSize) == 1) {
+            // One shard runs without a capturing lambda, a workspace step allocates nothing
+            forwardRows(inputRows, outputRows, preActivations, 0, batchSize);
+        } else {
+            batchShards.forEach(batchSize, (shard, from, to) -> forwardRows(inputRows, outputRows, preActivations,
+                    from, to));
         }
 
         if (useBatchNorm) {
-            linearOutputs = batchNormalizer.forwardBatch(linearOutputs, isTraining);
-        }
-
-        if (activation == Activation.SOFTMAX) {
-            for (int b = 0; b < batchSize; b++) {
-                outputs[b] = Activation.activate(linearOutputs[b], activation);
-            }
-        } else if (activation == Activation.SOFTMAX_SPLIT) {
+            // The normalizer keeps its inputs and outputs for the backward pass and may pad the batch
+            double[][] linearOutputs = new double[batchSize][];
             for (int b = 0; b < batchSize; b++) {
-                outputs[b] = Activation.activate(linearOutputs[b], activation, splitIndex);
+                linearOutputs[b] = outputs[b].clone();
             }
-        } else {
+            double[][] normalized = batchNormalizer.forwardBatch(linearOutputs, isTraining);
             for (int b = 0; b < batchSize; b++) {
-                for (int i = 0; i < neurons.size(); i++) {
-                    outputs[b][i] = neurons.get(i).activate(linearOutputs[b][i]);
-                }
+                System.arraycopy(normalized[b], 0, outputs[b], 0, outputSize);
             }
+            batchShards.forEach(batchSize, (shard, from, to) -> activateRows(outputs, preActivations, from, to));
         }
 
         // Apply Dropout during training
@@ -174,8 +278,8 @@ public class Layer {
                 }
 
                 // Apply mask to each instance in the batch
-                for (int b = 0; b < outputs.length; b++) {
-                    for (int i = 0; i < outputs[b].length; i++) {
+                for (int b = 0; b < batchSize; b++) {
+                    for (int i = 0; i < outputSize; i++) {
                         if (dropoutMask[i]) {
                             // Scale up the outputs that survive dropout by 1/(1-dropoutRate)
                             outputs[b][i] *= (1.0 / (1.0 - dropoutRate));
@@ -190,17 +294,6 @@ public class Layer {
         if (isTraining) {
             this.batchOutputs = outputs;
         }
-
-        return outputs;
-    }
-
-    private void zeroGradients(double[][] weightGradients, double[] biasGradients) {
-        for (int i = 0; i < neurons.size(); i++) {
-            for (int j = 0; j < weightGradients[i].length; j++) {
-                weightGradients[i][j] = 0.0;
-            }
-            biasGradients[i] = 0.0;
-        }
     }
 
     /**
@@ -214,147 +307,306 @@ public class Layer {
      */
     public LayerGradients backwardBatch(double[][] nextLayerDeltas, double[][] inputs) {
         int batchSize = nextLayerDeltas.length;
-        int inputSize = inputs[0].length;
-        int outputSize = neurons.size();
-
         double[][] inputGradients = new double[batchSize][inputSize];
-        double[][] weightGradients = new double[outputSize][inputSize];
-        double[] biasGradients = new double[outputSize];
-
-        zeroGradients(weightGradients, biasGradients);
+        TrainingWorkspace.LayerBuffers buffers = new TrainingWorkspace.LayerBuffers(this, batchSize);
+        backwardBatch(TrainingWorkspace.Rows.of(nextLayerDeltas), TrainingWorkspace.Rows.of(inputs),
+                TrainingWorkspace.Rows.of(inputGradients), buffers, batchSize);
+        double[] weightGradients = precision == Precision.FLOAT32
+                ? Precision.widen(buffers.getFloatWeightPartials()[0]) : buffers.getWeightPartials()[0];
+        return new LayerGradients(inputGradients, weightGradients, buffers.getBiasPartials()[0]);
+    }
 
+    /**
+     * Backward batch in caller-owned buffers, the buffers of a {@link TrainingWorkspace}.
+     *
+     * <p>The rows are processed by the shards of {@link BatchShards}, each shard accumulates the weight and bias
+     * gradients of its rows into its own buffers. The buffers are summed before the one update of the weights.</p>
+     *
+     * @param deltaRows deltas of the outputs, the first {@code batchSize} rows are used
+     *
+     * @param inputRows inputs of the forward pass
+     *
+     * @param inputGradientRows gradients of the inputs, the first {@code batchSize} rows are overwritten, null if
+     *                          they are not needed
+     *
+     * @param buffers scratch buffers of the layer, for at least {@code batchSize} rows
+     *
+     * @param batchSize rows of the batch
+     */
+    void backwardBatch(TrainingWorkspace.Rows deltaRows, TrainingWorkspace.Rows inputRows,
+                       TrainingWorkspace.Rows inputGradientRows, TrainingWorkspace.LayerBuffers buffers,
+                       int batchSize) {
+        double[][] nextLayerDeltas = deltaRows.all();
         if (useBatchNorm) {
-            nextLayerDeltas = batchNormalizer.backwardBatch(nextLayerDeltas);
+            nextLayerDeltas = batchNormalizer.backwardBatch(nextLayerDeltas.length == batchSize ? nextLayerDeltas
+                    : Arrays.copyOf(nextLayerDeltas, batchSize));
         }
 
-        // Batch iteration
-        for (int b = 0; b < batchSize; b++) {
-            double[] derivativeValues = computeActivationDerivatives(b, neurons.size());
-            if (activation == Activation.SOFTMAX || activation == Activation.SOFTMAX_SPLIT) {
-                // Softmax (full Jacobian matrix)
-                processSoftmaxGradients(b, inputSize, outputSize, inputs,
-                        nextLayerDeltas, derivativeValues,
-                        weightGradients, inputGradients);
-            } else {
-                // Other activation gradient calculating
-                processStandardGradients(b, inputSize, outputSize, inputs,
-                        nextLayerDeltas, derivativeValues,
-                        weightGradients, inputGradients, biasGradients);
-            }
+        boolean softmax = activation == Activation.SOFTMAX || activation == Activation.SOFTMAX_SPLIT;
+        int shards = batchShards.shardCount(batchSize);
+        double[][] biasPartials = buffers.getBiasPartials();
+        clear(biasPartials, shards);
+        double[] sampleScales = null;
+        if (dropoutRate > 0) {
+            sampleScales = buffers.getSampleScales();
+            dropoutSampleScales(batchSize, sampleScales);
+        }
 
-            // Apply dropout mask to gradients during backpropagation
-            if (dropoutRate > 0) {
-                for (int i = 0; i < outputSize; i++) {
-                    if (!dropoutMask[i]) {
-                        // Zero out gradients for dropped neurons
-                        for (int j = 0; j < inputSize; j++) {
-                            weightGradients[i][j] = 0.0;
-                        }
-                        biasGradients[i] = 0.0;
-                        inputGradients[b][i] = 0.0;
-                    } else {
-                        // Scale gradients for active neurons
-                        for (int j = 0; j < inputSize; j++) {
-                            weightGradients[i][j] *= (1.0 / (1.0 - dropoutRate));
-                        }
-                        biasGradients[i] *= (1.0 / (1.0 - dropoutRate));
-                        inputGradients[b][i] *= (1.0 / (1.0 - dropoutRate));
-                    }
-                }
-            }
+        if (precision == Precision.FLOAT32) {
+            backwardFloat(nextLayerDeltas, inputRows, inputGradientRows, buffers, batchSize, sampleScales, softmax);
+            return;
         }
 
+        // Input gradients with the deltas of every output, weight and bias gradients with the dropout applied
+        final double[][] deltas = nextLayerDeltas;
+        final double[] scales = sampleScales;
+        double[][] weightPartials = buffers.getWeightPartials();
+        clear(weightPartials, shards);
+        if (shards == 1) {
+            backwardRows(deltas, inputRows, inputGradientRows, buffers, scales, softmax, 0, 0, batchSize);
+        } else {
+            batchShards.forEach(batchSize, (shard, from, to) ->
+                    backwardRows(deltas, inputRows, inputGradientRows, buffers, scales, softmax, shard, from, to));
+        }
+        double[] weightGradients = batchShards.reduce(weightPartials, shards);
+        double[] biasGradients = batchShards.reduce(biasPartials, shards);
+
         // Batch averaging and clipping gradients
-        normalizeAndClipGradients(batchSize, outputSize, inputSize, weightGradients, biasGradients);
+        normalizeAndClipGradients(batchSize, weightGradients, biasGradients);
+
+        // Update weights with adam optimizer
+        optimizer.updateWeights(weights, biases, weightGradients, biasGradients, gradientClipper, lambdaL2);
+    }
+
+    // Forward pass of the rows [from, to) of one shard
+    private void forwardRows(TrainingWorkspace.Rows inputRows, TrainingWorkspace.Rows outputRows,
+                             double[][] preActivations, int from, int to) {
+        MatrixKernels.forward(inputRows.rows(from, to), to - from, weights, biases, inputSize, outputSize,
+                outputRows.rows(from, to), vectorKernels);
+        if (!useBatchNorm) {
+            activateRows(outputRows.all(), preActivations, from, to);
+        }
+    }
+
+    // Input gradients with the deltas of every output, weight and bias gradients of one shard into its own buffers
+    private void backwardRows(double[][] deltas, TrainingWorkspace.Rows inputRows,
+                              TrainingWorkspace.Rows inputGradientRows, TrainingWorkspace.LayerBuffers buffers,
+                              double[] sampleScales, boolean softmax, int shard, int from, int to) {
+        double[][] neuronDeltas = buffers.getNeuronDeltas().rows(from, to);
+        neuronDeltas(deltas, from, to, softmax, neuronDeltas, buffers.getDerivatives(shard));
+        double[][] rowGradients = null;
+        if (inputGradientRows != null) {
+            rowGradients = inputGradientRows.rows(from, to);
+            clear(rowGradients, to - from);
+            MatrixKernels.inputGradient(neuronDeltas, weights, to - from, inputSize, outputSize, rowGradients,
+                    vectorKernels);
+        }
+        double[][] gradientDeltas = neuronDeltas;
+        if (sampleScales != null) {
+            gradientDeltas = buffers.getGradientDeltas().rows(from, to);
+            dropoutDeltas(neuronDeltas, rowGradients, to - from, sampleScales, from, gradientDeltas);
+        }
+        MatrixKernels.weightGradient(gradientDeltas, inputRows.rows(from, to), to - from, inputSize, outputSize,
+                buffers.getWeightPartials()[shard], vectorKernels);
+        sumBiasGradients(gradientDeltas, to - from, buffers.getBiasPartials()[shard]);
+        scaleAndClip(rowGradients, to - from);
+    }
 
-        /*
-        // Súlyok frissítése normál módon
+    // Single precision kernels and update, the deltas and the gradients of the next layer are rounded to floats
+    private void backwardFloat(double[][] nextLayerDeltas, TrainingWorkspace.Rows inputRows,
+                               TrainingWorkspace.Rows inputGradientRows, TrainingWorkspace.LayerBuffers buffers,
+                               int batchSize, double[] sampleScales, boolean softmax) {
+        int shards = batchShards.shardCount(batchSize);
+        float[][] floatInputs = inputRows.all() == batchInputs ? floatBatchInputs : null;
+        float[][] weightPartials = buffers.getFloatWeightPartials();
+        double[][] biasPartials = buffers.getBiasPartials();
+        clear(weightPartials, shards);
+        batchShards.forEach(batchSize, (shard, from, to) -> {
+            int rows = to - from;
+            double[][] neuronDeltas = buffers.getNeuronDeltas().rows(from, to);
+            neuronDeltas(nextLayerDeltas, from, to, softmax, neuronDeltas, buffers.getDerivatives(shard));
+            float[][] floatDeltas = Precision.narrow(neuronDeltas, rows);
+            double[][] rowGradients = null;
+            if (inputGradientRows != null) {
+                float[][] floatRowGradients = new float[rows][inputSize];
+                MatrixKernels.inputGradient(floatDeltas, floatWeights, rows, inputSize, outputSize,
+                        floatRowGradients, vectorKernels);
+                rowGradients = inputGradientRows.rows(from, to);
+                for (int b = 0; b < rows; b++) {
+                    Precision.widen(floatRowGradients[b], rowGradients[b]);
+                }
+            }
+            double[][] gradientDeltas = neuronDeltas;
+            if (sampleScales != null) {
+                gradientDeltas = buffers.getGradientDeltas().rows(from, to);
+                dropoutDeltas(neuronDeltas, rowGradients, rows, sampleScales, from, gradientDeltas);
+                floatDeltas = Precision.narrow(gradientDeltas, rows);
+            }
+            float[][] rowInputs = floatInputs != null ? rows(floatInputs, from, to)
+                    : Precision.narrow(inputRows.rows(from, to), rows);
+            MatrixKernels.weightGradient(floatDeltas, rowInputs, rows, inputSize, outputSize,
+                    weightPartials[shard], vectorKernels);
+            sumBiasGradients(gradientDeltas, rows, biasPartials[shard]);
+            scaleAndClip(rowGradients, rows);
+        });
+        float[] floatWeightGradients = batchShards.reduce(weightPartials, shards);
+        double[] biasGradients = batchShards.reduce(biasPartials, shards);
+
+        for (int k = 0; k < floatWeightGradients.length; k++) {
+            floatWeightGradients[k] = processGradient(floatWeightGradients[k], batchSize);
+        }
         for (int i = 0; i < outputSize; i++) {
-            Neuron neuron = neurons.get(i);
-            neuron.updateWeights(weightGradients[i], biasGradients[i], this.learningRate);
+            biasGradients[i] = processGradient(biasGradients[i], batchSize);
         }
-         */
 
-        // Update weights with adam optimizer
-        optimizer.updateWeights(neurons, weightGradients, biasGradients);
+        optimizer.updateWeights(floatWeights, floatBiases, floatWeightGradients, Precision.narrow(biasGradients),
+                gradientClipper, lambdaL2);
+    }
 
-        // Scale input gradients
-        for (int b = 0; b < batchSize; b++) {
-            inputGradients[b] = gradientClipper.scaleAndClip(inputGradients[b]);
+    // Rows [from, to) of a batch, sharing the row arrays
+    private static <T> T[] rows(T[] batch, int from, int to) {
+        return from == 0 && to == batch.length ? batch : Arrays.copyOfRange(batch, from, to);
+    }
+
+    // Activates the rows in place, keeping a copy of the pre-activations if they are needed
+    private void activateRows(double[][] outputs, double[][] preActivations, int from, int to) {
+        for (int b = from; b < to; b++) {
+            if (preActivations != null) {
+                System.arraycopy(outputs[b], 0, preActivations[b], 0, outputSize);
+            }
+            activationKernel.apply(outputs[b], outputs[b], outputSize);
         }
+    }
 
-        return new LayerGradients(inputGradients, weightGradients, biasGradients);
+    /**
+     * Pre-activation rows of a training batch, grown only for a larger batch. The softmax backward pass works on
+     * the activated outputs, a softmax layer keeps no pre-activations.
+     */
+    private double[][] preActivationRows(int batchSize) {
+        if (activation == Activation.SOFTMAX || activation == Activation.SOFTMAX_SPLIT) {
+            return null;
+        }
+        if (batchPreActivations == null || batchPreActivations.length < batchSize) {
+            batchPreActivations = new double[batchSize][outputSize];
+        }
+        return batchPreActivations;
     }
 
-    // Calculate activation function derivates
-    private double[] computeActivationDerivatives(int batchIndex, int outputSize) {
-        if (activation == Activation.SOFTMAX) {
-            return Activation.derivative(batchOutputs[batchIndex], activation);
-        } else if (activation == Activation.SOFTMAX_SPLIT) {
-            return Activation.derivative(batchOutputs[batchIndex], activation, splitIndex);
+    private void forwardLinear(double[] inputs, double[] outputs) {
+        if (precision == Precision.FLOAT32) {
+            MatrixKernels.forward(inputs, floatWeights, floatBiases, inputSize, outputSize, outputs);
         } else {
-            double[] derivativeValues = new double[outputSize];
+            MatrixKernels.forward(inputs, weights, biases, inputSize, outputSize, outputs, vectorKernels);
+        }
+    }
+
+    private void sumBiasGradients(double[][] gradientDeltas, int rows, double[] biasGradients) {
+        for (int b = 0; b < rows; b++) {
             for (int i = 0; i < outputSize; i++) {
-                derivativeValues[i] = Activation.derivative(
-                        new double[]{batchOutputs[batchIndex][i]}, activation)[0];
+                biasGradients[i] += gradientDeltas[b][i];
             }
-            return derivativeValues;
         }
     }
 
-    // Softmax
-    private void processSoftmaxGradients(int batchIndex, int inputSize, int outputSize,
-                                         double[][] inputs, double[][] nextLayerDeltas,
-                                         double[] derivativeValues, double[][] weightGradients,
-                                         double[][] inputGradients) {
-        // Softmax (full Jacobian matrix)
-        for (int i = 0; i < outputSize; i++) {
-            double neuronDelta = 0;
-            for (int j = 0; j < outputSize; j++) {
-                neuronDelta += nextLayerDeltas[batchIndex][j] *
-                        derivativeValues[j * outputSize + i];
-            }
+    // Scale input gradients
+    private void scaleAndClip(double[][] rowGradients, int rows) {
+        if (rowGradients == null) {
+            return;
+        }
+        for (int b = 0; b < rows; b++) {
+            gradientClipper.scaleAndClip(rowGradients[b]);
+        }
+    }
 
-            double[] weights = neurons.get(i).getWeights();
-            for (int j = 0; j < inputSize; j++) {
-                weightGradients[i][j] += neuronDelta * inputs[batchIndex][j];
-                inputGradients[batchIndex][j] += neuronDelta * weights[j];
+    private static void clear(double[][] buffers, int rows) {
+        for (int b = 0; b < rows; b++) {
+            Arrays.fill(buffers[b], 0.0);
+        }
+    }
+
+    private static void clear(float[][] buffers, int rows) {
+        for (int b = 0; b < rows; b++) {
+            Arrays.fill(buffers[b], 0.0f);
+        }
+    }
+
+    // Deltas of the rows [from, to) through the activation, into the rows of the shard
+    private void neuronDeltas(double[][] nextLayerDeltas, int from, int to, boolean softmax, double[][] neuronDeltas,
+                              double[] derivativeValues) {
+        for (int b = from; b < to; b++) {
+            if (softmax) {
+                // Softmax, the product with the Jacobian without building it
+                activationKernel.backward(null, batchOutputs[b], nextLayerDeltas[b], neuronDeltas[b - from],
+                        outputSize);
+            } else {
+                // Other activation gradient calculating, the derivatives of one row reuse the buffer
+                activationKernel.derivative(batchPreActivations[b], derivativeValues, outputSize);
+                computeStandardDeltas(nextLayerDeltas[b], derivativeValues, neuronDeltas[b - from]);
             }
         }
     }
 
-    // Standard gradients
-    private void processStandardGradients(int batchIndex, int inputSize, int outputSize,
-                                          double[][] inputs, double[][] nextLayerDeltas,
-                                          double[] derivativeValues, double[][] weightGradients,
-                                          double[][] inputGradients, double[] biasGradients) {
+    private void computeStandardDeltas(double[] nextDeltas, double[] derivativeValues, double[] neuronDeltas) {
         for (int i = 0; i < outputSize; i++) {
             // Calculate neuron delta
-            double neuronDelta = nextLayerDeltas[batchIndex][i] * derivativeValues[i];
+            double neuronDelta = nextDeltas[i] * derivativeValues[i];
 
             // Check NaN and Inf
             if (Double.isNaN(neuronDelta) || Double.isInfinite(neuronDelta)) {
                 neuronDelta = 0.0;
             }
-            neuronDelta = gradientClipper.clip(neuronDelta);
+            neuronDeltas[i] = gradientClipper.clip(neuronDelta);
+        }
+    }
 
-            // Accumulate gradients
-            double[] weights = neurons.get(i).getWeights();
-            for (int j = 0; j < inputSize; j++) {
-                weightGradients[i][j] += neuronDelta * inputs[batchIndex][j];
-                inputGradients[batchIndex][j] += neuronDelta * weights[j];
+    /**
+     * Deltas of the weight and bias gradients under dropout, and the dropout mask applied to the input gradients.
+     *
+     * <p>The gradients of the dropped outputs are zero. The accumulated gradients of the kept outputs are scaled
+     * by 1/(1-rate) after every sample, so the delta of a sample is scaled once for itself and once for every later
+     * sample of the batch, see {@link #dropoutSampleScales(int, double[])}. The rows start at row {@code from} of
+     * the batch, the input gradients may be null.</p>
+     */
+    private void dropoutDeltas(double[][] neuronDeltas, double[][] inputGradients, int rows, double[] sampleScales,
+                               int from, double[][] gradientDeltas) {
+        double dropoutScale = 1.0 / (1.0 - dropoutRate);
+        for (int b = 0; b < rows; b++) {
+            double sampleScale = sampleScales[from + b];
+            for (int i = 0; i < outputSize; i++) {
+                gradientDeltas[b][i] = dropoutMask[i] ? neuronDeltas[b][i] * sampleScale : 0.0;
+            }
+        }
+
+        if (inputGradients == null) {
+            return;
+        }
+        for (int b = 0; b < rows; b++) {
+            double[] inputGradient = inputGradients[b];
+            for (int i = 0; i < outputSize; i++) {
+                if (!dropoutMask[i]) {
+                    inputGradient[i] = 0.0;
+                } else {
+                    inputGradient[i] *= dropoutScale;
+                }
             }
-            biasGradients[i] += neuronDelta;
         }
     }
 
-    // Gradient normalizing and clipping
-    private void normalizeAndClipGradients(int batchSize, int outputSize, int inputSize,
-                                           double[][] weightGradients, double[] biasGradients) {
+    // Dropout scale of every sample, computed from the last sample backwards as the accumulation scaled it
+    private void dropoutSampleScales(int batchSize, double[] sampleScales) {
+        double dropoutScale = 1.0 / (1.0 - dropoutRate);
+        double sampleScale = dropoutScale;
+        for (int b = batchSize - 1; b >= 0; b--) {
+            sampleScales[b] = sampleScale;
+            sampleScale *= dropoutScale;
+        }
+    }
+
+    private void normalizeAndClipGradients(int batchSize, double[] weightGradients, double[] biasGradients) {
+        for (int k = 0; k < weightGradients.length; k++) {
+            weightGradients[k] = processGradient(weightGradients[k], batchSize);
+        }
         for (int i = 0; i < outputSize; i++) {
-            for (int j = 0; j < inputSize; j++) {
-                weightGradients[i][j] = processGradient(weightGradients[i][j], batchSize);
-            }
             biasGradients[i] = processGradient(biasGradients[i], batchSize);
         }
     }
@@ -366,16 +618,141 @@ public class Layer {
         return gradientClipper.clip(gradient / batchSize);
     }
 
+    private float processGradient(float gradient, int batchSize) {
+        if (Float.isNaN(gradient) || Float.isInfinite(gradient)) {
+            return 0.0f;
+        }
+        return gradientClipper.clip(gradient / batchSize);
+    }
+
     public int getSize() {
-        return neurons.size();
+        return outputSize;
+    }
+
+    public int getInputSize() {
+        return inputSize;
+    }
+
+    public double getDropoutRate() {
+        return dropoutRate;
+    }
+
+    /**
+     * Weight matrix, row-major, one row per output. The array is the live storage of a double precision layer and
+     * a widened copy of a single precision one.
+     *
+     * @return weights
+     */
+    public double[] getWeights() {
+        return precision == Precision.FLOAT32 ? Precision.widen(floatWeights) : weights;
+    }
+
+    /**
+     * Bias vector, one per output. The array is the live storage of a double precision layer and a widened copy of
+     * a single precision one.
+     *
+     * @return biases
+     */
+    public double[] getBiases() {
+        return precision == Precision.FLOAT32 ? Precision.widen(floatBiases) : biases;
+    }
+
+    /**
+     * Copy of the weights of one output.
+     *
+     * @param index output index
+     *
+     * @return weights, one per input
+     */
+    double[] getWeightRow(int index) {
+        double[] row = new double[inputSize];
+        int offset = index * inputSize;
+        for (int j = 0; j < inputSize; j++) {
+            row[j] = precision == Precision.FLOAT32 ? floatWeights[offset + j] : weights[offset + j];
+        }
+        return row;
+    }
+
+    /**
+     * Overwrite the weights of one output, rounded to floats in single precision.
+     *
+     * @param index output index
+     *
+     * @param row weights, one per input
+     */
+    void setWeightRow(int index, double[] row) {
+        int offset = index * inputSize;
+        for (int j = 0; j < inputSize; j++) {
+            if (precision == Precision.FLOAT32) {
+                floatWeights[offset + j] = (float) row[j];
+            } else {
+                weights[offset + j] = row[j];
+            }
+        }
+    }
+
+    double getBias(int index) {
+        return precision == Precision.FLOAT32 ? floatBiases[index] : biases[index];
+    }
+
+    void setBias(int index, double bias) {
+        if (precision == Precision.FLOAT32) {
+            floatBiases[index] = (float) bias;
+        } else {
+            biases[index] = bias;
+        }
+    }
+
+    public BatchShards getBatchShards() {
+        return batchShards;
+    }
+
+    public void setBatchShards(BatchShards batchShards) {
+        this.batchShards = batchShards;
+    }
+
+    /**
+     * Seed the dropout masks, two layers seeded alike drop the same outputs.
+     *
+     * @param seed seed of the masks
+     */
+    void setDropoutSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    public double getL2() {
+        return lambdaL2;
+    }
+
+    public void setL2(double lambdaL2) {
+        this.lambdaL2 = lambdaL2;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * Neuron views of the rows, created on first use. The list is immutable, so it is safely published to other
+     * threads.
+     *
+     * @return one neuron per output
+     */
     public List<Neuron> getNeurons() {
-        return neurons;
+        List<Neuron> views = neurons;
+        if (views == null) {
+            Neuron[] created = new Neuron[outputSize];
+            for (int i = 0; i < outputSize; i++) {
+                created[i] = new Neuron(this, i);
+            }
+            views = List.of(created);
+            neurons = views;
+        }
+        return views;
     }
 
     public Activation getActivation() {
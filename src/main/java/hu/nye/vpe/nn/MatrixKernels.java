@@ -0,0 +1,415 @@
+package hu.nye.vpe.nn;
+
+/**
+ * Matrix kernels of the dense layers.
+ *
+ * <p>The weights are the row-major matrix of a {@link Layer}, one row of {@code inputSize} weights per output. The
+ * kernels compute the forward pass (X·Wᵀ plus the biases), the weight gradient (Δᵀ·X) and the input gradient (Δ·W)
+ * of a batch. The gradients are accumulated into the given arrays. Every kernel has a double and a float
+ * ({@link Precision#FLOAT32}) overload, and a scalar and a Vector API implementation, as has the int8 forward pass
+ * of {@link QuantizedNetwork}. The vector kernels are selected by {@link #selectVector(int)} when the
+ * {@code jdk.incubator.vector} module is present (started with {@code --add-modules jdk.incubator.vector}) and the
+ * layer is wide enough to fill the lanes.</p>
+ */
+public final class MatrixKernels {
+    /**
+     * Narrowest layer input for which the vector kernels are selected.
+     */
+    public static final int MIN_VECTOR_INPUT = 16;
+    private static final boolean VECTOR_API_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    private static final boolean INT8_VECTOR_AVAILABLE = VECTOR_API_AVAILABLE && int8KernelLoads();
+
+    private MatrixKernels() {
+    }
+
+    public static boolean isVectorApiAvailable() {
+        return VECTOR_API_AVAILABLE;
+    }
+
+    /**
+     * Whether the int8 vector kernel runs, it needs the module and a byte shape of the machine.
+     *
+     * @return true if the int8 forward pass is not the scalar loop
+     */
+    public static boolean isInt8VectorAvailable() {
+        return INT8_VECTOR_AVAILABLE;
+    }
+
+    // The species of the int8 kernel are built when its class is initialized, a failure leaves the scalar loop
+    private static boolean int8KernelLoads() {
+        try {
+            return MatrixKernelsInt8Vector.PARTS > 0;
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Kernel selection by size.
+     *
+     * @param inputSize input size of the layer
+     *
+     * @return true if the vector kernels should be used
+     */
+    public static boolean selectVector(int inputSize) {
+        return VECTOR_API_AVAILABLE && inputSize >= MIN_VECTOR_INPUT;
+    }
+
+    /**
+     * Forward pass of one sample, {@code output = W·input + biases}.
+     *
+     * @param input inputs, at least {@code inputSize} values
+     *
+     * @param weights row-major weights
+     *
+     * @param biases biases
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param output outputs, at least {@code outputSize} values
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void forward(double[] input, double[] weights, double[] biases, int inputSize, int outputSize,
+                               double[] output, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.forward(input, weights, biases, inputSize, outputSize, output);
+            return;
+        }
+        for (int i = 0; i < outputSize; i++) {
+            int row = i * inputSize;
+            double sum = biases[i];
+            for (int j = 0; j < inputSize; j++) {
+                sum += input[j] * weights[row + j];
+            }
+            output[i] = sum;
+        }
+    }
+
+    /**
+     * Forward pass of one sample with single precision parameters, {@code output = W·input + biases}. Used by the
+     * single sample paths of a {@link Precision#FLOAT32} layer, the sums are kept in double and the loop is scalar.
+     *
+     * @param input inputs, at least {@code inputSize} values
+     *
+     * @param weights row-major weights
+     *
+     * @param biases biases
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param output outputs, at least {@code outputSize} values
+     */
+    public static void forward(double[] input, float[] weights, float[] biases, int inputSize, int outputSize,
+                               double[] output) {
+        for (int i = 0; i < outputSize; i++) {
+            int row = i * inputSize;
+            double sum = biases[i];
+            for (int j = 0; j < inputSize; j++) {
+                sum += input[j] * weights[row + j];
+            }
+            output[i] = sum;
+        }
+    }
+
+    /**
+     * Forward pass of one sample in single precision, {@code output = W·input + biases}.
+     *
+     * @param input inputs, at least {@code inputSize} values
+     *
+     * @param weights row-major weights
+     *
+     * @param biases biases
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param output outputs, at least {@code outputSize} values
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void forward(float[] input, float[] weights, float[] biases, int inputSize, int outputSize,
+                               float[] output, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.forward(input, weights, biases, inputSize, outputSize, output);
+            return;
+        }
+        for (int i = 0; i < outputSize; i++) {
+            int row = i * inputSize;
+            float sum = biases[i];
+            for (int j = 0; j < inputSize; j++) {
+                sum += input[j] * weights[row + j];
+            }
+            output[i] = sum;
+        }
+    }
+
+    /**
+     * Int8 forward pass of one sample without biases, {@code output = W·input} with int32 sums. Used by
+     * {@link QuantizedNetwork}, the caller rescales the sums.
+     *
+     * @param input quantized inputs, at least {@code inputSize} values
+     *
+     * @param weights quantized row-major weights
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param output sums, at least {@code outputSize} values
+     *
+     * @param vector use the vector kernel, ignored if the module is not present or the kernel cannot be loaded
+     */
+    public static void forward(byte[] input, byte[] weights, int inputSize, int outputSize, int[] output,
+                               boolean vector) {
+        if (vector && INT8_VECTOR_AVAILABLE) {
+            MatrixKernelsInt8Vector.forward(input, weights, inputSize, outputSize, output);
+            return;
+        }
+        for (int i = 0; i < outputSize; i++) {
+            output[i] = dot(input, weights, i * inputSize, 0, inputSize);
+        }
+    }
+
+    /**
+     * Forward pass of a batch, {@code outputs = inputs·Wᵀ + biases}.
+     *
+     * @param inputs input rows
+     *
+     * @param rows number of rows
+     *
+     * @param weights row-major weights
+     *
+     * @param biases biases
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param outputs output rows
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void forward(double[][] inputs, int rows, double[] weights, double[] biases, int inputSize,
+                               int outputSize, double[][] outputs, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.forward(inputs, rows, weights, biases, inputSize, outputSize, outputs);
+            return;
+        }
+        for (int b = 0; b < rows; b++) {
+            forward(inputs[b], weights, biases, inputSize, outputSize, outputs[b], false);
+        }
+    }
+
+    /**
+     * Forward pass of a batch in single precision, {@code outputs = inputs·Wᵀ + biases}.
+     *
+     * @param inputs input rows
+     *
+     * @param rows number of rows
+     *
+     * @param weights row-major weights
+     *
+     * @param biases biases
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param outputs output rows
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void forward(float[][] inputs, int rows, float[] weights, float[] biases, int inputSize,
+                               int outputSize, float[][] outputs, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.forward(inputs, rows, weights, biases, inputSize, outputSize, outputs);
+            return;
+        }
+        for (int b = 0; b < rows; b++) {
+            forward(inputs[b], weights, biases, inputSize, outputSize, outputs[b], false);
+        }
+    }
+
+    /**
+     * Accumulate the weight gradient of a batch, {@code weightGradients += Δᵀ·inputs}.
+     *
+     * @param deltas output deltas, one row per sample
+     *
+     * @param inputs input rows
+     *
+     * @param rows number of rows
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param weightGradients row-major weight gradients
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void weightGradient(double[][] deltas, double[][] inputs, int rows, int inputSize, int outputSize,
+                                      double[] weightGradients, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.weightGradient(deltas, inputs, rows, inputSize, outputSize, weightGradients);
+            return;
+        }
+        for (int i = 0; i < outputSize; i++) {
+            int row = i * inputSize;
+            for (int b = 0; b < rows; b++) {
+                double delta = deltas[b][i];
+                double[] input = inputs[b];
+                for (int j = 0; j < inputSize; j++) {
+                    weightGradients[row + j] += delta * input[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulate the weight gradient of a batch in single precision, {@code weightGradients += Δᵀ·inputs}.
+     *
+     * @param deltas output deltas, one row per sample
+     *
+     * @param inputs input rows
+     *
+     * @param rows number of rows
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param weightGradients row-major weight gradients
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void weightGradient(float[][] deltas, float[][] inputs, int rows, int inputSize, int outputSize,
+                                      float[] weightGradients, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.weightGradient(deltas, inputs, rows, inputSize, outputSize, weightGradients);
+            return;
+        }
+        for (int i = 0; i < outputSize; i++) {
+            int row = i * inputSize;
+            for (int b = 0; b < rows; b++) {
+                float delta = deltas[b][i];
+                float[] input = inputs[b];
+                for (int j = 0; j < inputSize; j++) {
+                    weightGradients[row + j] += delta * input[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulate the input gradient of a batch, {@code inputGradients += Δ·W}.
+     *
+     * @param deltas output deltas, one row per sample
+     *
+     * @param weights row-major weights
+     *
+     * @param rows number of rows
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param inputGradients input gradient rows
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void inputGradient(double[][] deltas, double[] weights, int rows, int inputSize, int outputSize,
+                                     double[][] inputGradients, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.inputGradient(deltas, weights, rows, inputSize, outputSize, inputGradients);
+            return;
+        }
+        for (int b = 0; b < rows; b++) {
+            double[] delta = deltas[b];
+            double[] inputGradient = inputGradients[b];
+            for (int i = 0; i < outputSize; i++) {
+                double outputDelta = delta[i];
+                int row = i * inputSize;
+                for (int j = 0; j < inputSize; j++) {
+                    inputGradient[j] += outputDelta * weights[row + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Accumulate the input gradient of a batch in single precision, {@code inputGradients += Δ·W}.
+     *
+     * @param deltas output deltas, one row per sample
+     *
+     * @param weights row-major weights
+     *
+     * @param rows number of rows
+     *
+     * @param inputSize input size of the layer
+     *
+     * @param outputSize output size of the layer
+     *
+     * @param inputGradients input gradient rows
+     *
+     * @param vector use the vector kernel, ignored if the module is not present
+     */
+    public static void inputGradient(float[][] deltas, float[] weights, int rows, int inputSize, int outputSize,
+                                     float[][] inputGradients, boolean vector) {
+        if (vector && VECTOR_API_AVAILABLE) {
+            MatrixKernelsVector.inputGradient(deltas, weights, rows, inputSize, outputSize, inputGradients);
+            return;
+        }
+        for (int b = 0; b < rows; b++) {
+            float[] delta = deltas[b];
+            float[] inputGradient = inputGradients[b];
+            for (int i = 0; i < outputSize; i++) {
+                float outputDelta = delta[i];
+                int row = i * inputSize;
+                for (int j = 0; j < inputSize; j++) {
+                    inputGradient[j] += outputDelta * weights[row + j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Scalar dot product of {@code a[from..to)} and the weights starting at {@code offset + from}, the tail loop of
+     * the vector kernels.
+     */
+    static double dot(double[] a, double[] weights, int offset, int from, int to) {
+        double sum = 0.0;
+        for (int j = from; j < to; j++) {
+            sum += a[j] * weights[offset + j];
+        }
+        return sum;
+    }
+
+    /**
+     * Single precision {@link #dot(double[], double[], int, int, int)}.
+     */
+    static float dot(float[] a, float[] weights, int offset, int from, int to) {
+        float sum = 0.0f;
+        for (int j = from; j < to; j++) {
+            sum += a[j] * weights[offset + j];
+        }
+        return sum;
+    }
+
+    /**
+     * Int8 {@link #dot(double[], double[], int, int, int)} with an int32 sum.
+     */
+    static int dot(byte[] a, byte[] weights, int offset, int from, int to) {
+        int sum = 0;
+        for (int j = from; j < to; j++) {
+            sum += a[j] * weights[offset + j];
+        }
+        return sum;
+    }
+}
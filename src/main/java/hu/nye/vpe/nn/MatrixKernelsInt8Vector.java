@@ -0,0 +1,84 @@
+package hu.nye.vpe.nn;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API int8 forward pass of {@link MatrixKernels}, the lanes run along the inputs of the layer.
+ *
+ * <p>The bytes are loaded at least 64 bits at a time, the narrowest byte shape, and widened part by part to int
+ * lanes of the preferred shape, so a 128-bit machine widens each 8 loaded bytes into two int vectors. The forward
+ * pass computes a block of 4 outputs per sweep of the inputs and keeps int sums. Apart from
+ * {@link MatrixKernelsVector}, so a machine without a usable byte shape falls back to the scalar loop of the int8
+ * pass only.</p>
+ */
+final class MatrixKernelsInt8Vector {
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTE_SPECIES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(64, INT_SPECIES.length() * Byte.SIZE)));
+    private static final int BYTE_LANES = BYTE_SPECIES.length();
+
+    /**
+     * Int vectors widened from one byte vector.
+     */
+    static final int PARTS = BYTE_LANES / INT_SPECIES.length();
+
+    private MatrixKernelsInt8Vector() {
+    }
+
+    static void forward(byte[] input, byte[] weights, int inputSize, int outputSize, int[] output) {
+        int bound = BYTE_SPECIES.loopBound(inputSize);
+        int i = 0;
+        for (; i + 3 < outputSize; i += 4) {
+            int row0 = i * inputSize;
+            int row1 = row0 + inputSize;
+            int row2 = row1 + inputSize;
+            int row3 = row2 + inputSize;
+            IntVector acc0 = IntVector.zero(INT_SPECIES);
+            IntVector acc1 = IntVector.zero(INT_SPECIES);
+            IntVector acc2 = IntVector.zero(INT_SPECIES);
+            IntVector acc3 = IntVector.zero(INT_SPECIES);
+            for (int j = 0; j < bound; j += BYTE_LANES) {
+                ByteVector x = ByteVector.fromArray(BYTE_SPECIES, input, j);
+                ByteVector w0 = ByteVector.fromArray(BYTE_SPECIES, weights, row0 + j);
+                ByteVector w1 = ByteVector.fromArray(BYTE_SPECIES, weights, row1 + j);
+                ByteVector w2 = ByteVector.fromArray(BYTE_SPECIES, weights, row2 + j);
+                ByteVector w3 = ByteVector.fromArray(BYTE_SPECIES, weights, row3 + j);
+                for (int part = 0; part < PARTS; part++) {
+                    IntVector xi = widen(x, part);
+                    acc0 = widen(w0, part).mul(xi).add(acc0);
+                    acc1 = widen(w1, part).mul(xi).add(acc1);
+                    acc2 = widen(w2, part).mul(xi).add(acc2);
+                    acc3 = widen(w3, part).mul(xi).add(acc3);
+                }
+            }
+            output[i] = acc0.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row0, bound, inputSize);
+            output[i + 1] = acc1.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row1, bound, inputSize);
+            output[i + 2] = acc2.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row2, bound, inputSize);
+            output[i + 3] = acc3.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row3, bound, inputSize);
+        }
+        for (; i < outputSize; i++) {
+            int row = i * inputSize;
+            IntVector acc = IntVector.zero(INT_SPECIES);
+            for (int j = 0; j < bound; j += BYTE_LANES) {
+                ByteVector x = ByteVector.fromArray(BYTE_SPECIES, input, j);
+                ByteVector w = ByteVector.fromArray(BYTE_SPECIES, weights, row + j);
+                for (int part = 0; part < PARTS; part++) {
+                    acc = widen(w, part).mul(widen(x, part)).add(acc);
+                }
+            }
+            output[i] = acc.reduceLanes(VectorOperators.ADD) + MatrixKernels.dot(input, weights, row, bound, inputSize);
+        }
+    }
+
+    private static IntVector widen(ByteVector values, int part) {
+        return (IntVector) values.convertShape(VectorOperators.B2I, INT_SPECIES, part);
+    }
+}
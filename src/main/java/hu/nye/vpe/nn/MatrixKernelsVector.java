@@ -0,0 +1,440 @@
+package hu.nye.vpe.nn;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernels of {@link MatrixKernels}, the lanes run along the inputs of the layer.
+ *
+ * <p>The kernels are register-tiled. The forward pass computes a block of 2 samples by 4 outputs per sweep of the
+ * inputs, the weight gradient a block of 4 weight rows and the input gradient a block of 4 samples, so every loaded
+ * vector is used several times. The leftover samples, outputs and inputs are handled one by one. Only loaded if
+ * the {@code jdk.incubator.vector} module is present. The single precision kernels are the same with twice the lanes
+ * per vector. The int8 forward pass is in {@link MatrixKernelsInt8Vector}.</p>
+ */
+final class MatrixKernelsVector {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+
+    private MatrixKernelsVector() {
+    }
+
+    static void forward(double[] input, double[] weights, double[] biases, int inputSize, int outputSize,
+                        double[] output) {
+        int bound = SPECIES.loopBound(inputSize);
+        int i = 0;
+        for (; i + 3 < outputSize; i += 4) {
+            int row0 = i * inputSize;
+            int row1 = row0 + inputSize;
+            int row2 = row1 + inputSize;
+            int row3 = row2 + inputSize;
+            DoubleVector acc0 = DoubleVector.zero(SPECIES);
+            DoubleVector acc1 = DoubleVector.zero(SPECIES);
+            DoubleVector acc2 = DoubleVector.zero(SPECIES);
+            DoubleVector acc3 = DoubleVector.zero(SPECIES);
+            for (int j = 0; j < bound; j += LANES) {
+                DoubleVector x = DoubleVector.fromArray(SPECIES, input, j);
+                acc0 = DoubleVector.fromArray(SPECIES, weights, row0 + j).fma(x, acc0);
+                acc1 = DoubleVector.fromArray(SPECIES, weights, row1 + j).fma(x, acc1);
+                acc2 = DoubleVector.fromArray(SPECIES, weights, row2 + j).fma(x, acc2);
+                acc3 = DoubleVector.fromArray(SPECIES, weights, row3 + j).fma(x, acc3);
+            }
+            output[i] = biases[i] + acc0.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row0, bound, inputSize);
+            output[i + 1] = biases[i + 1] + acc1.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row1, bound, inputSize);
+            output[i + 2] = biases[i + 2] + acc2.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row2, bound, inputSize);
+            output[i + 3] = biases[i + 3] + acc3.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row3, bound, inputSize);
+        }
+        for (; i < outputSize; i++) {
+            output[i] = biases[i] + vectorDot(input, weights, i * inputSize, bound, inputSize);
+        }
+    }
+
+    static void forward(float[] input, float[] weights, float[] biases, int inputSize, int outputSize,
+                        float[] output) {
+        int bound = FLOAT_SPECIES.loopBound(inputSize);
+        int i = 0;
+        for (; i + 3 < outputSize; i += 4) {
+            int row0 = i * inputSize;
+            int row1 = row0 + inputSize;
+            int row2 = row1 + inputSize;
+            int row3 = row2 + inputSize;
+            FloatVector acc0 = FloatVector.zero(FLOAT_SPECIES);
+            FloatVector acc1 = FloatVector.zero(FLOAT_SPECIES);
+            FloatVector acc2 = FloatVector.zero(FLOAT_SPECIES);
+            FloatVector acc3 = FloatVector.zero(FLOAT_SPECIES);
+            for (int j = 0; j < bound; j += FLOAT_LANES) {
+                FloatVector x = FloatVector.fromArray(FLOAT_SPECIES, input, j);
+                acc0 = FloatVector.fromArray(FLOAT_SPECIES, weights, row0 + j).fma(x, acc0);
+                acc1 = FloatVector.fromArray(FLOAT_SPECIES, weights, row1 + j).fma(x, acc1);
+                acc2 = FloatVector.fromArray(FLOAT_SPECIES, weights, row2 + j).fma(x, acc2);
+                acc3 = FloatVector.fromArray(FLOAT_SPECIES, weights, row3 + j).fma(x, acc3);
+            }
+            output[i] = biases[i] + acc0.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row0, bound, inputSize);
+            output[i + 1] = biases[i + 1] + acc1.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row1, bound, inputSize);
+            output[i + 2] = biases[i + 2] + acc2.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row2, bound, inputSize);
+            output[i + 3] = biases[i + 3] + acc3.reduceLanes(VectorOperators.ADD)
+                    + MatrixKernels.dot(input, weights, row3, bound, inputSize);
+        }
+        for (; i < outputSize; i++) {
+            output[i] = biases[i] + vectorDot(input, weights, i * inputSize, bound, inputSize);
+        }
+    }
+
+    static void forward(double[][] inputs, int rows, double[] weights, double[] biases, int inputSize,
+                        int outputSize, double[][] outputs) {
+        int bound = SPECIES.loopBound(inputSize);
+        int b = 0;
+        for (; b + 1 < rows; b += 2) {
+            double[] input0 = inputs[b];
+            double[] input1 = inputs[b + 1];
+            double[] output0 = outputs[b];
+            double[] output1 = outputs[b + 1];
+            int i = 0;
+            for (; i + 3 < outputSize; i += 4) {
+                int row0 = i * inputSize;
+                int row1 = row0 + inputSize;
+                int row2 = row1 + inputSize;
+                int row3 = row2 + inputSize;
+                DoubleVector acc00 = DoubleVector.zero(SPECIES);
+                DoubleVector acc01 = DoubleVector.zero(SPECIES);
+                DoubleVector acc02 = DoubleVector.zero(SPECIES);
+                DoubleVector acc03 = DoubleVector.zero(SPECIES);
+                DoubleVector acc10 = DoubleVector.zero(SPECIES);
+                DoubleVector acc11 = DoubleVector.zero(SPECIES);
+                DoubleVector acc12 = DoubleVector.zero(SPECIES);
+                DoubleVector acc13 = DoubleVector.zero(SPECIES);
+                for (int j = 0; j < bound; j += LANES) {
+                    final DoubleVector x0 = DoubleVector.fromArray(SPECIES, input0, j);
+                    final DoubleVector x1 = DoubleVector.fromArray(SPECIES, input1, j);
+                    final DoubleVector w0 = DoubleVector.fromArray(SPECIES, weights, row0 + j);
+                    final DoubleVector w1 = DoubleVector.fromArray(SPECIES, weights, row1 + j);
+                    final DoubleVector w2 = DoubleVector.fromArray(SPECIES, weights, row2 + j);
+                    final DoubleVector w3 = DoubleVector.fromArray(SPECIES, weights, row3 + j);
+                    acc00 = w0.fma(x0, acc00);
+                    acc01 = w1.fma(x0, acc01);
+                    acc02 = w2.fma(x0, acc02);
+                    acc03 = w3.fma(x0, acc03);
+                    acc10 = w0.fma(x1, acc10);
+                    acc11 = w1.fma(x1, acc11);
+                    acc12 = w2.fma(x1, acc12);
+                    acc13 = w3.fma(x1, acc13);
+                }
+                output0[i] = biases[i] + acc00.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row0, bound, inputSize);
+                output0[i + 1] = biases[i + 1] + acc01.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row1, bound, inputSize);
+                output0[i + 2] = biases[i + 2] + acc02.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row2, bound, inputSize);
+                output0[i + 3] = biases[i + 3] + acc03.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row3, bound, inputSize);
+                output1[i] = biases[i] + acc10.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row0, bound, inputSize);
+                output1[i + 1] = biases[i + 1] + acc11.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row1, bound, inputSize);
+                output1[i + 2] = biases[i + 2] + acc12.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row2, bound, inputSize);
+                output1[i + 3] = biases[i + 3] + acc13.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row3, bound, inputSize);
+            }
+            for (; i < outputSize; i++) {
+                output0[i] = biases[i] + vectorDot(input0, weights, i * inputSize, bound, inputSize);
+                output1[i] = biases[i] + vectorDot(input1, weights, i * inputSize, bound, inputSize);
+            }
+        }
+        for (; b < rows; b++) {
+            forward(inputs[b], weights, biases, inputSize, outputSize, outputs[b]);
+        }
+    }
+
+    static void forward(float[][] inputs, int rows, float[] weights, float[] biases, int inputSize,
+                        int outputSize, float[][] outputs) {
+        int bound = FLOAT_SPECIES.loopBound(inputSize);
+        int b = 0;
+        for (; b + 1 < rows; b += 2) {
+            float[] input0 = inputs[b];
+            float[] input1 = inputs[b + 1];
+            float[] output0 = outputs[b];
+            float[] output1 = outputs[b + 1];
+            int i = 0;
+            for (; i + 3 < outputSize; i += 4) {
+                int row0 = i * inputSize;
+                int row1 = row0 + inputSize;
+                int row2 = row1 + inputSize;
+                int row3 = row2 + inputSize;
+                FloatVector acc00 = FloatVector.zero(FLOAT_SPECIES);
+                FloatVector acc01 = FloatVector.zero(FLOAT_SPECIES);
+                FloatVector acc02 = FloatVector.zero(FLOAT_SPECIES);
+                FloatVector acc03 = FloatVector.zero(FLOAT_SPECIES);
+                FloatVector acc10 = FloatVector.zero(FLOAT_SPECIES);
+                FloatVector acc11 = FloatVector.zero(FLOAT_SPECIES);
+                FloatVector acc12 = FloatVector.zero(FLOAT_SPECIES);
+                FloatVector acc13 = FloatVector.zero(FLOAT_SPECIES);
+                for (int j = 0; j < bound; j += FLOAT_LANES) {
+                    final FloatVector x0 = FloatVector.fromArray(FLOAT_SPECIES, input0, j);
+                    final FloatVector x1 = FloatVector.fromArray(FLOAT_SPECIES, input1, j);
+                    final FloatVector w0 = FloatVector.fromArray(FLOAT_SPECIES, weights, row0 + j);
+                    final FloatVector w1 = FloatVector.fromArray(FLOAT_SPECIES, weights, row1 + j);
+                    final FloatVector w2 = FloatVector.fromArray(FLOAT_SPECIES, weights, row2 + j);
+                    final FloatVector w3 = FloatVector.fromArray(FLOAT_SPECIES, weights, row3 + j);
+                    acc00 = w0.fma(x0, acc00);
+                    acc01 = w1.fma(x0, acc01);
+                    acc02 = w2.fma(x0, acc02);
+                    acc03 = w3.fma(x0, acc03);
+                    acc10 = w0.fma(x1, acc10);
+                    acc11 = w1.fma(x1, acc11);
+                    acc12 = w2.fma(x1, acc12);
+                    acc13 = w3.fma(x1, acc13);
+                }
+                output0[i] = biases[i] + acc00.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row0, bound, inputSize);
+                output0[i + 1] = biases[i + 1] + acc01.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row1, bound, inputSize);
+                output0[i + 2] = biases[i + 2] + acc02.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row2, bound, inputSize);
+                output0[i + 3] = biases[i + 3] + acc03.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input0, weights, row3, bound, inputSize);
+                output1[i] = biases[i] + acc10.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row0, bound, inputSize);
+                output1[i + 1] = biases[i + 1] + acc11.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row1, bound, inputSize);
+                output1[i + 2] = biases[i + 2] + acc12.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row2, bound, inputSize);
+                output1[i + 3] = biases[i + 3] + acc13.reduceLanes(VectorOperators.ADD)
+                        + MatrixKernels.dot(input1, weights, row3, bound, inputSize);
+            }
+            for (; i < outputSize; i++) {
+                output0[i] = biases[i] + vectorDot(input0, weights, i * inputSize, bound, inputSize);
+                output1[i] = biases[i] + vectorDot(input1, weights, i * inputSize, bound, inputSize);
+            }
+        }
+        for (; b < rows; b++) {
+            forward(inputs[b], weights, biases, inputSize, outputSize, outputs[b]);
+        }
+    }
+
+    static void weightGradient(double[][] deltas, double[][] inputs, int rows, int inputSize, int outputSize,
+                               double[] weightGradients) {
+        int bound = SPECIES.loopBound(inputSize);
+        int i = 0;
+        for (; i + 3 < outputSize; i += 4) {
+            int row0 = i * inputSize;
+            int row1 = row0 + inputSize;
+            int row2 = row1 + inputSize;
+            int row3 = row2 + inputSize;
+            for (int j = 0; j < bound; j += LANES) {
+                DoubleVector acc0 = DoubleVector.fromArray(SPECIES, weightGradients, row0 + j);
+                DoubleVector acc1 = DoubleVector.fromArray(SPECIES, weightGradients, row1 + j);
+                DoubleVector acc2 = DoubleVector.fromArray(SPECIES, weightGradients, row2 + j);
+                DoubleVector acc3 = DoubleVector.fromArray(SPECIES, weightGradients, row3 + j);
+                for (int b = 0; b < rows; b++) {
+                    double[] delta = deltas[b];
+                    DoubleVector x = DoubleVector.fromArray(SPECIES, inputs[b], j);
+                    acc0 = x.fma(DoubleVector.broadcast(SPECIES, delta[i]), acc0);
+                    acc1 = x.fma(DoubleVector.broadcast(SPECIES, delta[i + 1]), acc1);
+                    acc2 = x.fma(DoubleVector.broadcast(SPECIES, delta[i + 2]), acc2);
+                    acc3 = x.fma(DoubleVector.broadcast(SPECIES, delta[i + 3]), acc3);
+                }
+                acc0.intoArray(weightGradients, row0 + j);
+                acc1.intoArray(weightGradients, row1 + j);
+                acc2.intoArray(weightGradients, row2 + j);
+                acc3.intoArray(weightGradients, row3 + j);
+            }
+        }
+        for (; i < outputSize; i++) {
+            int row = i * inputSize;
+            for (int j = 0; j < bound; j += LANES) {
+                DoubleVector acc = DoubleVector.fromArray(SPECIES, weightGradients, row + j);
+                for (int b = 0; b < rows; b++) {
+                    acc = DoubleVector.fromArray(SPECIES, inputs[b], j).fma(DoubleVector.broadcast(SPECIES, deltas[b][i]), acc);
+                }
+                acc.intoArray(weightGradients, row + j);
+            }
+        }
+        for (int j = bound; j < inputSize; j++) {
+            for (int k = 0; k < outputSize; k++) {
+                double sum = weightGradients[k * inputSize + j];
+                for (int b = 0; b < rows; b++) {
+                    sum += deltas[b][k] * inputs[b][j];
+                }
+                weightGradients[k * inputSize + j] = sum;
+            }
+        }
+    }
+
+    static void weightGradient(float[][] deltas, float[][] inputs, int rows, int inputSize, int outputSize,
+                               float[] weightGradients) {
+        int bound = FLOAT_SPECIES.loopBound(inputSize);
+        int i = 0;
+        for (; i + 3 < outputSize; i += 4) {
+            int row0 = i * inputSize;
+            int row1 = row0 + inputSize;
+            int row2 = row1 + inputSize;
+            int row3 = row2 + inputSize;
+            for (int j = 0; j < bound; j += FLOAT_LANES) {
+                FloatVector acc0 = FloatVector.fromArray(FLOAT_SPECIES, weightGradients, row0 + j);
+                FloatVector acc1 = FloatVector.fromArray(FLOAT_SPECIES, weightGradients, row1 + j);
+                FloatVector acc2 = FloatVector.fromArray(FLOAT_SPECIES, weightGradients, row2 + j);
+                FloatVector acc3 = FloatVector.fromArray(FLOAT_SPECIES, weightGradients, row3 + j);
+                for (int b = 0; b < rows; b++) {
+                    float[] delta = deltas[b];
+                    FloatVector x = FloatVector.fromArray(FLOAT_SPECIES, inputs[b], j);
+                    acc0 = x.fma(FloatVector.broadcast(FLOAT_SPECIES, delta[i]), acc0);
+                    acc1 = x.fma(FloatVector.broadcast(FLOAT_SPECIES, delta[i + 1]), acc1);
+                    acc2 = x.fma(FloatVector.broadcast(FLOAT_SPECIES, delta[i + 2]), acc2);
+                    acc3 = x.fma(FloatVector.broadcast(FLOAT_SPECIES, delta[i + 3]), acc3);
+                }
+                acc0.intoArray(weightGradients, row0 + j);
+                acc1.intoArray(weightGradients, row1 + j);
+                acc2.intoArray(weightGradients, row2 + j);
+                acc3.intoArray(weightGradients, row3 + j);
+            }
+        }
+        for (; i < outputSize; i++) {
+            int row = i * inputSize;
+            for (int j = 0; j < bound; j += FLOAT_LANES) {
+                FloatVector acc = FloatVector.fromArray(FLOAT_SPECIES, weightGradients, row + j);
+                for (int b = 0; b < rows; b++) {
+                    acc = FloatVector.fromArray(FLOAT_SPECIES, inputs[b], j).fma(FloatVector.broadcast(FLOAT_SPECIES, deltas[b][i]), acc);
+                }
+                acc.intoArray(weightGradients, row + j);
+            }
+        }
+        for (int j = bound; j < inputSize; j++) {
+            for (int k = 0; k < outputSize; k++) {
+                float sum = weightGradients[k * inputSize + j];
+                for (int b = 0; b < rows; b++) {
+                    sum += deltas[b][k] * inputs[b][j];
+                }
+                weightGradients[k * inputSize + j] = sum;
+            }
+        }
+    }
+
+    static void inputGradient(double[][] deltas, double[] weights, int rows, int inputSize, int outputSize,
+                              double[][] inputGradients) {
+        int bound = SPECIES.loopBound(inputSize);
+        int b = 0;
+        for (; b + 3 < rows; b += 4) {
+            double[] delta0 = deltas[b];
+            double[] delta1 = deltas[b + 1];
+            double[] delta2 = deltas[b + 2];
+            double[] delta3 = deltas[b + 3];
+            for (int j = 0; j < bound; j += LANES) {
+                DoubleVector acc0 = DoubleVector.fromArray(SPECIES, inputGradients[b], j);
+                DoubleVector acc1 = DoubleVector.fromArray(SPECIES, inputGradients[b + 1], j);
+                DoubleVector acc2 = DoubleVector.fromArray(SPECIES, inputGradients[b + 2], j);
+                DoubleVector acc3 = DoubleVector.fromArray(SPECIES, inputGradients[b + 3], j);
+                for (int i = 0; i < outputSize; i++) {
+                    DoubleVector w = DoubleVector.fromArray(SPECIES, weights, i * inputSize + j);
+                    acc0 = w.fma(DoubleVector.broadcast(SPECIES, delta0[i]), acc0);
+                    acc1 = w.fma(DoubleVector.broadcast(SPECIES, delta1[i]), acc1);
+                    acc2 = w.fma(DoubleVector.broadcast(SPECIES, delta2[i]), acc2);
+                    acc3 = w.fma(DoubleVector.broadcast(SPECIES, delta3[i]), acc3);
+                }
+                acc0.intoArray(inputGradients[b], j);
+                acc1.intoArray(inputGradients[b + 1], j);
+                acc2.intoArray(inputGradients[b + 2], j);
+                acc3.intoArray(inputGradients[b + 3], j);
+            }
+        }
+        for (; b < rows; b++) {
+            double[] delta = deltas[b];
+            for (int j = 0; j < bound; j += LANES) {
+                DoubleVector acc = DoubleVector.fromArray(SPECIES, inputGradients[b], j);
+                for (int i = 0; i < outputSize; i++) {
+                    acc = DoubleVector.fromArray(SPECIES, weights, i * inputSize + j).fma(DoubleVector.broadcast(SPECIES, delta[i]), acc);
+                }
+                acc.intoArray(inputGradients[b], j);
+            }
+        }
+        for (int k = 0; k < rows; k++) {
+            double[] delta = deltas[k];
+            double[] inputGradient = inputGradients[k];
+            for (int j = bound; j < inputSize; j++) {
+                double sum = inputGradient[j];
+                for (int i = 0; i < outputSize; i++) {
+                    sum += delta[i] * weights[i * inputSize + j];
+                }
+                inputGradient[j] = sum;
+            }
+        }
+    }
+
+    static void inputGradient(float[][] deltas, float[] weights, int rows, int inputSize, int outputSize,
+                              float[][] inputGradients) {
+        int bound = FLOAT_SPECIES.loopBound(inputSize);
+        int b = 0;
+        for (; b + 3 < rows; b += 4) {
+            float[] delta0 = deltas[b];
+            float[] delta1 = deltas[b + 1];
+            float[] delta2 = deltas[b + 2];
+            float[] delta3 = deltas[b + 3];
+            for (int j = 0; j < bound; j += FLOAT_LANES) {
+                FloatVector acc0 = FloatVector.fromArray(FLOAT_SPECIES, inputGradients[b], j);
+                FloatVector acc1 = FloatVector.fromArray(FLOAT_SPECIES, inputGradients[b + 1], j);
+                FloatVector acc2 = FloatVector.fromArray(FLOAT_SPECIES, inputGradients[b + 2], j);
+                FloatVector acc3 = FloatVector.fromArray(FLOAT_SPECIES, inputGradients[b + 3], j);
+                for (int i = 0; i < outputSize; i++) {
+                    FloatVector w = FloatVector.fromArray(FLOAT_SPECIES, weights, i * inputSize + j);
+                    acc0 = w.fma(FloatVector.broadcast(FLOAT_SPECIES, delta0[i]), acc0);
+                    acc1 = w.fma(FloatVector.broadcast(FLOAT_SPECIES, delta1[i]), acc1);
+                    acc2 = w.fma(FloatVector.broadcast(FLOAT_SPECIES, delta2[i]), acc2);
+                    acc3 = w.fma(FloatVector.broadcast(FLOAT_SPECIES, delta3[i]), acc3);
+                }
+                acc0.intoArray(inputGradients[b], j);
+                acc1.intoArray(inputGradients[b + 1], j);
+                acc2.intoArray(inputGradients[b + 2], j);
+                acc3.intoArray(inputGradients[b + 3], j);
+            }
+        }
+        for (; b < rows; b++) {
+            float[] delta = deltas[b];
+            for (int j = 0; j < bound; j += FLOAT_LANES) {
+                FloatVector acc = FloatVector.fromArray(FLOAT_SPECIES, inputGradients[b], j);
+                for (int i = 0; i < outputSize; i++) {
+                    acc = FloatVector.fromArray(FLOAT_SPECIES, weights, i * inputSize + j)
+                            .fma(FloatVector.broadcast(FLOAT_SPECIES, delta[i]), acc);
+                }
+                acc.intoArray(inputGradients[b], j);
+            }
+        }
+        for (int k = 0; k < rows; k++) {
+            float[] delta = deltas[k];
+            float[] inputGradient = inputGradients[k];
+            for (int j = bound; j < inputSize; j++) {
+                float sum = inputGradient[j];
+                for (int i = 0; i < outputSize; i++) {
+                    sum += delta[i] * weights[i * inputSize + j];
+                }
+                inputGradient[j] = sum;
+            }
+        }
+    }
+
+    private static double vectorDot(double[] input, double[] weights, int row, int bound, int inputSize) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+        for (int j = 0; j < bound; j += LANES) {
+            acc = DoubleVector.fromArray(SPECIES, weights, row + j).fma(DoubleVector.fromArray(SPECIES, input, j), acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + MatrixKernels.dot(input, weights, row, bound, inputSize);
+    }
+
+    private static float vectorDot(float[] input, float[] weights, int row, int bound, int inputSize) {
+        FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+        for (int j = 0; j < bound; j += FLOAT_LANES) {
+            acc = FloatVector.fromArray(FLOAT_SPECIES, weights, row + j).fma(FloatVector.fromArray(FLOAT_SPECIES, input, j), acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + MatrixKernels.dot(input, weights, row, bound, inputSize);
+    }
+}
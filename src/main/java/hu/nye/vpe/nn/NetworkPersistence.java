@@ -26,9 +26,30 @@ public class NetworkPersistence {
     private final double initalLearningRate;
     private final double initialDiscountFactor;
     private final double initalEpsilon;
+    private final String inputLayout;
 
+    /**
+     * Persistence of networks whose inputs are the given features.
+     *
+     * @param clipMin minimum of the gradient clipping
+     *
+     * @param clipMax maximum of the gradient clipping
+     *
+     * @param clipNorm norm of the gradient clipping
+     *
+     * @param gradientScale gradient scale
+     *
+     * @param initialLearningRate learning rate if the training state has none
+     *
+     * @param initialDiscountFactor discount factor if the training state has none
+     *
+     * @param initialEpsilon epsilon if the training state has none
+     *
+     * @param inputLayout names of the input features in order, saved with the structure and required on loading
+     */
     public NetworkPersistence(double clipMin, double clipMax, double clipNorm, double gradientScale,
-                              double initialLearningRate, double initialDiscountFactor, double initialEpsilon) {
+                              double initialLearningRate, double initialDiscountFactor, double initialEpsilon,
+                              String inputLayout) {
         this.gson = new GsonBuilder()
                 .setPrettyPrinting()
                 .enableComplexMapKeySerialization()
@@ -41,6 +62,7 @@ public class NetworkPersistence {
         this.initalLearningRate = initialLearningRate;
         this.initialDiscountFactor = initialDiscountFactor;
         this.initalEpsilon = initialEpsilon;
+        this.inputLayout = inputLayout;
     }
 
     /**
@@ -63,6 +85,9 @@ public class NetworkPersistence {
 
             layerData.put("name", layer.getName());
             layerData.put("activation", layer.getActivation().toString());
+            if (structureData.isEmpty()) {
+                layerData.put("inputs", inputLayout);
+            }
 
             for (Neuron neuron : neurons) {
                 Map<String, Object> neuronData = new HashMap<>(2);
@@ -99,7 +124,8 @@ public class NetworkPersistence {
     }
 
     /**
-     * Load network structure.
+     * Load network structure. A structure saved with other input features, or without them, is refused and the
+     * network is left unchanged.
      *
      * @param network Network.
      *
@@ -110,6 +136,11 @@ public class NetworkPersistence {
     public void loadNetworkStructure(NeuralNetwork network, String filename) throws IOException {
         try (FileReader reader = new FileReader(filename)) {
             List<Map<String, Object>> structureData = gson.fromJson(reader, List.class);
+            Object savedLayout = structureData.isEmpty() ? null : structureData.get(0).get("inputs");
+            if (!inputLayout.equals(savedLayout)) {
+                throw new IllegalStateException(String.format("%s was saved with the inputs %s, FEED_FEATURES is %s",
+                        filename, savedLayout != null ? savedLayout : "of an unknown layout", inputLayout));
+            }
             loadStructureData(network, structureData);
         }
     }
@@ -171,7 +202,11 @@ public class NetworkPersistence {
 
         // Experience Replay
         if (network.getExperienceReplay() != null) {
-            stateData.put("experiences", network.getExperienceReplay().getExperiences());
+            List<Map<String, Object>> experiences = new ArrayList<>();
+            for (Experience experience : network.getExperienceReplay().getExperiences()) {
+                experiences.add(serializeExperience(experience));
+            }
+            stateData.put("experiences", experiences);
         }
 
         // Adam Optimizer State Saving
@@ -214,6 +249,19 @@ public class NetworkPersistence {
             }
         }
         stateData.put("batchNormStates", batchNormStates);
+
+        // Input normalizer statistics, min and max are infinite before the first update
+        RunningInputNormalizer normalizer = network.getInputNormalizer();
+        if (normalizer != null && normalizer.getCount() > 0) {
+            Map<String, Object> normalizerState = new HashMap<>();
+            normalizerState.put("type", normalizer.getType());
+            normalizerState.put("count", normalizer.getCount());
+            normalizerState.put("mean", normalizer.getMean());
+            normalizerState.put("m2", normalizer.getM2());
+            normalizerState.put("min", normalizer.getMin());
+            normalizerState.put("max", normalizer.getMax());
+            stateData.put("inputNormalizer", normalizerState);
+        }
     }
 
     private void unpackTrainingState(NeuralNetwork network, Map<String, Object> stateData) {
@@ -289,13 +337,30 @@ public class NetworkPersistence {
             }
         }
 
+        // Input normalizer statistics, only if they were collected with the same type
+        Map<String, Object> normalizerState = (Map<String, Object>) stateData.get("inputNormalizer");
+        RunningInputNormalizer normalizer = network.getInputNormalizer();
+        if (normalizerState != null && normalizer != null && normalizer.getType().equals(normalizerState.get("type"))) {
+            double[] mean = convertToDoubleArray((List<Number>) normalizerState.get("mean"));
+            double[] m2 = convertToDoubleArray((List<Number>) normalizerState.get("m2"));
+            double[] min = convertToDoubleArray((List<Number>) normalizerState.get("min"));
+            double[] max = convertToDoubleArray((List<Number>) normalizerState.get("max"));
+            try {
+                if (mean != null && m2 != null && min != null && max != null) {
+                    normalizer.restore(getLongOrDefault(normalizerState, "count", 0L), mean, m2, min, max);
+                }
+            } catch (IllegalArgumentException e) {
+                System.err.println("Warning: Input normalizer statistics not loaded: " + e.getMessage());
+            }
+        }
+
         // Experience Replay
         List<Map<String, Object>> experiences = (List<Map<String, Object>>) stateData.get("experiences");
         if (experiences != null && network.getExperienceReplay() != null) {
             ExperienceReplay experienceReplay = network.getExperienceReplay();
             experienceReplay.clear();
             for (Map<String, Object> expData : experiences) {
-                Experience exp = deserializeExperience(expData);
+                Experience exp = deserializeExperience(expData, network.getPrecision());
                 if (exp != null) {
                     experienceReplay.add(exp);
                 }
@@ -381,8 +446,8 @@ public class NetworkPersistence {
                         l2,
                         batchNormParams,
                         network.getLearningRate(),
-                        0.0 // Ezt javítani kell
-
+                        0.0, // Ezt javítani kell
+                        network.getPrecision()
                 );
 
                 List<Neuron> neurons = layer.getNeurons();
@@ -414,7 +479,20 @@ public class NetworkPersistence {
         }
     }
 
-    private Experience deserializeExperience(Map<String, Object> expData) {
+    // Mindkét pontosságnál double formátum, a float állapotok kiszélesítve
+    private Map<String, Object> serializeExperience(Experience experience) {
+        Map<String, Object> expData = new HashMap<>();
+        expData.put("state", experience.getState());
+        expData.put("action", experience.action);
+        expData.put("reward", experience.reward);
+        expData.put("nextState", experience.getNextState());
+        expData.put("nextPossibleStates", experience.getNextPossibleStates());
+        expData.put("done", experience.done);
+        expData.put("priority", experience.priority);
+        return expData;
+    }
+
+    private Experience deserializeExperience(Map<String, Object> expData, Precision precision) {
         try {
             List<Number> stateList = (List<Number>) expData.get("state");
             List<Number> actionList = (List<Number>) expData.get("action");
@@ -444,7 +522,7 @@ public class NetworkPersistence {
             double reward = ((Number) expData.get("reward")).doubleValue();
             boolean done = (Boolean) expData.get("done");
 
-            return new Experience(state, action, reward, nextState, null, done);
+            return Experience.of(precision, state, action, reward, nextState, null, done);
         } catch (Exception e) {
             System.out.println("Error deserializing experience: " + e.getMessage());
             return null;
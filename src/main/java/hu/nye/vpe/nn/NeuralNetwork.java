@@ -16,6 +16,7 @@ public class NeuralNetwork {
     private static final double CLIP_NORM = GlobalConfig.getInstance().getClipNorm();
     private static final double GRADIENT_SCALE = GlobalConfig.getInstance().getGradientScale();
     private static final double INITIAL_LEARNING_RATE = GlobalConfig.getInstance().getInitialLearningRate();
+    private static final String INPUT_LAYOUT = GlobalConfig.getInstance().getFeedLayout();
     private static final double INITIAL_Q_LEARNING_RATE = GlobalConfig.getInstance().getInitialQLearningRate();
     private static final double Q_LEARNING_RATE_DECAY = GlobalConfig.getInstance().getQLearningRateDecay();
     private static final double MIN_Q_LEARNING_RATE = GlobalConfig.getInstance().getMinQLearningRate();
@@ -29,6 +30,7 @@ public class NeuralNetwork {
     private static final double MIN_EPSILON = GlobalConfig.getInstance().getMinEpsilon();
     private static final double MIN_Q = GlobalConfig.getInstance().getMinQ();
     private static final double MAX_Q = GlobalConfig.getInstance().getMaxQ();
+    private static final double EPSILON_Q = 1e-6;
     private static final int MOVING_AVERAGE_WINDOW = GlobalConfig.getInstance().getMovingAverageWindow();
     private static final Boolean USE_EXPERIENCE = GlobalConfig.getInstance().getUseExperience();
     private static final int EXPERIENCE_REPLAY_CAPACITY = GlobalConfig.getInstance().getExperiebceReplayCapacity();
@@ -38,6 +40,11 @@ public class NeuralNetwork {
     private static final int MINIMUM_BATCH_SIZE = GlobalConfig.getInstance().getMinimumBatchSize();
     private static final int FEED_DATA_SIZE = GlobalConfig.getInstance().getFeedDataSize();
     private static final double DROPOUT_RATE = GlobalConfig.getInstance().getDropoutRate();
+    private static final boolean NORMALIZE_FEED_DATA = GlobalConfig.getInstance().getNormalizeFeedData();
+    private static final String FEED_DATA_NORMALIZER = GlobalConfig.getInstance().getFeedDataNormalizer();
+    // Staged candidate states merged into the input normalizer without a training step in between
+    private static final int NORMALIZER_COMMIT_STATES = 4096;
+    private static final Precision PRECISION = GlobalConfig.getInstance().getPrecision();
 
     private final List<Layer> layers;
     private double learningRate;
@@ -55,8 +62,12 @@ public class NeuralNetwork {
     private double movingAverage;
     private double maxMovingAverage;
     private final ExperienceReplay experienceReplay;
+    private final RunningInputNormalizer inputNormalizer;
     private final List<double[]> inputBatch;
     private final List<double[]> targetBatch;
+    private final List<Experience> experienceSamples;
+    private final List<double[]> sampleStates;
+    private final List<double[][]> sampleNextStates;
     private double rms;
     private double maxRms;
     private final double[] layerMins;
@@ -67,6 +78,10 @@ public class NeuralNetwork {
     private double[][][] previousWeights;
     int learnCounter = 0;
     private double averageDelta;
+    private long weightVersion;
+    private final ThreadLocal<InferenceWorkspace> workspaces = ThreadLocal.withInitial(InferenceWorkspace::new);
+    private TrainingWorkspace trainingWorkspace;
+    private TargetWorkspace targetWorkspace;
 
     private final double[] historicalLayerMins;
     private final double[] historicalLayerMaxs;
@@ -80,7 +95,7 @@ public class NeuralNetwork {
 
         this.persistence = new NetworkPersistence(
                 CLIP_MIN, CLIP_MAX, CLIP_NORM, GRADIENT_SCALE,
-                INITIAL_LEARNING_RATE, INITIAL_DISCOUNT_FACTOR, INITIAL_EPSILON
+                INITIAL_LEARNING_RATE, INITIAL_DISCOUNT_FACTOR, INITIAL_EPSILON, INPUT_LAYOUT
         );
 
         if (layerSizes.length != activations.length + 1 ||
@@ -108,7 +123,7 @@ public class NeuralNetwork {
             }
 
             layers.add(new Layer(names[i], inputSize, outputSize, activations[i], initStrategies[i],
-                    gradientClipper, l2[i], batchNormParameters[i], learningRate, dropoutRate));
+                    gradientClipper, l2[i], batchNormParameters[i], learningRate, dropoutRate, PRECISION));
         }
 
         this.discountFactor = INITIAL_DISCOUNT_FACTOR;
@@ -119,8 +134,12 @@ public class NeuralNetwork {
         this.movingAverage = Double.NEGATIVE_INFINITY;
         this.random = new Random();
         this.experienceReplay = new ExperienceReplay(EXPERIENCE_REPLAY_CAPACITY);
+        this.inputNormalizer = NORMALIZE_FEED_DATA ? new RunningInputNormalizer(FEED_DATA_SIZE, FEED_DATA_NORMALIZER) : null;
         this.inputBatch = new ArrayList<>();
         this.targetBatch = new ArrayList<>();
+        this.experienceSamples = new ArrayList<>();
+        this.sampleStates = new ArrayList<>();
+        this.sampleNextStates = new ArrayList<>();
         this.layerMins = new double[layerSizes.length];
         this.layerMaxs = new double[layerSizes.length];
         this.layerMeans = new double[layerSizes.length];
@@ -154,6 +173,7 @@ public class NeuralNetwork {
 
     public void loadNetworkStructure(String filename) throws IOException {
         persistence.loadNetworkStructure(this, filename);
+        weightVersion++;
     }
 
     /**
@@ -188,21 +208,22 @@ public class NeuralNetwork {
         return currentInput;
     }
 
-    private void backwardPass(double[][] batchInputs, double[][] batchTargets) {
-        // Forward pass és minden réteg kimenetének tárolása
-        List<double[][]> allLayerOutputs = new ArrayList<>();
-        double[][] currentInputs = batchInputs;
-        allLayerOutputs.add(currentInputs); // Input réteg kimenetek
+    private void backwardPass(List<double[]> batchInputs, List<double[]> batchTargets) {
+        int batchSize = batchInputs.size();
+        TrainingWorkspace workspace = trainingWorkspace(batchSize);
 
-        for (Layer layer : layers) {
-            currentInputs = layer.forwardBatch(currentInputs, true);
-            allLayerOutputs.add(currentInputs);
+        // Forward pass, minden réteg kimenete a munkaterület soraiba
+        double[][] inputs = workspace.getActivations(0).all();
+        for (int b = 0; b < batchSize; b++) {
+            System.arraycopy(batchInputs.get(b), 0, inputs[b], 0, inputs[b].length);
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).forwardBatch(workspace.getActivations(i), workspace.getActivations(i + 1), batchSize, true);
         }
 
         // Kezdeti értékek számítása az utolsó rétegre
-        int batchSize = batchInputs.length;
-        double[][] deltas = new double[batchSize][layers.get(layers.size() - 1).getSize()];
-        double[][] finalLayerOutput = allLayerOutputs.get(allLayerOutputs.size() - 1);
+        double[][] deltas = workspace.getGradients(layers.size()).all();
+        double[][] finalLayerOutput = workspace.getActivations(layers.size()).all();
 
         /*
         // Gradiens számítás
@@ -225,7 +246,7 @@ public class NeuralNetwork {
         for (int i = 0; i < batchSize; i++) {
             for (int j = 0; j < deltas[i].length; j++) {
                 // dE/dy = 2(y - t) ahol E = MSE, y = predikció, t = target
-                deltas[i][j] = 2.0 * (batchTargets[i][j] - finalLayerOutput[i][j]);
+                deltas[i][j] = 2.0 * (batchTargets.get(i)[j] - finalLayerOutput[i][j]);
                 if (Double.isNaN(deltas[i][j]) || Double.isInfinite(deltas[i][j])) {
                     deltas[i][j] = 0.0;
                 }
@@ -234,14 +255,45 @@ public class NeuralNetwork {
         }
         averageDelta = totalDelta / (batchSize * deltas[0].length);
 
-        // Backpropagation rétegenként
+        // Backpropagation rétegenként, az első réteg bemeneti gradiensére nincs szükség
         for (int i = layers.size() - 1; i >= 0; i--) {
-            Layer currentLayer = layers.get(i);
-            LayerGradients gradients = currentLayer.backwardBatch(deltas, allLayerOutputs.get(i));
-            deltas = gradients.inputGradients;
+            layers.get(i).backwardBatch(workspace.getGradients(i + 1), workspace.getActivations(i),
+                    i > 0 ? workspace.getGradients(i) : null, workspace.getLayerBuffers(i), batchSize);
         }
     }
 
+    /**
+     * One gradient step on a batch, in the training workspace of the network. The workspace is built by the first
+     * step, the later steps of at most as many rows allocate nothing in double precision without batch
+     * normalization. The states staged in the input normalizer are committed with the step.
+     *
+     * @param inputs feed data rows, already normalized
+     *
+     * @param targets target rows, one value per output
+     */
+    public void trainBatch(List<double[]> inputs, List<double[]> targets) {
+        backwardPass(inputs, targets);
+        if (inputNormalizer != null) {
+            inputNormalizer.commit();
+        }
+        weightVersion++;
+    }
+
+    /**
+     * Training workspace for a batch, built for the largest batch of the configuration and rebuilt only if a larger
+     * batch comes or the shards of the layers change.
+     */
+    private TrainingWorkspace trainingWorkspace(int batchSize) {
+        if (trainingWorkspace == null || !trainingWorkspace.fits(layers, batchSize)) {
+            int maxBatch = Math.max(batchSize, Math.max(EXPERIENCE_BATCH_SIZE, MINIMUM_BATCH_SIZE));
+            if (trainingWorkspace != null) {
+                maxBatch = Math.max(maxBatch, trainingWorkspace.getMaxBatch());
+            }
+            trainingWorkspace = new TrainingWorkspace(layers, maxBatch);
+        }
+        return trainingWorkspace;
+    }
+
     /**
      * Select action from network.
      *
@@ -250,6 +302,20 @@ public class NeuralNetwork {
      * @return action
      */
     public int[] selectAction(double[][] possibleActions) {
+        return selectAction(possibleActions, null);
+    }
+
+    /**
+     * Select action from network, reusing Q-values cached in the transposition table.
+     *
+     * @param possibleActions metric datas
+     *
+     * @param stateKeys state keys of the possible actions, or null
+     *
+     * @return action
+     */
+    public int[] selectAction(double[][] possibleActions, long[] stateKeys) {
+        observeInputs(possibleActions);
         if (random.nextDouble() < epsilon) {
             // Random választás a lehetséges akciókból
             int randomIndex = random.nextInt(possibleActions.length);
@@ -258,29 +324,57 @@ public class NeuralNetwork {
                     (int) possibleActions[randomIndex][1]   // Forgatás
             };
         } else {
-            double[] qvalues = new double[possibleActions.length];
-            double maxQ = Double.NEGATIVE_INFINITY;
-
-            // Q-értékek számítása a metrikából
-            for (int i = 0; i < possibleActions.length; i++) {
-                double[] metrics = copyToFeedDataSize(possibleActions[i]);
-                //qvalues[i] = forward(metrics, false)[0];
-                qvalues[i] = Math.min(MAX_Q, Math.max(MIN_Q, forward(metrics, false)[0]));
-                maxQ = Math.max(maxQ, qvalues[i]);
+            int candidateCount = possibleActions.length;
+            double[] qvalues = new double[candidateCount];
+            int[] batchRows = new int[candidateCount];
+            int batchSize = 0;
+
+            // Q-értékek a transzpozíciós táblából, a hiányzók egy kötegbe gyűjtve
+            TranspositionTable table = stateKeys != null ? TranspositionTable.getInstance() : null;
+            for (int i = 0; i < candidateCount; i++) {
+                qvalues[i] = table != null ? table.getQValue(stateKeys[i], weightVersion) : Double.NaN;
+                batchRows[i] = Double.isNaN(qvalues[i]) ? batchSize++ : -1;
             }
 
-            // Összes legjobb akció összegyűjtése
-            List<Integer> bestActions = new ArrayList<>();
-            final double EPSILON_Q = 1e-6;
-
-            for (int i = 0; i < qvalues.length; i++) {
-                if (Math.abs(qvalues[i] - maxQ) < EPSILON_Q) {
-                    bestActions.add(i);
+            // A hiányzó Q-értékek számítása egyetlen kötegelt forward lépéssel
+            double[][][] batchActivations = null;
+            if (batchSize > 0) {
+                double[][] inputs = new double[batchSize][];
+                for (int i = 0; i < candidateCount; i++) {
+                    if (batchRows[i] >= 0) {
+                        inputs[batchRows[i]] = copyToFeedDataSize(possibleActions[i]);
+                    }
+                }
+                batchActivations = forwardBatchInference(inputs);
+                double[][] outputs = batchActivations[batchActivations.length - 1];
+                for (int i = 0; i < candidateCount; i++) {
+                    if (batchRows[i] >= 0) {
+                        qvalues[i] = Math.min(MAX_Q, Math.max(MIN_Q, outputs[batchRows[i]][0]));
+                        if (table != null) {
+                            table.putQValue(stateKeys[i], weightVersion, qvalues[i]);
+                        }
+                    }
                 }
             }
 
+            double maxQ = Double.NEGATIVE_INFINITY;
+            for (double qvalue : qvalues) {
+                maxQ = Math.max(maxQ, qvalue);
+            }
+
             // Véletlenszerű választás a legjobb akciók közül
-            int bestActionIndex = bestActions.get(random.nextInt(bestActions.size()));
+            int bestActionIndex = selectBestAction(qvalues, maxQ);
+            // A cached Q-value has no activations, the chosen state is run through the network alone
+            int activationRow = batchRows[bestActionIndex];
+            if (activationRow < 0) {
+                batchActivations = forwardBatchInference(new double[][]{copyToFeedDataSize(
+                        possibleActions[bestActionIndex])});
+                activationRow = 0;
+            }
+            lastActivations = new double[batchActivations.length][];
+            for (int i = 0; i < batchActivations.length; i++) {
+                lastActivations[i] = batchActivations[i][activationRow];
+            }
             return new int[]{
                     (int) possibleActions[bestActionIndex][0],  // X koordináta
                     (int) possibleActions[bestActionIndex][1]   // Forgatás
@@ -288,6 +382,110 @@ public class NeuralNetwork {
         }
     }
 
+    /**
+     * Q-value of one state without allocation. The layers run in the ping-pong buffers of the calling thread.
+     *
+     * @param state state vector, the features start at index 2
+     *
+     * @return Q-value of the state, clamped to the Q-value range
+     */
+    public double predictQValue(double[] state) {
+        int width = 0;
+        for (int i = 0; i < layers.size(); i++) {
+            width = Math.max(width, layers.get(i).getSize());
+        }
+        InferenceWorkspace workspace = workspaces.get();
+        workspace.ensureCapacity(FEED_DATA_SIZE, width);
+
+        double[] current = workspace.getInput();
+        System.arraycopy(state, 2, current, 0, FEED_DATA_SIZE);
+        if (inputNormalizer != null) {
+            inputNormalizer.apply(current);
+        }
+        double[] next = workspace.getPing();
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).infer(current, next);
+            current = next;
+            next = current == workspace.getPing() ? workspace.getPong() : workspace.getPing();
+        }
+        return Math.min(MAX_Q, Math.max(MIN_Q, current[0]));
+    }
+
+    /**
+     * Q-values of states in one batched forward pass.
+     *
+     * @param states state vectors, the features start at index 2
+     *
+     * @return Q-value of each state, clamped to the Q-value range
+     */
+    public double[] predictQValues(double[][] states) {
+        double[][] inputs = new double[states.length][];
+        for (int i = 0; i < states.length; i++) {
+            inputs[i] = copyToFeedDataSize(states[i]);
+        }
+        return predict(inputs);
+    }
+
+    /**
+     * Immutable inference-only copy of the current network, with the batch normalization and the input normalizer
+     * folded into the weights. Thread-safe, can be shared by many games.
+     *
+     * @return frozen network
+     */
+    public FrozenNetwork freeze() {
+        return new FrozenNetwork(layers, inputNormalizer);
+    }
+
+    /**
+     * Clamped Q-values of a feed data matrix in one batched forward pass.
+     */
+    private double[] predict(double[][] inputs) {
+        double[] qvalues = new double[inputs.length];
+        if (inputs.length == 0) {
+            return qvalues;
+        }
+        double[][][] activations = forwardBatchInference(inputs);
+        double[][] outputs = activations[activations.length - 1];
+        for (int i = 0; i < inputs.length; i++) {
+            qvalues[i] = Math.min(MAX_Q, Math.max(MIN_Q, outputs[i][0]));
+        }
+        return qvalues;
+    }
+
+    /**
+     * Inference forward pass of a batch, every layer processes all rows at once.
+     *
+     * @return the inputs and the outputs of every layer
+     */
+    private double[][][] forwardBatchInference(double[][] inputs) {
+        double[][][] activations = new double[layers.size() + 1][][];
+        activations[0] = inputs;
+        for (int i = 0; i < layers.size(); i++) {
+            activations[i + 1] = layers.get(i).forwardBatch(activations[i], false);
+        }
+        return activations;
+    }
+
+    /**
+     * Random one of the actions whose Q-value is within EPSILON_Q of the maximum. The ties are counted first and
+     * the chosen one is looked up in a second pass.
+     */
+    private int selectBestAction(double[] qvalues, double maxQ) {
+        int ties = 0;
+        for (double qvalue : qvalues) {
+            if (Math.abs(qvalue - maxQ) < EPSILON_Q) {
+                ties++;
+            }
+        }
+        int chosen = random.nextInt(ties);
+        for (int i = 0; i < qvalues.length; i++) {
+            if (Math.abs(qvalues[i] - maxQ) < EPSILON_Q && chosen-- == 0) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("No best action among " + qvalues.length + " candidates");
+    }
+
     /**
      * Learn method.
      *
@@ -322,7 +520,7 @@ public class NeuralNetwork {
 
     private void learnWithExperinece(double[] state, int[] action, double reward, double[] nextState, boolean gameOver,
                                      double[][] nextPossibleStates) {
-        Experience experience = new Experience(state, action, reward, nextState, nextPossibleStates, gameOver);
+        Experience experience = Experience.of(PRECISION, state, action, reward, nextState, nextPossibleStates, gameOver);
         experienceReplay.add(experience);
         if (experienceReplay.size() >= EXPERIENCE_BATCH_SIZE) {
             List<Experience> batch = experienceReplay.sample(EXPERIENCE_BATCH_SIZE);
@@ -332,8 +530,7 @@ public class NeuralNetwork {
 
     private void learnWithoutExperience(double[] state, double reward, boolean gameOver, double[][] nextPossibleStates) {
         double maxNextQ = calculateMaxNextQ(nextPossibleStates, gameOver);
-        double currentQ = forward(copyToFeedDataSize(state), false)[0];
-        currentQ = Math.min(MAX_Q, Math.max(MIN_Q, currentQ));
+        double currentQ = predictQValue(state);
 
         double targetQ = calculateTargetQ(reward, maxNextQ, currentQ, gameOver);
         maxQ = Math.max(targetQ, maxQ);
@@ -356,27 +553,94 @@ public class NeuralNetwork {
     private void processBatchWithExperience(List<Experience> batch) {
         inputBatch.clear();
         targetBatch.clear();
+        experienceSamples.clear();
+        sampleStates.clear();
+        sampleNextStates.clear();
+        int nextStateCount = 0;
         for (Experience exp : batch) {
-            if (exp == null || exp.state == null || exp.action == null ||
+            if (exp == null || exp.action == null ||
                     exp.action[0] < 0 || exp.action[0] >= X_COORD_OUTPUTS ||
                     exp.action[1] < 0 || exp.action[1] >= ROTATION_OUTPUTS) {
                 continue;
             }
-            double[] stateMetrics = copyToFeedDataSize(exp.state);
-            double currentQ = forward(stateMetrics, false)[0];
-            currentQ = Math.min(MAX_Q, Math.max(MIN_Q, currentQ));
-            double maxNextQ = calculateMaxNextQ(exp.nextPossibleStates, exp.done);
+            double[] state = exp.getState();
+            if (state == null) {
+                continue;
+            }
+            double[][] nextPossibleStates = exp.getNextPossibleStates();
+            experienceSamples.add(exp);
+            sampleStates.add(state);
+            sampleNextStates.add(nextPossibleStates);
+            nextStateCount += countNextStates(nextPossibleStates, exp.done);
+        }
+
+        // Az aktuális állapotok és az összes következő állapot a munkaterület soraiba
+        int sampleCount = experienceSamples.size();
+        if (targetWorkspace == null) {
+            targetWorkspace = new TargetWorkspace(layers);
+        }
+        TargetWorkspace workspace = targetWorkspace;
+        workspace.ensureCapacity(sampleCount, Math.max(sampleCount, nextStateCount));
+        double[][] stateMetrics = workspace.getStates();
+        double[][] feedRows = workspace.getActivations(0).all();
+        for (int k = 0; k < sampleCount; k++) {
+            copyToFeedDataSize(sampleStates.get(k), stateMetrics[k]);
+            System.arraycopy(stateMetrics[k], 0, feedRows[k], 0, FEED_DATA_SIZE);
+        }
+        double[] currentQs = workspace.getCurrentQs();
+        predictRows(workspace, sampleCount, currentQs);
+
+        int[] segmentStarts = workspace.getSegmentStarts();
+        int row = 0;
+        for (int k = 0; k < sampleCount; k++) {
+            double[][] nextPossibleStates = sampleNextStates.get(k);
+            segmentStarts[k] = row;
+            if (!experienceSamples.get(k).done && nextPossibleStates != null) {
+                for (double[] possibleState : nextPossibleStates) {
+                    if (possibleState != null) {
+                        copyToFeedDataSize(possibleState, feedRows[row++]);
+                    }
+                }
+            }
+        }
+        segmentStarts[sampleCount] = row;
+
+        // Két kötegelt forward lépés ugyanazokban a sorokban, a következő állapotok maximuma mintánként
+        double[] nextQs = workspace.getNextQs();
+        predictRows(workspace, row, nextQs);
+        for (int k = 0; k < sampleCount; k++) {
+            Experience exp = experienceSamples.get(k);
+            double currentQ = currentQs[k];
+            double maxNextQ = segmentMax(nextQs, segmentStarts[k], segmentStarts[k + 1]);
             double targetQ = calculateTargetQ(exp.reward, maxNextQ, currentQ, exp.done);
             updateExperiencePriority(targetQ, currentQ, exp);
             nextQ = maxNextQ - currentQ;
-            inputBatch.add(stateMetrics);
-            targetBatch.add(new double[]{targetQ});
+            double[] target = workspace.getTarget(k);
+            target[0] = targetQ;
+            inputBatch.add(stateMetrics[k]);
+            targetBatch.add(target);
         }
         if (inputBatch.size() >= MINIMUM_BATCH_SIZE) {
             processBatchWithoutExperience();
         }
     }
 
+    /**
+     * Clamped Q-values of the first rows of the feed data buffer of the target workspace, in its layer buffers.
+     */
+    private void predictRows(TargetWorkspace workspace, int rows, double[] qvalues) {
+        if (rows == 0) {
+            return;
+        }
+        for (int i = 0; i < layers.size(); i++) {
+            layers.get(i).forwardBatch(workspace.getActivations(i), workspace.getActivations(i + 1), rows, false);
+        }
+        double[][] outputs = workspace.getActivations(layers.size()).all();
+        for (int b = 0; b < rows; b++) {
+            qvalues[b] = Math.min(MAX_Q, Math.max(MIN_Q, outputs[b][0]));
+        }
+    }
+
     /**
      * Calculate the target Q-value.
      *
@@ -418,27 +682,46 @@ public class NeuralNetwork {
      * @return maxNextQ The maximum Q-value for the next states
      */
     private double calculateMaxNextQ(double[][] possibleStates, boolean isGameOver) {
-        double maxNextQ = Double.NEGATIVE_INFINITY;
+        double[][] metrics = new double[countNextStates(possibleStates, isGameOver)][];
+        if (metrics.length > 0) {
+            int row = 0;
+            for (double[] possibleState : possibleStates) {
+                if (possibleState != null) {
+                    metrics[row++] = copyToFeedDataSize(possibleState);
+                }
+            }
+        }
+        return segmentMax(predict(metrics), 0, metrics.length);
+    }
+
+    private static int countNextStates(double[][] possibleStates, boolean isGameOver) {
+        int count = 0;
         if (!isGameOver && possibleStates != null) {
             for (double[] possibleState : possibleStates) {
                 if (possibleState != null) {
-                    double[] metrics = copyToFeedDataSize(possibleState);
-                    double stateQ = Math.min(MAX_Q, Math.max(MIN_Q, forward(metrics, false)[0]));
-                    maxNextQ = Math.max(maxNextQ, stateQ);
+                    count++;
                 }
             }
         }
-        if (Double.isNaN(maxNextQ) || Double.isInfinite(maxNextQ)) {
-            maxNextQ = 0.0;
+        return count;
+    }
+
+    /**
+     * Maximum of a segment of Q-values, 0 for an empty segment.
+     */
+    private static double segmentMax(double[] qvalues, int from, int to) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, qvalues[i]);
         }
-        return maxNextQ;
+        if (Double.isNaN(max) || Double.isInfinite(max)) {
+            max = 0.0;
+        }
+        return max;
     }
 
     private void processBatchWithoutExperience() {
-        double[][] inputs = inputBatch.toArray(new double[0][]);
-        double[][] targets = targetBatch.toArray(new double[0][]);
-        zeroGradients();
-        backwardPass(inputs, targets);
+        trainBatch(inputBatch, targetBatch);
         inputBatch.clear();
         targetBatch.clear();
     }
@@ -495,6 +778,10 @@ public class NeuralNetwork {
         }
         this.previousWeights = deepCopy(currentWeights);
 
+        // No greedy pick yet, no activations to summarize
+        if (lastActivations == null || lastActivations[0].length == 0) {
+            return;
+        }
         calculateLayerStatistics();
         rms = calculateRMS(lastActivations[lastActivations.length - 1]);
         if (rms > maxRms) {
@@ -605,20 +892,36 @@ public class NeuralNetwork {
         return weightCount > 0 ? totalChange / weightCount : 0.0;
     }
 
-    private void zeroGradients() {
-        for (Layer layer : layers) {
-            for (Neuron neuron : layer.getNeurons()) {
-                neuron.zeroGradients();
-            }
+    /**
+     * Stage the candidate states in the input normalizer. Changed statistics change the output of the network like a
+     * weight update does, so they are committed with the next gradient step, which invalidates the cached Q-values
+     * anyway. Without training they are committed once enough states are staged.
+     */
+    private void observeInputs(double[][] possibleStates) {
+        if (inputNormalizer == null || inputNormalizer.isFrozen()) {
+            return;
+        }
+        for (double[] possibleState : possibleStates) {
+            inputNormalizer.stage(possibleState, 2);
+        }
+        if (inputNormalizer.getStagedCount() >= NORMALIZER_COMMIT_STATES && inputNormalizer.commit()) {
+            weightVersion++;
         }
     }
 
-    private static double[] copyToFeedDataSize(double[] source) {
+    private double[] copyToFeedDataSize(double[] source) {
         double[] target = new double[FEED_DATA_SIZE];
-        System.arraycopy(source, 2, target, 0, FEED_DATA_SIZE);
+        copyToFeedDataSize(source, target);
         return target;
     }
 
+    private void copyToFeedDataSize(double[] source, double[] target) {
+        System.arraycopy(source, 2, target, 0, FEED_DATA_SIZE);
+        if (inputNormalizer != null) {
+            inputNormalizer.apply(target);
+        }
+    }
+
     /**
      * Get all weights for visualization.
      *
@@ -631,7 +934,7 @@ public class NeuralNetwork {
             List<Neuron> neurons = currentLayer.getNeurons();
             allWeights[i] = new double[neurons.size()][];
             for (int j = 0; j < neurons.size(); j++) {
-                allWeights[i][j] = neurons.get(j).getWeights().clone();
+                allWeights[i][j] = neurons.get(j).getWeights();
             }
         }
         return allWeights;
@@ -644,9 +947,9 @@ public class NeuralNetwork {
      */
     public int[] getLayerSizes() {
         int[] sizes = new int[layers.size() + 1];
-        sizes[0] = layers.get(0).getNeurons().get(0).getWeights().length;
+        sizes[0] = layers.get(0).getInputSize();
         for (int i = 0; i < layers.size(); i++) {
-            sizes[i + 1] = layers.get(i).getNeurons().size();
+            sizes[i + 1] = layers.get(i).getSize();
         }
         return sizes;
     }
@@ -798,10 +1101,18 @@ public class NeuralNetwork {
         return layerActivationCounts.clone();
     }
 
+    public Precision getPrecision() {
+        return PRECISION;
+    }
+
     public ExperienceReplay getExperienceReplay() {
         return experienceReplay;
     }
 
+    public RunningInputNormalizer getInputNormalizer() {
+        return inputNormalizer;
+    }
+
     public double getQlearningRate() {
         return qlearningRate;
     }
@@ -810,6 +1121,10 @@ public class NeuralNetwork {
         return averageDelta;
     }
 
+    public long getWeightVersion() {
+        return weightVersion;
+    }
+
     public void setDiscountFactor(double discountFactor) {
         this.discountFactor = discountFactor;
     }
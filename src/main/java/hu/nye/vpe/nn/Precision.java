@@ -0,0 +1,82 @@
+package hu.nye.vpe.nn;
+
+/**
+ * Numeric precision of the network parameters, the optimizer state and the replay storage.
+ *
+ * <p>With {@link #FLOAT32} the weights, the Adam moments and the stored replay states are floats and the matrix
+ * kernels run in single precision. The activations between the layers, the batch normalization and the
+ * persistence stay in double, the values are converted at these boundaries.</p>
+ */
+public enum Precision {
+    DOUBLE, FLOAT32;
+
+    /**
+     * Widen float rows to new double rows, null rows stay null.
+     */
+    static double[][] widen(float[][] values) {
+        if (values == null) {
+            return null;
+        }
+        double[][] result = new double[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = widen(values[i]);
+        }
+        return result;
+    }
+
+    static double[] widen(float[] values) {
+        if (values == null) {
+            return null;
+        }
+        double[] result = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+
+    /**
+     * Widen a float row into an existing double row of at least the same length.
+     */
+    static void widen(float[] values, double[] target) {
+        for (int i = 0; i < values.length; i++) {
+            target[i] = values[i];
+        }
+    }
+
+    /**
+     * Round the first rows of double rows to new float rows.
+     */
+    static float[][] narrow(double[][] values, int rows) {
+        float[][] result = new float[rows][];
+        for (int i = 0; i < rows; i++) {
+            result[i] = narrow(values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Round double rows to new float rows, null rows stay null.
+     */
+    static float[][] narrow(double[][] values) {
+        if (values == null) {
+            return null;
+        }
+        float[][] result = new float[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = narrow(values[i]);
+        }
+        return result;
+    }
+
+    static float[] narrow(double[] values) {
+        if (values == null) {
+            return null;
+        }
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,246 @@
+package hu.nye.vpe.nn;
+
+import java.util.Arrays;
+import java.util.List;
+
+import hu.nye.vpe.GlobalConfig;
+
+/**
+ * Int8 post-training quantized copy of a trained network, for inference only.
+ *
+ * <p>Every layer input is rounded to int8 with one offset and one scale per input, calibrated on the range of the
+ * input over the calibration states: the offset is the middle of the range, the scale maps its half to 127 levels.
+ * Values outside the calibrated range are clipped. The offsets are folded into the biases and the input scales into
+ * the weights, then every weight row is rounded to int8 with its own scale. A layer is an int8 dot product per
+ * output with an int32 sum, rescaled by the row scale in float and added to the float bias, followed by the
+ * activation of the source layer. As in {@link FrozenNetwork}, the input normalizer of the source network is folded
+ * into the first layer and the inference batch normalization of every layer into its weights and biases before the
+ * rounding, so the quantized network keeps no reference to the source network and later changes of it, including its
+ * normalization statistics, are not seen.</p>
+ */
+public final class QuantizedNetwork {
+    private static final int LEVELS = 127;
+    private static final double MIN_Q = GlobalConfig.getInstance().getMinQ();
+    private static final double MAX_Q = GlobalConfig.getInstance().getMaxQ();
+
+    private final QuantizedLayer[] layers;
+    private final int feedDataSize;
+    private final int width;
+    private final ThreadLocal<Workspace> workspaces;
+
+    private QuantizedNetwork(QuantizedLayer[] layers, int feedDataSize) {
+        this.layers = layers;
+        this.feedDataSize = feedDataSize;
+        int maxWidth = feedDataSize;
+        for (QuantizedLayer layer : layers) {
+            maxWidth = Math.max(maxWidth, layer.outputSize);
+        }
+        this.width = maxWidth;
+        this.workspaces = ThreadLocal.withInitial(() -> new Workspace(width));
+    }
+
+    /**
+     * Quantize a trained network.
+     *
+     * @param network trained network
+     *
+     * @param calibrationStates recorded state vectors, the features start at index 2, they should cover the range of the played states
+     *
+     * @return quantized network
+     */
+    public static QuantizedNetwork quantize(NeuralNetwork network, double[][] calibrationStates) {
+        if (calibrationStates.length == 0) {
+            throw new IllegalArgumentException("At least one calibration state is needed");
+        }
+        List<Layer> sourceLayers = network.getLayers();
+        int feedDataSize = sourceLayers.get(0).getInputSize();
+        RunningInputNormalizer inputNormalizer = network.getInputNormalizer();
+        double[][] inputs = new double[calibrationStates.length][feedDataSize];
+        for (int b = 0; b < inputs.length; b++) {
+            System.arraycopy(calibrationStates[b], 2, inputs[b], 0, feedDataSize);
+        }
+
+        // The calibration states run through the folded layers, the range of every input is kept
+        QuantizedLayer[] layers = new QuantizedLayer[sourceLayers.size()];
+        for (int i = 0; i < layers.length; i++) {
+            Layer layer = sourceLayers.get(i);
+            int inputSize = layer.getInputSize();
+            double[] min = new double[inputSize];
+            double[] max = new double[inputSize];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            for (double[] input : inputs) {
+                for (int j = 0; j < min.length; j++) {
+                    min[j] = Math.min(min[j], input[j]);
+                    max[j] = Math.max(max[j], input[j]);
+                }
+            }
+
+            double[] weights = layer.getWeights().clone();
+            double[] biases = layer.getBiases().clone();
+            if (i == 0 && inputNormalizer != null) {
+                inputNormalizer.fold(weights, biases, inputSize);
+            }
+            if (layer.isUseBatchNorm()) {
+                layer.getBatchNormalizer().fold(weights, biases, inputSize);
+            }
+            final int outputSize = layer.getSize();
+            final ActivationKernel activationKernel = layer.getActivation().kernel(layer.getSplitIndex());
+            final boolean vectorKernels = MatrixKernels.selectVector(inputSize);
+            layers[i] = new QuantizedLayer(weights, biases, outputSize, activationKernel, vectorKernels, min, max);
+            double[][] outputs = new double[inputs.length][outputSize];
+            MatrixKernels.forward(inputs, inputs.length, weights, biases, inputSize, outputSize, outputs,
+                    vectorKernels);
+            for (double[] output : outputs) {
+                activationKernel.apply(output, output, outputSize);
+            }
+            inputs = outputs;
+        }
+        return new QuantizedNetwork(layers, feedDataSize);
+    }
+
+    /**
+     * Q-value of one state without allocation, in the buffers of the calling thread.
+     *
+     * @param state state vector, the features start at index 2
+     *
+     * @return Q-value of the state, clamped to the Q-value range
+     */
+    public double predictQValue(double[] state) {
+        Workspace workspace = workspaces.get();
+        double[] current = workspace.ping;
+        System.arraycopy(state, 2, current, 0, feedDataSize);
+        double[] next = workspace.pong;
+        for (QuantizedLayer layer : layers) {
+            layer.infer(current, next, workspace);
+            double[] swap = current;
+            current = next;
+            next = swap;
+        }
+        return Math.min(MAX_Q, Math.max(MIN_Q, current[0]));
+    }
+
+    /**
+     * Q-values of states.
+     *
+     * @param states state vectors, the features start at index 2
+     *
+     * @return Q-value of each state, clamped to the Q-value range
+     */
+    public double[] predictQValues(double[][] states) {
+        double[] qvalues = new double[states.length];
+        for (int i = 0; i < states.length; i++) {
+            qvalues[i] = predictQValue(states[i]);
+        }
+        return qvalues;
+    }
+
+    /**
+     * Greedy action, a random one of the candidates whose Q-value is within 1e-6 of the best.
+     *
+     * @param possibleActions candidate states, the first two values are the column and the rotation
+     *
+     * @return column and rotation of the chosen candidate
+     */
+    public int[] selectAction(double[][] possibleActions) {
+        return FrozenNetwork.greedyAction(possibleActions, predictQValues(possibleActions));
+    }
+
+    /**
+     * Size of the quantized weights and scales.
+     *
+     * @return bytes of the weights, the scales and the biases
+     */
+    public long getParameterBytes() {
+        long bytes = 0;
+        for (QuantizedLayer layer : layers) {
+            bytes += layer.weights.length + 4L * (layer.inverseInputScales.length + 2L * layer.outputSize);
+        }
+        return bytes;
+    }
+
+    /**
+     * One quantized layer.
+     */
+    private static final class QuantizedLayer {
+        private final int inputSize;
+        private final int outputSize;
+        private final byte[] weights;
+        private final float[] inverseInputScales;
+        private final float[] rowScales;
+        private final float[] inputOffsets;
+        private final float[] biases;
+        private final ActivationKernel activationKernel;
+        private final boolean vectorKernels;
+
+        private QuantizedLayer(double[] sourceWeights, double[] sourceBiases, int outputSize,
+                ActivationKernel activationKernel, boolean vectorKernels, double[] inputMin, double[] inputMax) {
+            this.inputSize = inputMin.length;
+            this.outputSize = outputSize;
+            this.weights = new byte[inputSize * outputSize];
+            this.inverseInputScales = new float[inputSize];
+            this.rowScales = new float[outputSize];
+            this.inputOffsets = new float[inputSize];
+            this.biases = new float[outputSize];
+            this.activationKernel = activationKernel;
+            this.vectorKernels = vectorKernels;
+
+            double[] inputScales = new double[inputSize];
+            for (int j = 0; j < inputSize; j++) {
+                inputOffsets[j] = (float) ((inputMin[j] + inputMax[j]) / 2.0);
+                double halfRange = (inputMax[j] - inputMin[j]) / 2.0;
+                // A constant input is its offset, any scale will do
+                inputScales[j] = halfRange > 0 ? halfRange / LEVELS : 1.0;
+                inverseInputScales[j] = (float) (1.0 / inputScales[j]);
+            }
+            double[] folded = new double[inputSize];
+            for (int i = 0; i < outputSize; i++) {
+                int row = i * inputSize;
+                double rowMax = 0.0;
+                double bias = sourceBiases[i];
+                for (int j = 0; j < inputSize; j++) {
+                    bias += sourceWeights[row + j] * inputOffsets[j];
+                    folded[j] = sourceWeights[row + j] * inputScales[j];
+                    rowMax = Math.max(rowMax, Math.abs(folded[j]));
+                }
+                double rowScale = rowMax > 0 ? rowMax / LEVELS : 1.0;
+                rowScales[i] = (float) rowScale;
+                biases[i] = (float) bias;
+                for (int j = 0; j < inputSize; j++) {
+                    weights[row + j] = (byte) Math.round(folded[j] / rowScale);
+                }
+            }
+        }
+
+        private void infer(double[] inputs, double[] outputs, Workspace workspace) {
+            byte[] quantized = workspace.quantized;
+            for (int j = 0; j < inputSize; j++) {
+                int level = Math.round(((float) inputs[j] - inputOffsets[j]) * inverseInputScales[j]);
+                quantized[j] = (byte) Math.max(-LEVELS, Math.min(LEVELS, level));
+            }
+            int[] sums = workspace.sums;
+            MatrixKernels.forward(quantized, weights, inputSize, outputSize, sums, vectorKernels);
+            for (int i = 0; i < outputSize; i++) {
+                outputs[i] = sums[i] * rowScales[i] + biases[i];
+            }
+            activationKernel.apply(outputs, outputs, outputSize);
+        }
+    }
+
+    /**
+     * Buffers of one thread.
+     */
+    private static final class Workspace {
+        private final double[] ping;
+        private final double[] pong;
+        private final byte[] quantized;
+        private final int[] sums;
+
+        private Workspace(int width) {
+            this.ping = new double[width];
+            this.pong = new double[width];
+            this.quantized = new byte[width];
+            this.sums = new int[width];
+        }
+    }
+}
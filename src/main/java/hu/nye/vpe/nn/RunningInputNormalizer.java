@@ -0,0 +1,249 @@
+package hu.nye.vpe.nn;
+
+import java.util.Arrays;
+
+/**
+ * Per-feature running input normalizer.
+ *
+ * <p>Every input feature has its own statistics: mean and variance with the Welford algorithm, and the running
+ * minimum and maximum. Observed states are staged and merged into the statistics in bulk by {@link #commit()}, so
+ * the normalization, and with it the output of the network, changes only at the commits. Depending on the type the
+ * inputs are scaled by the min-max range (MINMAX) or standardized (ZSCORE). The normalizer is frozen for inference,
+ * a frozen normalizer ignores the observed states. The committed statistics are saved with the training state.</p>
+ */
+public class RunningInputNormalizer {
+    private final int size;
+    private final String type;
+    private final double[] mean;
+    private final double[] m2;
+    private final double[] min;
+    private final double[] max;
+    private final double[] stagedMean;
+    private final double[] stagedM2;
+    private final double[] stagedMin;
+    private final double[] stagedMax;
+    private long count;
+    private long stagedCount;
+    private boolean frozen;
+
+    /**
+     * Normalizer of the given type.
+     *
+     * @param size number of input features
+     *
+     * @param type MINMAX or ZSCORE
+     */
+    public RunningInputNormalizer(int size, String type) {
+        if (!type.equals("MINMAX") && !type.equals("ZSCORE")) {
+            throw new IllegalArgumentException("Unsupported normalization type: " + type);
+        }
+        this.size = size;
+        this.type = type;
+        this.mean = new double[size];
+        this.m2 = new double[size];
+        this.min = new double[size];
+        this.max = new double[size];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        this.stagedMean = new double[size];
+        this.stagedM2 = new double[size];
+        this.stagedMin = new double[size];
+        this.stagedMax = new double[size];
+        Arrays.fill(stagedMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(stagedMax, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Stage one state. Staged states do not change the normalization until they are committed.
+     *
+     * @param data state vector
+     *
+     * @param offset index of the first feature in the state vector
+     *
+     * @return true if the state was staged, false if the normalizer is frozen
+     */
+    public boolean stage(double[] data, int offset) {
+        if (frozen) {
+            return false;
+        }
+        stagedCount++;
+        for (int i = 0; i < size; i++) {
+            double value = data[offset + i];
+            double delta = value - stagedMean[i];
+            stagedMean[i] += delta / stagedCount;
+            stagedM2[i] += delta * (value - stagedMean[i]);
+            stagedMin[i] = Math.min(stagedMin[i], value);
+            stagedMax[i] = Math.max(stagedMax[i], value);
+        }
+        return true;
+    }
+
+    /**
+     * Merge the staged states into the statistics (Chan et al. pairwise update) and clear the stage.
+     *
+     * @return true if the statistics changed
+     */
+    public boolean commit() {
+        if (stagedCount == 0) {
+            return false;
+        }
+        long total = count + stagedCount;
+        for (int i = 0; i < size; i++) {
+            double delta = stagedMean[i] - mean[i];
+            mean[i] += delta * stagedCount / total;
+            m2[i] += stagedM2[i] + delta * delta * ((double) count * stagedCount / total);
+            min[i] = Math.min(min[i], stagedMin[i]);
+            max[i] = Math.max(max[i], stagedMax[i]);
+        }
+        count = total;
+        clearStage();
+        return true;
+    }
+
+    public long getStagedCount() {
+        return stagedCount;
+    }
+
+    private void clearStage() {
+        stagedCount = 0;
+        Arrays.fill(stagedMean, 0.0);
+        Arrays.fill(stagedM2, 0.0);
+        Arrays.fill(stagedMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(stagedMax, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Normalize the features in place. Features without spread are set to 0, before the first update the data is
+     * left unchanged.
+     *
+     * @param data input features
+     */
+    public void apply(double[] data) {
+        if (count == 0) {
+            return;
+        }
+        if (type.equals("MINMAX")) {
+            for (int i = 0; i < size; i++) {
+                double range = max[i] - min[i];
+                data[i] = range > 0 ? (data[i] - min[i]) / range : 0.0;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                double deviation = Math.sqrt(m2[i] / count);
+                data[i] = deviation > 0 ? (data[i] - mean[i]) / deviation : 0.0;
+            }
+        }
+    }
+
+    /**
+     * The current normalization as an affine map, {@link #apply} sets {@code data[i] = scales[i] * data[i] +
+     * shifts[i]}. Features without spread have a zero scale and shift, before the first update the map is the
+     * identity.
+     *
+     * @param scales scale of every feature, filled
+     *
+     * @param shifts shift of every feature, filled
+     */
+    public void affine(double[] scales, double[] shifts) {
+        for (int i = 0; i < size; i++) {
+            double center;
+            double spread;
+            if (count == 0) {
+                center = 0.0;
+                spread = 1.0;
+            } else if (type.equals("MINMAX")) {
+                center = min[i];
+                spread = max[i] - min[i];
+            } else {
+                center = mean[i];
+                spread = Math.sqrt(m2[i] / count);
+            }
+            scales[i] = spread > 0 ? 1.0 / spread : 0.0;
+            shifts[i] = spread > 0 ? -center / spread : 0.0;
+        }
+    }
+
+    /**
+     * Fold the current normalization into the linear step after it, {@code W·(s*x + t) + b = (W*s)·x + (W·t + b)}, so
+     * the folded linear step takes the raw features.
+     *
+     * @param weights row-major weights of the first layer, one row per output, folded in place
+     *
+     * @param biases biases of the first layer, folded in place
+     *
+     * @param inputSize length of a weight row, the number of features
+     */
+    public void fold(double[] weights, double[] biases, int inputSize) {
+        double[] scales = new double[inputSize];
+        double[] shifts = new double[inputSize];
+        affine(scales, shifts);
+        for (int i = 0; i < biases.length; i++) {
+            int row = i * inputSize;
+            for (int j = 0; j < inputSize; j++) {
+                biases[i] += weights[row + j] * shifts[j];
+                weights[row + j] *= scales[j];
+            }
+        }
+    }
+
+    public void freeze() {
+        frozen = true;
+    }
+
+    public void unfreeze() {
+        frozen = false;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Restore saved statistics, the staged states are dropped.
+     *
+     * @param count number of observed states
+     *
+     * @param mean feature means
+     *
+     * @param m2 sums of squared differences from the mean
+     *
+     * @param min feature minimums
+     *
+     * @param max feature maximums
+     */
+    public void restore(long count, double[] mean, double[] m2, double[] min, double[] max) {
+        if (mean.length != size || m2.length != size || min.length != size || max.length != size) {
+            throw new IllegalArgumentException("Normalizer statistics do not match the input size " + size);
+        }
+        this.count = count;
+        System.arraycopy(mean, 0, this.mean, 0, size);
+        System.arraycopy(m2, 0, this.m2, 0, size);
+        System.arraycopy(min, 0, this.min, 0, size);
+        System.arraycopy(max, 0, this.max, 0, size);
+        clearStage();
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    public double[] getM2() {
+        return m2.clone();
+    }
+
+    public double[] getMin() {
+        return min.clone();
+    }
+
+    public double[] getMax() {
+        return max.clone();
+    }
+}
@@ -0,0 +1,94 @@
+package hu.nye.vpe.nn;
+
+import java.util.List;
+
+/**
+ * Buffers of the batched target computation of an experience replay step.
+ *
+ * <p>Holds the feed data rows of the sampled states, the feed data rows of all their next states, the outputs of
+ * every layer for the next states, the Q-values of both passes, the first next state row of every sample and the
+ * target rows. The current states run through the same layer buffers before the next states, their feed data rows
+ * are kept apart because they are the inputs of the gradient step. The buffers grow to the largest step seen and
+ * are reused, so once they are large enough the target passes of a double precision network without batch
+ * normalization allocate nothing. Not thread-safe, one workspace per learner.</p>
+ */
+final class TargetWorkspace {
+    private final int[] widths;
+    private final TrainingWorkspace.Rows[] activations;
+    private double[][] states;
+    private double[] currentQs;
+    private double[] nextQs;
+    private int[] segmentStarts;
+    private double[][] targets;
+    private int sampleCapacity;
+    private int rowCapacity;
+
+    /**
+     * Empty workspace of the layers, the buffers are built by the first {@link #ensureCapacity(int, int)}.
+     *
+     * @param layers layers of the network
+     */
+    TargetWorkspace(List<Layer> layers) {
+        this.widths = new int[layers.size() + 1];
+        this.activations = new TrainingWorkspace.Rows[layers.size() + 1];
+        widths[0] = layers.get(0).getInputSize();
+        for (int i = 0; i < layers.size(); i++) {
+            widths[i + 1] = layers.get(i).getSize();
+        }
+    }
+
+    /**
+     * Grow the buffers for a step, by at least half of their size, so a slowly growing step does not rebuild them
+     * every time.
+     *
+     * @param samples number of sampled states
+     *
+     * @param rows rows of one forward pass, the larger of the sampled states and the next states
+     */
+    void ensureCapacity(int samples, int rows) {
+        if (samples > sampleCapacity) {
+            sampleCapacity = Math.max(samples, sampleCapacity + sampleCapacity / 2);
+            states = new double[sampleCapacity][widths[0]];
+            currentQs = new double[sampleCapacity];
+            segmentStarts = new int[sampleCapacity + 1];
+            targets = new double[sampleCapacity][widths[widths.length - 1]];
+        }
+        if (rows > rowCapacity) {
+            rowCapacity = Math.max(rows, rowCapacity + rowCapacity / 2);
+            for (int i = 0; i < activations.length; i++) {
+                activations[i] = new TrainingWorkspace.Rows(rowCapacity, widths[i]);
+            }
+            nextQs = new double[rowCapacity];
+        }
+    }
+
+    /**
+     * Rows of one forward pass, index 0 holds the feed data, index {@code i + 1} the outputs of layer {@code i}.
+     */
+    TrainingWorkspace.Rows getActivations(int index) {
+        return activations[index];
+    }
+
+    double[][] getStates() {
+        return states;
+    }
+
+    double[] getCurrentQs() {
+        return currentQs;
+    }
+
+    double[] getNextQs() {
+        return nextQs;
+    }
+
+    /**
+     * First next state row of every sample, the entry after the last sample ends the rows.
+     */
+    int[] getSegmentStarts() {
+        return segmentStarts;
+    }
+
+    double[] getTarget(int sample) {
+        return targets[sample];
+    }
+}
@@ -0,0 +1,197 @@
+package hu.nye.vpe.nn;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buffers of the batched training pass of a network, sized once for its layers and a largest batch.
+ *
+ * <p>Holds the activations (the inputs, then the outputs of every layer), the gradients of the activations, and per
+ * layer the neuron deltas, the dropout deltas and sample scales, the derivative buffers of the shards and the
+ * weight and bias gradients of the shards. A batch of at most {@link #getMaxBatch()} rows uses the first rows of
+ * every buffer, the buffers are reused by every gradient step, so a double precision training pass without batch
+ * normalization allocates nothing. The shard views of the row buffers are built once as well, for the shards of
+ * {@link BatchShards} the layers had when the workspace was built. Not thread-safe, one workspace per
+ * learner.</p>
+ */
+final class TrainingWorkspace {
+    private final int maxBatch;
+    private final BatchShards[] batchShards;
+    private final Rows[] activations;
+    private final Rows[] gradients;
+    private final LayerBuffers[] layerBuffers;
+
+    /**
+     * Workspace of the layers.
+     *
+     * @param layers layers of the network
+     *
+     * @param maxBatch largest batch
+     */
+    TrainingWorkspace(List<Layer> layers, int maxBatch) {
+        this.maxBatch = maxBatch;
+        this.batchShards = new BatchShards[layers.size()];
+        this.activations = new Rows[layers.size() + 1];
+        this.gradients = new Rows[layers.size() + 1];
+        this.layerBuffers = new LayerBuffers[layers.size()];
+        activations[0] = new Rows(maxBatch, layers.get(0).getInputSize());
+        gradients[0] = new Rows(maxBatch, layers.get(0).getInputSize());
+        for (int i = 0; i < layers.size(); i++) {
+            Layer layer = layers.get(i);
+            batchShards[i] = layer.getBatchShards();
+            activations[i + 1] = new Rows(maxBatch, layer.getSize());
+            gradients[i + 1] = new Rows(maxBatch, layer.getSize());
+            layerBuffers[i] = new LayerBuffers(layer, maxBatch);
+        }
+    }
+
+    /**
+     * Whether a batch fits the workspace.
+     *
+     * @param layers layers of the network
+     *
+     * @param rows rows of the batch
+     *
+     * @return true if the batch fits and the layers still have the shards of the construction
+     */
+    boolean fits(List<Layer> layers, int rows) {
+        if (rows > maxBatch || layers.size() != batchShards.length) {
+            return false;
+        }
+        for (int i = 0; i < batchShards.length; i++) {
+            if (layers.get(i).getBatchShards() != batchShards[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getMaxBatch() {
+        return maxBatch;
+    }
+
+    /**
+     * Activation rows, index 0 holds the inputs of the network, index {@code i + 1} the outputs of layer {@code i}.
+     */
+    Rows getActivations(int index) {
+        return activations[index];
+    }
+
+    /**
+     * Gradient rows of the activations with the same indices, the last one holds the gradients of the loss.
+     */
+    Rows getGradients(int index) {
+        return gradients[index];
+    }
+
+    LayerBuffers getLayerBuffers(int layer) {
+        return layerBuffers[layer];
+    }
+
+    /**
+     * A row buffer and its shard views. The view of the rows starting at row {@code from} is a sub-array of the row
+     * references, every view is at least as long as its shard, the kernels get the row count.
+     */
+    static final class Rows {
+        private final double[][] all;
+        private final double[][][] shards;
+
+        Rows(int maxBatch, int width) {
+            this(new double[maxBatch][width], true);
+        }
+
+        private Rows(double[][] all, boolean views) {
+            this.all = all;
+            int count = views ? (all.length + BatchShards.SHARD_ROWS - 1) / BatchShards.SHARD_ROWS : 0;
+            this.shards = new double[count][][];
+            for (int s = 1; s < count; s++) {
+                shards[s] = Arrays.copyOfRange(all, s * BatchShards.SHARD_ROWS,
+                        Math.min(all.length, (s + 1) * BatchShards.SHARD_ROWS));
+            }
+        }
+
+        /**
+         * Rows of a caller-owned batch, without prepared views, the shard views are copied on demand.
+         *
+         * @param all rows of the batch
+         *
+         * @return rows
+         */
+        static Rows of(double[][] all) {
+            return new Rows(all, false);
+        }
+
+        double[][] all() {
+            return all;
+        }
+
+        /**
+         * Rows {@code [from, to)} of the buffer, the first rows are the buffer itself.
+         */
+        double[][] rows(int from, int to) {
+            if (from == 0) {
+                return all;
+            }
+            int shard = from / BatchShards.SHARD_ROWS;
+            if (shard < shards.length && from % BatchShards.SHARD_ROWS == 0) {
+                return shards[shard];
+            }
+            return Arrays.copyOfRange(all, from, to);
+        }
+    }
+
+    /**
+     * Scratch buffers of one layer.
+     */
+    static final class LayerBuffers {
+        private final Rows neuronDeltas;
+        private final Rows gradientDeltas;
+        private final double[] sampleScales;
+        private final double[][] derivatives;
+        private final double[][] weightPartials;
+        private final float[][] floatWeightPartials;
+        private final double[][] biasPartials;
+
+        LayerBuffers(Layer layer, int rows) {
+            final int shards = layer.getBatchShards().shardCount(rows);
+            boolean dropout = layer.getDropoutRate() > 0;
+            this.neuronDeltas = new Rows(rows, layer.getSize());
+            this.gradientDeltas = dropout ? new Rows(rows, layer.getSize()) : null;
+            this.sampleScales = dropout ? new double[rows] : null;
+            this.derivatives = new double[shards][layer.getSize()];
+            boolean single = layer.getPrecision() == Precision.FLOAT32;
+            int weights = layer.getSize() * layer.getInputSize();
+            this.weightPartials = single ? null : new double[shards][weights];
+            this.floatWeightPartials = single ? new float[shards][weights] : null;
+            this.biasPartials = new double[shards][layer.getSize()];
+        }
+
+        Rows getNeuronDeltas() {
+            return neuronDeltas;
+        }
+
+        Rows getGradientDeltas() {
+            return gradientDeltas;
+        }
+
+        double[] getSampleScales() {
+            return sampleScales;
+        }
+
+        double[] getDerivatives(int shard) {
+            return derivatives[shard];
+        }
+
+        double[][] getWeightPartials() {
+            return weightPartials;
+        }
+
+        float[][] getFloatWeightPartials() {
+            return floatWeightPartials;
+        }
+
+        double[][] getBiasPartials() {
+            return biasPartials;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package hu.nye.vpe.nn;
+
+import java.util.Arrays;
+
+import hu.nye.vpe.GlobalConfig;
+
+/**
+ * Bounded transposition table for board evaluations.
+ *
+ * <p>Entries are keyed by a 64-bit state key (board hash combined with the piece ids, and with the placement when
+ * a feature depends on it) and hold the feature vector of the state and optionally its Q-value, tagged with the
+ * weight version of the network which computed it. Storage is a set of flat primitive arrays, sized once from the
+ * configured memory budget. The table is 4-way set associative, the victim inside a full set is chosen with the
+ * clock (second chance) algorithm.</p>
+ *
+ * <p>Not thread-safe: lookups move reference bits, clock hands and counters without synchronization, so a table
+ * belongs to one game thread. A Q-value only hits while the weights are unchanged, a training network bumps its
+ * version with every batch, a frozen model keeps one version for its whole life.</p>
+ */
+public class TranspositionTable {
+    private static final int WAYS = 4;
+    private static final long NO_KEY = 0L;
+    private static final long NO_VERSION = -1L;
+    private static final int ENTRY_OVERHEAD_BYTES = Long.BYTES * 3 + 1;
+
+    private final int featureSize;
+    private final int capacity;
+    private final int setMask;
+    private final long[] keys;
+    private final double[] features;
+    private final double[] qvalues;
+    private final long[] qversions;
+    private final boolean[] referenced;
+    private final int[] clockHands;
+    private long featureLookups;
+    private long featureHits;
+    private long qlookups;
+    private long qhits;
+
+    /**
+     * Create a table within the given memory budget.
+     *
+     * @param featureSize length of the stored feature vectors
+     *
+     * @param megabytes memory budget in megabytes
+     */
+    public TranspositionTable(int featureSize, int megabytes) {
+        this.featureSize = featureSize;
+        long entryBytes = ENTRY_OVERHEAD_BYTES + (long) Double.BYTES * featureSize;
+        long maxEntries = Math.max(WAYS, (long) megabytes * 1024 * 1024 / entryBytes);
+        int sets = Integer.highestOneBit((int) Math.min(Integer.MAX_VALUE / WAYS, maxEntries / WAYS));
+        this.capacity = sets * WAYS;
+        this.setMask = sets - 1;
+        this.keys = new long[capacity];
+        this.features = new double[capacity * featureSize];
+        this.qvalues = new double[capacity];
+        this.qversions = new long[capacity];
+        this.referenced = new boolean[capacity];
+        this.clockHands = new int[sets];
+        // Keys start as NO_KEY and reference bits as false, only the versions need filling
+        Arrays.fill(qversions, NO_VERSION);
+    }
+
+    /**
+     * Shared table configured from brain_config.cfg, or null if the table is disabled.
+     *
+     * <p>Created on first use, the holder class makes the lazy initialization thread safe, the table itself is
+     * not.</p>
+     *
+     * @return shared table
+     */
+    public static TranspositionTable getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Copy the cached feature vector of the key into the target array.
+     *
+     * @param key state key
+     *
+     * @param target target array
+     *
+     * @param offset first index written in the target
+     *
+     * @return true on hit
+     */
+    public boolean getFeatures(long key, double[] target, int offset) {
+        featureLookups++;
+        int slot = find(normalizeKey(key));
+        if (slot < 0) {
+            return false;
+        }
+        featureHits++;
+        referenced[slot] = true;
+        System.arraycopy(features, slot * featureSize, target, offset, featureSize);
+        return true;
+    }
+
+    /**
+     * Store the feature vector of the key. Drops the Q-value if the slot held another state.
+     *
+     * @param key state key
+     *
+     * @param source source array
+     *
+     * @param offset first index read from the source
+     */
+    public void putFeatures(long key, double[] source, int offset) {
+        int slot = findOrReplace(normalizeKey(key));
+        System.arraycopy(source, offset, features, slot * featureSize, featureSize);
+    }
+
+    /**
+     * Cached Q-value of the key, computed with the given weight version.
+     *
+     * @param key state key
+     *
+     * @param weightVersion current weight version of the network
+     *
+     * @return Q-value or NaN on miss
+     */
+    public double getQValue(long key, long weightVersion) {
+        qlookups++;
+        int slot = find(normalizeKey(key));
+        if (slot < 0 || qversions[slot] != weightVersion) {
+            return Double.NaN;
+        }
+        qhits++;
+        referenced[slot] = true;
+        return qvalues[slot];
+    }
+
+    /**
+     * Store the Q-value of an already cached state.
+     *
+     * @param key state key
+     *
+     * @param weightVersion weight version of the network which computed the value
+     *
+     * @param qvalue Q-value
+     */
+    public void putQValue(long key, long weightVersion, double qvalue) {
+        int slot = find(normalizeKey(key));
+        if (slot >= 0) {
+            qvalues[slot] = qvalue;
+            qversions[slot] = weightVersion;
+        }
+    }
+
+    /**
+     * Drop every entry and reset the statistics.
+     */
+    public void clear() {
+        Arrays.fill(keys, NO_KEY);
+        Arrays.fill(qversions, NO_VERSION);
+        Arrays.fill(referenced, false);
+        featureLookups = 0;
+        featureHits = 0;
+        qlookups = 0;
+        qhits = 0;
+    }
+
+    private static long normalizeKey(long key) {
+        return key == NO_KEY ? 1L : key;
+    }
+
+    private int setOf(long key) {
+        return (int) (key ^ (key >>> 32)) & setMask;
+    }
+
+    private int find(long key) {
+        int base = setOf(key) * WAYS;
+        for (int way = 0; way < WAYS; way++) {
+            if (keys[base + way] == key) {
+                return base + way;
+            }
+        }
+        return -1;
+    }
+
+    private int findOrReplace(long key) {
+        int set = setOf(key);
+        int base = set * WAYS;
+        for (int way = 0; way < WAYS; way++) {
+            if (keys[base + way] == key || keys[base + way] == NO_KEY) {
+                return claim(base + way, key);
+            }
+        }
+        // Clock: skip recently used entries once, clearing their reference bit
+        int hand = clockHands[set];
+        while (referenced[base + hand]) {
+            referenced[base + hand] = false;
+            hand = (hand + 1) % WAYS;
+        }
+        clockHands[set] = (hand + 1) % WAYS;
+        return claim(base + hand, key);
+    }
+
+    private int claim(int slot, long key) {
+        if (keys[slot] != key) {
+            keys[slot] = key;
+            qversions[slot] = NO_VERSION;
+        }
+        referenced[slot] = true;
+        return slot;
+    }
+
+    public double getFeatureHitRatio() {
+        return featureLookups > 0 ? (double) featureHits / featureLookups : 0.0;
+    }
+
+    public double getQHitRatio() {
+        return qlookups > 0 ? (double) qhits / qlookups : 0.0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Hit ratio report.
+     *
+     * @return report line
+     */
+    public String report() {
+        return String.format("Transposition table: features %.1f%% of %d, Q %.1f%% of %d",
+                getFeatureHitRatio() * 100, featureLookups, getQHitRatio() * 100, qlookups);
+    }
+
+    private static final class Holder {
+        private static final TranspositionTable INSTANCE = create();
+
+        private static TranspositionTable create() {
+            if (!GlobalConfig.getInstance().getUseTranspositionTable()) {
+                return null;
+            }
+            TranspositionTable table = new TranspositionTable(GlobalConfig.getInstance().getFeedDataSize(),
+                    GlobalConfig.getInstance().getTranspositionTableMegabytes());
+            System.out.println("Transposition table: " + table.capacity + " entries");
+            return table;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package hu.nye.vpe.tetris;
+
+import java.util.Arrays;
+
+import hu.nye.vpe.gaming.GameConstans;
+
+/**
+ * Registry of the board features.
+ *
+ * <p>Every feature the game reads from a stack is listed here: the state vector, the reward and the display select
+ * features from this registry and {@link FeatureBoard} computes them all from the occupancy masks. The features
+ * fed to the network are selected by name with the {@code FEED_FEATURES} key of the config, in the order of the
+ * selection. Every feature occupies {@link #getWidth()} slots of the state vector, the input size of the network is
+ * the sum of the widths.</p>
+ *
+ * <p>A feature declares the features it is computed from, {@link MetricPlan} closes a selection over these inputs.
+ * Placement dependent features depend on where the last piece landed, not only on the resulting stack, so a cache
+ * keyed by the stack has to include the placement when they are selected.</p>
+ */
+public enum BoardFeature {
+    FULL_ROWS(1),
+    HOLES(1),
+    BUMPINESS(1),
+    HEIGHT_SUM(1),
+    CURRENT_PIECE(1),
+    NEXT_PIECE(1),
+    COLUMN_HEIGHTS(GameConstans.COLS),
+    MAX_HEIGHT(1),
+    WELLS(1),
+    ROW_TRANSITIONS(1),
+    COLUMN_TRANSITIONS(1),
+    LANDING_HEIGHT(1, true),
+    ERODED_CELLS(1, true),
+    EL_TETRIS(1, true, LANDING_HEIGHT, ERODED_CELLS, ROW_TRANSITIONS, COLUMN_TRANSITIONS, HOLES, WELLS),
+    SURROUNDED_HOLES(1, false, HOLES),
+    BLOCKED_ROWS(1, false, HOLES),
+    ACCESSIBLE_CELLS(1),
+    NEARLY_FULL_ROWS(1),
+    AVG_DENSITY(1),
+    AVG_HEIGHT_DIFFERENCE(1, false, BUMPINESS);
+
+    public static final String DEFAULT_FEATURES = "FULL_ROWS,HOLES,BUMPINESS,HEIGHT_SUM,CURRENT_PIECE,NEXT_PIECE,COLUMN_HEIGHTS";
+
+    private final int width;
+    private final boolean placementDependent;
+    private final BoardFeature[] inputs;
+
+    BoardFeature(int width) {
+        this(width, false);
+    }
+
+    BoardFeature(int width, boolean placementDependent, BoardFeature... inputs) {
+        this.width = width;
+        this.placementDependent = placementDependent;
+        this.inputs = inputs;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public boolean isPlacementDependent() {
+        return placementDependent;
+    }
+
+    public BoardFeature[] getInputs() {
+        return inputs.clone();
+    }
+
+    /**
+     * Parse a comma separated feature selection.
+     *
+     * @param selection feature names
+     *
+     * @return selected features in order
+     */
+    public static BoardFeature[] parse(String selection) {
+        String[] names = selection.split(",");
+        BoardFeature[] features = new BoardFeature[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            try {
+                features[i] = valueOf(name);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown feature: " + name + ", valid features: "
+                        + Arrays.toString(values()), e);
+            }
+        }
+        return features;
+    }
+
+    /**
+     * Number of state vector slots of a selection.
+     *
+     * @param features selected features
+     *
+     * @return sum of the feature widths
+     */
+    public static int width(BoardFeature[] features) {
+        int width = 0;
+        for (BoardFeature feature : features) {
+            width += feature.width;
+        }
+        return width;
+    }
+}
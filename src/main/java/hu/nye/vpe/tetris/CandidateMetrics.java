@@ -0,0 +1,164 @@
+package hu.nye.vpe.tetris;
+
+import java.util.Arrays;
+
+import hu.nye.vpe.gaming.GameConstans;
+
+/**
+ * Batched metrics of all candidate placements.
+ *
+ * <p>The column heights and holes of the candidates are stored structure-of-arrays: the values of one column are
+ * contiguous, {@code heights[col * CANDIDATES + candidate]}. They start from the base stack, the stack before the
+ * placement, and a candidate patches only the columns its placement touched, so each candidate reads a few column
+ * masks instead of all of them. Height sums, hole sums and bumpiness of every candidate are then computed column by
+ * column across the candidates, with the Vector API lanes if the {@code jdk.incubator.vector} module is present
+ * (started with {@code --add-modules jdk.incubator.vector}), otherwise with the same computation in scalar
+ * loops.</p>
+ */
+public class CandidateMetrics {
+    public static final int CANDIDATES = StackManager.X_COORD_OUTPUTS * StackManager.ROTATION_OUTPUTS;
+    static final int COLS = GameConstans.COLS;
+    private static final boolean VECTOR_API_AVAILABLE =
+            ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private final boolean useVector;
+    private final int[] heights = new int[COLS * CANDIDATES];
+    private final int[] holes = new int[COLS * CANDIDATES];
+    private final int[] heightSums = new int[CANDIDATES];
+    private final int[] holeSums = new int[CANDIDATES];
+    private final int[] bumpiness = new int[CANDIDATES];
+
+    /**
+     * Batch using the Vector API when it is available.
+     */
+    public CandidateMetrics() {
+        this(VECTOR_API_AVAILABLE);
+    }
+
+    /**
+     * Batch with an explicit kernel choice.
+     *
+     * @param useVector use the Vector API kernel, ignored if the module is not present
+     */
+    public CandidateMetrics(boolean useVector) {
+        this.useVector = useVector && VECTOR_API_AVAILABLE;
+    }
+
+    public static boolean isVectorApiAvailable() {
+        return VECTOR_API_AVAILABLE;
+    }
+
+    public boolean isUsingVector() {
+        return useVector;
+    }
+
+    /**
+     * Set every candidate to the base stack, the later loads patch the columns their placement touched.
+     *
+     * @param columnMasks column masks of the base stack
+     */
+    public void setBaseStack(int[] columnMasks) {
+        for (int col = 0; col < COLS; col++) {
+            int base = col * CANDIDATES;
+            Arrays.fill(heights, base, base + CANDIDATES, FeatureBoard.columnHeight(columnMasks[col]));
+            Arrays.fill(holes, base, base + CANDIDATES, FeatureBoard.columnHoles(columnMasks[col]));
+        }
+    }
+
+    /**
+     * Load every column of one candidate.
+     *
+     * @param candidate candidate index
+     *
+     * @param columnMasks column masks of the candidate stack
+     */
+    public void loadCandidate(int candidate, int[] columnMasks) {
+        loadCandidate(candidate, columnMasks, 0, COLS - 1);
+    }
+
+    /**
+     * Load the touched columns of one candidate, the other columns keep the values of the base stack.
+     *
+     * @param candidate candidate index
+     *
+     * @param columnMasks column masks of the candidate stack
+     *
+     * @param fromCol first column which may differ from the base stack
+     *
+     * @param toCol last column which may differ from the base stack, smaller than fromCol if none does
+     */
+    public void loadCandidate(int candidate, int[] columnMasks, int fromCol, int toCol) {
+        for (int col = fromCol; col <= toCol; col++) {
+            heights[col * CANDIDATES + candidate] = FeatureBoard.columnHeight(columnMasks[col]);
+            holes[col * CANDIDATES + candidate] = FeatureBoard.columnHoles(columnMasks[col]);
+        }
+    }
+
+    /**
+     * Compute the sums and the bumpiness of every loaded candidate.
+     */
+    public void evaluate() {
+        if (useVector) {
+            CandidateMetricsVector.evaluate(heights, holes, heightSums, holeSums, bumpiness);
+        } else {
+            evaluateScalar(heights, holes, heightSums, holeSums, bumpiness, 0);
+        }
+    }
+
+    /**
+     * Scalar kernel, also used for the tail the vector lanes do not cover.
+     *
+     * @param heights column heights
+     *
+     * @param holes column holes
+     *
+     * @param heightSums height sums, output
+     *
+     * @param holeSums hole sums, output
+     *
+     * @param bumpiness bumpiness, output
+     *
+     * @param fromCandidate first candidate computed
+     */
+    static void evaluateScalar(int[] heights, int[] holes, int[] heightSums, int[] holeSums, int[] bumpiness,
+                               int fromCandidate) {
+        for (int c = fromCandidate; c < CANDIDATES; c++) {
+            int heightSum = 0;
+            int holeSum = 0;
+            int bump = 0;
+            int previous = 0;
+            for (int col = 0; col < COLS; col++) {
+                int height = heights[col * CANDIDATES + c];
+                heightSum += height;
+                holeSum += holes[col * CANDIDATES + c];
+                if (col > 0) {
+                    bump += Math.abs(height - previous);
+                }
+                previous = height;
+            }
+            heightSums[c] = heightSum;
+            holeSums[c] = holeSum;
+            bumpiness[c] = bump;
+        }
+    }
+
+    public int getHeightSum(int candidate) {
+        return heightSums[candidate];
+    }
+
+    public int getHoleSum(int candidate) {
+        return holeSums[candidate];
+    }
+
+    public int getBumpiness(int candidate) {
+        return bumpiness[candidate];
+    }
+
+    public int getColumnHeight(int candidate, int col) {
+        return heights[col * CANDIDATES + candidate];
+    }
+
+    public int getColumnHoles(int candidate, int col) {
+        return holes[col * CANDIDATES + candidate];
+    }
+}
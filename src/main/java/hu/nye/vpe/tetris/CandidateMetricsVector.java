@@ -0,0 +1,39 @@
+package hu.nye.vpe.tetris;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API kernel of {@link CandidateMetrics}, one lane per candidate. Only loaded if the
+ * {@code jdk.incubator.vector} module is present.
+ */
+final class CandidateMetricsVector {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int CANDIDATES = CandidateMetrics.CANDIDATES;
+
+    private CandidateMetricsVector() {
+    }
+
+    static void evaluate(int[] heights, int[] holes, int[] heightSums, int[] holeSums, int[] bumpiness) {
+        int bound = SPECIES.loopBound(CANDIDATES);
+        for (int c = 0; c < bound; c += SPECIES.length()) {
+            IntVector heightSum = IntVector.zero(SPECIES);
+            IntVector holeSum = IntVector.zero(SPECIES);
+            IntVector bump = IntVector.zero(SPECIES);
+            IntVector previous = IntVector.zero(SPECIES);
+            for (int col = 0; col < CandidateMetrics.COLS; col++) {
+                IntVector height = IntVector.fromArray(SPECIES, heights, col * CANDIDATES + c);
+                heightSum = heightSum.add(height);
+                holeSum = holeSum.add(IntVector.fromArray(SPECIES, holes, col * CANDIDATES + c));
+                if (col > 0) {
+                    bump = bump.add(height.sub(previous).abs());
+                }
+                previous = height;
+            }
+            heightSum.intoArray(heightSums, c);
+            holeSum.intoArray(holeSums, c);
+            bump.intoArray(bumpiness, c);
+        }
+        CandidateMetrics.evaluateScalar(heights, holes, heightSums, holeSums, bumpiness, bound);
+    }
+}
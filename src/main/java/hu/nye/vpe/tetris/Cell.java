@@ -4,28 +4,42 @@ import java.awt.Color;
 
 /***
  * Cell class.
+ *
+ * <p>Cells are immutable, so one instance can be shared by any number of stack positions. Shared instances are
+ * provided by {@link TetrominoFactory}.</p>
  */
 public class Cell {
 
-    private Color color;
+    private final Color color;
     private final int tetrominoId;
-    private int score;
+    private final int score;
 
-    private BonusType bonus;
+    private final BonusType bonus;
 
     public Cell(int tetrominoId, Color color) {
+        this(tetrominoId, color, BonusType.NONE);
+    }
+
+    /**
+     * Cell with bonus.
+     *
+     * @param tetrominoId tetromino id
+     *
+     * @param color color
+     *
+     * @param bonus bonus type
+     */
+    public Cell(int tetrominoId, Color color, BonusType bonus) {
         this.tetrominoId = tetrominoId;
         this.color = color;
+        this.bonus = bonus;
+        this.score = 0;
     }
 
     public Color getColor() {
         return  this.color;
     }
 
-    public void setColor(Color color) {
-        this.color = color;
-    }
-
     public int getScore() {
         return this.score;
     }
@@ -41,8 +55,4 @@ public class Cell {
     public BonusType getBonus() {
         return this.bonus;
     }
-
-    public void setBonus(BonusType bonusType) {
-        this.bonus = bonusType;
-    }
 }
@@ -0,0 +1,368 @@
+package hu.nye.vpe.tetris;
+
+import hu.nye.vpe.GlobalConfig;
+import hu.nye.vpe.gaming.GameConstans;
+
+/**
+ * Bitboard of a stack and the {@link BoardFeature}s computed from it.
+ *
+ * <p>The board is the column masks (bit {@code row} set if the cell is occupied, row 0 is the top) and the row
+ * masks (bit {@code col} set) of a stack, both maintained by {@link StackManager} while the piece falls, plus the
+ * placement data of the landed piece. The feature loops run over the masks without branching on the cells: heights
+ * and holes from the lowest set bit, wells and transitions from shifted masks.</p>
+ *
+ * <p>This is the one implementation of the features: the candidate states of {@link StackManager}, the reward and
+ * display metrics of {@link StackMetrics} and the scalar kernel of {@link CandidateMetrics} use it.
+ * {@link CandidateMetricsVector} computes {@link #columnHeight} and {@link #columnHoles} lane by lane.</p>
+ */
+final class FeatureBoard {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int FULL_COLUMN = (1 << ROWS) - 1;
+    private static final int FLOOR = 1 << (ROWS - 1);
+    private static final double DIVIDER = 10;
+    private static final double EL_TETRIS_DIVIDER = 100;
+    private static final double POINT_FULLROW = GlobalConfig.getInstance().getPointFullRow();
+    private static final double POINT_HEIGHTS = GlobalConfig.getInstance().getPointHeights();
+    private static final double POINT_HOLES = GlobalConfig.getInstance().getPointHoes();
+    private static final double POINT_BUMPINESS = GlobalConfig.getInstance().getPoinBumpiness();
+    // El-Tetris weights of the Dellacherie features
+    private static final double EL_TETRIS_LANDING_HEIGHT = -4.500158825082766;
+    private static final double EL_TETRIS_ERODED_CELLS = 3.4181268101392694;
+    private static final double EL_TETRIS_ROW_TRANSITIONS = -3.2178882868487753;
+    private static final double EL_TETRIS_COLUMN_TRANSITIONS = -9.348695305445199;
+    private static final double EL_TETRIS_HOLES = -7.899265427351652;
+    private static final double EL_TETRIS_WELLS = -3.3855972247263626;
+
+    private final int[] columnMasks = new int[COLS];
+    private final int[] rowMasks = new int[ROWS];
+    private final int[] heights = new int[COLS];
+    private final int[] holes = new int[COLS];
+    private int fullRows;
+    private double landingHeight;
+    private int erodedCells;
+    private int currentId;
+    private int nextId;
+    private int heightSum;
+    private int holeSum;
+    private int bumpiness;
+    private int maxHeight;
+
+    /**
+     * Load the board of a candidate.
+     *
+     * @param columnMasks column masks of the simulated stack
+     *
+     * @param rowMasks row masks of the simulated stack
+     *
+     * @param fullRows full rows after the placement
+     *
+     * @param landingHeight height of the middle of the landed piece
+     *
+     * @param erodedCells cells of the piece in full rows, times the full rows
+     *
+     * @param currentId id of the current tetromino
+     *
+     * @param nextId id of the next tetromino
+     */
+    void load(int[] columnMasks, int[] rowMasks, int fullRows, double landingHeight, int erodedCells,
+              int currentId, int nextId) {
+        System.arraycopy(columnMasks, 0, this.columnMasks, 0, COLS);
+        System.arraycopy(rowMasks, 0, this.rowMasks, 0, ROWS);
+        this.fullRows = fullRows;
+        this.landingHeight = landingHeight;
+        this.erodedCells = erodedCells;
+        this.currentId = currentId;
+        this.nextId = nextId;
+    }
+
+    /**
+     * Height of a column: the lowest set bit of the mask is the highest cell.
+     *
+     * @param mask column mask
+     *
+     * @return height, 0 for an empty column
+     */
+    static int columnHeight(int mask) {
+        return Math.max(0, ROWS - Integer.numberOfTrailingZeros(mask));
+    }
+
+    /**
+     * Holes of a column: every empty cell under the highest cell.
+     *
+     * @param mask column mask
+     *
+     * @return number of holes
+     */
+    static int columnHoles(int mask) {
+        return Integer.bitCount(holeMask(mask));
+    }
+
+    private static int holeMask(int mask) {
+        return ~mask & FULL_COLUMN & -(mask & -mask);
+    }
+
+    int[] getColumnMasks() {
+        return columnMasks;
+    }
+
+    /**
+     * Column heights and holes, hole sum, height sum, maximum height and bumpiness from the column masks.
+     */
+    void computeColumnStats() {
+        heightSum = 0;
+        holeSum = 0;
+        maxHeight = 0;
+        for (int col = 0; col < COLS; col++) {
+            int mask = columnMasks[col];
+            int height = columnHeight(mask);
+            heights[col] = height;
+            holes[col] = columnHoles(mask);
+            heightSum += height;
+            holeSum += holes[col];
+            maxHeight = Math.max(maxHeight, height);
+        }
+        bumpiness = 0;
+        for (int col = 1; col < COLS; col++) {
+            bumpiness += Math.abs(heights[col] - heights[col - 1]);
+        }
+    }
+
+    /**
+     * Take the column statistics from the batched candidate metrics instead of computing them.
+     *
+     * @param batch evaluated candidate metrics
+     *
+     * @param candidate index of this board in the batch
+     */
+    void setColumnStats(CandidateMetrics batch, int candidate) {
+        maxHeight = 0;
+        for (int col = 0; col < COLS; col++) {
+            heights[col] = batch.getColumnHeight(candidate, col);
+            holes[col] = batch.getColumnHoles(candidate, col);
+            maxHeight = Math.max(maxHeight, heights[col]);
+        }
+        heightSum = batch.getHeightSum(candidate);
+        holeSum = batch.getHoleSum(candidate);
+        bumpiness = batch.getBumpiness(candidate);
+    }
+
+    /**
+     * Write the selected features into the state vector. The column statistics must be set.
+     *
+     * @param features selected features
+     *
+     * @param state state vector
+     *
+     * @param offset first slot of the features
+     */
+    void write(BoardFeature[] features, double[] state, int offset) {
+        int slot = offset;
+        for (BoardFeature feature : features) {
+            switch (feature) {
+                case FULL_ROWS -> state[slot] = POINT_FULLROW * (fullRows / DIVIDER);
+                case HOLES -> state[slot] = POINT_HOLES * (holeSum / DIVIDER);
+                case BUMPINESS -> state[slot] = POINT_BUMPINESS * (bumpiness / DIVIDER);
+                case HEIGHT_SUM -> state[slot] = POINT_HEIGHTS * (heightSum / DIVIDER);
+                case CURRENT_PIECE -> state[slot] = currentId / DIVIDER;
+                case NEXT_PIECE -> state[slot] = nextId / DIVIDER;
+                case COLUMN_HEIGHTS -> {
+                    for (int col = 0; col < COLS; col++) {
+                        state[slot + col] = heights[col] / DIVIDER;
+                    }
+                }
+                case MAX_HEIGHT -> state[slot] = maxHeight / DIVIDER;
+                case WELLS -> state[slot] = wells() / DIVIDER;
+                case ROW_TRANSITIONS -> state[slot] = rowTransitions() / DIVIDER;
+                case COLUMN_TRANSITIONS -> state[slot] = columnTransitions() / DIVIDER;
+                case LANDING_HEIGHT -> state[slot] = landingHeight / DIVIDER;
+                case ERODED_CELLS -> state[slot] = erodedCells / DIVIDER;
+                case EL_TETRIS -> state[slot] = elTetris() / EL_TETRIS_DIVIDER;
+                case SURROUNDED_HOLES -> state[slot] = surroundedHoles() / DIVIDER;
+                case BLOCKED_ROWS -> state[slot] = blockedRows() / DIVIDER;
+                case ACCESSIBLE_CELLS -> state[slot] = accessibleCells() / (double) (ROWS * COLS);
+                case NEARLY_FULL_ROWS -> state[slot] = nearlyFullRows() / DIVIDER;
+                case AVG_DENSITY -> state[slot] = averageDensity();
+                case AVG_HEIGHT_DIFFERENCE -> state[slot] = averageHeightDifference();
+                default -> throw new IllegalStateException("Unhandled feature: " + feature);
+            }
+            slot += feature.getWidth();
+        }
+    }
+
+    /**
+     * Cumulative wells (Dellacherie): every open cell with occupied neighbours (or walls) on both sides counts
+     * its depth within the well, a well of depth d adds 1 + 2 + ... + d.
+     */
+    int wells() {
+        int wells = 0;
+        for (int col = 0; col < COLS; col++) {
+            int mask = columnMasks[col];
+            int left = col == 0 ? FULL_COLUMN : columnMasks[col - 1];
+            int right = col == COLS - 1 ? FULL_COLUMN : columnMasks[col + 1];
+            // Cells above the highest cell, an empty column is open to the floor
+            int open = ~mask & FULL_COLUMN & ((mask & -mask) - 1);
+            int well = open & left & right;
+            // Step k keeps the well cells with k - 1 well cells right above them
+            while (well != 0) {
+                wells += Integer.bitCount(well);
+                well &= well << 1;
+            }
+        }
+        return wells;
+    }
+
+    /**
+     * Occupied/empty changes along the rows up to the highest cell, the walls count as occupied.
+     */
+    int rowTransitions() {
+        int transitions = 0;
+        for (int row = ROWS - maxHeight; row < ROWS; row++) {
+            transitions += RowTables.transitions(rowMasks[row]);
+        }
+        return transitions;
+    }
+
+    /**
+     * Occupied/empty changes along the columns, the floor counts as occupied.
+     */
+    int columnTransitions() {
+        int transitions = 0;
+        for (int col = 0; col < COLS; col++) {
+            int mask = columnMasks[col];
+            transitions += Integer.bitCount((mask ^ (mask >>> 1 | FLOOR)) & FULL_COLUMN);
+        }
+        return transitions;
+    }
+
+    /**
+     * El-Tetris evaluation: the Dellacherie features weighted with the El-Tetris weights.
+     */
+    double elTetris() {
+        return EL_TETRIS_LANDING_HEIGHT * landingHeight
+                + EL_TETRIS_ERODED_CELLS * erodedCells
+                + EL_TETRIS_ROW_TRANSITIONS * rowTransitions()
+                + EL_TETRIS_COLUMN_TRANSITIONS * columnTransitions()
+                + EL_TETRIS_HOLES * holeSum
+                + EL_TETRIS_WELLS * wells();
+    }
+
+    /**
+     * Holes with an occupied cell in the left or right neighbour column, both neighbours count.
+     */
+    int surroundedHoles() {
+        int surrounded = 0;
+        for (int col = 0; col < COLS; col++) {
+            int mask = columnMasks[col];
+            int holeMask = holeMask(mask);
+            if (col > 0) {
+                surrounded += Integer.bitCount(holeMask & columnMasks[col - 1]);
+            }
+            if (col < COLS - 1) {
+                surrounded += Integer.bitCount(holeMask & columnMasks[col + 1]);
+            }
+        }
+        return surrounded;
+    }
+
+    /**
+     * Rows with an occupied cell which has an empty cell somewhere below it in its column.
+     */
+    int blockedRows() {
+        int blockedRowMask = 0;
+        for (int col = 0; col < COLS; col++) {
+            int mask = columnMasks[col];
+            int holeMask = holeMask(mask);
+            if (holeMask != 0) {
+                int lowestEmptyRow = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(holeMask);
+                blockedRowMask |= mask & ((1 << lowestEmptyRow) - 1);
+            }
+        }
+        return Integer.bitCount(blockedRowMask);
+    }
+
+    /**
+     * Empty cells under the lowest occupied cell of every column, a whole empty column counts.
+     */
+    int accessibleCells() {
+        int accessible = 0;
+        for (int col = 0; col < COLS; col++) {
+            int mask = columnMasks[col];
+            accessible += mask == 0 ? ROWS : Integer.numberOfLeadingZeros(mask) - (Integer.SIZE - ROWS);
+        }
+        return accessible;
+    }
+
+    /**
+     * Nearly full rows from the bottom up to the first empty row above the stack.
+     */
+    int nearlyFullRows() {
+        int nearlyFullRows = 0;
+        boolean foundNonEmptyRow = false;
+        for (int row = ROWS - 1; row >= 0; row--) {
+            int rowMask = rowMasks[row];
+            if (rowMask != 0) {
+                foundNonEmptyRow = true;
+            }
+            if (foundNonEmptyRow) {
+                if (RowTables.isNearlyFull(rowMask)) {
+                    nearlyFullRows++;
+                }
+                if (rowMask == 0) {
+                    break;
+                }
+            }
+        }
+        return nearlyFullRows;
+    }
+
+    /**
+     * Filled ratio of the active rows, the index of the lowest empty row is used as the number of active rows.
+     */
+    double averageDensity() {
+        int lowestEmptyRow = 0;
+        for (int row = ROWS - 1; row >= 0; row--) {
+            if (rowMasks[row] == 0) {
+                lowestEmptyRow = row;
+                break;
+            }
+        }
+        int filledCells = 0;
+        for (int row = ROWS - 1; row >= ROWS - lowestEmptyRow; row--) {
+            filledCells += RowTables.filled(rowMasks[row]);
+        }
+        int activeCells = lowestEmptyRow * COLS;
+        return activeCells > 0 ? (double) filledCells / activeCells : 0.0;
+    }
+
+    /**
+     * Bumpiness per neighbour pair, relative to the stack height.
+     */
+    double averageHeightDifference() {
+        return ((double) bumpiness / (COLS - 1)) / ROWS;
+    }
+
+    int[] getHeights() {
+        return heights;
+    }
+
+    int[] getColumnHoles() {
+        return holes;
+    }
+
+    int getHeightSum() {
+        return heightSum;
+    }
+
+    int getHoleSum() {
+        return holeSum;
+    }
+
+    int getBumpiness() {
+        return bumpiness;
+    }
+
+    int getMaxHeight() {
+        return maxHeight;
+    }
+}
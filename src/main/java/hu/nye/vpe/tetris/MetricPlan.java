@@ -0,0 +1,95 @@
+package hu.nye.vpe.tetris;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Demand-driven evaluation plan of the board features.
+ *
+ * <p>A plan is compiled from the {@link BoardFeature}s a consumer (state vector, reward, display) reads. It contains
+ * these features and all of their inputs, {@link BoardFeatures} computes only the features of its plan beyond the
+ * column statistics.</p>
+ */
+public final class MetricPlan {
+    public static final MetricPlan ALL = compile("All", BoardFeature.values());
+
+    private final String name;
+    private final Set<BoardFeature> features;
+
+    private MetricPlan(String name, Set<BoardFeature> features) {
+        this.name = name;
+        this.features = features;
+    }
+
+    /**
+     * Compile a plan from the consumed features.
+     *
+     * @param name name of the consumer, used in the log
+     *
+     * @param consumed features read by the consumer
+     *
+     * @return plan with the consumed features and their inputs
+     */
+    public static MetricPlan compile(String name, BoardFeature... consumed) {
+        Set<BoardFeature> features = EnumSet.noneOf(BoardFeature.class);
+        Deque<BoardFeature> pending = new ArrayDeque<>(Arrays.asList(consumed));
+        while (!pending.isEmpty()) {
+            BoardFeature feature = pending.pop();
+            if (features.add(feature)) {
+                pending.addAll(Arrays.asList(feature.getInputs()));
+            }
+        }
+        return new MetricPlan(name, features);
+    }
+
+    /**
+     * Plan computing the features of both plans.
+     *
+     * @param name name of the combined consumer
+     *
+     * @param other other plan
+     *
+     * @return combined plan
+     */
+    public MetricPlan union(String name, MetricPlan other) {
+        Set<BoardFeature> union = EnumSet.copyOf(features);
+        union.addAll(other.features);
+        return new MetricPlan(name, union);
+    }
+
+    public boolean contains(BoardFeature feature) {
+        return features.contains(feature);
+    }
+
+    /**
+     * Whether a feature of the plan depends on the placement of the last piece, not only on the stack.
+     *
+     * @return true if the plan has a placement dependent feature
+     */
+    public boolean isPlacementDependent() {
+        for (BoardFeature feature : features) {
+            if (feature.isPlacementDependent()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Active and skipped features, for the log.
+     *
+     * @return description of the plan
+     */
+    @Override
+    public String toString() {
+        Set<BoardFeature> skipped = EnumSet.complementOf(EnumSet.copyOf(features));
+        return name + " features: active " + features + ", skipped " + skipped;
+    }
+}
@@ -0,0 +1,257 @@
+package hu.nye.vpe.tetris;
+
+import java.util.Random;
+
+import hu.nye.vpe.gaming.GameConstans;
+import hu.nye.vpe.nn.TranspositionTable;
+
+/**
+ * Perft (performance test) of the placement generator.
+ *
+ * <p>Borrowed from chess engines: starting from a seeded board and a fixed piece sequence, every placement
+ * sequence is enumerated to the given depth and the leaves are counted. A placement is one distinct stack
+ * produced by the actions of {@link StackManager#simulateAllPossibleActions}, actions landing on the same stack
+ * count once. Full rows are cleared before the next piece, a placement reaching the spawn rows ends the game
+ * and has no children. The last ply runs through simulateAllPossibleActions itself, so the feature pipeline is
+ * timed together with the generator.</p>
+ *
+ * <p>Usage: {@code Perft [depth] [seed] [garbageRows] [sequenceLength] [divide]}. Node counts of the default
+ * board are listed in {@link #KNOWN_NODES}, a change of these numbers means a change of the generator.</p>
+ */
+public final class Perft {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int ROW_OFFSET = GameConstans.ROW_OFFSET;
+    private static final int ACTIONS = StackManager.X_COORD_OUTPUTS * StackManager.ROTATION_OUTPUTS;
+    private static final int TETROMINO_TYPES = 7;
+    private static final int DEFAULT_DEPTH = 3;
+    private static final long DEFAULT_SEED = 187L;
+    private static final int DEFAULT_GARBAGE_ROWS = 4;
+    private static final int DEFAULT_SEQUENCE_LENGTH = 8;
+    // Leaf counts of the default board (seed 187, 4 garbage rows, 8 pieces), index is the depth
+    static final long[] KNOWN_NODES = {1L, 11L, 231L, 2541L, 53361L, 1120581L};
+
+    private final StackManager manager = new StackManager(RunMode.TRAIN_AI);
+    private final Tetromino[] sequence;
+    private final Cell[][][] boards;
+    private final long[][] seenKeys;
+    private long generatorCalls;
+
+    private Perft(Tetromino[] sequence, int depth) {
+        this.sequence = sequence;
+        this.boards = new Cell[depth + 1][ROWS][COLS];
+        this.seenKeys = new long[depth + 1][ACTIONS];
+        manager.start();
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args depth, seed, garbage rows, sequence length, "divide"
+     */
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : DEFAULT_SEED;
+        int garbageRows = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_GARBAGE_ROWS;
+        int sequenceLength = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_SEQUENCE_LENGTH;
+        boolean divide = args.length > 4 && args[4].equalsIgnoreCase("divide");
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be at least 1: " + depth);
+        }
+
+        Perft perft = create(seed, garbageRows, sequenceLength, depth);
+        System.out.printf("Perft seed=%d garbage=%d sequence=%s%n", seed, garbageRows, perft.sequenceString());
+        for (int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long nodes = perft.count(d, divide && d == depth);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            String check = "";
+            if (seed == DEFAULT_SEED && garbageRows == DEFAULT_GARBAGE_ROWS
+                    && sequenceLength == DEFAULT_SEQUENCE_LENGTH && d < KNOWN_NODES.length) {
+                check = nodes == KNOWN_NODES[d] ? "  OK" : "  MISMATCH, expected " + KNOWN_NODES[d];
+            }
+            System.out.printf("depth %d: %d nodes, %d generator calls, %.3f s, %.0f nodes/s%s%n",
+                    d, nodes, perft.generatorCalls, seconds, nodes / Math.max(seconds, 1e-9), check);
+        }
+    }
+
+    /**
+     * Perft of a seeded board: garbage rows with two holes each and a random piece sequence.
+     *
+     * @param seed seed of the board and the sequence
+     *
+     * @param garbageRows number of garbage rows
+     *
+     * @param sequenceLength number of pieces, repeated beyond the end
+     *
+     * @param maxDepth deepest count the instance can run
+     *
+     * @return perft ready to count
+     */
+    static Perft create(long seed, int garbageRows, int sequenceLength, int maxDepth) {
+        Random random = new Random(seed);
+        Perft perft = new Perft(createSequence(random, sequenceLength), maxDepth);
+        perft.seedBoard(perft.boards[0], random, garbageRows);
+        return perft;
+    }
+
+    /**
+     * Perft of the default board, the one of {@link #KNOWN_NODES}.
+     *
+     * @param maxDepth deepest count the instance can run
+     *
+     * @return perft ready to count
+     */
+    static Perft createDefault(int maxDepth) {
+        return create(DEFAULT_SEED, DEFAULT_GARBAGE_ROWS, DEFAULT_SEQUENCE_LENGTH, maxDepth);
+    }
+
+    /**
+     * Leaf count of the given depth.
+     *
+     * <p>The shared transposition table is cleared first, so the features cached by a shallower count do not speed
+     * up this one.</p>
+     *
+     * @param depth depth, at most the depth the instance was created for
+     *
+     * @param divide print the count below every distinct first placement
+     *
+     * @return number of leaves
+     */
+    long count(int depth, boolean divide) {
+        TranspositionTable table = manager.getTranspositionTable();
+        if (table != null) {
+            table.clear();
+        }
+        generatorCalls = 0;
+        return perft(0, depth, divide);
+    }
+
+    static Tetromino[] createSequence(Random random, int length) {
+        TetrominoFactory factory = TetrominoFactory.getInstance();
+        Tetromino[] sequence = new Tetromino[length];
+        for (int i = 0; i < length; i++) {
+            Tetromino tetromino = factory.getRandomTetromino(random.nextInt(TETROMINO_TYPES));
+            // Same spawn position as Tetris.createNextTetromino
+            tetromino.setColPosition((COLS / 2) - 2);
+            tetromino.setRowPosition(0);
+            tetromino.rotateRight();
+            sequence[i] = tetromino;
+        }
+        return sequence;
+    }
+
+    private void seedBoard(Cell[][] board, Random random, int garbageRows) {
+        TetrominoFactory factory = TetrominoFactory.getInstance();
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLS; col++) {
+                board[row][col] = row >= ROWS - garbageRows ? factory.getLoadedCell() : factory.getEmptyCell();
+            }
+        }
+        for (int row = ROWS - garbageRows; row < ROWS; row++) {
+            board[row][random.nextInt(COLS)] = factory.getEmptyCell();
+            board[row][random.nextInt(COLS)] = factory.getEmptyCell();
+        }
+    }
+
+    private long perft(int ply, int depth, boolean divide) {
+        Tetromino tetromino = sequence[ply % sequence.length];
+        Tetromino next = sequence[(ply + 1) % sequence.length];
+        Cell[][] board = boards[ply];
+        if (depth == 1) {
+            manager.setTetrominos(tetromino, next);
+            manager.simulateAllPossibleActions(board, tetromino);
+            generatorCalls++;
+            return countDistinct(manager.getSimulationKeys(), ACTIONS);
+        }
+
+        long nodes = 0;
+        long[] seen = seenKeys[ply];
+        int distinct = 0;
+        for (int x = 0; x < StackManager.X_COORD_OUTPUTS; x++) {
+            for (int rot = 0; rot < StackManager.ROTATION_OUTPUTS; rot++) {
+                Cell[][] placed = manager.simulatePlacement(board, tetromino, x, rot);
+                long key = manager.getSimStackHash();
+                if (contains(seen, distinct, key)) {
+                    continue;
+                }
+                seen[distinct++] = key;
+                Cell[][] child = boards[ply + 1];
+                copyAndClear(placed, child);
+                long childNodes = isGameOver(child) ? 0 : perft(ply + 1, depth - 1, false);
+                if (divide) {
+                    System.out.printf("  x=%d rot=%d: %d%n", x, rot, childNodes);
+                }
+                nodes += childNodes;
+            }
+        }
+        return nodes;
+    }
+
+    private static int countDistinct(long[] keys, int length) {
+        int distinct = 0;
+        for (int i = 0; i < length; i++) {
+            if (!contains(keys, i, keys[i])) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    private static boolean contains(long[] keys, int length, long key) {
+        for (int i = 0; i < length; i++) {
+            if (keys[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copy the simulated stack into the child board and drop the full rows.
+     */
+    static void copyAndClear(Cell[][] source, Cell[][] target) {
+        Cell empty = TetrominoFactory.getInstance().getEmptyCell();
+        int writeRow = ROWS - 1;
+        for (int readRow = ROWS - 1; readRow >= 0; readRow--) {
+            if (isFull(source[readRow])) {
+                continue;
+            }
+            System.arraycopy(source[readRow], 0, target[writeRow], 0, COLS);
+            writeRow--;
+        }
+        for (; writeRow >= 0; writeRow--) {
+            for (int col = 0; col < COLS; col++) {
+                target[writeRow][col] = empty;
+            }
+        }
+    }
+
+    private static boolean isFull(Cell[] row) {
+        for (Cell cell : row) {
+            if (!ZobristHash.isOccupied(cell)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isGameOver(Cell[][] board) {
+        for (int row = 0; row <= ROW_OFFSET; row++) {
+            for (int col = 0; col < COLS; col++) {
+                if (ZobristHash.isOccupied(board[row][col])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private String sequenceString() {
+        StringBuilder sb = new StringBuilder();
+        for (Tetromino tetromino : sequence) {
+            sb.append(tetromino.getId());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,70 @@
+package hu.nye.vpe.tetris;
+
+import java.util.Random;
+import java.util.function.Function;
+
+import hu.nye.vpe.gaming.GameConstans;
+
+/**
+ * Records the candidate states of greedy games, for the calibration and the evaluation of inference engines.
+ *
+ * <p>Every placement of a seeded piece sequence is simulated with {@link StackManager#simulateAllPossibleActions},
+ * the candidate states are recorded and the candidate with the highest score is placed. Full rows are cleared as in
+ * {@link Perft}, a game that reaches the spawn rows is restarted on an empty board.</p>
+ */
+public final class PlacementRecorder {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+
+    private PlacementRecorder() {
+    }
+
+    /**
+     * Play and record.
+     *
+     * @param placements number of recorded placements
+     *
+     * @param seed seed of the piece sequence
+     *
+     * @param scorer scores of the candidate states, for example the Q-values of a network
+     *
+     * @return candidate states of every placement, the features start at index 2
+     */
+    public static double[][][] record(int placements, long seed, Function<double[][], double[]> scorer) {
+        StackManager manager = new StackManager(RunMode.TRAIN_AI);
+        manager.start();
+        Tetromino[] sequence = Perft.createSequence(new Random(seed), placements + 1);
+        Cell[][] board = new Cell[ROWS][COLS];
+        clear(board);
+
+        double[][][] recorded = new double[placements][][];
+        for (int p = 0; p < placements; p++) {
+            Tetromino tetromino = sequence[p];
+            manager.setTetrominos(tetromino, sequence[p + 1]);
+            double[][] states = manager.simulateAllPossibleActions(board, tetromino);
+            recorded[p] = states;
+            double[] scores = scorer.apply(states);
+            int best = 0;
+            for (int i = 1; i < scores.length; i++) {
+                if (scores[i] > scores[best]) {
+                    best = i;
+                }
+            }
+            Cell[][] placed = manager.simulatePlacement(board, tetromino, (int) states[best][0], (int) states[best][1]);
+            Perft.copyAndClear(placed, board);
+            if (Perft.isGameOver(board)) {
+                clear(board);
+            }
+        }
+        return recorded;
+    }
+
+    private static void clear(Cell[][] board) {
+        Cell empty = TetrominoFactory.getInstance().getEmptyCell();
+        for (Cell[] row : board) {
+            for (int col = 0; col < COLS; col++) {
+                row[col] = empty;
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package hu.nye.vpe.tetris;
+
+import hu.nye.vpe.gaming.GameConstans;
+
+/**
+ * Precomputed lookup tables of stack rows.
+ *
+ * <p>A row of the 12 column wide stack is a 12-bit mask (bit {@code col} set if the cell is occupied), so there
+ * are only 4096 row states. Row level metrics are read from tables indexed by the mask instead of looping over
+ * the cells.</p>
+ */
+public final class RowTables {
+    public static final int ROW_STATES = 1 << GameConstans.COLS;
+    public static final int FULL_ROW = ROW_STATES - 1;
+    private static final int COLS = GameConstans.COLS;
+    private static final int EMPTY_ID = TetrominoType.EMPTY.getTetrominoTypeId();
+    private static final byte FLAG_FULL = 1;
+    private static final byte FLAG_NEARLY_FULL = 2;
+    private static final byte[] FILLED = new byte[ROW_STATES];
+    private static final byte[] FLAGS = new byte[ROW_STATES];
+    private static final byte[] TRANSITIONS = new byte[ROW_STATES];
+    private static final byte[] LEFTMOST_GAP = new byte[ROW_STATES];
+    private static final byte[] RIGHTMOST_GAP = new byte[ROW_STATES];
+
+    static {
+        for (int mask = 0; mask < ROW_STATES; mask++) {
+            int filled = Integer.bitCount(mask);
+            FILLED[mask] = (byte) filled;
+            FLAGS[mask] = (byte) ((filled == COLS ? FLAG_FULL : 0) | (filled == COLS - 1 ? FLAG_NEARLY_FULL : 0));
+            // Walls count as occupied cells on both sides of the row
+            int transitions = 0;
+            boolean previous = true;
+            for (int col = 0; col <= COLS; col++) {
+                boolean occupied = col == COLS || (mask >>> col & 1) != 0;
+                if (occupied != previous) {
+                    transitions++;
+                }
+                previous = occupied;
+            }
+            TRANSITIONS[mask] = (byte) transitions;
+            int gaps = ~mask & FULL_ROW;
+            LEFTMOST_GAP[mask] = (byte) (gaps == 0 ? -1 : Integer.numberOfTrailingZeros(gaps));
+            RIGHTMOST_GAP[mask] = (byte) (gaps == 0 ? -1 : Integer.SIZE - 1 - Integer.numberOfLeadingZeros(gaps));
+        }
+    }
+
+    private RowTables() {
+    }
+
+    /**
+     * Occupancy mask of a stack row.
+     *
+     * @param row stack row
+     *
+     * @return 12-bit row mask
+     */
+    public static int rowMask(Cell[] row) {
+        int mask = 0;
+        for (int col = 0; col < COLS; col++) {
+            if (row[col].getTetrominoId() != EMPTY_ID) {
+                mask |= 1 << col;
+            }
+        }
+        return mask;
+    }
+
+    public static int filled(int rowMask) {
+        return FILLED[rowMask];
+    }
+
+    public static boolean isFull(int rowMask) {
+        return (FLAGS[rowMask] & FLAG_FULL) != 0;
+    }
+
+    public static boolean isNearlyFull(int rowMask) {
+        return (FLAGS[rowMask] & FLAG_NEARLY_FULL) != 0;
+    }
+
+    /**
+     * Number of occupied/empty changes along the row, the walls count as occupied.
+     *
+     * @param rowMask row mask
+     *
+     * @return row transitions
+     */
+    public static int transitions(int rowMask) {
+        return TRANSITIONS[rowMask];
+    }
+
+    public static int leftmostGap(int rowMask) {
+        return LEFTMOST_GAP[rowMask];
+    }
+
+    public static int rightmostGap(int rowMask) {
+        return RIGHTMOST_GAP[rowMask];
+    }
+}
@@ -1,7 +1,7 @@
 package hu.nye.vpe.tetris;
 
 import java.awt.Color;
-import java.util.Objects;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -9,8 +9,7 @@ import hu.nye.vpe.GlobalConfig;
 import hu.nye.vpe.gaming.GameAudio;
 import hu.nye.vpe.gaming.GameConstans;
 import hu.nye.vpe.gaming.GameState;
-import hu.nye.vpe.nn.InputNormalizerMinmax;
-import hu.nye.vpe.nn.InputNormalizerZScore;
+import hu.nye.vpe.nn.TranspositionTable;
 
 /**
  * Stack manager class.
@@ -20,10 +19,7 @@ public class StackManager implements StackComponent {
     private static final int COLS = GameConstans.COLS;
     private static final int ROW_OFFSET = GameConstans.ROW_OFFSET;
     private static final TetrominoFactory TETROMINO_FACTORY = TetrominoFactory.getInstance();
-    private static final Cell EMPTY_CELL = new Cell(
-            TETROMINO_FACTORY.getEmptyTetromino().getId(),
-            TETROMINO_FACTORY.getEmptyTetromino().getColor()
-    );
+    private static final Cell EMPTY_CELL = TETROMINO_FACTORY.getEmptyCell();
     private static final long LEARNING_START_SPEED = GameConstans.LEARNING_START_SPEED;
     private static final long START_SPEED = GameConstans.START_SPEED;
     private static final int PENALTY_NO_FULL_ROW = GameConstans.PENALTY_NO_FULL_ROW;
@@ -31,20 +27,28 @@ public class StackManager implements StackComponent {
     private static final int LEVEL_BONUS = GameConstans.LEVEL_BONUS;
     private static final int ROW_SCORE = GameConstans.ROW_SCORE;
     private static final int LEVEL_CHANGE_ROWS = GameConstans.LEVEL_CHANGE_ROWS;
-    private static final int X_COORD_OUTPUTS = 12;
-    private static final int ROTATION_OUTPUTS = 4;
+    static final int X_COORD_OUTPUTS = 12;
+    static final int ROTATION_OUTPUTS = 4;
     private static final int FEED_DATA_SIZE = GlobalConfig.getInstance().getFeedDataSize();
-    private static final boolean NORMALIZE_FEED_DATA = GlobalConfig.getInstance().getNormalizeFeedData();
-    private static final String FEED_DATA_NORMALIZER = GlobalConfig.getInstance().getFeedDataNormalizer();
+    private static final BoardFeature[] FEED_FEATURES = GlobalConfig.getInstance().getFeedFeatures();
+    // Placement dependent features are not a function of the stack alone, their placement goes into the state key
+    private static final boolean PLACEMENT_KEYS = MetricPlan.compile("Feed", FEED_FEATURES).isPlacementDependent();
+    private static final boolean USE_VECTOR_METRICS = GlobalConfig.getInstance().getUseVectorMetrics();
 
-    private static final double POINT_FULLROW = GlobalConfig.getInstance().getPointFullRow();
-    private static final double POINT_HEIGHTS = GlobalConfig.getInstance().getPointHeights();
-    private static final double POINT_HOLES = GlobalConfig.getInstance().getPointHoes();
-    private static final double POINT_BUMPINESS = GlobalConfig.getInstance().getPoinBumpiness();
     private static final double POINT_AVG_DENSITY = GlobalConfig.getInstance().getPoinAvgDensity();
     private static final double POINT_BLOCKED_ROWS = GlobalConfig.getInstance().getPoinBlockedRows();
 
     private final Cell[][] stackArea = new Cell[ROWS][COLS];
+    private final Cell[][] simStack = new Cell[ROWS][COLS];
+    private final int[] rowMasks = new int[ROWS];
+    private final int[] simRowMasks = new int[ROWS];
+    private final int[] columnMasks = new int[COLS];
+    private final int[] simColumnMasks = new int[COLS];
+    private final long[] simulationKeys = new long[X_COORD_OUTPUTS * ROTATION_OUTPUTS];
+    private final TranspositionTable transpositionTable;
+    private final CandidateMetrics candidateMetrics = USE_VECTOR_METRICS ? new CandidateMetrics() : null;
+    private final boolean[] pendingCandidates = new boolean[X_COORD_OUTPUTS * ROTATION_OUTPUTS];
+    private final FeatureBoard[] candidateBoards = new FeatureBoard[X_COORD_OUTPUTS * ROTATION_OUTPUTS];
     private final RunMode runMode;
     private Tetromino currentTetromino;
     private Tetromino nextTetromino;
@@ -62,10 +66,27 @@ public class StackManager implements StackComponent {
     private int droppedElements;
     private int simFullRows;
     private int lastFullRows;
+    private long stackHash;
+    private long stackVersion;
+    private long simStackHash;
+    private double simLandingHeight;
+    private int simErodedCells;
+    // Columns whose occupancy changed on the simulated stack since it was copied, empty if from > to
+    private int simTouchedFrom;
+    private int simTouchedTo;
 
     public StackManager(RunMode runMode) {
         this.runMode = runMode;
+        // Only the AI modes evaluate candidate placements
+        this.transpositionTable = runMode != RunMode.HUMAN ? TranspositionTable.getInstance() : null;
         iteration = 0;
+        for (int i = 0; i < candidateBoards.length; i++) {
+            candidateBoards[i] = new FeatureBoard();
+        }
+        System.out.println("Features: " + Arrays.toString(FEED_FEATURES) + ", " + FEED_DATA_SIZE + " inputs");
+        if (candidateMetrics != null) {
+            System.out.println("Candidate metrics: " + (candidateMetrics.isUsingVector() ? "Vector API" : "scalar fallback"));
+        }
     }
 
     protected void start() {
@@ -84,8 +105,48 @@ public class StackManager implements StackComponent {
     private void initializeStack() {
         for (int i = 0; i < ROWS; i++) {
             for (int j = 0; j < COLS; j++) {
-                stackArea[i][j] = new Cell(EMPTY_CELL.getTetrominoId(), EMPTY_CELL.getColor());
+                stackArea[i][j] = EMPTY_CELL;
             }
+            rowMasks[i] = 0;
+        }
+        Arrays.fill(columnMasks, 0);
+        stackHash = 0L;
+        stackVersion++;
+    }
+
+    /**
+     * Set one cell of the stack and keep the Zobrist hash, the row masks and the column masks of the stack up to
+     * date. Occupancy changes of the live stack also advance its version.
+     *
+     * @param stack live or simulated stack
+     *
+     * @param row stack row
+     *
+     * @param col stack column
+     *
+     * @param cell new cell
+     */
+    private void setCell(Cell[][] stack, int row, int col, Cell cell) {
+        if (ZobristHash.isOccupied(stack[row][col]) != ZobristHash.isOccupied(cell)) {
+            if (stack == stackArea) {
+                stackHash ^= ZobristHash.cellKey(row, col);
+                rowMasks[row] ^= 1 << col;
+                columnMasks[col] ^= 1 << row;
+                stackVersion++;
+            } else {
+                simStackHash ^= ZobristHash.cellKey(row, col);
+                simRowMasks[row] ^= 1 << col;
+                simColumnMasks[col] ^= 1 << row;
+                simTouchedFrom = Math.min(simTouchedFrom, col);
+                simTouchedTo = Math.max(simTouchedTo, col);
+            }
+        }
+        stack[row][col] = cell;
+    }
+
+    private void copyRow(Cell[][] stack, int fromRow, int toRow) {
+        for (int col = 0; col < COLS; col++) {
+            setCell(stack, toRow, col, stack[fromRow][col]);
         }
     }
 
@@ -102,13 +163,17 @@ public class StackManager implements StackComponent {
         return copy;
     }
 
-    private Cell[][] copyStack(Cell[][] original) {
-        Cell[][] copy = new Cell[original.length][original[0].length];
+    private Cell[][] copyStack(Cell[][] original, Cell[][] copy) {
         for (int i = 0; i < original.length; i++) {
-            for (int j = 0; j < original[0].length; j++) {
-                copy[i][j] = new Cell(original[i][j].getTetrominoId(), original[i][j].getColor());
-            }
+            System.arraycopy(original[i], 0, copy[i], 0, original[i].length);
+            simRowMasks[i] = original == stackArea ? rowMasks[i] : RowTables.rowMask(original[i]);
+        }
+        for (int col = 0; col < COLS; col++) {
+            simColumnMasks[col] = original == stackArea ? columnMasks[col] : StackMetrics.readColumn(original, col);
         }
+        simStackHash = original == stackArea ? stackHash : ZobristHash.hash(original);
+        simTouchedFrom = COLS;
+        simTouchedTo = -1;
         return copy;
     }
 
@@ -119,13 +184,9 @@ public class StackManager implements StackComponent {
         for (int i = 0; i < tetromino.getPixels().length; i++) {
             for (int j = 0; j < tetromino.getPixels()[i].length; j++) {
                 if (tetromino.getPixels()[i][j] != 0) {
-                    stackArea[tetromino.getStackRow() + i][tetromino.getStackCol() + j] =
-                            new Cell(tetromino.getId(), tetromino.getColor());
-                    if (tetromino.getPixels()[i][j] == 2) {
-                        stackArea[tetromino.getStackRow() + i][tetromino.getStackCol() + j].setBonus(BonusType.BOMB);
-                    } else {
-                        stackArea[tetromino.getStackRow() + i][tetromino.getStackCol() + j].setBonus(BonusType.NONE);
-                    }
+                    setCell(stackArea, tetromino.getStackRow() + i, tetromino.getStackCol() + j,
+                            TETROMINO_FACTORY.getTetrominoCell(tetromino.getId(), tetromino.getColor(),
+                                    tetromino.getPixels()[i][j] == 2 ? BonusType.BOMB : BonusType.NONE));
                 }
             }
         }
@@ -138,9 +199,7 @@ public class StackManager implements StackComponent {
         for (int i = 0; i < tetromino.getPixels().length; i++) {
             for (int j = 0; j < tetromino.getPixels()[i].length; j++) {
                 if (tetromino.getPixels()[i][j] != 0) {
-                    stackArea[tetromino.getStackRow() + i][tetromino.getStackCol() + j] =
-                            new Cell(TetrominoFactory.getInstance().getEmptyTetromino().getId(),
-                                    TetrominoFactory.getInstance().getEmptyTetromino().getColor());
+                    setCell(stackArea, tetromino.getStackRow() + i, tetromino.getStackCol() + j, EMPTY_CELL);
                 }
             }
         }
@@ -356,17 +415,10 @@ public class StackManager implements StackComponent {
      * @return int fullRowNum
      */
     protected int getFullRowsNum(Cell[][] stackArea) {
+        int[] masks = rowMasksOf(stackArea);
         int fullRowNum = 0;
-        boolean isFull;
-        for (Cell[] cells : stackArea) {
-            isFull = true;
-            for (Cell cell : cells) {
-                if (cell.getTetrominoId() == EMPTY_CELL.getTetrominoId()) {
-                    isFull = false;
-                    break;
-                }
-            }
-            if (isFull) {
+        for (int row = 0; row < ROWS; row++) {
+            if (RowTables.isFull(masks != null ? masks[row] : RowTables.rowMask(stackArea[row]))) {
                 fullRowNum++;
             }
         }
@@ -374,19 +426,50 @@ public class StackManager implements StackComponent {
         return fullRowNum;
     }
 
+    private static boolean rowMasksMatch(Cell[][] stack, int[] masks) {
+        for (int row = 0; row < ROWS; row++) {
+            if (masks[row] != RowTables.rowMask(stack[row])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean columnMasksMatch(Cell[][] stack, int[] masks) {
+        for (int col = 0; col < COLS; col++) {
+            if (masks[col] != StackMetrics.readColumn(stack, col)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Row masks maintained by setCell, or null for a stack which is neither the live nor the simulated one.
+     */
+    private int[] rowMasksOf(Cell[][] stack) {
+        if (stack == stackArea) {
+            return rowMasks;
+        }
+        return stack == simStack ? simRowMasks : null;
+    }
+
+    private int[] columnMasksOf(Cell[][] stack) {
+        if (stack == stackArea) {
+            return columnMasks;
+        }
+        return stack == simStack ? simColumnMasks : null;
+    }
+
     protected void insertPixel(int x, int y, boolean on) {
         if (x >= 1 && x < stackArea.length + 1 && y >= 1 && y <= stackArea[0].length + 1) {
-            stackArea[(x - 1) + ROW_OFFSET][y - 1] =
-                    (on ? new Cell(TetrominoFactory.getInstance().getLoadedTetromino().getId(),
-                    TetrominoFactory.getInstance().getLoadedTetromino().getColor()) :
-                    new Cell(TetrominoFactory.getInstance().getEmptyTetromino().getId(),
-                            TetrominoFactory.getInstance().getEmptyTetromino().getColor()));
+            setCell(stackArea, (x - 1) + ROW_OFFSET, y - 1, on ? TETROMINO_FACTORY.getLoadedCell() : EMPTY_CELL);
         }
     }
 
     private void generatePenaltyRows(int rowNum) {
         for (int i = ROW_OFFSET; i < stackArea.length; i++) {
-            System.arraycopy(stackArea[i], 0, stackArea[i - 1], 0, stackArea[i].length);
+            copyRow(stackArea, i, i - 1);
         }
         Random rnd = new Random();
         int rn;
@@ -397,6 +480,7 @@ public class StackManager implements StackComponent {
             }
         }
         noFullRows = 0;
+        assert stackHash == ZobristHash.hash(stackArea) : "Stack hash out of sync after penalty rows";
     }
 
     protected void checkPenalty() {
@@ -427,25 +511,14 @@ public class StackManager implements StackComponent {
 
     protected void flagFullRows() {
         boolean thereIsFullRow = false;
-        boolean rowFull;
-        Color c;
-        for (Cell[] cells : stackArea) {
-            rowFull = true;
-            for (Cell cell : cells) {
-                if (cell.getTetrominoId() == 0) {
-                    rowFull = false;
-                    break;
-                }
-            }
-            if (rowFull) {
+        for (int row = 0; row < stackArea.length; row++) {
+            Cell[] cells = stackArea[row];
+            if (RowTables.isFull(rowMasks[row])) {
                 thereIsFullRow = true;
                 int currentRowScore = 0;
                 for (int k = 0; k < cells.length; k++) {
                     currentRowScore += cells[k].getScore() + (gameLevel * (LEVEL_BONUS / 10));
-                    c = cells[k].getColor();
-                    cells[k] = new Cell(TetrominoFactory.getInstance().getErasedTetromino().getId(),
-                            TetrominoFactory.getInstance().getErasedTetromino().getColor());
-                    cells[k].setColor(c);
+                    setCell(stackArea, row, k, TETROMINO_FACTORY.getErasedCell(cells[k].getColor()));
                 }
                 gameScore += currentRowScore;
                 gameScore += gameLevel * LEVEL_BONUS;
@@ -461,6 +534,10 @@ public class StackManager implements StackComponent {
 
     private void itemFalled(Cell[][] stackArea, Tetromino tetromino, Boolean isSimulation) {
         putTetromino(stackArea, tetromino);
+        assert (stackArea == this.stackArea ? stackHash : simStackHash) == ZobristHash.hash(stackArea) :
+                "Stack hash out of sync after placing a tetromino";
+        assert rowMasksMatch(stackArea, rowMasksOf(stackArea)) : "Row masks out of sync after placing a tetromino";
+        assert columnMasksMatch(stackArea, columnMasksOf(stackArea)) : "Column masks out of sync after placing a tetromino";
         int fullRowsNum = getFullRowsNum(stackArea);
         simFullRows = fullRowsNum;
         gameAllRows += fullRowsNum;
@@ -521,39 +598,31 @@ public class StackManager implements StackComponent {
     protected void clearRows() {
         int writeRow = ROWS - 1;
         int fullRows = 0;
-        Cell[] rowBuffer = new Cell[COLS];
 
         for (int readRow = ROWS - 1; readRow >= 0; readRow--) {
-            if (isRowFull(stackArea[readRow])) {
+            if (RowTables.isFull(rowMasks[readRow])) {
                 fullRows++;
                 continue;
             }
 
             if (writeRow != readRow) {
-                System.arraycopy(stackArea[readRow], 0, rowBuffer, 0, COLS);
-                System.arraycopy(rowBuffer, 0, stackArea[writeRow], 0, COLS);
+                copyRow(stackArea, readRow, writeRow);
             }
             writeRow--;
         }
 
         while (writeRow >= 0) {
             for (int col = 0; col < COLS; col++) {
-                stackArea[writeRow][col] = new Cell(EMPTY_CELL.getTetrominoId(), EMPTY_CELL.getColor());
+                setCell(stackArea, writeRow, col, EMPTY_CELL);
             }
             writeRow--;
         }
+        assert stackHash == ZobristHash.hash(stackArea) : "Stack hash out of sync after clearing rows";
+        assert rowMasksMatch(stackArea, rowMasks) : "Row masks out of sync after clearing rows";
+        assert columnMasksMatch(stackArea, columnMasks) : "Column masks out of sync after clearing rows";
         updateScoreAndLevel(fullRows);
     }
 
-    private boolean isRowFull(Cell[] row) {
-        for (Cell cell : row) {
-            if (cell.getTetrominoId() == 0) {
-                return false;
-            }
-        }
-        return true;
-    }
-
     private void updateScoreAndLevel(int fullRows) {
         gameScore += fullRows * ROW_SCORE;
         allFullRows += fullRows;
@@ -594,78 +663,143 @@ public class StackManager implements StackComponent {
         }
     }
 
+    /**
+     * Simulate one action: rotate, move and drop a copy of the tetromino on a copy of the stack.
+     *
+     * <p>The result is written into a shared simulation buffer, which is overwritten by the next simulation.</p>
+     *
+     * @param stackArea source stack, it is not modified
+     *
+     * @param tetromino tetromino in spawn position, it is not modified
+     *
+     * @param x target column
+     *
+     * @param rot number of right rotations
+     *
+     * @return simulated stack after the drop
+     */
+    Cell[][] simulatePlacement(Cell[][] stackArea, Tetromino tetromino, int x, int rot) {
+        copyStack(stackArea, simStack);
+        Tetromino simTetromino = copyTetromino(tetromino);
+        for (int i = 0; i < rot; i++) {
+            if (!rotateTetrominoRight(simStack, simTetromino)) {
+                break;
+            }
+        }
+        int moveDirection = Integer.compare(x, simTetromino.getStackCol());
+        while (simTetromino.getStackCol() != x) {
+            boolean moved = moveDirection > 0 ?
+                    moveTetrominoRight(simStack, simTetromino) :
+                    moveTetrominoLeft(simStack, simTetromino);
+            if (!moved) {
+                break;
+            }
+        }
+        while (!moveTetrominoDown(simStack, simTetromino, true)) {
+        }
+        measureLanding(simTetromino);
+        return simStack;
+    }
+
+    /**
+     * Landing height and eroded cells (Dellacherie) of the landed simulated tetromino.
+     */
+    private void measureLanding(Tetromino tetromino) {
+        int[][] pixels = tetromino.getPixels();
+        int topRow = ROWS;
+        int bottomRow = -1;
+        int pieceCellsInFullRows = 0;
+        for (int i = 0; i < pixels.length; i++) {
+            for (int j = 0; j < pixels[i].length; j++) {
+                if (pixels[i][j] != 0) {
+                    int row = tetromino.getStackRow() + i;
+                    topRow = Math.min(topRow, row);
+                    bottomRow = Math.max(bottomRow, row);
+                    pieceCellsInFullRows += RowTables.isFull(simRowMasks[row]) ? 1 : 0;
+                }
+            }
+        }
+        simLandingHeight = (ROWS - 1 - bottomRow) + (bottomRow - topRow) / 2.0;
+        simErodedCells = simFullRows * pieceCellsInFullRows;
+    }
+
     /**
      * Simulate all possible actions.
      *
+     * <p>The features of the candidates are computed from the bitboards of the simulated stacks, the features
+     * and their order are selected by {@code FEED_FEATURES}.</p>
+     *
      * @param stackArea Stack area.
      *
      * @param tetromino Investigated tetromino.
      *
-     * @param metrics Metric object.
-     *
      * @return All possible position with score.
      */
-    public double[][] simulateAllPossibleActions(Cell[][] stackArea, Tetromino tetromino, StackMetrics metrics) {
+    public double[][] simulateAllPossibleActions(Cell[][] stackArea, Tetromino tetromino) {
         double[][] results = new double[X_COORD_OUTPUTS * ROTATION_OUTPUTS][];
         int index = 0;
+        boolean hasPendingCandidates = false;
+        if (candidateMetrics != null) {
+            // Every candidate starts from the stack before the placement and patches the columns it touched
+            copyStack(stackArea, simStack);
+            candidateMetrics.setBaseStack(simColumnMasks);
+        }
 
         for (int x = 0; x < X_COORD_OUTPUTS; x++) {
             for (int rot = 0; rot < ROTATION_OUTPUTS; rot++) {
-                Cell[][] simStack = copyStack(stackArea);
-                Tetromino simTetromino = copyTetromino(tetromino);
-                for (int i = 0; i < rot; i++) {
-                    if (!rotateTetrominoRight(simStack, simTetromino)) {
-                        break;
-                    }
-                }
-                int moveDirection = Integer.compare(x, simTetromino.getStackCol());
-                while (simTetromino.getStackCol() != x) {
-                    boolean moved = moveDirection > 0 ?
-                            moveTetrominoRight(simStack, simTetromino) :
-                            moveTetrominoLeft(simStack, simTetromino);
-                    if (!moved) {
-                        break;
-                    }
-                }
-                while (!moveTetrominoDown(simStack, simTetromino, true)) {
-                }
+                simulatePlacement(stackArea, tetromino, x, rot);
                 double[] state = new double[FEED_DATA_SIZE + 2];
-                metrics.calculateGameMetrics(simStack);
-
-                double divider = 10;
-
                 state[0] = x;
                 state[1] = rot;
-                state[2] = POINT_FULLROW * (simFullRows / divider);
-                state[3] = POINT_HOLES * (metrics.getMetricColumnHoleSum() / divider);
-                state[4] = POINT_BUMPINESS * (metrics.getMetricBumpiness() / divider);
-                state[5] = POINT_HEIGHTS * (metrics.getMetricColumnHeightSum() / divider);
-
-                state[5] = getCurrentTetromino().getId() / divider;
-                state[6] = getNextTetromino().getId() / divider;
-
-                double[] columns = metrics.getMetricColumnHeights();
-                for (int i = 0; i < columns.length; i++) {
-                    state[7 + i] = columns[i] / divider;
+                int currentId = getCurrentTetromino().getId();
+                int nextId = getNextTetromino().getId();
+                long stateKey = PLACEMENT_KEYS
+                        ? ZobristHash.stateKey(simStackHash, currentId, nextId, simLandingHeight, simErodedCells)
+                        : ZobristHash.stateKey(simStackHash, currentId, nextId);
+                simulationKeys[index] = stateKey;
+                pendingCandidates[index] = false;
+                results[index] = state;
+                if (transpositionTable == null || !transpositionTable.getFeatures(stateKey, state, 2)) {
+                    FeatureBoard board = candidateBoards[index];
+                    board.load(simColumnMasks, simRowMasks, simFullRows, simLandingHeight, simErodedCells,
+                            currentId, nextId);
+                    if (candidateMetrics != null) {
+                        candidateMetrics.loadCandidate(index, board.getColumnMasks(), simTouchedFrom, simTouchedTo);
+                    }
+                    pendingCandidates[index] = true;
+                    hasPendingCandidates = true;
                 }
+                index++;
+            }
+        }
 
-                if (NORMALIZE_FEED_DATA) {
-                    if (Objects.equals(FEED_DATA_NORMALIZER, "MINMAX")) {
-                        InputNormalizerMinmax normalizer = new InputNormalizerMinmax(FEED_DATA_SIZE + 2);
-                        state = normalizer.normalizeAutomatically(state);
-                    } else if (Objects.equals(FEED_DATA_NORMALIZER, "ZSCORE")) {
-                        InputNormalizerZScore normalizer = new InputNormalizerZScore(FEED_DATA_SIZE + 2);
-                        state = normalizer.normalizeAutomatically(state);
+        if (hasPendingCandidates) {
+            if (candidateMetrics != null) {
+                candidateMetrics.evaluate();
+            }
+            for (int i = 0; i < results.length; i++) {
+                if (pendingCandidates[i]) {
+                    FeatureBoard board = candidateBoards[i];
+                    if (candidateMetrics != null) {
+                        board.setColumnStats(candidateMetrics, i);
                     } else {
-                        throw new IllegalArgumentException("Unsupported normalization type: " + FEED_DATA_NORMALIZER);
+                        board.computeColumnStats();
                     }
+                    board.write(FEED_FEATURES, results[i], 2);
+                    results[i] = finishState(simulationKeys[i], results[i]);
                 }
-                results[index++] = state;
             }
         }
         return results;
     }
 
+    private double[] finishState(long stateKey, double[] state) {
+        if (transpositionTable != null) {
+            transpositionTable.putFeatures(stateKey, state, 2);
+        }
+        return state;
+    }
+
     public void nextIteration() {
         iteration++;
     }
@@ -678,6 +812,73 @@ public class StackManager implements StackComponent {
         return stackArea;
     }
 
+    public long getStackHash() {
+        return stackHash;
+    }
+
+    /**
+     * Column masks of the live stack maintained by setCell, bit {@code row} set if the cell is occupied.
+     *
+     * @return column masks, not to be modified
+     */
+    int[] getColumnMasks() {
+        return columnMasks;
+    }
+
+    /**
+     * Row masks of the live stack maintained by setCell, bit {@code col} set if the cell is occupied.
+     *
+     * @return row masks, not to be modified
+     */
+    int[] getRowMasks() {
+        return rowMasks;
+    }
+
+    /**
+     * Shared transposition table of the candidate features, null in human mode or if the table is disabled.
+     *
+     * @return transposition table
+     */
+    public TranspositionTable getTranspositionTable() {
+        return transpositionTable;
+    }
+
+    /**
+     * Version of the live stack, it changes whenever the occupancy of a cell changes. Results computed from the
+     * stack occupancy can be reused while the version is the same.
+     *
+     * @return stack version
+     */
+    public long getStackVersion() {
+        return stackVersion;
+    }
+
+    /**
+     * State keys of the last simulated actions, in the order of the simulateAllPossibleActions results.
+     *
+     * @return state keys
+     */
+    public long[] getSimulationKeys() {
+        return simulationKeys;
+    }
+
+    /**
+     * Zobrist hash of the last simulated stack.
+     *
+     * @return hash of the simulated stack
+     */
+    public long getSimStackHash() {
+        return simStackHash;
+    }
+
+    double getSimLandingHeight() {
+        return simLandingHeight;
+    }
+
+    int getSimErodedCells() {
+        return simErodedCells;
+    }
+
     public int getAllFullRows() {
         return allFullRows;
     }
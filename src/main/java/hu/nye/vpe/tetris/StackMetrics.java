@@ -4,12 +4,29 @@ import hu.nye.vpe.gaming.GameConstans;
 
 /**
  * Stack metric class.
+ *
+ * <p>The metrics are the {@link BoardFeature}s of the stack, computed by a {@link FeatureBoard}. The live stack is
+ * loaded from the occupancy masks {@link StackManager} maintains, any other stack is read once into masks. The
+ * instance is reusable: the per-column arrays are allocated once and overwritten by every calculation, the array
+ * getters therefore return views which are valid until the next calculation.</p>
+ *
+ * <p>The column statistics (heights, holes, height sum, maximum height, bumpiness) are always computed, the other
+ * features only if they are in the {@link MetricPlan} given at construction, the others keep their previous
+ * value.</p>
+ *
+ * <p>The metrics of the live stack are stamped with the stack version of {@link StackManager}. Asking again for
+ * the same version returns the previous results, so the reward, the display and the training step share one
+ * calculation per board change.</p>
  */
 public class StackMetrics implements StackComponent {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int EMPTY_ID = TetrominoType.EMPTY.getTetrominoTypeId();
+
     private StackManager manager;
     private double metricNumberOfHoles;
-    private double[] metricColumnHeights;
-    private double[] metricColumnHoles;
+    private final double[] metricColumnHeights = new double[COLS];
+    private final double[] metricColumnHoles = new double[COLS];
     private double metricColumnHeightSum;
     private double metricColumnHoleSum;
     private double metricAvgColumnHeight;
@@ -21,9 +38,25 @@ public class StackMetrics implements StackComponent {
     private double metricDroppedElements;
     private double metricAvgDensity;
     private double metricAccessibleEmptyCells;
-    private int[] metricHighestOccupiedCell;
+    private final int[] metricHighestOccupiedCell = new int[COLS];
+    private final int[] columnMasks = new int[COLS];
+    private final int[] rowMasks = new int[ROWS];
+    private final FeatureBoard board = new FeatureBoard();
+    private Cell[][] calculatedStack;
+    private long calculatedVersion;
+    private final MetricPlan plan;
 
     public StackMetrics() {
+        this(MetricPlan.ALL);
+    }
+
+    /**
+     * Metrics computing only the features of the plan beyond the column statistics.
+     *
+     * @param plan evaluation plan
+     */
+    public StackMetrics(MetricPlan plan) {
+        this.plan = plan;
     }
 
     /**
@@ -32,288 +65,78 @@ public class StackMetrics implements StackComponent {
      * @param stack current or simulated stack
      */
     public void calculateGameMetrics(Cell[][] stack) {
-        metricBumpiness = calculateBumpiness(stack);
-        metricMaxHeight = calculateMaxHeight(stack);
-        metricColumnHeights = calculateColumnHeights(stack);
-        metricColumnHeightSum = calculateColumnHeightSum(stack);
-        metricColumnHoles = calculateColumnHoles(stack);
-        metricColumnHoleSum = calculateColumnHoleSum(stack);
-        metricAvgColumnHeight = calculateAverageHeightDifference(stack);
-        metricSurroundingHoles = calculateHolesSurrounded(stack);
-        metricNumberOfHoles = countHoles(stack);
-        metricBlockedRows = countBlockedRows(stack);
-        metricNearlyFullRows = countNearlyFullRows(stack);
-        metricAvgDensity = calculateAverageDensity(stack);
-        metricAccessibleEmptyCells = countAccessibleEmptyCells(stack);
-        metricHighestOccupiedCell = calculateHighestOccupiedCells(stack);
-    }
-
-    private int countHoles(Cell[][] stack) {
-        int holes = 0;
-        for (int col = 0; col < GameConstans.COLS; col++) {
-            boolean blockFound = false;
-            for (int row = 0; row < GameConstans.ROWS; row++) {
-                if (stack[row][col].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    blockFound = true;
-                } else if (blockFound) {
-                    holes++;
+        if (manager != null && stack == manager.getStackArea()) {
+            if (stack == calculatedStack && manager.getStackVersion() == calculatedVersion) {
+                return;
+            }
+            calculatedStack = stack;
+            calculatedVersion = manager.getStackVersion();
+            board.load(manager.getColumnMasks(), manager.getRowMasks(), 0, 0.0, 0, 0, 0);
+        } else {
+            calculatedStack = null;
+            for (int row = 0; row < ROWS; row++) {
+                rowMasks[row] = 0;
+            }
+            for (int col = 0; col < COLS; col++) {
+                int mask = readColumn(stack, col);
+                columnMasks[col] = mask;
+                while (mask != 0) {
+                    rowMasks[Integer.numberOfTrailingZeros(mask)] |= 1 << col;
+                    mask &= mask - 1;
                 }
             }
+            board.load(columnMasks, rowMasks, 0, 0.0, 0, 0, 0);
         }
-        return holes;
+        summarize();
     }
 
-    private double calculateAverageDensity(Cell[][] stack) {
-        int lowestEmptyRow = findLowestEmptyRow(stack);
-        int activeCells = lowestEmptyRow * GameConstans.COLS;
-        int filledCells = 0;
-        for (int row = GameConstans.ROWS - 1; row >= GameConstans.ROWS - lowestEmptyRow; row--) {
-            for (int col = 0; col < GameConstans.COLS; col++) {
-                if (stack[row][col].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    filledCells++;
-                }
+    static int readColumn(Cell[][] stack, int col) {
+        int mask = 0;
+        for (int row = 0; row < ROWS; row++) {
+            if (stack[row][col].getTetrominoId() != EMPTY_ID) {
+                mask |= 1 << row;
             }
         }
-        return activeCells > 0 ? (double) filledCells / activeCells : 0.0;
+        return mask;
     }
 
-    private int findLowestEmptyRow(Cell[][] stack) {
-        for (int row = 0; row < GameConstans.ROWS; row++) {
-            boolean isEmpty = true;
-            for (int col = 0; col < GameConstans.COLS; col++) {
-                if (stack[GameConstans.ROWS - 1 - row][col].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    isEmpty = false;
-                    break;
-                }
-            }
-            if (isEmpty) {
-                return GameConstans.ROWS - 1 - row;
-            }
-        }
-        return 0;
-    }
-
-    private int countAccessibleEmptyCells(Cell[][] stack) {
-        int accessibleEmptyCells = 0;
-        boolean[] columnBlocked = new boolean[GameConstans.COLS];
-        int blockedColumns = 0;
-
-        for (int row = GameConstans.ROWS - 1; row >= 0; row--) {
-            for (int col = 0; col < GameConstans.COLS; col++) {
-                if (!columnBlocked[col]) {
-                    if (stack[row][col].getTetrominoId() == TetrominoType.EMPTY.getTetrominoTypeId()) {
-                        accessibleEmptyCells++;
-                    } else {
-                        columnBlocked[col] = true;
-                        blockedColumns++;
-                    }
-                }
-            }
-            if (blockedColumns == GameConstans.COLS) {
-                break;
-            }
-        }
-        return accessibleEmptyCells;
-    }
-
-    private double calculateBumpiness(Cell[][] stack) {
-        int[] columnHeights = new int[stack[0].length];
-
-        for (int col = 0; col < stack[0].length; col++) {
-            for (int row = 0; row < stack.length; row++) {
-                if (stack[row][col].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    columnHeights[col] = stack.length - row;
-                    break;
-                }
-            }
-        }
-
-        double bumpiness = 0;
-        for (int i = 0; i < columnHeights.length - 1; i++) {
-            int diff = Math.abs(columnHeights[i] - columnHeights[i + 1]);
-            bumpiness += diff;
-        }
-
-        return bumpiness;
-    }
-
-    private int calculateMaxHeight(Cell[][] stack) {
-        int maxHeight = 0;
-        for (int col = 0; col < GameConstans.COLS; col++) {
-            for (int row = 0; row < GameConstans.ROWS; row++) {
-                if (stack[row][col].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    int height = GameConstans.ROWS - row;
-                    if (height > maxHeight) {
-                        maxHeight = height;
-                    }
-                    break;
-                }
-            }
-        }
-        return maxHeight;
-    }
-
-    private int[] calculateHighestOccupiedCells(Cell[][] stack) {
-        int[] highestOccupied = new int[GameConstans.COLS];
-        for (int col = 0; col < GameConstans.COLS; col++) {
-            highestOccupied[col] = -1;
-            for (int row = 0; row < GameConstans.ROWS; row++) {
-                if (stack[row][col].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    highestOccupied[col] = row;
-                    break;
-                }
-            }
-        }
-        return highestOccupied;
-    }
-
-    private double countNearlyFullRows(Cell[][] stack) {
-        int nearlyFullRows = 0;
-        boolean foundNonEmptyRow = false;
-
-        for (int i = GameConstans.ROWS - 1; i >= 0; i--) {
-            int filledCells = 0;
-            for (int j = 0; j < GameConstans.COLS; j++) {
-                if (stack[i][j].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    filledCells++;
-                }
-            }
-
-            if (filledCells > 0) {
-                foundNonEmptyRow = true;
-            }
-
-            if (foundNonEmptyRow) {
-                if (filledCells >= GameConstans.COLS - 1 && filledCells < GameConstans.COLS) {
-                    nearlyFullRows++;
-                }
-
-                if (filledCells == 0) {
-                    break;
-                }
-            }
-        }
-        return nearlyFullRows;
-    }
-
-    private int countBlockedRows(Cell[][] stack) {
-        int blockedRows = 0;
-        boolean[] hasHole = new boolean[GameConstans.COLS];
-
-        for (int i = GameConstans.ROWS - 1; i >= 0; i--) {
-            boolean rowBlocked = false;
-            boolean rowHasBlock = false;
-
-            for (int j = 0; j < GameConstans.COLS; j++) {
-                if (stack[i][j].getTetrominoId() == TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    hasHole[j] = true;
-                } else {
-                    rowHasBlock = true;
-                    if (hasHole[j]) {
-                        rowBlocked = true;
-                    }
-                }
-            }
-
-            if (rowBlocked && rowHasBlock) {
-                blockedRows++;
-            }
-        }
-
-        return blockedRows;
-    }
-
-    private double[] calculateColumnHeights(Cell[][] stack) {
-        double[] columnHeights = new double[GameConstans.COLS];
-        for (int j = 0; j < GameConstans.COLS; j++) {
-            for (int i = 0; i < GameConstans.ROWS; i++) {
-                if (stack[i][j].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    columnHeights[j] = GameConstans.ROWS - i;
-                    break;
-                }
-            }
+    /**
+     * Take the metrics of the plan from the loaded board.
+     */
+    private void summarize() {
+        board.computeColumnStats();
+        int[] heights = board.getHeights();
+        int[] holes = board.getColumnHoles();
+        int[] masks = board.getColumnMasks();
+        for (int col = 0; col < COLS; col++) {
+            // Row 0 is the top of the stack, so the lowest set bit of a column mask is its highest cell
+            metricHighestOccupiedCell[col] = masks[col] == 0 ? -1 : Integer.numberOfTrailingZeros(masks[col]);
+            metricColumnHeights[col] = heights[col];
+            metricColumnHoles[col] = holes[col];
         }
-        return columnHeights;
-    }
-
-    private double calculateColumnHeightSum(Cell[][] stack) {
-        double sum = 0;
-        double[] columnHeights = calculateColumnHeights(stack);
-        for (int i = 0; i < columnHeights.length; i++) {
-            sum += columnHeights[i];
+        metricMaxHeight = board.getMaxHeight();
+        metricColumnHeightSum = board.getHeightSum();
+        metricColumnHoleSum = board.getHoleSum();
+        metricNumberOfHoles = metricColumnHoleSum;
+        metricBumpiness = board.getBumpiness();
+        if (plan.contains(BoardFeature.AVG_HEIGHT_DIFFERENCE)) {
+            metricAvgColumnHeight = board.averageHeightDifference();
         }
-        return sum;
-    }
-
-    private double[] calculateColumnHoles(Cell[][] stack) {
-        double[] columnHoles = new double[GameConstans.COLS];
-
-        for (int j = 0; j < GameConstans.COLS; j++) {
-            boolean foundFirstPiece = false;
-            int holes = 0;
-
-            for (int i = 0; i < GameConstans.ROWS; i++) {
-                if (stack[i][j].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    foundFirstPiece = true;
-                } else if (foundFirstPiece &&
-                        stack[i][j].getTetrominoId() == TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    holes++;
-                }
-            }
-            columnHoles[j] = holes;
+        if (plan.contains(BoardFeature.SURROUNDED_HOLES)) {
+            metricSurroundingHoles = board.surroundedHoles();
         }
-
-        return columnHoles;
-    }
-
-    private double calculateColumnHoleSum(Cell[][] stack) {
-        double sum = 0;
-        double[] columnHoles = calculateColumnHoles(stack);
-        for (int i = 0; i < columnHoles.length; i++) {
-            sum += columnHoles[i];
+        if (plan.contains(BoardFeature.BLOCKED_ROWS)) {
+            metricBlockedRows = board.blockedRows();
         }
-        return sum;
-    }
-
-    private double[] calculateHeightDifferences(Cell[][] stack) {
-        double[] columnHeights = calculateColumnHeights(stack);
-        double[] heightDifferences = new double[GameConstans.COLS - 1];
-        for (int j = 0; j < GameConstans.COLS - 1; j++) {
-            heightDifferences[j] = Math.abs(columnHeights[j] - columnHeights[j + 1]);
+        if (plan.contains(BoardFeature.NEARLY_FULL_ROWS)) {
+            metricNearlyFullRows = board.nearlyFullRows();
         }
-        return heightDifferences;
-    }
-
-    private double calculateAverageHeightDifference(Cell[][] stack) {
-        double[] columnHeights = calculateColumnHeights(stack);
-        double totalDifference = 0;
-        int comparisons = 0;
-        for (int i = 0; i < columnHeights.length - 1; i++) {
-            totalDifference += Math.abs(columnHeights[i] - columnHeights[i + 1]);
-            comparisons++;
+        if (plan.contains(BoardFeature.AVG_DENSITY)) {
+            metricAvgDensity = board.averageDensity();
         }
-        double averageDifference = (comparisons > 0) ? totalDifference / comparisons : 0;
-        return averageDifference / GameConstans.ROWS;
-    }
-
-    private int calculateHolesSurrounded(Cell[][] stack) {
-        int surroundings = 0;
-        for (int j = 0; j < GameConstans.COLS; j++) {
-            boolean blockAbove = false;
-            for (int i = 0; i < GameConstans.ROWS; i++) {
-                if (stack[i][j].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                    blockAbove = true;
-                } else if (blockAbove) {
-                    if (j > 0 && stack[i][j - 1].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                        surroundings++;
-                    }
-                    if (j < GameConstans.COLS - 1 && stack[i][j + 1].getTetrominoId() != TetrominoType.EMPTY.getTetrominoTypeId()) {
-                        surroundings++;
-                    }
-                }
-            }
+        if (plan.contains(BoardFeature.ACCESSIBLE_CELLS)) {
+            metricAccessibleEmptyCells = board.accessibleCells();
         }
-        return surroundings;
     }
 
     public double getMetricNumberOfHoles() {
@@ -384,6 +207,10 @@ public class StackMetrics implements StackComponent {
         return metricColumnHoleSum;
     }
 
+    public MetricPlan getPlan() {
+        return plan;
+    }
+
     @Override
     public void initializeStackComponents(StackUI stackUI, StackManager manager, StackMetrics metrics) {
         this.manager = manager;
@@ -43,6 +43,11 @@ public class StackUI implements GameElement, StackComponent {
     private static final int PARTICLE_COUNT = 8;
     private static final float ALPHA_DECREASE_RATE = 15f;
     private static final float ROTATION_SPEED = 15.0f;
+    // Metrics shown on the info panel
+    public static final MetricPlan DISPLAY_PLAN = MetricPlan.compile("Display", BoardFeature.MAX_HEIGHT,
+            BoardFeature.HOLES, BoardFeature.BUMPINESS, BoardFeature.AVG_HEIGHT_DIFFERENCE,
+            BoardFeature.NEARLY_FULL_ROWS, BoardFeature.BLOCKED_ROWS, BoardFeature.SURROUNDED_HOLES,
+            BoardFeature.AVG_DENSITY);
     private RunMode runMode;
 
 
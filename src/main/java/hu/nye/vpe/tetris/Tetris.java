@@ -12,7 +12,10 @@ import hu.nye.vpe.gaming.GameState;
 import hu.nye.vpe.gaming.GameTimeTicker;
 import hu.nye.vpe.nn.Activation;
 import hu.nye.vpe.nn.BatchNormParameters;
+import hu.nye.vpe.nn.FrozenNetwork;
 import hu.nye.vpe.nn.NeuralNetwork;
+import hu.nye.vpe.nn.QuantizedNetwork;
+import hu.nye.vpe.nn.TranspositionTable;
 import hu.nye.vpe.nn.WeightInitStrategy;
 
 /**
@@ -34,9 +37,17 @@ public class Tetris {
     private static final double POINT_HEIGHTS = GlobalConfig.getInstance().getPointHeights();
     private static final double POINT_HOLES = GlobalConfig.getInstance().getPointHoes();
     private static final double POINT_BUMPINESS = GlobalConfig.getInstance().getPoinBumpiness();
+    private static final int CACHE_REPORT_ITERATIONS = 100;
+    private static final boolean PLAY_QUANTIZED = GlobalConfig.getInstance().getPlayQuantized();
+    private static final int CALIBRATION_PLACEMENTS = 1000;
+    private static final long CALIBRATION_SEED = 47L;
+    private static final MetricPlan REWARD_PLAN = MetricPlan.compile("Reward", BoardFeature.HOLES,
+            BoardFeature.HEIGHT_SUM, BoardFeature.BUMPINESS);
 
     private RunMode runMode;
     private NeuralNetwork brain;
+    private FrozenNetwork playModel;
+    private QuantizedNetwork quantizedPlayModel;
     private static final long speed = GameConstans.START_SPEED;
     private final long learningSpeed = GameConstans.LEARNING_START_SPEED;
     private Tetromino nextTetromino = null;
@@ -94,29 +105,38 @@ public class Tetris {
             }
         }
         if (runMode == RunMode.PLAY_AI) {
+            brain = new NeuralNetwork(
+                    LAYER_NAMES,
+                    LAYER_SIZES,
+                    LAYER_ACTIVATIONS,
+                    WEIGHT_INIT_STRATEGIES,
+                    BATCH_NORMS,
+                    L2_REGULARIZATION
+            );
             try {
-                brain = new NeuralNetwork(
-                        LAYER_NAMES,
-                        LAYER_SIZES,
-                        LAYER_ACTIVATIONS,
-                        WEIGHT_INIT_STRATEGIES,
-                        BATCH_NORMS,
-                        L2_REGULARIZATION
-                );
                 brain.loadNetworkStructure("brain_network.json");
                 brain.loadTrainingState("brain_training.json");
                 System.out.println("Neural Network for inference loaded successfully");
             } catch (Exception e) {
-                System.out.println("Nem sikerült a hálózat betöltése inferenciához: " + e.getMessage());
+                System.out.println("Nem sikerült a hálózat betöltése inferenciához, a betöltetlen hálózattal játszik: "
+                        + e.getMessage());
                 e.printStackTrace();
             }
+            if (brain.getInputNormalizer() != null) {
+                brain.getInputNormalizer().freeze();
+            }
+            playModel = brain.freeze();
+            if (PLAY_QUANTIZED) {
+                quantizedPlayModel = quantize(playModel);
+            }
         }
     }
 
     private void initializeComponents() {
         stackManager = new StackManager(runMode);
         stackUI = new StackUI(runMode);
-        stackMetrics = new StackMetrics();
+        stackMetrics = new StackMetrics(REWARD_PLAN.union("Reward and display", StackUI.DISPLAY_PLAN));
+        System.out.println(stackMetrics.getPlan());
         stackManager.initializeStackComponents(stackUI, stackManager, stackMetrics);
         stackMetrics.initializeStackComponents(stackUI, stackManager, stackMetrics);
         stackUI.initializeStackComponents(stackUI, stackManager, stackMetrics);
@@ -128,6 +148,10 @@ public class Tetris {
      */
     public void start() {
         stackManager.nextIteration();
+        TranspositionTable transpositionTable = stackManager.getTranspositionTable();
+        if (transpositionTable != null && StackManager.getIteration() % CACHE_REPORT_ITERATIONS == 0) {
+            System.out.println(transpositionTable.report());
+        }
         if (runMode == RunMode.TRAIN_AI) {
             stackManager.setCurrentSpeed(learningSpeed);
         } else if (runMode == RunMode.PLAY_AI) {
@@ -156,16 +180,29 @@ public class Tetris {
         stackManager.setTetrominos(currentTetromino, nextTetromino);
 
         if (runMode == RunMode.PLAY_AI) {
-            StackMetrics metrics = new StackMetrics();
             double[][] possibleStates = stackManager.simulateAllPossibleActions(
                     stackManager.getStackArea(),
-                    stackManager.getCurrentTetromino(),
-                    metrics
+                    stackManager.getCurrentTetromino()
             );
-            action = brain.selectAction(possibleStates);
+            action = quantizedPlayModel != null ? quantizedPlayModel.selectAction(possibleStates)
+                    : playModel.selectAction(possibleStates, stackManager.getSimulationKeys());
         }
     }
 
+    private QuantizedNetwork quantize(FrozenNetwork model) {
+        double[][][] recorded = PlacementRecorder.record(CALIBRATION_PLACEMENTS, CALIBRATION_SEED,
+                model::predictQValues);
+        int candidates = recorded[0].length;
+        double[][] calibration = new double[CALIBRATION_PLACEMENTS * candidates][];
+        for (int p = 0; p < CALIBRATION_PLACEMENTS; p++) {
+            System.arraycopy(recorded[p], 0, calibration, p * candidates, candidates);
+        }
+        QuantizedNetwork quantized = QuantizedNetwork.quantize(brain, calibration);
+        System.out.printf("Int8 network calibrated on %d placements, %d bytes%n", CALIBRATION_PLACEMENTS,
+                quantized.getParameterBytes());
+        return quantized;
+    }
+
     private Tetromino createNextTetromino() {
         Tetromino newNextTetromino = sf.getRandomTetromino(-1);
         if (newNextTetromino != null) {
@@ -302,17 +339,14 @@ public class Tetris {
         if (!TEST_ALGORITHM_ONLY) {
             // 1. előző jutalom kiszámítása
             if (lastState != null && lastAction != null) {
-                stackMetrics.calculateGameMetrics(stackManager.getStackArea());
                 reward = calculateReward(false);
             }
         }
 
         // 2. Új állapotok kiszámítása
-        StackMetrics metrics = new StackMetrics();
         double[][] possibleStates = stackManager.simulateAllPossibleActions(
                 stackManager.getStackArea(),
-                stackManager.getCurrentTetromino(),
-                metrics
+                stackManager.getCurrentTetromino()
         );
 
         if (!TEST_ALGORITHM_ONLY) {
@@ -333,7 +367,7 @@ public class Tetris {
         int[] action;
         if (possibleStates.length > 0) {
             if (!TEST_ALGORITHM_ONLY) {
-                action = brain.selectAction(possibleStates);
+                action = brain.selectAction(possibleStates, stackManager.getSimulationKeys());
             } else {
                 action = selectBestState(possibleStates);
             }
@@ -2,6 +2,8 @@ package hu.nye.vpe.tetris;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 
 import hu.nye.vpe.gaming.GameColorPalette;
@@ -12,6 +14,8 @@ import hu.nye.vpe.gaming.GameColorPalette;
 public class TetrominoFactory {
     private static final int MAX_TETROMINO_WIDTH = 4;
     private static final int MAX_TEROMINO_HEIGHT = 4;
+    private static final int MAX_TETROMINO_ID = 100;
+    private static final int BONUS_TYPES = BonusType.values().length;
     private static final TetrominoFactory TETROMINO_FACTORY = new TetrominoFactory();
     private final int[][] pixelsEmpty = new int[][]{{1, 1, 1}, {1, 1, 1}, {1, 1, 1}};
     private final Tetromino tetrominoEmpty = new Tetromino(0, 0, Color.WHITE, 1, pixelsEmpty);
@@ -19,6 +23,10 @@ public class TetrominoFactory {
     private final Tetromino tetrominoErased = new Tetromino(99, 40, Color.BLACK, 1, pixelsErased);
     private final int[][] pixelsLoaded = new int[][]{{1, 1, 1}, {1, 1, 1}, {1, 1, 1} };
     private final Tetromino tetrominoLoaded = new Tetromino(90, 120, new Color(60, 60, 60), 1, pixelsLoaded);
+    private final Cell cellEmpty = new Cell(tetrominoEmpty.getId(), tetrominoEmpty.getColor());
+    private final Cell cellLoaded = new Cell(tetrominoLoaded.getId(), tetrominoLoaded.getColor());
+    private final Map<Color, Cell> erasedCells = new HashMap<>();
+    private final Cell[][] tetrominoCells = new Cell[MAX_TETROMINO_ID][BONUS_TYPES];
     private final ArrayList<Tetromino> tetrominoArray = new ArrayList<Tetromino>();
     private static final GameColorPalette palette = GameColorPalette.getInstance();
     private static final Random rnd = new Random();
@@ -131,6 +139,60 @@ public class TetrominoFactory {
         );
     }
 
+    /**
+     * Shared empty cell.
+     *
+     * @return empty cell
+     */
+    public Cell getEmptyCell() {
+        return cellEmpty;
+    }
+
+    /**
+     * Shared loaded (penalty) cell.
+     *
+     * @return loaded cell
+     */
+    public Cell getLoadedCell() {
+        return cellLoaded;
+    }
+
+    /**
+     * Shared erased cell which keeps the color of the cell it replaces.
+     *
+     * @param color color of the erased cell
+     *
+     * @return erased cell
+     */
+    public Cell getErasedCell(Color color) {
+        Cell cell = erasedCells.get(color);
+        if (cell == null) {
+            cell = new Cell(tetrominoErased.getId(), color);
+            erasedCells.put(color, cell);
+        }
+        return cell;
+    }
+
+    /**
+     * Shared cell of a tetromino. A new instance is only created when the palette color of the id changes.
+     *
+     * @param tetrominoId tetromino id
+     *
+     * @param color tetromino color
+     *
+     * @param bonus bonus type of the cell
+     *
+     * @return tetromino cell
+     */
+    public Cell getTetrominoCell(int tetrominoId, Color color, BonusType bonus) {
+        Cell cell = tetrominoCells[tetrominoId][bonus.ordinal()];
+        if (cell == null || cell.getColor() != color) {
+            cell = new Cell(tetrominoId, color, bonus);
+            tetrominoCells[tetrominoId][bonus.ordinal()] = cell;
+        }
+        return cell;
+    }
+
     private void putBonusToTile(Tetromino tetromino) {
         Random randomPixel = new Random();
         int bonusPixel = randomPixel.nextInt(tetromino.getPixelsNumber());
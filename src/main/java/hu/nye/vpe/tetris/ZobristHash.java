@@ -0,0 +1,130 @@
+package hu.nye.vpe.tetris;
+
+import java.util.SplittableRandom;
+
+import hu.nye.vpe.gaming.GameConstans;
+
+/**
+ * Zobrist hash of stack occupancy.
+ *
+ * <p>Every cell of the stack owns a fixed 64-bit key. The hash of a stack is the XOR of the keys of all
+ * occupied cells, so setting or clearing a single cell updates the hash with one XOR. The key table is
+ * generated from a fixed seed, hashes are therefore stable between runs.</p>
+ */
+public final class ZobristHash {
+    private static final long SEED = 0x42726169_6E747269L;
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int EMPTY_ID = TetrominoType.EMPTY.getTetrominoTypeId();
+    private static final int PIECE_SLOTS = 2;
+    private static final int PIECE_IDS = 100;
+    private static final long[][] CELL_KEYS = new long[ROWS][COLS];
+    private static final long[][] PIECE_KEYS = new long[PIECE_SLOTS][PIECE_IDS];
+    private static final int MAX_ERODED_CELLS = 16;
+    private static final long[] LANDING_KEYS = new long[2 * ROWS];
+    private static final long[] ERODED_KEYS = new long[MAX_ERODED_CELLS + 1];
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLS; col++) {
+                CELL_KEYS[row][col] = random.nextLong();
+            }
+        }
+        for (int slot = 0; slot < PIECE_SLOTS; slot++) {
+            for (int id = 0; id < PIECE_IDS; id++) {
+                PIECE_KEYS[slot][id] = random.nextLong();
+            }
+        }
+        for (int i = 0; i < LANDING_KEYS.length; i++) {
+            LANDING_KEYS[i] = random.nextLong();
+        }
+        for (int i = 0; i < ERODED_KEYS.length; i++) {
+            ERODED_KEYS[i] = random.nextLong();
+        }
+    }
+
+    private ZobristHash() {
+    }
+
+    /**
+     * Key of one stack cell.
+     *
+     * @param row stack row
+     *
+     * @param col stack column
+     *
+     * @return cell key
+     */
+    public static long cellKey(int row, int col) {
+        return CELL_KEYS[row][col];
+    }
+
+    /**
+     * State key of a stack with the current and the next piece.
+     *
+     * @param stackHash hash of the stack
+     *
+     * @param currentId id of the current tetromino
+     *
+     * @param nextId id of the next tetromino
+     *
+     * @return state key
+     */
+    public static long stateKey(long stackHash, int currentId, int nextId) {
+        return stackHash ^ PIECE_KEYS[0][currentId] ^ PIECE_KEYS[1][nextId];
+    }
+
+    /**
+     * State key of a stack with the current and the next piece and the placement which produced it.
+     *
+     * <p>Needed when the state carries placement dependent features: different placements can leave the same
+     * stack with a different landing height or number of eroded cells.</p>
+     *
+     * @param stackHash hash of the stack
+     *
+     * @param currentId id of the current tetromino
+     *
+     * @param nextId id of the next tetromino
+     *
+     * @param landingHeight landing height of the placed piece, a multiple of 0.5
+     *
+     * @param erodedCells eroded cells of the placement
+     *
+     * @return state key
+     */
+    public static long stateKey(long stackHash, int currentId, int nextId, double landingHeight, int erodedCells) {
+        return stateKey(stackHash, currentId, nextId) ^ LANDING_KEYS[(int) (2 * landingHeight)]
+                ^ ERODED_KEYS[erodedCells];
+    }
+
+    /**
+     * Is the cell occupied in the sense of the hash.
+     *
+     * @param cell stack cell
+     *
+     * @return true if the cell is not empty
+     */
+    public static boolean isOccupied(Cell cell) {
+        return cell != null && cell.getTetrominoId() != EMPTY_ID;
+    }
+
+    /**
+     * Full recomputation of the stack hash.
+     *
+     * @param stack current or simulated stack
+     *
+     * @return hash of the stack occupancy
+     */
+    public static long hash(Cell[][] stack) {
+        long hash = 0L;
+        for (int row = 0; row < ROWS; row++) {
+            for (int col = 0; col < COLS; col++) {
+                if (isOccupied(stack[row][col])) {
+                    hash ^= CELL_KEYS[row][col];
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,229 @@
+package hu.nye.vpe.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.nn.AdamKernels;
+import hu.nye.vpe.nn.AdamOptimizer;
+import hu.nye.vpe.nn.GradientClipper;
+import hu.nye.vpe.nn.Precision;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of the Adam update of one layer.
+ *
+ * <p>Compares the previous update loop (moment rows, two powers per step and the finiteness checks of every
+ * element, kept here as the baseline) with the fused kernels of {@link AdamKernels}, scalar and vector, in double
+ * and single precision. The layer is given as {@code outputs x inputs}. Times are per update of the whole
+ * layer. The results of the loops are compared by AdamKernelsTest.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class AdamBenchmark {
+    private static final double LEARNING_RATE = 0.001;
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    private static final double EPSILON = 1e-6;
+    private static final double DECAY = 0.00001;
+    private static final GradientClipper CLIPPER = new GradientClipper(-0.6, 0.6, 1.0, 0.6);
+
+    /**
+     * Previous update loop.
+     *
+     * @param state layer and baseline optimizer
+     *
+     * @return checksum
+     */
+    @Benchmark
+    public long previousLoop(LegacyState state) {
+        state.legacy.update(state.weights, state.biases, state.gradients, CLIPPER);
+        return Double.doubleToLongBits(state.weights[0]);
+    }
+
+    /**
+     * Fused kernel update.
+     *
+     * @param state layer, moments and optimizer
+     *
+     * @return checksum
+     */
+    @Benchmark
+    public long fused(FusedState state) {
+        if (state.precision == Precision.FLOAT32) {
+            AdamKernels.update(state.floatWeights, state.floatGradients, state.floatM, state.floatV, state.length,
+                    state.optimizer, CLIPPER, 0.0, DECAY, state.vector);
+            return Float.floatToIntBits(state.floatWeights[0]);
+        }
+        AdamKernels.update(state.weights, state.gradients, state.m, state.v, state.length, state.optimizer, CLIPPER,
+                0.0, DECAY, state.vector);
+        return Double.doubleToLongBits(state.weights[0]);
+    }
+
+    /**
+     * Layer and optimizer of the previous loop.
+     */
+    @State(Scope.Thread)
+    public static class LegacyState {
+        @Param({"64x32", "256x256", "1024x1024"})
+        private String shape;
+
+        private double[] weights;
+        private double[] biases;
+        private double[] gradients;
+        private Legacy legacy;
+
+        /**
+         * Random layer.
+         */
+        @Setup
+        public void setUp() {
+            String[] sizes = shape.split("x");
+            int outputSize = Integer.parseInt(sizes[0]);
+            int inputSize = Integer.parseInt(sizes[1]);
+            Random random = new Random(50);
+            weights = randomVector(random, outputSize * inputSize);
+            biases = randomVector(random, outputSize);
+            gradients = randomVector(random, outputSize * inputSize);
+            legacy = new Legacy(outputSize, inputSize);
+        }
+    }
+
+    /**
+     * Layer, moments and optimizer of the fused kernels.
+     */
+    @State(Scope.Thread)
+    public static class FusedState {
+        @Param({"64x32", "256x256", "1024x1024"})
+        private String shape;
+
+        @Param({"DOUBLE", "FLOAT32"})
+        private Precision precision;
+
+        @Param({"false", "true"})
+        private boolean vector;
+
+        private int length;
+        private double[] weights;
+        private double[] gradients;
+        private double[] m;
+        private double[] v;
+        private float[] floatWeights;
+        private float[] floatGradients;
+        private float[] floatM;
+        private float[] floatV;
+        private AdamOptimizer optimizer;
+
+        /**
+         * Random layer and an optimizer after one full step, for valid bias corrections.
+         */
+        @Setup
+        public void setUp() {
+            String[] sizes = shape.split("x");
+            int outputSize = Integer.parseInt(sizes[0]);
+            int inputSize = Integer.parseInt(sizes[1]);
+            length = outputSize * inputSize;
+            Random random = new Random(50);
+            weights = randomVector(random, length);
+            double[] biases = randomVector(random, outputSize);
+            gradients = randomVector(random, length);
+            floatWeights = narrow(weights);
+            floatGradients = narrow(gradients);
+            optimizer = new AdamOptimizer(outputSize, inputSize, LEARNING_RATE, BETA1, BETA2, EPSILON, DECAY,
+                    precision);
+            if (precision == Precision.FLOAT32) {
+                optimizer.updateWeights(floatWeights, narrow(biases), floatGradients, narrow(biases), CLIPPER, DECAY);
+            } else {
+                optimizer.updateWeights(weights, biases, gradients, biases.clone(), CLIPPER, DECAY);
+            }
+            m = new double[length];
+            v = new double[length];
+            floatM = new float[length];
+            floatV = new float[length];
+        }
+    }
+
+    private static double[] randomVector(Random random, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextGaussian() * 0.1;
+        }
+        return values;
+    }
+
+    private static float[] narrow(double[] values) {
+        float[] floats = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            floats[i] = (float) values[i];
+        }
+        return floats;
+    }
+
+    // The double precision update before the fused kernels, moment rows and powers per step
+    private static final class Legacy {
+        private final double[][] mmean;
+        private final double[][] vmean;
+        private final double[] mbias;
+        private final double[] vbias;
+        private int iter;
+
+        private Legacy(int outputSize, int inputSize) {
+            this.mmean = new double[outputSize][inputSize];
+            this.vmean = new double[outputSize][inputSize];
+            this.mbias = new double[outputSize];
+            this.vbias = new double[outputSize];
+        }
+
+        private void update(double[] weights, double[] biases, double[] gradients, GradientClipper clipper) {
+            update(weights, biases, gradients, biases, clipper);
+        }
+
+        private void update(double[] weights, double[] biases, double[] weightGradients, double[] biasGradients,
+                            GradientClipper clipper) {
+            iter++;
+            double beta1Correction = 1.0 / (1.0 - Math.pow(BETA1, iter));
+            double beta2Correction = 1.0 / (1.0 - Math.pow(BETA2, iter));
+            int inputSize = weights.length / biases.length;
+            for (int i = 0; i < biases.length; i++) {
+                double[] mrow = mmean[i];
+                double[] vrow = vmean[i];
+                int row = i * inputSize;
+                for (int j = 0; j < inputSize; j++) {
+                    double clippedGradient = clipper.clip(weightGradients[row + j]);
+                    mrow[j] = BETA1 * mrow[j] + (1.0 - BETA1) * clippedGradient;
+                    vrow[j] = BETA2 * vrow[j] + (1.0 - BETA2) * clippedGradient * clippedGradient;
+                    double mhat = mrow[j] * beta1Correction;
+                    double vhat = vrow[j] * beta2Correction;
+                    if (Double.isNaN(mhat) || Double.isInfinite(mhat)) {
+                        mhat = 0.0;
+                    }
+                    if (Double.isNaN(vhat) || Double.isInfinite(vhat)) {
+                        vhat = EPSILON;
+                    }
+                    double weightUpdate = clipper.clip(LEARNING_RATE * mhat / (Math.sqrt(vhat) + EPSILON));
+                    weights[row + j] += weightUpdate - DECAY * weights[row + j];
+                }
+                double clippedBiasGradient = clipper.clip(biasGradients[i]);
+                mbias[i] = BETA1 * mbias[i] + (1 - BETA1) * clippedBiasGradient;
+                vbias[i] = BETA2 * vbias[i] + (1 - BETA2) * (clippedBiasGradient * clippedBiasGradient);
+                double mhatBias = mbias[i] * beta1Correction;
+                double vhatBias = vbias[i] * beta2Correction;
+                double biasUpdate = clipper.clip(LEARNING_RATE * mhatBias
+                        / (Math.sqrt(Math.max(vhatBias, EPSILON)) + EPSILON)) - DECAY * biases[i];
+                biases[i] += biasUpdate - DECAY * biases[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package hu.nye.vpe.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.gaming.GameConstans;
+import hu.nye.vpe.tetris.BoardFeature;
+import hu.nye.vpe.tetris.CandidateMetrics;
+import hu.nye.vpe.tetris.Cell;
+import hu.nye.vpe.tetris.MetricPlan;
+import hu.nye.vpe.tetris.StackMetrics;
+import hu.nye.vpe.tetris.TetrominoFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Batched candidate metrics against one StackMetrics evaluation per candidate.
+ *
+ * <p>Evaluates heights, holes and bumpiness of 48 random candidate stacks. The batch loads the column masks of the
+ * candidates and runs the scalar or the Vector API kernel, the kernel alone is measured too. The touched batch
+ * starts from a base stack and loads only the columns a placement changed, as StackManager does. Times are per
+ * candidate. The kernels are checked against each other by CandidateMetricsTest.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class CandidateMetricsBenchmark {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int CANDIDATES = CandidateMetrics.CANDIDATES;
+
+    private Cell[][][] boards;
+    private int[][] columnMasks;
+    private int[] baseMasks;
+    private int[][] touchedMasks;
+    private int[] touchedFrom;
+    private StackMetrics metrics;
+    private CandidateMetrics scalar;
+    private CandidateMetrics vector;
+
+    /**
+     * Random candidate stacks and their column masks.
+     */
+    @Setup
+    public void setUp() {
+        TetrominoFactory factory = TetrominoFactory.getInstance();
+        Random random = new Random(34);
+        boards = new Cell[CANDIDATES][ROWS][COLS];
+        // Column masks of the boards, bit row set if the cell is occupied, as StackManager maintains them
+        columnMasks = new int[CANDIDATES][COLS];
+        for (int c = 0; c < CANDIDATES; c++) {
+            int height = random.nextInt(ROWS);
+            for (int row = 0; row < ROWS; row++) {
+                for (int col = 0; col < COLS; col++) {
+                    boolean occupied = row >= ROWS - height && random.nextInt(5) != 0;
+                    boards[c][row][col] = occupied ? factory.getLoadedCell() : factory.getEmptyCell();
+                    if (occupied) {
+                        columnMasks[c][col] |= 1 << row;
+                    }
+                }
+            }
+        }
+        // Placements on the first board, each adds a cell to four adjacent columns like a flat I piece
+        baseMasks = columnMasks[0];
+        touchedMasks = new int[CANDIDATES][];
+        touchedFrom = new int[CANDIDATES];
+        for (int c = 0; c < CANDIDATES; c++) {
+            touchedMasks[c] = baseMasks.clone();
+            touchedFrom[c] = c % (COLS - 3);
+            for (int col = touchedFrom[c]; col < touchedFrom[c] + 4; col++) {
+                touchedMasks[c][col] |= Integer.lowestOneBit(~touchedMasks[c][col] & ((1 << ROWS) - 1));
+            }
+        }
+        metrics = new StackMetrics(MetricPlan.compile("Candidate", BoardFeature.HOLES,
+                BoardFeature.BUMPINESS, BoardFeature.HEIGHT_SUM, BoardFeature.COLUMN_HEIGHTS));
+        scalar = new CandidateMetrics(false);
+        vector = new CandidateMetrics(true);
+        if (!vector.isUsingVector()) {
+            System.out.println("Vector API not available, the vector benchmarks run the scalar kernel");
+        }
+        for (int c = 0; c < CANDIDATES; c++) {
+            scalar.loadCandidate(c, columnMasks[c]);
+            vector.loadCandidate(c, columnMasks[c]);
+        }
+    }
+
+    /**
+     * One StackMetrics calculation per candidate stack.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long stackMetricsPerCandidate() {
+        long checksum = 0;
+        for (Cell[][] board : boards) {
+            metrics.calculateGameMetrics(board);
+            checksum += (long) metrics.getMetricColumnHoleSum() + (long) metrics.getMetricBumpiness();
+        }
+        return checksum;
+    }
+
+    /**
+     * Batch load and scalar kernel.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long batchScalar() {
+        return loadAndEvaluate(scalar);
+    }
+
+    /**
+     * Batch load and vector kernel.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long batchVector() {
+        return loadAndEvaluate(vector);
+    }
+
+    /**
+     * Base stack, touched columns and vector kernel.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long batchTouchedVector() {
+        vector.setBaseStack(baseMasks);
+        for (int c = 0; c < CANDIDATES; c++) {
+            vector.loadCandidate(c, touchedMasks[c], touchedFrom[c], touchedFrom[c] + 3);
+        }
+        vector.evaluate();
+        return vector.getHoleSum(CANDIDATES - 1) + vector.getBumpiness(0);
+    }
+
+    /**
+     * Scalar kernel on the loaded batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long kernelScalar() {
+        scalar.evaluate();
+        return scalar.getHoleSum(CANDIDATES - 1);
+    }
+
+    /**
+     * Vector kernel on the loaded batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long kernelVector() {
+        vector.evaluate();
+        return vector.getHoleSum(CANDIDATES - 1);
+    }
+
+    private long loadAndEvaluate(CandidateMetrics batch) {
+        for (int c = 0; c < CANDIDATES; c++) {
+            batch.loadCandidate(c, columnMasks[c]);
+        }
+        batch.evaluate();
+        return batch.getHoleSum(CANDIDATES - 1) + batch.getBumpiness(0);
+    }
+}
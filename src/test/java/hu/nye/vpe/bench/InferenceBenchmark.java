@@ -0,0 +1,155 @@
+package hu.nye.vpe.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.GlobalConfig;
+import hu.nye.vpe.nn.BatchNormParameters;
+import hu.nye.vpe.nn.FrozenNetwork;
+import hu.nye.vpe.nn.Layer;
+import hu.nye.vpe.nn.NeuralNetwork;
+import hu.nye.vpe.nn.QuantizedNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-sample inference time.
+ *
+ * <p>The network is built from brain_config.cfg (run from the project directory). Compares the allocating forward
+ * pass with the workspace based {@link NeuralNetwork#predictQValue(double[])}, with the {@link FrozenNetwork} of
+ * {@link NeuralNetwork#freeze()} and with the int8 {@link QuantizedNetwork} over the candidates of one placement.
+ * The quantized network is calibrated on random states, its error is reported by QuantizationReport. With
+ * {@code batchNorm} the hidden layers normalize with random running statistics. Times are per candidate, run with
+ * {@code -prof gc} for the allocation per candidate.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class InferenceBenchmark {
+    private static final int CANDIDATES = 48;
+    private static final int CALIBRATION_STATES = 1000;
+
+    @Param({"false", "true"})
+    private boolean batchNorm;
+
+    private NeuralNetwork network;
+    private FrozenNetwork frozen;
+    private QuantizedNetwork quantized;
+    private double[][] states;
+    private int feedDataSize;
+
+    /**
+     * Network of the configuration, its frozen and quantized copies, and random candidate states.
+     */
+    @Setup
+    public void setUp() {
+        GlobalConfig config = GlobalConfig.getInstance();
+        BatchNormParameters[] batchNorms = config.getBatchNorms();
+        if (batchNorm) {
+            for (int i = 0; i < batchNorms.length - 1; i++) {
+                batchNorms[i] = new BatchNormParameters(true, batchNorms[i].gamma, batchNorms[i].beta);
+            }
+        }
+        network = new NeuralNetwork(config.getLayerNames(), config.getLayerSizes(), config.getLayerActivations(),
+                config.getWeightInitStrategies(), batchNorms, config.getL2Regularization());
+        feedDataSize = config.getFeedDataSize();
+        Random random = new Random(41);
+        for (Layer layer : network.getLayers()) {
+            if (layer.isUseBatchNorm()) {
+                double[] variances = new double[layer.getSize()];
+                for (int i = 0; i < variances.length; i++) {
+                    variances[i] = 0.5 + random.nextDouble();
+                }
+                layer.getBatchNormalizer().setRunningVariance(variances);
+            }
+        }
+        frozen = network.freeze();
+        quantized = QuantizedNetwork.quantize(network, randomStates(random, CALIBRATION_STATES));
+        states = randomStates(random, CANDIDATES);
+    }
+
+    /**
+     * Allocating forward pass of the network.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long forwardAllocating() {
+        long checksum = 0;
+        for (double[] state : states) {
+            double[] inputs = new double[feedDataSize];
+            System.arraycopy(state, 2, inputs, 0, feedDataSize);
+            checksum += Double.doubleToLongBits(network.forward(inputs, false)[0]);
+        }
+        return checksum;
+    }
+
+    /**
+     * Workspace inference of the network.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long predictQValue() {
+        long checksum = 0;
+        for (double[] state : states) {
+            checksum += Double.doubleToLongBits(network.predictQValue(state));
+        }
+        return checksum;
+    }
+
+    /**
+     * Inference of the frozen copy.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long frozenPredictQValue() {
+        long checksum = 0;
+        for (double[] state : states) {
+            checksum += Double.doubleToLongBits(frozen.predictQValue(state));
+        }
+        return checksum;
+    }
+
+    /**
+     * Inference of the int8 quantized copy.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long quantizedPredictQValue() {
+        long checksum = 0;
+        for (double[] state : states) {
+            checksum += Double.doubleToLongBits(quantized.predictQValue(state));
+        }
+        return checksum;
+    }
+
+    private double[][] randomStates(Random random, int count) {
+        double[][] result = new double[count][feedDataSize + 2];
+        for (double[] state : result) {
+            for (int j = 0; j < state.length; j++) {
+                state[j] = random.nextDouble();
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,161 @@
+package hu.nye.vpe.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.GlobalConfig;
+import hu.nye.vpe.nn.Activation;
+import hu.nye.vpe.nn.BatchNormParameters;
+import hu.nye.vpe.nn.GradientClipper;
+import hu.nye.vpe.nn.Layer;
+import hu.nye.vpe.nn.Precision;
+import hu.nye.vpe.nn.WeightInitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Forward and backward throughput of the layers, in double and in single precision.
+ *
+ * <p>The layers are built from the network configuration of brain_config.cfg (run from the project directory).
+ * Measures the forward pass over the candidates of one placement one by one and as one batch, the batched
+ * forward pass and the batched forward plus backward pass of one training batch. Times are per sample. The accuracy
+ * of the single precision engine is reported by PrecisionComparison.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class LayerBenchmark {
+    private static final int CANDIDATES = 48;
+    private static final int BATCH = 128;
+
+    @Param({"DOUBLE", "FLOAT32"})
+    private Precision precision;
+
+    private Layer[] layers;
+    private double[][] candidates;
+    private double[][] batch;
+    private double[][] targets;
+
+    /**
+     * Layers of the configured network and random inputs.
+     */
+    @Setup
+    public void setUp() {
+        GlobalConfig config = GlobalConfig.getInstance();
+        int[] sizes = config.getLayerSizes();
+        String[] names = config.getLayerNames();
+        Activation[] activations = config.getLayerActivations();
+        WeightInitStrategy[] initStrategies = config.getWeightInitStrategies();
+        BatchNormParameters[] batchNorms = config.getBatchNorms();
+        double[] l2 = config.getL2Regularization();
+        GradientClipper clipper = new GradientClipper(config.getClipMin(), config.getClipMax(), config.getClipNorm(),
+                config.getGradientScale());
+        layers = new Layer[sizes.length - 1];
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = new Layer(names[i], sizes[i], sizes[i + 1], activations[i], initStrategies[i], clipper, l2[i],
+                    batchNorms[i], config.getInitialLearningRate(), 0.0, precision);
+        }
+        Random random = new Random(38);
+        candidates = randomMatrix(random, CANDIDATES, sizes[0]);
+        batch = randomMatrix(random, BATCH, sizes[0]);
+        targets = randomMatrix(random, BATCH, sizes[sizes.length - 1]);
+    }
+
+    /**
+     * Forward pass of the candidates one by one.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long forwardSingle() {
+        long checksum = 0;
+        for (double[] candidate : candidates) {
+            double[] output = candidate;
+            for (Layer layer : layers) {
+                output = layer.forward(output, false);
+            }
+            checksum += Double.doubleToLongBits(output[0]);
+        }
+        return checksum;
+    }
+
+    /**
+     * Forward pass of the candidates as one batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES)
+    public long forwardCandidateBatch() {
+        return Double.doubleToLongBits(forward(candidates)[0][0]);
+    }
+
+    /**
+     * Forward pass of a training batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long forwardBatch() {
+        return Double.doubleToLongBits(forward(batch)[0][0]);
+    }
+
+    /**
+     * Forward and backward pass of a training batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long forwardBackwardBatch() {
+        double[][][] activationsByLayer = new double[layers.length + 1][][];
+        activationsByLayer[0] = batch;
+        for (int i = 0; i < layers.length; i++) {
+            activationsByLayer[i + 1] = layers[i].forwardBatch(activationsByLayer[i], true);
+        }
+        double[][] output = activationsByLayer[layers.length];
+        double[][] deltas = new double[BATCH][output[0].length];
+        for (int b = 0; b < BATCH; b++) {
+            for (int j = 0; j < deltas[b].length; j++) {
+                deltas[b][j] = 2.0 * (targets[b][j] - output[b][j]);
+            }
+        }
+        for (int i = layers.length - 1; i >= 0; i--) {
+            deltas = layers[i].backwardBatch(deltas, activationsByLayer[i]).inputGradients;
+        }
+        return Double.doubleToLongBits(deltas[0][0]);
+    }
+
+    private double[][] forward(double[][] inputs) {
+        double[][] outputs = inputs;
+        for (Layer layer : layers) {
+            outputs = layer.forwardBatch(outputs, false);
+        }
+        return outputs;
+    }
+
+    private static double[][] randomMatrix(Random random, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (double[] row : matrix) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
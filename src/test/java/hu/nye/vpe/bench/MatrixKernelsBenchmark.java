@@ -0,0 +1,195 @@
+package hu.nye.vpe.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.nn.MatrixKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scalar against Vector API layer kernels.
+ *
+ * <p>Measures the forward pass of one sample and of a batch, the weight gradient and the input gradient of a batch
+ * for the layers of the 18-64-64-1 network and for wider layers, in double and in single precision. The layer is
+ * given as {@code inputs x outputs}. Times are per sample. Without the {@code jdk.incubator.vector} module the
+ * vector runs fall back to the scalar kernels.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class MatrixKernelsBenchmark {
+    private static final int BATCH = 128;
+
+    @Param({"18x64", "64x64", "64x1", "256x256", "512x512"})
+    private String layer;
+
+    @Param({"false", "true"})
+    private boolean vector;
+
+    private int inputSize;
+    private int outputSize;
+    private double[] weights;
+    private double[] biases;
+    private double[][] inputs;
+    private double[][] deltas;
+    private double[][] outputs;
+    private double[] weightGradients;
+    private double[][] inputGradients;
+    private float[] floatWeights;
+    private float[] floatBiases;
+    private float[][] floatInputs;
+    private float[][] floatDeltas;
+    private float[][] floatOutputs;
+    private float[] floatWeightGradients;
+    private float[][] floatInputGradients;
+
+    /**
+     * Random weights, inputs and deltas of the layer.
+     */
+    @Setup
+    public void setUp() {
+        String[] shape = layer.split("x");
+        inputSize = Integer.parseInt(shape[0]);
+        outputSize = Integer.parseInt(shape[1]);
+        Random random = new Random(42);
+        weights = randomVector(random, inputSize * outputSize);
+        biases = randomVector(random, outputSize);
+        inputs = new double[BATCH][];
+        deltas = new double[BATCH][];
+        floatInputs = new float[BATCH][];
+        floatDeltas = new float[BATCH][];
+        for (int b = 0; b < BATCH; b++) {
+            inputs[b] = randomVector(random, inputSize);
+            deltas[b] = randomVector(random, outputSize);
+            floatInputs[b] = toFloat(inputs[b]);
+            floatDeltas[b] = toFloat(deltas[b]);
+        }
+        outputs = new double[BATCH][outputSize];
+        weightGradients = new double[inputSize * outputSize];
+        inputGradients = new double[BATCH][inputSize];
+        floatWeights = toFloat(weights);
+        floatBiases = toFloat(biases);
+        floatOutputs = new float[BATCH][outputSize];
+        floatWeightGradients = new float[inputSize * outputSize];
+        floatInputGradients = new float[BATCH][inputSize];
+    }
+
+    /**
+     * Forward pass sample by sample.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long forwardSingle() {
+        for (int b = 0; b < BATCH; b++) {
+            MatrixKernels.forward(inputs[b], weights, biases, inputSize, outputSize, outputs[b], vector);
+        }
+        return Double.doubleToLongBits(outputs[0][0]);
+    }
+
+    /**
+     * Forward pass of the batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long forwardBatch() {
+        MatrixKernels.forward(inputs, BATCH, weights, biases, inputSize, outputSize, outputs, vector);
+        return Double.doubleToLongBits(outputs[0][0]);
+    }
+
+    /**
+     * Weight gradient of the batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long weightGradient() {
+        MatrixKernels.weightGradient(deltas, inputs, BATCH, inputSize, outputSize, weightGradients, vector);
+        return Double.doubleToLongBits(weightGradients[0]);
+    }
+
+    /**
+     * Input gradient of the batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long inputGradient() {
+        MatrixKernels.inputGradient(deltas, weights, BATCH, inputSize, outputSize, inputGradients, vector);
+        return Double.doubleToLongBits(inputGradients[0][0]);
+    }
+
+    /**
+     * Single precision forward pass of the batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long floatForwardBatch() {
+        MatrixKernels.forward(floatInputs, BATCH, floatWeights, floatBiases, inputSize, outputSize, floatOutputs,
+                vector);
+        return Float.floatToIntBits(floatOutputs[0][0]);
+    }
+
+    /**
+     * Single precision weight gradient of the batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long floatWeightGradient() {
+        MatrixKernels.weightGradient(floatDeltas, floatInputs, BATCH, inputSize, outputSize, floatWeightGradients,
+                vector);
+        return Float.floatToIntBits(floatWeightGradients[0]);
+    }
+
+    /**
+     * Single precision input gradient of the batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long floatInputGradient() {
+        MatrixKernels.inputGradient(floatDeltas, floatWeights, BATCH, inputSize, outputSize, floatInputGradients,
+                vector);
+        return Float.floatToIntBits(floatInputGradients[0][0]);
+    }
+
+    private static float[] toFloat(double[] values) {
+        float[] result = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (float) values[i];
+        }
+        return result;
+    }
+
+    private static double[] randomVector(Random random, int size) {
+        double[] vector = new double[size];
+        for (int i = 0; i < size; i++) {
+            vector[i] = random.nextGaussian();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,119 @@
+package hu.nye.vpe.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.GlobalConfig;
+import hu.nye.vpe.nn.Activation;
+import hu.nye.vpe.nn.BatchNormParameters;
+import hu.nye.vpe.nn.BatchShards;
+import hu.nye.vpe.nn.GradientClipper;
+import hu.nye.vpe.nn.Layer;
+import hu.nye.vpe.nn.WeightInitStrategy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scaling of the data-parallel training pass over the threads.
+ *
+ * <p>The layers are built from the network configuration of brain_config.cfg (run from the project directory).
+ * Measures the batched forward plus backward pass of one training batch on one unsplit shard, as below the
+ * threshold ({@code threads} 0), and split into shards on 1 to 32 threads. {@code hidden} overrides the width of the
+ * hidden layers, 0 keeps the configured one. Times are per batch, the speedup is the unsplit time over the split
+ * one.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class ParallelBackwardBenchmark {
+    @Param({"64", "256", "1024", "4096"})
+    private int batchSize;
+
+    @Param({"0", "1", "2", "4", "8", "16", "32"})
+    private int threads;
+
+    @Param({"0"})
+    private int hidden;
+
+    private Layer[] layers;
+    private double[][] batch;
+    private double[][] targets;
+
+    /**
+     * Layers of the configured network on the shards of the thread count, and a random batch.
+     */
+    @Setup
+    public void setUp() {
+        GlobalConfig config = GlobalConfig.getInstance();
+        int[] sizes = config.getLayerSizes();
+        if (hidden > 0) {
+            for (int i = 1; i < sizes.length - 1; i++) {
+                sizes[i] = hidden;
+            }
+        }
+        String[] names = config.getLayerNames();
+        Activation[] activations = config.getLayerActivations();
+        WeightInitStrategy[] initStrategies = config.getWeightInitStrategies();
+        BatchNormParameters[] batchNorms = config.getBatchNorms();
+        double[] l2 = config.getL2Regularization();
+        GradientClipper clipper = new GradientClipper(config.getClipMin(), config.getClipMax(), config.getClipNorm(),
+                config.getGradientScale());
+        BatchShards shards = threads == 0 ? new BatchShards(1, Integer.MAX_VALUE) : new BatchShards(threads, 0);
+        layers = new Layer[sizes.length - 1];
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = new Layer(names[i], sizes[i], sizes[i + 1], activations[i], initStrategies[i], clipper, l2[i],
+                    batchNorms[i], config.getInitialLearningRate(), 0.0, config.getPrecision());
+            layers[i].setBatchShards(shards);
+        }
+        Random random = new Random(44);
+        batch = randomMatrix(random, batchSize, sizes[0]);
+        targets = randomMatrix(random, batchSize, sizes[sizes.length - 1]);
+    }
+
+    /**
+     * Forward and backward pass of the batch.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    public long forwardBackward() {
+        double[][][] activationsByLayer = new double[layers.length + 1][][];
+        activationsByLayer[0] = batch;
+        for (int i = 0; i < layers.length; i++) {
+            activationsByLayer[i + 1] = layers[i].forwardBatch(activationsByLayer[i], true);
+        }
+        double[][] output = activationsByLayer[layers.length];
+        double[][] deltas = new double[batchSize][output[0].length];
+        for (int b = 0; b < batchSize; b++) {
+            for (int j = 0; j < deltas[b].length; j++) {
+                deltas[b][j] = 2.0 * (targets[b][j] - output[b][j]);
+            }
+        }
+        for (int i = layers.length - 1; i >= 0; i--) {
+            deltas = layers[i].backwardBatch(deltas, activationsByLayer[i]).inputGradients;
+        }
+        return Double.doubleToLongBits(deltas[0][0]);
+    }
+
+    private static double[][] randomMatrix(Random random, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (double[] row : matrix) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
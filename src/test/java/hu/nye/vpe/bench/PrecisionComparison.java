@@ -0,0 +1,184 @@
+package hu.nye.vpe.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import hu.nye.vpe.GlobalConfig;
+import hu.nye.vpe.nn.Activation;
+import hu.nye.vpe.nn.BatchNormParameters;
+import hu.nye.vpe.nn.GradientClipper;
+import hu.nye.vpe.nn.Layer;
+import hu.nye.vpe.nn.Neuron;
+import hu.nye.vpe.nn.Precision;
+import hu.nye.vpe.nn.WeightInitStrategy;
+
+/**
+ * Accuracy of the single precision engine against the double one.
+ *
+ * <p>Builds the layers of brain_config.cfg (run from a directory containing it) in both precisions from the same
+ * seeded weights, copied into the float layers through the neuron views as a loaded checkpoint would be. Both
+ * engines are trained on the same seeded batches of a fixed regression target without dropout. At every report
+ * step the Q-values of held-out states are compared, together with the best action chosen from groups of
+ * candidates. The speed of both engines is measured by LayerBenchmark. An optional argument overrides the width of
+ * the hidden layers.</p>
+ */
+public final class PrecisionComparison {
+    private static final long SEED = 43;
+    private static final int BATCH = 128;
+    private static final int CANDIDATES = 48;
+    private static final int EVALUATION_GROUPS = 64;
+    private static final int[] REPORT_STEPS = {0, 10, 100, 500, 2000};
+
+    private PrecisionComparison() {
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args optional width of the hidden layers
+     */
+    public static void main(String[] args) {
+        GlobalConfig config = GlobalConfig.getInstance();
+        int[] sizes = config.getLayerSizes();
+        if (args.length > 0) {
+            for (int i = 1; i < sizes.length - 1; i++) {
+                sizes[i] = Integer.parseInt(args[0]);
+            }
+        }
+        Random random = new Random(SEED);
+        Layer[] doubleLayers = buildLayers(config, sizes, Precision.DOUBLE);
+        Layer[] floatLayers = buildLayers(config, sizes, Precision.FLOAT32);
+        for (int i = 0; i < doubleLayers.length; i++) {
+            double scale = Math.sqrt(2.0 / sizes[i]);
+            for (int n = 0; n < sizes[i + 1]; n++) {
+                double[] weights = new double[sizes[i]];
+                for (int j = 0; j < weights.length; j++) {
+                    weights[j] = random.nextGaussian() * scale;
+                }
+                doubleLayers[i].getNeurons().get(n).setWeights(weights);
+                doubleLayers[i].getNeurons().get(n).setBias(0.01);
+            }
+            for (int n = 0; n < sizes[i + 1]; n++) {
+                Neuron source = doubleLayers[i].getNeurons().get(n);
+                floatLayers[i].getNeurons().get(n).setWeights(source.getWeights());
+                floatLayers[i].getNeurons().get(n).setBias(source.getBias());
+            }
+        }
+
+        final double[][] evaluation = randomMatrix(random, EVALUATION_GROUPS * CANDIDATES, sizes[0]);
+        System.out.printf("Layers %s, batch %d, seed %d%n", Arrays.toString(sizes), BATCH, SEED);
+        System.out.printf("%8s %14s %14s %14s %14s %10s%n", "step", "max |dQ|", "mean |dQ|", "loss double",
+                "loss float", "same best");
+        int step = 0;
+        for (int reportStep : REPORT_STEPS) {
+            for (; step < reportStep; step++) {
+                double[][] inputs = randomMatrix(random, BATCH, sizes[0]);
+                double[][] targets = targets(inputs);
+                train(doubleLayers, inputs, targets);
+                train(floatLayers, inputs, targets);
+            }
+            report(step, doubleLayers, floatLayers, evaluation);
+        }
+    }
+
+    private static Layer[] buildLayers(GlobalConfig config, int[] sizes, Precision precision) {
+        String[] names = config.getLayerNames();
+        Activation[] activations = config.getLayerActivations();
+        WeightInitStrategy[] initStrategies = config.getWeightInitStrategies();
+        BatchNormParameters[] batchNorms = config.getBatchNorms();
+        double[] l2 = config.getL2Regularization();
+        GradientClipper clipper = new GradientClipper(config.getClipMin(), config.getClipMax(), config.getClipNorm(),
+                config.getGradientScale());
+        Layer[] layers = new Layer[sizes.length - 1];
+        for (int i = 0; i < layers.length; i++) {
+            layers[i] = new Layer(names[i], sizes[i], sizes[i + 1], activations[i], initStrategies[i], clipper, l2[i],
+                    batchNorms[i], config.getInitialLearningRate(), 0.0, precision);
+        }
+        return layers;
+    }
+
+    private static void report(int step, Layer[] doubleLayers, Layer[] floatLayers, double[][] evaluation) {
+        double[][] doubleOutputs = forward(doubleLayers, evaluation);
+        double[][] floatOutputs = forward(floatLayers, evaluation);
+        double[][] targets = targets(evaluation);
+        double maxDiff = 0.0;
+        double sumDiff = 0.0;
+        double doubleLoss = 0.0;
+        double floatLoss = 0.0;
+        for (int k = 0; k < evaluation.length; k++) {
+            double diff = Math.abs(doubleOutputs[k][0] - floatOutputs[k][0]);
+            maxDiff = Math.max(maxDiff, diff);
+            sumDiff += diff;
+            doubleLoss += (targets[k][0] - doubleOutputs[k][0]) * (targets[k][0] - doubleOutputs[k][0]);
+            floatLoss += (targets[k][0] - floatOutputs[k][0]) * (targets[k][0] - floatOutputs[k][0]);
+        }
+        int sameBest = 0;
+        for (int g = 0; g < EVALUATION_GROUPS; g++) {
+            if (bestCandidate(doubleOutputs, g * CANDIDATES) == bestCandidate(floatOutputs, g * CANDIDATES)) {
+                sameBest++;
+            }
+        }
+        System.out.printf("%8d %14.3e %14.3e %14.6f %14.6f %7d/%d%n", step, maxDiff, sumDiff / evaluation.length,
+                doubleLoss / evaluation.length, floatLoss / evaluation.length, sameBest, EVALUATION_GROUPS);
+    }
+
+    private static int bestCandidate(double[][] outputs, int from) {
+        int best = from;
+        for (int k = from + 1; k < from + CANDIDATES; k++) {
+            if (outputs[k][0] > outputs[best][0]) {
+                best = k;
+            }
+        }
+        return best - from;
+    }
+
+    private static double[][] forward(Layer[] layers, double[][] inputs) {
+        double[][] outputs = inputs;
+        for (Layer layer : layers) {
+            outputs = layer.forwardBatch(outputs, false);
+        }
+        return outputs;
+    }
+
+    private static void train(Layer[] layers, double[][] inputs, double[][] targets) {
+        double[][][] activationsByLayer = new double[layers.length + 1][][];
+        activationsByLayer[0] = inputs;
+        for (int i = 0; i < layers.length; i++) {
+            activationsByLayer[i + 1] = layers[i].forwardBatch(activationsByLayer[i], true);
+        }
+        double[][] output = activationsByLayer[layers.length];
+        double[][] deltas = new double[inputs.length][output[0].length];
+        for (int b = 0; b < inputs.length; b++) {
+            for (int j = 0; j < deltas[b].length; j++) {
+                deltas[b][j] = 2.0 * (targets[b][j] - output[b][j]);
+            }
+        }
+        for (int i = layers.length - 1; i >= 0; i--) {
+            deltas = layers[i].backwardBatch(deltas, activationsByLayer[i]).inputGradients;
+        }
+    }
+
+    // A smooth board-like score: rewards the first features, penalizes the spread of the rest
+    private static double[][] targets(double[][] inputs) {
+        double[][] targets = new double[inputs.length][1];
+        for (int b = 0; b < inputs.length; b++) {
+            double[] input = inputs[b];
+            double score = 0.0;
+            for (int j = 0; j < input.length; j++) {
+                score += (j < 4 ? 1.0 : -0.25) * input[j] + 0.5 * Math.sin(3.0 * input[j] * (j % 3 + 1));
+            }
+            targets[b][0] = score / input.length;
+        }
+        return targets;
+    }
+
+    private static double[][] randomMatrix(Random random, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (double[] row : matrix) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
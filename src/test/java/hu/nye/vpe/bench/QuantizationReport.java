@@ -0,0 +1,100 @@
+package hu.nye.vpe.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import hu.nye.vpe.GlobalConfig;
+import hu.nye.vpe.nn.NeuralNetwork;
+import hu.nye.vpe.nn.QuantizedNetwork;
+import hu.nye.vpe.tetris.PlacementRecorder;
+
+/**
+ * Int8 post-training quantization of a trained network, error against the double network.
+ *
+ * <p>Loads the network (brain_network.json by default, and brain_training.json for the input normalizer if it is
+ * present, run from a directory containing brain_config.cfg) and records the candidate states of greedy games played
+ * by it with {@link PlacementRecorder}. The first placements calibrate the {@link QuantizedNetwork}, the others are
+ * the evaluation suite: the Q-value error over all candidates and the rate of placements where the int8 network
+ * chooses a candidate of the best double Q-value. The inference time of both networks is measured by
+ * InferenceBenchmark. Usage: {@code QuantizationReport [network file] [evaluation placements]}.</p>
+ */
+public final class QuantizationReport {
+    private static final long SEED = 47;
+    private static final int CALIBRATION_PLACEMENTS = 1000;
+    private static final int DEFAULT_EVALUATION_PLACEMENTS = 2000;
+    private static final double EPSILON_Q = 1e-6;
+
+    private QuantizationReport() {
+    }
+
+    /**
+     * Entry point.
+     *
+     * @param args network file, number of evaluation placements
+     *
+     * @throws IOException if the network cannot be loaded
+     */
+    public static void main(String[] args) throws IOException {
+        String networkFile = args.length > 0 ? args[0] : "brain_network.json";
+        final int evaluationPlacements = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_EVALUATION_PLACEMENTS;
+        GlobalConfig config = GlobalConfig.getInstance();
+        NeuralNetwork network = new NeuralNetwork(config.getLayerNames(), config.getLayerSizes(),
+                config.getLayerActivations(), config.getWeightInitStrategies(), config.getBatchNorms(),
+                config.getL2Regularization());
+        network.loadNetworkStructure(networkFile);
+        if (new File("brain_training.json").exists()) {
+            network.loadTrainingState("brain_training.json");
+        }
+        if (network.getInputNormalizer() != null) {
+            network.getInputNormalizer().freeze();
+        }
+
+        double[][][] recorded = PlacementRecorder.record(CALIBRATION_PLACEMENTS + evaluationPlacements, SEED,
+                network::predictQValues);
+        int candidates = recorded[0].length;
+        double[][] calibration = new double[CALIBRATION_PLACEMENTS * candidates][];
+        for (int p = 0; p < CALIBRATION_PLACEMENTS; p++) {
+            System.arraycopy(recorded[p], 0, calibration, p * candidates, candidates);
+        }
+        QuantizedNetwork quantized = QuantizedNetwork.quantize(network, calibration);
+
+        long doubleBytes = 0;
+        for (int i = 0; i < network.getLayers().size(); i++) {
+            doubleBytes += 8L * (network.getLayers().get(i).getWeights().length + network.getLayers().get(i).getSize());
+        }
+        System.out.printf("Network %s, layers %s%n", networkFile, Arrays.toString(network.getLayerSizes()));
+        System.out.printf("Parameters: double %d bytes, int8 %d bytes%n", doubleBytes, quantized.getParameterBytes());
+        System.out.printf("Calibration %d placements, evaluation %d placements of %d candidates, seed %d%n",
+                CALIBRATION_PLACEMENTS, evaluationPlacements, candidates, SEED);
+
+        double maxError = 0.0;
+        double sumError = 0.0;
+        double minQ = Double.POSITIVE_INFINITY;
+        double maxQ = Double.NEGATIVE_INFINITY;
+        int agreements = 0;
+        for (int p = CALIBRATION_PLACEMENTS; p < recorded.length; p++) {
+            double[] doubleQ = network.predictQValues(recorded[p]);
+            double[] int8Q = quantized.predictQValues(recorded[p]);
+            int doubleBest = 0;
+            int int8Best = 0;
+            for (int i = 0; i < candidates; i++) {
+                double error = Math.abs(doubleQ[i] - int8Q[i]);
+                maxError = Math.max(maxError, error);
+                sumError += error;
+                minQ = Math.min(minQ, doubleQ[i]);
+                maxQ = Math.max(maxQ, doubleQ[i]);
+                doubleBest = doubleQ[i] > doubleQ[doubleBest] ? i : doubleBest;
+                int8Best = int8Q[i] > int8Q[int8Best] ? i : int8Best;
+            }
+            if (doubleQ[int8Best] > doubleQ[doubleBest] - EPSILON_Q) {
+                agreements++;
+            }
+        }
+        System.out.printf("Q-values of the double network: %.4f .. %.4f%n", minQ, maxQ);
+        System.out.printf("Q-value error: max %.3e, mean %.3e%n", maxError,
+                sumError / ((long) evaluationPlacements * candidates));
+        System.out.printf("Placement agreement: %d/%d (%.2f%%)%n", agreements, evaluationPlacements,
+                100.0 * agreements / evaluationPlacements);
+    }
+}
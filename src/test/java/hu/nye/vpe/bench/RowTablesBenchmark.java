@@ -0,0 +1,107 @@
+package hu.nye.vpe.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.gaming.GameConstans;
+import hu.nye.vpe.tetris.Cell;
+import hu.nye.vpe.tetris.RowTables;
+import hu.nye.vpe.tetris.TetrominoFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Row lookup tables against the cell loops.
+ *
+ * <p>Counts full rows, nearly full rows and filled cells of random stacks, once by looping over the cells as
+ * the stack code did before, once by table lookups on the row masks maintained by the stack. Times are per
+ * board.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RowTablesBenchmark {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int BOARDS = 256;
+
+    private Cell[][][] boards;
+    private int[][] masks;
+
+    /**
+     * Random boards and their row masks, both counts have to agree.
+     */
+    @Setup
+    public void setUp() {
+        TetrominoFactory factory = TetrominoFactory.getInstance();
+        Random random = new Random(33);
+        boards = new Cell[BOARDS][ROWS][COLS];
+        masks = new int[BOARDS][ROWS];
+        for (int b = 0; b < BOARDS; b++) {
+            int height = random.nextInt(ROWS);
+            for (int row = 0; row < ROWS; row++) {
+                for (int col = 0; col < COLS; col++) {
+                    boolean occupied = row >= ROWS - height && random.nextInt(8) != 0;
+                    boards[b][row][col] = occupied ? factory.getLoadedCell() : factory.getEmptyCell();
+                }
+                masks[b][row] = RowTables.rowMask(boards[b][row]);
+            }
+        }
+        if (cellLoops() != rowTables()) {
+            throw new IllegalStateException("Row tables disagree with the cell loops");
+        }
+    }
+
+    /**
+     * Full, nearly full and filled counts with loops over the cells.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BOARDS)
+    public long cellLoops() {
+        long checksum = 0;
+        for (Cell[][] board : boards) {
+            for (Cell[] row : board) {
+                int filled = 0;
+                for (Cell cell : row) {
+                    if (cell.getTetrominoId() != 0) {
+                        filled++;
+                    }
+                }
+                checksum += filled + (filled == COLS ? 100 : 0) + (filled == COLS - 1 ? 1000 : 0);
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Full, nearly full and filled counts with table lookups on the row masks.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    @OperationsPerInvocation(BOARDS)
+    public long rowTables() {
+        long checksum = 0;
+        for (int[] board : masks) {
+            for (int mask : board) {
+                checksum += RowTables.filled(mask) + (RowTables.isFull(mask) ? 100 : 0)
+                        + (RowTables.isNearlyFull(mask) ? 1000 : 0);
+            }
+        }
+        return checksum;
+    }
+}
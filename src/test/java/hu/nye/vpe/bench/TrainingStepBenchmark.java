@@ -0,0 +1,107 @@
+package hu.nye.vpe.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import hu.nye.vpe.GlobalConfig;
+import hu.nye.vpe.nn.Layer;
+import hu.nye.vpe.nn.NeuralNetwork;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time and allocation of one gradient step.
+ *
+ * <p>The network is built from brain_config.cfg (run from the project directory). Compares the allocating
+ * layer-by-layer pass of {@link Layer#forwardBatch(double[][], boolean)} and
+ * {@link Layer#backwardBatch(double[][], double[][])} with {@link NeuralNetwork#trainBatch(List, List)} in the
+ * training workspace. {@code batchSize} 0 uses the experience batch size of the configuration. Times are per batch,
+ * run with {@code -prof gc} for the allocation per batch.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class TrainingStepBenchmark {
+    @Param({"0"})
+    private int batchSize;
+
+    private NeuralNetwork network;
+    private List<Layer> layers;
+    private List<double[]> inputs;
+    private List<double[]> targets;
+    private double[][] inputRows;
+
+    /**
+     * Network of the configuration and a random batch.
+     */
+    @Setup
+    public void setUp() {
+        GlobalConfig config = GlobalConfig.getInstance();
+        int size = batchSize > 0 ? batchSize : config.getExperienceBatchSize();
+        network = new NeuralNetwork(config.getLayerNames(), config.getLayerSizes(), config.getLayerActivations(),
+                config.getWeightInitStrategies(), config.getBatchNorms(), config.getL2Regularization());
+        layers = network.getLayers();
+        Random random = new Random(49);
+        inputs = new ArrayList<>();
+        targets = new ArrayList<>();
+        for (int b = 0; b < size; b++) {
+            double[] input = new double[config.getFeedDataSize()];
+            for (int j = 0; j < input.length; j++) {
+                input[j] = random.nextDouble();
+            }
+            inputs.add(input);
+            targets.add(new double[]{random.nextDouble() - 1.0});
+        }
+        inputRows = inputs.toArray(new double[0][]);
+    }
+
+    /**
+     * Allocating layer-by-layer pass.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    public long layerByLayer() {
+        double[][][] activationsByLayer = new double[layers.size() + 1][][];
+        activationsByLayer[0] = inputRows;
+        for (int i = 0; i < layers.size(); i++) {
+            activationsByLayer[i + 1] = layers.get(i).forwardBatch(activationsByLayer[i], true);
+        }
+        double[][] output = activationsByLayer[layers.size()];
+        double[][] deltas = new double[inputRows.length][output[0].length];
+        for (int b = 0; b < inputRows.length; b++) {
+            for (int j = 0; j < deltas[b].length; j++) {
+                deltas[b][j] = 2.0 * (targets.get(b)[j] - output[b][j]);
+            }
+        }
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            deltas = layers.get(i).backwardBatch(deltas, activationsByLayer[i]).inputGradients;
+        }
+        return Double.doubleToLongBits(deltas[0][0]);
+    }
+
+    /**
+     * Gradient step in the training workspace.
+     *
+     * @return checksum
+     */
+    @Benchmark
+    public long trainBatch() {
+        network.trainBatch(inputs, targets);
+        return network.getWeightVersion();
+    }
+}
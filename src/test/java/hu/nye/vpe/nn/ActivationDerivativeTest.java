@@ -0,0 +1,139 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Derivatives of the activation kernels and the input and bias gradients of a layer against central differences.
+ */
+class ActivationDerivativeTest {
+    private static final double STEP = 1e-6;
+    private static final double TOLERANCE = 1e-6;
+    private static final int INPUTS = 6;
+    private static final int OUTPUTS = 5;
+    private static final int BATCH = 4;
+    private static final int SOFTMAX_OUTPUTS = 16;
+
+    @ParameterizedTest
+    @EnumSource(value = Activation.class, names = {"SOFTMAX", "SOFTMAX_SPLIT"}, mode = EnumSource.Mode.EXCLUDE)
+    void derivativeIsTheSlopeAtThePreActivation(Activation type) {
+        ActivationKernel kernel = ActivationKernels.of(type, 0);
+        double[] z = new double[41];
+        for (int i = 0; i < z.length; i++) {
+            // Skips the kink of the piecewise types at 0
+            z[i] = -4.05 + 0.2 * i;
+        }
+        double[] derivatives = new double[z.length];
+        kernel.derivative(z, derivatives, z.length);
+        for (int i = 0; i < z.length; i++) {
+            double slope = (kernel.apply(z[i] + STEP) - kernel.apply(z[i] - STEP)) / (2 * STEP);
+            assertEquals(slope, derivatives[i], TOLERANCE, type + "'(" + z[i] + ")");
+            assertEquals(derivatives[i], kernel.derivative(z[i]), 0.0);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Activation.class, names = {"SIGMOID", "TANH", "ELU", "GELU", "SWISH", "MISH"})
+    void layerInputGradientsFollowTheOutputs(Activation type) {
+        GradientClipper clipper = new GradientClipper(-1e9, 1e9, 1e9, 1.0);
+        Layer layer = new Layer("test", INPUTS, OUTPUTS, type, WeightInitStrategy.XAVIER, clipper, 0.0,
+                new BatchNormParameters(false, 1.0, 0.0), 0.001, 0.0);
+        Random random = new Random(45);
+        double[][] inputs = new double[BATCH][INPUTS];
+        double[][] deltas = new double[BATCH][OUTPUTS];
+        for (int b = 0; b < BATCH; b++) {
+            for (int j = 0; j < INPUTS; j++) {
+                inputs[b][j] = random.nextGaussian();
+            }
+            for (int i = 0; i < OUTPUTS; i++) {
+                deltas[b][i] = random.nextGaussian();
+            }
+        }
+        // Gradient of sum(deltas * outputs) by the inputs, before the weights are updated
+        double[][] expected = new double[BATCH][INPUTS];
+        for (int b = 0; b < BATCH; b++) {
+            for (int j = 0; j < INPUTS; j++) {
+                double[] plus = inputs[b].clone();
+                double[] minus = inputs[b].clone();
+                plus[j] += STEP;
+                minus[j] -= STEP;
+                expected[b][j] = (dot(deltas[b], layer.forward(plus, false))
+                        - dot(deltas[b], layer.forward(minus, false))) / (2 * STEP);
+            }
+        }
+        layer.forwardBatch(inputs, true);
+        double[][] gradients = layer.backwardBatch(deltas, inputs).inputGradients;
+        for (int b = 0; b < BATCH; b++) {
+            for (int j = 0; j < INPUTS; j++) {
+                assertEquals(expected[b][j], gradients[b][j], TOLERANCE, type + " input gradient " + b + "," + j);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = Activation.class, names = {"SOFTMAX", "SOFTMAX_SPLIT"})
+    void softmaxLayerGradientsFollowTheOutputs(Activation type) {
+        // Wider than the split index 12, so the split softmax normalizes both groups
+        GradientClipper clipper = new GradientClipper(-1e9, 1e9, 1e9, 1.0);
+        Layer layer = new Layer("test", INPUTS, SOFTMAX_OUTPUTS, type, WeightInitStrategy.XAVIER, clipper, 0.0,
+                new BatchNormParameters(false, 1.0, 0.0), 0.001, 0.0);
+        Random random = new Random(46);
+        double[][] inputs = new double[BATCH][INPUTS];
+        double[][] deltas = new double[BATCH][SOFTMAX_OUTPUTS];
+        for (int b = 0; b < BATCH; b++) {
+            for (int j = 0; j < INPUTS; j++) {
+                inputs[b][j] = random.nextGaussian();
+            }
+            for (int i = 0; i < SOFTMAX_OUTPUTS; i++) {
+                deltas[b][i] = random.nextGaussian();
+            }
+        }
+        double[][] expectedInputs = new double[BATCH][INPUTS];
+        double[] expectedBiases = new double[SOFTMAX_OUTPUTS];
+        for (int b = 0; b < BATCH; b++) {
+            for (int j = 0; j < INPUTS; j++) {
+                double[] plus = inputs[b].clone();
+                double[] minus = inputs[b].clone();
+                plus[j] += STEP;
+                minus[j] -= STEP;
+                expectedInputs[b][j] = (dot(deltas[b], layer.forward(plus, false))
+                        - dot(deltas[b], layer.forward(minus, false))) / (2 * STEP);
+            }
+        }
+        // The bias gradients are averaged over the batch
+        for (int i = 0; i < SOFTMAX_OUTPUTS; i++) {
+            double bias = layer.getBias(i);
+            for (int b = 0; b < BATCH; b++) {
+                layer.setBias(i, bias + STEP);
+                double plus = dot(deltas[b], layer.forward(inputs[b], false));
+                layer.setBias(i, bias - STEP);
+                double minus = dot(deltas[b], layer.forward(inputs[b], false));
+                expectedBiases[i] += (plus - minus) / (2 * STEP) / BATCH;
+            }
+            layer.setBias(i, bias);
+        }
+        layer.forwardBatch(inputs, true);
+        LayerGradients gradients = layer.backwardBatch(deltas, inputs);
+        for (int b = 0; b < BATCH; b++) {
+            for (int j = 0; j < INPUTS; j++) {
+                assertEquals(expectedInputs[b][j], gradients.inputGradients[b][j], TOLERANCE,
+                        type + " input gradient " + b + "," + j);
+            }
+        }
+        for (int i = 0; i < SOFTMAX_OUTPUTS; i++) {
+            assertEquals(expectedBiases[i], gradients.biasGradients[i], TOLERANCE, type + " bias gradient " + i);
+        }
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
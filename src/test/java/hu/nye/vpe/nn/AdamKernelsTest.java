@@ -0,0 +1,144 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The fused Adam kernels follow the update they replaced.
+ *
+ * <p>The optimizer is run against the previous double precision loop, which kept the moments in rows and computed
+ * the bias corrections with {@link Math#pow(double, double)} every step, and the scalar kernels are run against the
+ * Vector API kernels, with non-finite gradients among the finite ones.</p>
+ */
+class AdamKernelsTest {
+    private static final double LEARNING_RATE = 0.001;
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    private static final double EPSILON = 1e-6;
+    private static final double DECAY = 0.00001;
+    private static final GradientClipper CLIPPER = new GradientClipper(-0.6, 0.6, 1.0, 0.6);
+    private static final int OUTPUTS = 64;
+    private static final int INPUTS = 33;
+    private static final int STEPS = 1000;
+
+    @Test
+    void optimizerFollowsThePreviousLoop() {
+        Random random = new Random(51);
+        double[] legacyWeights = randomVector(random, OUTPUTS * INPUTS);
+        double[] legacyBiases = randomVector(random, OUTPUTS);
+        double[] weights = legacyWeights.clone();
+        double[] biases = legacyBiases.clone();
+        Legacy legacy = new Legacy();
+        AdamOptimizer optimizer = new AdamOptimizer(OUTPUTS, INPUTS, LEARNING_RATE, BETA1, BETA2, EPSILON, DECAY,
+                Precision.DOUBLE);
+        for (int step = 0; step < STEPS; step++) {
+            double[] gradients = randomVector(random, weights.length);
+            double[] biasGradients = randomVector(random, biases.length);
+            legacy.update(legacyWeights, legacyBiases, gradients, biasGradients);
+            optimizer.updateWeights(weights, biases, gradients, biasGradients, CLIPPER, DECAY);
+        }
+        // The running powers of the betas differ from Math.pow in the last bits only
+        assertArrayEquals(legacyWeights, weights, 1e-12);
+        assertArrayEquals(legacyBiases, biases, 1e-12);
+    }
+
+    @Test
+    void vectorKernelsMatchScalarKernels() {
+        assertTrue(MatrixKernels.isVectorApiAvailable(), "jdk.incubator.vector module of the test run");
+        Random random = new Random(52);
+        int length = OUTPUTS * INPUTS;
+        AdamOptimizer optimizer = new AdamOptimizer(1, 1, LEARNING_RATE, BETA1, BETA2, EPSILON, DECAY,
+                Precision.DOUBLE);
+        double[] scalarWeights = randomVector(random, length);
+        double[] vectorWeights = scalarWeights.clone();
+        double[] scalarM = new double[length];
+        double[] vectorM = new double[length];
+        double[] scalarV = new double[length];
+        double[] vectorV = new double[length];
+        float[] floatScalarWeights = Precision.narrow(scalarWeights);
+        float[] floatVectorWeights = floatScalarWeights.clone();
+        float[] floatScalarM = new float[length];
+        float[] floatVectorM = new float[length];
+        float[] floatScalarV = new float[length];
+        float[] floatVectorV = new float[length];
+        for (int step = 0; step < STEPS / 10; step++) {
+            // The bias corrections of the next step
+            optimizer.updateWeights(new double[1], new double[1], new double[1], new double[1], CLIPPER, DECAY);
+            double[] gradients = randomVector(random, length);
+            gradients[random.nextInt(length)] = Double.NaN;
+            gradients[random.nextInt(length)] = Double.POSITIVE_INFINITY;
+            float[] floatGradients = Precision.narrow(gradients);
+            double l2 = step % 2 == 0 ? 0.0 : DECAY;
+            double decay = DECAY - l2;
+            AdamKernels.update(scalarWeights, gradients, scalarM, scalarV, length, optimizer, CLIPPER, l2, decay,
+                    false);
+            AdamKernels.update(vectorWeights, gradients, vectorM, vectorV, length, optimizer, CLIPPER, l2, decay,
+                    true);
+            AdamKernels.update(floatScalarWeights, floatGradients, floatScalarM, floatScalarV, length, optimizer,
+                    CLIPPER, l2, decay, false);
+            AdamKernels.update(floatVectorWeights, floatGradients, floatVectorM, floatVectorV, length, optimizer,
+                    CLIPPER, l2, decay, true);
+        }
+        assertArrayEquals(scalarWeights, vectorWeights);
+        assertArrayEquals(scalarM, vectorM);
+        assertArrayEquals(scalarV, vectorV);
+        assertArrayEquals(floatScalarWeights, floatVectorWeights);
+        assertArrayEquals(floatScalarM, floatVectorM);
+        assertArrayEquals(floatScalarV, floatVectorV);
+    }
+
+    private static double[] randomVector(Random random, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextGaussian() * 0.1;
+        }
+        return values;
+    }
+
+    // The double precision update before the fused kernels, moment rows and powers per step
+    private static final class Legacy {
+        private final double[][] mmean = new double[OUTPUTS][INPUTS];
+        private final double[][] vmean = new double[OUTPUTS][INPUTS];
+        private final double[] mbias = new double[OUTPUTS];
+        private final double[] vbias = new double[OUTPUTS];
+        private int iter;
+
+        private void update(double[] weights, double[] biases, double[] weightGradients, double[] biasGradients) {
+            iter++;
+            double beta1Correction = 1.0 / (1.0 - Math.pow(BETA1, iter));
+            double beta2Correction = 1.0 / (1.0 - Math.pow(BETA2, iter));
+            for (int i = 0; i < OUTPUTS; i++) {
+                double[] mrow = mmean[i];
+                double[] vrow = vmean[i];
+                int row = i * INPUTS;
+                for (int j = 0; j < INPUTS; j++) {
+                    double clippedGradient = CLIPPER.clip(weightGradients[row + j]);
+                    mrow[j] = BETA1 * mrow[j] + (1.0 - BETA1) * clippedGradient;
+                    vrow[j] = BETA2 * vrow[j] + (1.0 - BETA2) * clippedGradient * clippedGradient;
+                    double mhat = mrow[j] * beta1Correction;
+                    double vhat = vrow[j] * beta2Correction;
+                    if (Double.isNaN(mhat) || Double.isInfinite(mhat)) {
+                        mhat = 0.0;
+                    }
+                    if (Double.isNaN(vhat) || Double.isInfinite(vhat)) {
+                        vhat = EPSILON;
+                    }
+                    double weightUpdate = CLIPPER.clip(LEARNING_RATE * mhat / (Math.sqrt(vhat) + EPSILON));
+                    weights[row + j] += weightUpdate - DECAY * weights[row + j];
+                }
+                double clippedBiasGradient = CLIPPER.clip(biasGradients[i]);
+                mbias[i] = BETA1 * mbias[i] + (1 - BETA1) * clippedBiasGradient;
+                vbias[i] = BETA2 * vbias[i] + (1 - BETA2) * (clippedBiasGradient * clippedBiasGradient);
+                double mhatBias = mbias[i] * beta1Correction;
+                double vhatBias = vbias[i] * beta2Correction;
+                double biasUpdate = CLIPPER.clip(LEARNING_RATE * mhatBias
+                        / (Math.sqrt(Math.max(vhatBias, EPSILON)) + EPSILON)) - DECAY * biases[i];
+                biases[i] += biasUpdate - DECAY * biases[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+
+import hu.nye.vpe.GlobalConfig;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * Sharded training does not depend on the number of threads.
+ *
+ * <p>Layer stacks of the network configuration of brain_config.cfg, with dropout on the hidden layers, get the same
+ * weights and dropout seeds and train on the same batches. Split into shards the weights are bit-identical for
+ * every number of threads, and they stay within rounding of the unsplit batch, whose sums run in another
+ * order.</p>
+ */
+class BatchShardsTest {
+    private static final int BATCH = 256;
+    private static final int STEPS = 5;
+    private static final int[] THREADS = {2, 3, 4, 8};
+
+    @ParameterizedTest
+    @EnumSource(Precision.class)
+    void shardedStepsMatchForEveryThreadCount(Precision precision) {
+        Layer[] reference = layers(precision);
+        Layer[] single = train(reference, precision, new BatchShards(1, 64));
+        Layer[] unsplit = train(reference, precision, new BatchShards(1, Integer.MAX_VALUE));
+        double tolerance = precision == Precision.FLOAT32 ? 1e-5 : 1e-12;
+        for (int threads : THREADS) {
+            Layer[] sharded = train(reference, precision, new BatchShards(threads, 64));
+            for (int i = 0; i < sharded.length; i++) {
+                assertArrayEquals(single[i].getWeights(), sharded[i].getWeights(),
+                        threads + " threads, weights of layer " + i);
+                assertArrayEquals(single[i].getBiases(), sharded[i].getBiases(),
+                        threads + " threads, biases of layer " + i);
+            }
+        }
+        for (int i = 0; i < single.length; i++) {
+            assertArrayEquals(unsplit[i].getWeights(), single[i].getWeights(), tolerance,
+                    "unsplit, weights of layer " + i);
+            assertArrayEquals(unsplit[i].getBiases(), single[i].getBiases(), tolerance,
+                    "unsplit, biases of layer " + i);
+        }
+    }
+
+    // Copy of the reference layers trained on the same batches
+    private static Layer[] train(Layer[] reference, Precision precision, BatchShards shards) {
+        Layer[] layers = layers(precision);
+        for (int i = 0; i < layers.length; i++) {
+            for (int n = 0; n < layers[i].getSize(); n++) {
+                layers[i].setWeightRow(n, reference[i].getWeightRow(n));
+                layers[i].setBias(n, reference[i].getBias(n));
+            }
+            layers[i].setDropoutSeed(44 + i);
+            layers[i].setBatchShards(shards);
+        }
+        Random random = new Random(44);
+        for (int step = 0; step < STEPS; step++) {
+            double[][][] activations = new double[layers.length + 1][][];
+            activations[0] = matrix(random, BATCH, layers[0].getInputSize());
+            double[][] targets = matrix(random, BATCH, layers[layers.length - 1].getSize());
+            for (int i = 0; i < layers.length; i++) {
+                activations[i + 1] = layers[i].forwardBatch(activations[i], true);
+            }
+            double[][] deltas = new double[BATCH][];
+            for (int b = 0; b < BATCH; b++) {
+                deltas[b] = new double[targets[b].length];
+                for (int j = 0; j < deltas[b].length; j++) {
+                    deltas[b][j] = 2.0 * (targets[b][j] - activations[layers.length][b][j]);
+                }
+            }
+            for (int i = layers.length - 1; i >= 0; i--) {
+                deltas = layers[i].backwardBatch(deltas, activations[i]).inputGradients;
+            }
+        }
+        return layers;
+    }
+
+    private static Layer[] layers(Precision precision) {
+        GlobalConfig config = GlobalConfig.getInstance();
+        int[] sizes = config.getLayerSizes();
+        GradientClipper clipper = new GradientClipper(config.getClipMin(), config.getClipMax(), config.getClipNorm(),
+                config.getGradientScale());
+        Layer[] layers = new Layer[sizes.length - 1];
+        for (int i = 0; i < layers.length; i++) {
+            double dropoutRate = i == 0 || i == layers.length - 1 ? 0.0 : config.getDropoutRate();
+            layers[i] = new Layer(config.getLayerNames()[i], sizes[i], sizes[i + 1], config.getLayerActivations()[i],
+                    config.getWeightInitStrategies()[i], clipper, config.getL2Regularization()[i],
+                    config.getBatchNorms()[i], config.getInitialLearningRate(), dropoutRate, precision);
+        }
+        return layers;
+    }
+
+    private static double[][] matrix(Random random, int rows, int cols) {
+        double[][] matrix = new double[rows][cols];
+        for (double[] row : matrix) {
+            for (int j = 0; j < cols; j++) {
+                row[j] = random.nextDouble();
+            }
+        }
+        return matrix;
+    }
+}
@@ -0,0 +1,98 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import hu.nye.vpe.GlobalConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * The frozen network gives the Q-values of its source network.
+ *
+ * <p>The network is built from brain_config.cfg with batch normalization on the hidden layers and random running
+ * means, running variances, gammas and betas, so every term of the folded normalization counts. The folding only
+ * reorders the sums, the Q-values agree within 1e-12.</p>
+ */
+class FrozenNetworkTest {
+    private static final double TOLERANCE = 1e-12;
+    private static final int STATES = 256;
+
+    @Test
+    void foldedBatchNormalizationGivesTheSourceQValues() {
+        Random random = new Random(51);
+        NeuralNetwork network = batchNormNetwork(random);
+        double[][] states = TestNetworks.states(random, STATES);
+        TestNetworks.commitInputStatistics(network, states);
+
+        FrozenNetwork frozen = network.freeze();
+        assertQValues(network.predictQValues(states), frozen.predictQValues(states));
+        for (double[] state : states) {
+            assertEquals(network.predictQValue(state), frozen.predictQValue(state), TOLERANCE);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"MINMAX", "ZSCORE"})
+    void foldedInputNormalizerGivesTheQValuesOfNormalizedStates(String type) {
+        // The configuration may not normalize the feed data, the normalizer is handed to the frozen network here
+        Random random = new Random(52);
+        NeuralNetwork network = batchNormNetwork(random);
+        double[][] states = TestNetworks.states(random, STATES);
+        int features = GlobalConfig.getInstance().getFeedDataSize();
+        RunningInputNormalizer inputNormalizer = new RunningInputNormalizer(features, type);
+        double[][] normalized = new double[STATES][];
+        for (int s = 0; s < STATES; s++) {
+            // Features of different offsets and spreads
+            for (int j = 2; j < states[s].length; j++) {
+                states[s][j] = states[s][j] * j - 0.5 * j;
+            }
+            inputNormalizer.stage(states[s], 2);
+        }
+        inputNormalizer.commit();
+        for (int s = 0; s < STATES; s++) {
+            normalized[s] = states[s].clone();
+            double[] feedData = new double[features];
+            System.arraycopy(states[s], 2, feedData, 0, features);
+            inputNormalizer.apply(feedData);
+            System.arraycopy(feedData, 0, normalized[s], 2, features);
+        }
+
+        FrozenNetwork frozen = new FrozenNetwork(network.getLayers(), inputNormalizer);
+        assertQValues(network.predictQValues(normalized), frozen.predictQValues(states));
+    }
+
+    private static void assertQValues(double[] expected, double[] actual) {
+        double minQ = GlobalConfig.getInstance().getMinQ();
+        double maxQ = GlobalConfig.getInstance().getMaxQ();
+        for (int i = 0; i < expected.length; i++) {
+            // A clamped Q-value would hide the difference
+            assertTrue(expected[i] > minQ && expected[i] < maxQ, "Q-value " + expected[i] + " inside the range");
+            assertEquals(expected[i], actual[i], TOLERANCE, "state " + i);
+        }
+    }
+
+    private static NeuralNetwork batchNormNetwork(Random random) {
+        NeuralNetwork network = TestNetworks.batchNormNetwork(random);
+        for (Layer layer : network.getLayers()) {
+            if (layer.isUseBatchNorm()) {
+                BatchNormalizer batchNormalizer = layer.getBatchNormalizer();
+                batchNormalizer.setRunningMean(values(random, layer.getSize(), -0.5, 0.5));
+                batchNormalizer.setGamma(values(random, layer.getSize(), 0.5, 1.5));
+                batchNormalizer.setBeta(values(random, layer.getSize(), -0.5, 0.5));
+            }
+        }
+        return network;
+    }
+
+    private static double[] values(Random random, int length, double from, double to) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = from + (to - from) * random.nextDouble();
+        }
+        return values;
+    }
+}
@@ -0,0 +1,70 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import com.sun.management.ThreadMXBean;
+import hu.nye.vpe.GlobalConfig;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Steady-state single-sample inference allocates nothing.
+ *
+ * <p>The network is built from brain_config.cfg, optionally with batch normalization on the hidden layers and
+ * random running statistics. After a warmup, which builds the per-thread workspace and lets the JIT compile the
+ * path, the heap allocation of the calling thread is read around the measured calls.</p>
+ */
+class InferenceAllocationTest {
+    private static final int CANDIDATES = 48;
+    private static final int WARMUP_CALLS = 20_000;
+    private static final int MEASURED_CALLS = 1000;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void predictQValueIsAllocationFree(boolean batchNorm) {
+        NeuralNetwork network = network(batchNorm);
+        double[][] states = TestNetworks.states(new Random(41), CANDIDATES);
+        for (double[] state : states) {
+            double[] inputs = new double[state.length - 2];
+            System.arraycopy(state, 2, inputs, 0, inputs.length);
+            double expected = Math.min(GlobalConfig.getInstance().getMaxQ(),
+                    Math.max(GlobalConfig.getInstance().getMinQ(), network.forward(inputs, false)[0]));
+            assertEquals(expected, network.predictQValue(state), "workspace and allocating forward pass agree");
+        }
+        assertEquals(0L, allocatedBytes(network::predictQValue, states), "bytes allocated by predictQValue");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void frozenPredictQValueIsAllocationFree(boolean batchNorm) {
+        FrozenNetwork frozen = network(batchNorm).freeze();
+        assertEquals(0L, allocatedBytes(frozen::predictQValue, TestNetworks.states(new Random(141), CANDIDATES)),
+                "bytes allocated by the frozen predictQValue");
+    }
+
+    private static long allocatedBytes(ToDoubleFunction<double[]> inference, double[][] states) {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        double sink = 0.0;
+        for (int call = 0; call < WARMUP_CALLS; call++) {
+            sink += inference.applyAsDouble(states[call % CANDIDATES]);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int call = 0; call < MEASURED_CALLS; call++) {
+            sink += inference.applyAsDouble(states[call % CANDIDATES]);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        // Keeps the calls alive, a NaN Q-value is clamped away
+        assertFalse(Double.isNaN(sink));
+        return allocated;
+    }
+
+    private static NeuralNetwork network(boolean batchNorm) {
+        return batchNorm ? TestNetworks.batchNormNetwork(new Random(40)) : TestNetworks.network();
+    }
+}
@@ -0,0 +1,159 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * The Vector API kernels of {@link MatrixKernels} against the scalar loops.
+ *
+ * <p>The sizes are not multiples of the lane counts, so every vector kernel runs its tail loop, and a single output
+ * or row leaves the lanes of a whole step empty. The sums are added in another order, double results agree within
+ * 1e-12, float results within 1e-5 and the int8 sums exactly. The gradients accumulate into non-zero arrays.</p>
+ */
+class MatrixKernelsTest {
+    private static final double TOLERANCE = 1e-12;
+    private static final float FLOAT_TOLERANCE = 1e-5f;
+
+    @BeforeEach
+    void requireVectorApi() {
+        assumeTrue(MatrixKernels.isVectorApiAvailable(), "jdk.incubator.vector module");
+    }
+
+    static Stream<Arguments> sizes() {
+        return IntStream.of(18, 33).boxed().flatMap(in -> IntStream.of(1, 5, 64).boxed()
+                .flatMap(out -> IntStream.of(1, 3, 7).mapToObj(batch -> Arguments.of(in, out, batch))));
+    }
+
+    @ParameterizedTest
+    @MethodSource("sizes")
+    void forwardMatchesScalar(int in, int out, int batch) {
+        Random random = new Random(in * 1000L + out * 10L + batch);
+        double[][] inputs = matrix(random, batch, in);
+        double[] weights = vector(random, in * out);
+        double[] biases = vector(random, out);
+        double[][] scalar = new double[batch][out];
+        double[][] vector = new double[batch][out];
+        MatrixKernels.forward(inputs, batch, weights, biases, in, out, scalar, false);
+        MatrixKernels.forward(inputs, batch, weights, biases, in, out, vector, true);
+        for (int b = 0; b < batch; b++) {
+            assertArrayEquals(scalar[b], vector[b], TOLERANCE, "batch row " + b);
+            double[] single = new double[out];
+            MatrixKernels.forward(inputs[b], weights, biases, in, out, single, true);
+            assertArrayEquals(scalar[b], single, TOLERANCE, "single sample " + b);
+        }
+
+        float[][] floatInputs = Precision.narrow(inputs);
+        float[] floatWeights = Precision.narrow(weights);
+        float[] floatBiases = Precision.narrow(biases);
+        float[][] floatScalar = new float[batch][out];
+        float[][] floatVector = new float[batch][out];
+        MatrixKernels.forward(floatInputs, batch, floatWeights, floatBiases, in, out, floatScalar, false);
+        MatrixKernels.forward(floatInputs, batch, floatWeights, floatBiases, in, out, floatVector, true);
+        for (int b = 0; b < batch; b++) {
+            assertArrayEquals(floatScalar[b], floatVector[b], FLOAT_TOLERANCE, "float batch row " + b);
+            float[] single = new float[out];
+            MatrixKernels.forward(floatInputs[b], floatWeights, floatBiases, in, out, single, true);
+            assertArrayEquals(floatScalar[b], single, FLOAT_TOLERANCE, "float single sample " + b);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("sizes")
+    void weightGradientMatchesScalar(int in, int out, int batch) {
+        Random random = new Random(in * 1000L + out * 10L + batch + 1);
+        double[][] deltas = matrix(random, batch, out);
+        double[][] inputs = matrix(random, batch, in);
+        double[] scalar = vector(random, in * out);
+        double[] vector = scalar.clone();
+        MatrixKernels.weightGradient(deltas, inputs, batch, in, out, scalar, false);
+        MatrixKernels.weightGradient(deltas, inputs, batch, in, out, vector, true);
+        assertArrayEquals(scalar, vector, TOLERANCE);
+
+        float[][] floatDeltas = Precision.narrow(deltas);
+        float[][] floatInputs = Precision.narrow(inputs);
+        float[] floatScalar = Precision.narrow(scalar);
+        float[] floatVector = floatScalar.clone();
+        MatrixKernels.weightGradient(floatDeltas, floatInputs, batch, in, out, floatScalar, false);
+        MatrixKernels.weightGradient(floatDeltas, floatInputs, batch, in, out, floatVector, true);
+        assertArrayEquals(floatScalar, floatVector, FLOAT_TOLERANCE);
+    }
+
+    @ParameterizedTest
+    @MethodSource("sizes")
+    void inputGradientMatchesScalar(int in, int out, int batch) {
+        Random random = new Random(in * 1000L + out * 10L + batch + 2);
+        double[][] deltas = matrix(random, batch, out);
+        double[] weights = vector(random, in * out);
+        double[][] scalar = matrix(random, batch, in);
+        double[][] vector = copy(scalar);
+        float[][] floatScalar = Precision.narrow(scalar);
+        float[][] floatVector = Precision.narrow(scalar);
+        MatrixKernels.inputGradient(deltas, weights, batch, in, out, scalar, false);
+        MatrixKernels.inputGradient(deltas, weights, batch, in, out, vector, true);
+        float[][] floatDeltas = Precision.narrow(deltas);
+        float[] floatWeights = Precision.narrow(weights);
+        MatrixKernels.inputGradient(floatDeltas, floatWeights, batch, in, out, floatScalar, false);
+        MatrixKernels.inputGradient(floatDeltas, floatWeights, batch, in, out, floatVector, true);
+        for (int b = 0; b < batch; b++) {
+            assertArrayEquals(scalar[b], vector[b], TOLERANCE, "row " + b);
+            assertArrayEquals(floatScalar[b], floatVector[b], FLOAT_TOLERANCE, "float row " + b);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("sizes")
+    void int8ForwardMatchesScalar(int in, int out, int batch) {
+        assumeTrue(MatrixKernels.isInt8VectorAvailable(), "int8 vector kernel");
+        Random random = new Random(in * 1000L + out * 10L + batch + 3);
+        byte[] weights = bytes(random, in * out);
+        for (int b = 0; b < batch; b++) {
+            byte[] input = bytes(random, in);
+            int[] scalar = new int[out];
+            int[] vector = new int[out];
+            MatrixKernels.forward(input, weights, in, out, scalar, false);
+            MatrixKernels.forward(input, weights, in, out, vector, true);
+            assertArrayEquals(scalar, vector, "sample " + b);
+        }
+    }
+
+    private static double[] vector(Random random, int length) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = random.nextDouble() * 2.0 - 1.0;
+        }
+        return values;
+    }
+
+    private static double[][] matrix(Random random, int rows, int cols) {
+        double[][] values = new double[rows][];
+        for (int b = 0; b < rows; b++) {
+            values[b] = vector(random, cols);
+        }
+        return values;
+    }
+
+    private static double[][] copy(double[][] values) {
+        double[][] copy = new double[values.length][];
+        for (int b = 0; b < values.length; b++) {
+            copy[b] = values[b].clone();
+        }
+        return copy;
+    }
+
+    private static byte[] bytes(Random random, int length) {
+        byte[] values = new byte[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (byte) (random.nextInt(255) - 127);
+        }
+        return values;
+    }
+}
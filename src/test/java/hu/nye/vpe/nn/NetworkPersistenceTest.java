@@ -0,0 +1,80 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import hu.nye.vpe.GlobalConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The network structure is saved with its input features and only loaded with the same features.
+ */
+class NetworkPersistenceTest {
+    private static final String LAYOUT = GlobalConfig.getInstance().getFeedLayout();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void structureRoundTripsWithItsInputs() throws IOException {
+        Path file = directory.resolve("brain_network.json");
+        NeuralNetwork saved = TestNetworks.network();
+        saved.saveNetworkStructure(file.toString());
+        assertTrue(Files.readString(file).contains("\"inputs\": \"" + LAYOUT + "\""));
+
+        NeuralNetwork loaded = TestNetworks.network();
+        loaded.loadNetworkStructure(file.toString());
+        assertSameWeights(saved, loaded);
+    }
+
+    @Test
+    void structureOfOtherInputsIsRefused() throws IOException {
+        Path file = directory.resolve("brain_network.json");
+        TestNetworks.network().saveNetworkStructure(file.toString());
+        String json = Files.readString(file);
+        NeuralNetwork network = TestNetworks.network();
+        double[][] before = weights(network);
+
+        Files.writeString(file, json.replace("\"inputs\": \"" + LAYOUT + "\"", "\"inputs\": \"HOLES,BUMPINESS\""));
+        assertThrows(IllegalStateException.class, () -> network.loadNetworkStructure(file.toString()));
+        // A checkpoint saved before the inputs were recorded has an unknown layout
+        Files.writeString(file, json.replace("\"inputs\": \"" + LAYOUT + "\",", ""));
+        assertThrows(IllegalStateException.class, () -> network.loadNetworkStructure(file.toString()));
+        assertArrayEquals(before, weights(network), "a refused checkpoint leaves the network unchanged");
+    }
+
+    @Test
+    void shippedCheckpointsMatchTheConfiguredInputs() throws IOException {
+        for (String file : List.of("brain_network.json", "run/brain_network.json")) {
+            TestNetworks.network().loadNetworkStructure(file);
+        }
+    }
+
+    private static double[][] weights(NeuralNetwork network) {
+        List<Layer> layers = network.getLayers();
+        double[][] weights = new double[layers.size()][];
+        for (int i = 0; i < layers.size(); i++) {
+            weights[i] = layers.get(i).getWeights().clone();
+        }
+        return weights;
+    }
+
+    private static void assertSameWeights(NeuralNetwork expected, NeuralNetwork actual) {
+        assertArrayEquals(weights(expected), weights(actual));
+        for (int i = 0; i < expected.getLayers().size(); i++) {
+            List<Neuron> expectedNeurons = expected.getLayers().get(i).getNeurons();
+            List<Neuron> actualNeurons = actual.getLayers().get(i).getNeurons();
+            for (int j = 0; j < expectedNeurons.size(); j++) {
+                assertEquals(expectedNeurons.get(j).getBias(), actualNeurons.get(j).getBias(), "bias " + i + "/" + j);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import hu.nye.vpe.GlobalConfig;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Layer statistics of {@link NeuralNetwork} when the greedy pick is answered by the transposition table.
+ */
+class NeuralNetworkStatisticsTest {
+    private static final int CANDIDATES = 48;
+
+    @Test
+    void cachedPicksKeepTheLayerStatisticsFinite() {
+        GlobalConfig config = GlobalConfig.getInstance();
+        NeuralNetwork network = TestNetworks.network();
+        network.setEpsilon(0.0);
+        network.updateStatistics();
+        assertFinite(network.getLayerMeans(), "before the first pick");
+
+        Random random = new Random(39);
+        double[][] states = new double[CANDIDATES][config.getFeedDataSize() + 2];
+        long[] keys = new long[CANDIDATES];
+        for (int i = 0; i < CANDIDATES; i++) {
+            for (int j = 2; j < states[i].length; j++) {
+                states[i][j] = random.nextDouble();
+            }
+            keys[i] = random.nextLong();
+        }
+        network.selectAction(states, keys);
+        // Every Q-value of the second pick comes from the table when it is enabled
+        network.selectAction(states, keys);
+        double[][] activations = network.getLastActivations();
+        assertEquals(config.getLayerSizes().length, activations.length);
+        for (double[] layer : activations) {
+            assertTrue(layer.length > 0);
+        }
+        network.updateStatistics();
+        assertFinite(network.getLayerMeans(), "after a cached pick");
+    }
+
+    private static void assertFinite(double[] values, String when) {
+        for (double value : values) {
+            assertTrue(Double.isFinite(value), "layer mean " + value + " " + when);
+        }
+    }
+}
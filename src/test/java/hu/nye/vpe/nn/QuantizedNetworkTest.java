@@ -0,0 +1,57 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import hu.nye.vpe.GlobalConfig;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The quantized network is a detached copy of the folded source network.
+ *
+ * <p>The network is built from brain_config.cfg with batch normalization on the hidden layers, random running
+ * statistics and, when the configuration normalizes the feed data, input normalizer statistics.</p>
+ */
+class QuantizedNetworkTest {
+    private static final int STATES = 512;
+
+    @Test
+    void quantizedNetworkFollowsTheFrozenNetwork() {
+        NeuralNetwork network = network();
+        double[][] states = TestNetworks.states(new Random(47), STATES);
+        QuantizedNetwork quantized = QuantizedNetwork.quantize(network, states);
+        double[] expected = network.freeze().predictQValues(states);
+        double[] actual = quantized.predictQValues(states);
+        double range = GlobalConfig.getInstance().getMaxQ() - GlobalConfig.getInstance().getMinQ();
+        for (int i = 0; i < STATES; i++) {
+            assertTrue(Math.abs(expected[i] - actual[i]) < 0.01 * range,
+                    "int8 Q-value " + actual[i] + " against " + expected[i]);
+        }
+    }
+
+    @Test
+    void laterChangesOfTheSourceAreNotSeen() {
+        NeuralNetwork network = network();
+        double[][] states = TestNetworks.states(new Random(48), STATES);
+        QuantizedNetwork quantized = QuantizedNetwork.quantize(network, states);
+        double[] before = quantized.predictQValues(states);
+
+        Random random = new Random(49);
+        TestNetworks.randomizeVariances(network, random);
+        double[][] shifted = TestNetworks.states(random, STATES);
+        for (double[] state : shifted) {
+            state[2] *= 10.0;
+        }
+        TestNetworks.commitInputStatistics(network, shifted);
+        assertArrayEquals(before, quantized.predictQValues(states));
+    }
+
+    private static NeuralNetwork network() {
+        Random random = new Random(46);
+        NeuralNetwork network = TestNetworks.batchNormNetwork(random);
+        TestNetworks.commitInputStatistics(network, TestNetworks.states(random, STATES));
+        return network;
+    }
+}
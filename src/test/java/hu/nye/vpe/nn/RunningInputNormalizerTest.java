@@ -0,0 +1,85 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bulk commits of {@link RunningInputNormalizer} against the statistics of all states computed in one pass.
+ */
+class RunningInputNormalizerTest {
+    private static final int SIZE = 5;
+    private static final int OFFSET = 2;
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    void commitsMergeToTheStatisticsOfAllStates() {
+        Random random = new Random(36);
+        RunningInputNormalizer normalizer = new RunningInputNormalizer(SIZE, "ZSCORE");
+        double[][] states = new double[1000][SIZE + OFFSET];
+        for (int n = 0; n < states.length; n++) {
+            for (int i = 0; i < SIZE; i++) {
+                states[n][OFFSET + i] = random.nextGaussian() * (i + 1) + i;
+            }
+            normalizer.stage(states[n], OFFSET);
+            // Uneven commits, some of a single state
+            if (random.nextInt(50) == 0 || n % 97 == 0) {
+                assertTrue(normalizer.commit());
+            }
+        }
+        normalizer.commit();
+
+        double[] mean = new double[SIZE];
+        double[] m2 = new double[SIZE];
+        double[] min = new double[SIZE];
+        double[] max = new double[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            min[i] = Double.POSITIVE_INFINITY;
+            max[i] = Double.NEGATIVE_INFINITY;
+            for (double[] state : states) {
+                mean[i] += state[OFFSET + i] / states.length;
+                min[i] = Math.min(min[i], state[OFFSET + i]);
+                max[i] = Math.max(max[i], state[OFFSET + i]);
+            }
+            for (double[] state : states) {
+                m2[i] += (state[OFFSET + i] - mean[i]) * (state[OFFSET + i] - mean[i]);
+            }
+        }
+        assertEquals(states.length, normalizer.getCount());
+        assertEquals(0, normalizer.getStagedCount());
+        assertArrayEquals(mean, normalizer.getMean(), TOLERANCE);
+        assertArrayEquals(m2, normalizer.getM2(), TOLERANCE * states.length);
+        assertArrayEquals(min, normalizer.getMin());
+        assertArrayEquals(max, normalizer.getMax());
+    }
+
+    @Test
+    void stagedStatesDoNotChangeTheNormalization() {
+        RunningInputNormalizer normalizer = new RunningInputNormalizer(SIZE, "MINMAX");
+        normalizer.stage(new double[]{0, 0, 1, 2, 3, 4, 5}, OFFSET);
+        normalizer.stage(new double[]{0, 0, 3, 2, 1, 0, -1}, OFFSET);
+        double[] data = {2, 2, 2, 2, 2};
+        normalizer.apply(data);
+        assertArrayEquals(new double[]{2, 2, 2, 2, 2}, data, "identity before the first commit");
+
+        assertTrue(normalizer.commit());
+        assertFalse(normalizer.commit(), "nothing staged");
+        normalizer.stage(new double[]{0, 0, 100, 100, 100, 100, 100}, OFFSET);
+        normalizer.apply(data);
+        assertArrayEquals(new double[]{0.5, 0.0, 0.5, 0.5, 0.5}, data, TOLERANCE);
+    }
+
+    @Test
+    void frozenNormalizerStagesNothing() {
+        RunningInputNormalizer normalizer = new RunningInputNormalizer(SIZE, "ZSCORE");
+        normalizer.freeze();
+        assertFalse(normalizer.stage(new double[SIZE + OFFSET], OFFSET));
+        assertFalse(normalizer.commit());
+        assertEquals(0, normalizer.getCount());
+    }
+}
@@ -0,0 +1,101 @@
+package hu.nye.vpe.nn;
+
+import java.util.Random;
+
+import hu.nye.vpe.GlobalConfig;
+
+/**
+ * Networks and states of the network tests, built from brain_config.cfg.
+ */
+final class TestNetworks {
+
+    private TestNetworks() {
+    }
+
+    /**
+     * Network of the configuration as it is.
+     *
+     * @return network
+     */
+    static NeuralNetwork network() {
+        GlobalConfig config = GlobalConfig.getInstance();
+        return new NeuralNetwork(config.getLayerNames(), config.getLayerSizes(), config.getLayerActivations(),
+                config.getWeightInitStrategies(), config.getBatchNorms(), config.getL2Regularization());
+    }
+
+    /**
+     * Network of the configuration with batch normalization on every hidden layer and random running variances
+     * between 0.5 and 1.5, so the inference normalization is not the identity.
+     *
+     * @param random source of the variances
+     *
+     * @return network
+     */
+    static NeuralNetwork batchNormNetwork(Random random) {
+        GlobalConfig config = GlobalConfig.getInstance();
+        BatchNormParameters[] batchNorms = config.getBatchNorms();
+        for (int i = 0; i < batchNorms.length - 1; i++) {
+            batchNorms[i] = new BatchNormParameters(true, batchNorms[i].gamma, batchNorms[i].beta);
+        }
+        NeuralNetwork network = new NeuralNetwork(config.getLayerNames(), config.getLayerSizes(),
+                config.getLayerActivations(), config.getWeightInitStrategies(), batchNorms,
+                config.getL2Regularization());
+        randomizeVariances(network, random);
+        return network;
+    }
+
+    /**
+     * Set random running variances between 0.5 and 1.5 on the batch normalized layers.
+     *
+     * @param network network
+     *
+     * @param random source of the variances
+     */
+    static void randomizeVariances(NeuralNetwork network, Random random) {
+        for (Layer layer : network.getLayers()) {
+            if (layer.isUseBatchNorm()) {
+                double[] variances = new double[layer.getSize()];
+                for (int i = 0; i < variances.length; i++) {
+                    variances[i] = 0.5 + random.nextDouble();
+                }
+                layer.getBatchNormalizer().setRunningVariance(variances);
+            }
+        }
+    }
+
+    /**
+     * Commit the statistics of the states to the input normalizer, if the configuration normalizes the feed data.
+     *
+     * @param network network
+     *
+     * @param states states whose features start at index 2
+     */
+    static void commitInputStatistics(NeuralNetwork network, double[][] states) {
+        RunningInputNormalizer inputNormalizer = network.getInputNormalizer();
+        if (inputNormalizer != null) {
+            for (double[] state : states) {
+                inputNormalizer.stage(state, 2);
+            }
+            inputNormalizer.commit();
+        }
+    }
+
+    /**
+     * Random states of the configured feed data size, the column and the rotation included.
+     *
+     * @param random source of the values, uniform in [0, 1)
+     *
+     * @param count number of states
+     *
+     * @return states
+     */
+    static double[][] states(Random random, int count) {
+        double[][] states = new double[count][GlobalConfig.getInstance().getFeedDataSize() + 2];
+        for (double[] state : states) {
+            for (int j = 0; j < state.length; j++) {
+                state[j] = random.nextDouble();
+            }
+        }
+        return states;
+    }
+}
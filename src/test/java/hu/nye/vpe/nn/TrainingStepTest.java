@@ -0,0 +1,119 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.sun.management.ThreadMXBean;
+import hu.nye.vpe.GlobalConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * A gradient step in the training workspace is the allocating layer-by-layer step.
+ *
+ * <p>Two networks are built from brain_config.cfg with the same weights and the same dropout seeds. One trains with
+ * {@link NeuralNetwork#trainBatch(List, List)}, the other with {@link Layer#forwardBatch(double[][], boolean)} and
+ * {@link Layer#backwardBatch(double[][], double[][])} layer by layer, the weights have to stay bit-identical.</p>
+ */
+class TrainingStepTest {
+    private static final int STEPS = 5;
+    private static final int WARMUP_STEPS = 2000;
+    private static final int MEASURED_STEPS = 100;
+
+    @ParameterizedTest
+    @ValueSource(ints = {128, 256})
+    void workspaceStepMatchesLayerByLayerStep(int batchSize) {
+        NeuralNetwork workspace = TestNetworks.network();
+        NeuralNetwork layerByLayer = TestNetworks.network();
+        // 256 rows run in shards of 32 rows on two threads
+        BatchShards shards = new BatchShards(2, 64);
+        for (int i = 0; i < workspace.getLayers().size(); i++) {
+            Layer source = workspace.getLayers().get(i);
+            Layer copy = layerByLayer.getLayers().get(i);
+            for (int n = 0; n < source.getSize(); n++) {
+                copy.setWeightRow(n, source.getWeightRow(n));
+                copy.setBias(n, source.getBias(n));
+            }
+            source.setDropoutSeed(45 + i);
+            copy.setDropoutSeed(45 + i);
+            if (batchSize > 128) {
+                source.setBatchShards(shards);
+                copy.setBatchShards(shards);
+            }
+        }
+
+        Random random = new Random(49);
+        for (int step = 0; step < STEPS; step++) {
+            List<double[]> inputs = new ArrayList<>();
+            List<double[]> targets = new ArrayList<>();
+            batch(random, batchSize, inputs, targets);
+            workspace.trainBatch(inputs, targets);
+            layerByLayerStep(layerByLayer.getLayers(), inputs, targets);
+        }
+        for (int i = 0; i < workspace.getLayers().size(); i++) {
+            assertArrayEquals(layerByLayer.getLayers().get(i).getWeights(), workspace.getLayers().get(i).getWeights(),
+                    "weights of layer " + i);
+            assertArrayEquals(layerByLayer.getLayers().get(i).getBiases(), workspace.getLayers().get(i).getBiases(),
+                    "biases of layer " + i);
+        }
+    }
+
+    @Test
+    void trainBatchIsAllocationFree() {
+        NeuralNetwork network = TestNetworks.network();
+        for (Layer layer : network.getLayers()) {
+            assumeTrue(layer.getPrecision() == Precision.DOUBLE && !layer.isUseBatchNorm(),
+                    "double precision without batch normalization");
+        }
+        List<double[]> inputs = new ArrayList<>();
+        List<double[]> targets = new ArrayList<>();
+        batch(new Random(50), GlobalConfig.getInstance().getExperienceBatchSize(), inputs, targets);
+        for (int step = 0; step < WARMUP_STEPS; step++) {
+            network.trainBatch(inputs, targets);
+        }
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int step = 0; step < MEASURED_STEPS; step++) {
+            network.trainBatch(inputs, targets);
+        }
+        assertEquals(0L, threads.getThreadAllocatedBytes(threadId) - before, "bytes allocated by trainBatch");
+    }
+
+    // The loss gradient of NeuralNetwork.trainBatch, then the allocating passes of the layers
+    private static void layerByLayerStep(List<Layer> layers, List<double[]> inputs, List<double[]> targets) {
+        double[][][] activations = new double[layers.size() + 1][][];
+        activations[0] = inputs.toArray(new double[0][]);
+        for (int i = 0; i < layers.size(); i++) {
+            activations[i + 1] = layers.get(i).forwardBatch(activations[i], true);
+        }
+        double[][] output = activations[layers.size()];
+        double[][] deltas = new double[output.length][output[0].length];
+        for (int b = 0; b < deltas.length; b++) {
+            for (int j = 0; j < deltas[b].length; j++) {
+                deltas[b][j] = 2.0 * (targets.get(b)[j] - output[b][j]);
+            }
+        }
+        for (int i = layers.size() - 1; i >= 0; i--) {
+            deltas = layers.get(i).backwardBatch(deltas, activations[i]).inputGradients;
+        }
+    }
+
+    private static void batch(Random random, int rows, List<double[]> inputs, List<double[]> targets) {
+        for (int b = 0; b < rows; b++) {
+            double[] input = new double[GlobalConfig.getInstance().getFeedDataSize()];
+            for (int j = 0; j < input.length; j++) {
+                input[j] = random.nextDouble();
+            }
+            inputs.add(input);
+            targets.add(new double[]{random.nextDouble() - 1.0});
+        }
+    }
+}
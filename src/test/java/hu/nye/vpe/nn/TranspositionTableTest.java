@@ -0,0 +1,69 @@
+package hu.nye.vpe.nn;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Lookups, versioned Q-values and clock replacement of {@link TranspositionTable}.
+ */
+class TranspositionTableTest {
+    private static final int FEATURES = 3;
+    private static final int OFFSET = 2;
+
+    @Test
+    void featuresRoundTripAtTheGivenOffsets() {
+        TranspositionTable table = new TranspositionTable(FEATURES, 1);
+        double[] source = {9, 9, 0.5, -1.25, 3.0};
+        table.putFeatures(42L, source, OFFSET);
+
+        double[] target = new double[FEATURES + 1];
+        assertTrue(table.getFeatures(42L, target, 1));
+        assertArrayEquals(new double[]{0, 0.5, -1.25, 3.0}, target);
+        assertFalse(table.getFeatures(43L, target, 1));
+        assertEquals(0.5, table.getFeatureHitRatio());
+    }
+
+    @Test
+    void qvalueOfAnotherWeightVersionMisses() {
+        TranspositionTable table = new TranspositionTable(FEATURES, 1);
+        // Without cached features the Q-value has no slot and is dropped
+        table.putQValue(7L, 3L, 1.5);
+        assertTrue(Double.isNaN(table.getQValue(7L, 3L)));
+
+        table.putFeatures(7L, new double[FEATURES], 0);
+        table.putQValue(7L, 3L, 1.5);
+        assertEquals(1.5, table.getQValue(7L, 3L));
+        assertTrue(Double.isNaN(table.getQValue(7L, 4L)));
+        assertTrue(Double.isNaN(table.getQValue(8L, 3L)));
+    }
+
+    @Test
+    void clockGivesRecentlyUsedEntriesASecondChance() {
+        // An empty budget leaves a single set of four ways
+        TranspositionTable table = new TranspositionTable(FEATURES, 0);
+        assertEquals(4, table.getCapacity());
+        double[] features = new double[FEATURES];
+        for (long key = 1; key <= 4; key++) {
+            table.putFeatures(key, features, 0);
+        }
+        table.putQValue(3L, 0L, 2.0);
+
+        // Every way is referenced, the hand clears them all and takes the first one
+        table.putFeatures(5L, features, 0);
+        assertFalse(table.getFeatures(1L, features, 0));
+        // Touching key 2 saves it, the next victim is key 3 past it
+        assertTrue(table.getFeatures(2L, features, 0));
+        table.putFeatures(6L, features, 0);
+
+        assertFalse(table.getFeatures(3L, features, 0));
+        for (long key : new long[]{2L, 4L, 5L, 6L}) {
+            assertTrue(table.getFeatures(key, features, 0), "key " + key);
+        }
+        // The new state of the slot does not inherit the Q-value of the evicted one
+        assertTrue(Double.isNaN(table.getQValue(6L, 0L)));
+    }
+}
@@ -0,0 +1,117 @@
+package hu.nye.vpe.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import hu.nye.vpe.gaming.GameConstans;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The column statistics of the scalar and vector {@link CandidateMetrics} kernels and of {@link StackMetrics}, which
+ * computes them through {@link FeatureBoard}, agree on random stacks, and candidates patched from a base stack agree
+ * with fully loaded ones.
+ */
+class CandidateMetricsTest {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int CANDIDATES = CandidateMetrics.CANDIDATES;
+    private static final int ROUNDS = 20;
+
+    @Test
+    void kernelsAgreeWithStackMetrics() {
+        TetrominoFactory factory = TetrominoFactory.getInstance();
+        Random random = new Random(32);
+        CandidateMetrics scalar = new CandidateMetrics(false);
+        CandidateMetrics vector = new CandidateMetrics(true);
+        StackMetrics metrics = new StackMetrics(MetricPlan.compile("Test", BoardFeature.HOLES,
+                BoardFeature.BUMPINESS, BoardFeature.HEIGHT_SUM, BoardFeature.COLUMN_HEIGHTS));
+        for (int round = 0; round < ROUNDS; round++) {
+            Cell[][][] boards = new Cell[CANDIDATES][ROWS][COLS];
+            for (int c = 0; c < CANDIDATES; c++) {
+                int[] columnMasks = new int[COLS];
+                int height = random.nextInt(ROWS + 1);
+                for (int row = 0; row < ROWS; row++) {
+                    for (int col = 0; col < COLS; col++) {
+                        boolean occupied = row >= ROWS - height && random.nextInt(4) != 0;
+                        boards[c][row][col] = occupied ? factory.getLoadedCell() : factory.getEmptyCell();
+                        if (occupied) {
+                            columnMasks[col] |= 1 << row;
+                        }
+                    }
+                }
+                scalar.loadCandidate(c, columnMasks);
+                vector.loadCandidate(c, columnMasks);
+            }
+            scalar.evaluate();
+            vector.evaluate();
+            for (int c = 0; c < CANDIDATES; c++) {
+                metrics.calculateGameMetrics(boards[c]);
+                String at = "round " + round + ", candidate " + c;
+                assertEquals(metrics.getMetricColumnHoleSum(), scalar.getHoleSum(c), "holes, " + at);
+                assertEquals(metrics.getMetricColumnHeightSum(), scalar.getHeightSum(c), "height sum, " + at);
+                assertEquals(metrics.getMetricBumpiness(), scalar.getBumpiness(c), "bumpiness, " + at);
+                double[] heights = new double[COLS];
+                for (int col = 0; col < COLS; col++) {
+                    heights[col] = scalar.getColumnHeight(c, col);
+                    assertEquals(scalar.getColumnHeight(c, col), vector.getColumnHeight(c, col), "height, " + at);
+                }
+                assertArrayEquals(metrics.getMetricColumnHeights(), heights, "heights, " + at);
+                for (int col = 0; col < COLS; col++) {
+                    assertEquals(metrics.getMetricColumnHoles()[col], scalar.getColumnHoles(c, col), "column holes, " + at);
+                }
+                assertEquals(scalar.getHoleSum(c), vector.getHoleSum(c), "vector holes, " + at);
+                assertEquals(scalar.getHeightSum(c), vector.getHeightSum(c), "vector height sum, " + at);
+                assertEquals(scalar.getBumpiness(c), vector.getBumpiness(c), "vector bumpiness, " + at);
+            }
+        }
+    }
+
+    @Test
+    void touchedColumnsPatchTheBaseStack() {
+        Random random = new Random(31);
+        CandidateMetrics full = new CandidateMetrics(false);
+        CandidateMetrics touched = new CandidateMetrics(true);
+        for (int round = 0; round < ROUNDS; round++) {
+            int[] baseMasks = randomMasks(random);
+            touched.setBaseStack(baseMasks);
+            for (int c = 0; c < CANDIDATES; c++) {
+                // A placement changes a few adjacent columns, some candidates change none
+                int[] columnMasks = baseMasks.clone();
+                int from = random.nextInt(COLS);
+                int to = Math.min(COLS - 1, from + random.nextInt(4)) - (c % 7 == 0 ? COLS : 0);
+                for (int col = Math.max(0, from); col <= to; col++) {
+                    columnMasks[col] ^= 1 << random.nextInt(ROWS);
+                }
+                full.loadCandidate(c, columnMasks);
+                touched.loadCandidate(c, columnMasks, from, to);
+            }
+            full.evaluate();
+            touched.evaluate();
+            for (int c = 0; c < CANDIDATES; c++) {
+                String at = "round " + round + ", candidate " + c;
+                assertEquals(full.getHoleSum(c), touched.getHoleSum(c), "holes, " + at);
+                assertEquals(full.getHeightSum(c), touched.getHeightSum(c), "height sum, " + at);
+                assertEquals(full.getBumpiness(c), touched.getBumpiness(c), "bumpiness, " + at);
+                for (int col = 0; col < COLS; col++) {
+                    assertEquals(full.getColumnHeight(c, col), touched.getColumnHeight(c, col), "height, " + at);
+                    assertEquals(full.getColumnHoles(c, col), touched.getColumnHoles(c, col), "column holes, " + at);
+                }
+            }
+        }
+    }
+
+    private static int[] randomMasks(Random random) {
+        int[] columnMasks = new int[COLS];
+        int height = random.nextInt(ROWS + 1);
+        for (int row = ROWS - height; row < ROWS; row++) {
+            for (int col = 0; col < COLS; col++) {
+                if (random.nextInt(4) != 0) {
+                    columnMasks[col] |= 1 << row;
+                }
+            }
+        }
+        return columnMasks;
+    }
+}
@@ -0,0 +1,126 @@
+package hu.nye.vpe.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.Color;
+
+import hu.nye.vpe.gaming.GameConstans;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Features of {@link FeatureBoard} and the landing measures of {@link StackManager} on hand-built boards.
+ *
+ * <p>Boards are given by their bottom rows, {@code #} is an occupied cell, the rows above are empty. The expected
+ * values are counted by hand.</p>
+ */
+class FeatureBoardTest {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final double TOLERANCE = 1e-9;
+
+    @Test
+    void featuresOfAHandBuiltBoard() {
+        FeatureBoard board = load(new String[]{
+                "#...........",
+                "#.##.#.....#",
+                "##.#.#######",
+        }, 2.5, 0);
+        assertArrayEquals(new int[]{3, 1, 2, 2, 0, 2, 1, 1, 1, 1, 1, 2}, board.getHeights());
+        // The cell under column 2
+        assertEquals(1, board.getHoleSum());
+        // A well of depth 1 in column 1 and one of depth 2 in column 4, 1 + (1 + 2)
+        assertEquals(4, board.wells());
+        // 2 + 6 + 4 in the three rows, the walls count as occupied
+        assertEquals(12, board.rowTransitions());
+        // Column 2 has 3: top, hole, floor, every other column 1
+        assertEquals(14, board.columnTransitions());
+        double elTetris = -4.500158825082766 * 2.5
+                - 3.2178882868487753 * 12
+                - 9.348695305445199 * 14
+                - 7.899265427351652 * 1
+                - 3.3855972247263626 * 4;
+        assertEquals(elTetris, board.elTetris(), TOLERANCE);
+    }
+
+    @Test
+    void wallsCountAsOccupied() {
+        FeatureBoard board = load(new String[]{
+                ".#..........",
+                ".#..........",
+                ".#..........",
+        }, 0, 0);
+        // Column 0 is a well of depth 3 between the wall and column 1, 1 + 2 + 3
+        assertEquals(6, board.wells());
+        assertEquals(12, board.rowTransitions());
+        assertEquals(12, board.columnTransitions());
+    }
+
+    @Test
+    void emptyBoardHasOnlyTheFloorTransitions() {
+        FeatureBoard board = load(new String[0], 0, 0);
+        assertEquals(0, board.wells());
+        assertEquals(0, board.rowTransitions());
+        assertEquals(COLS, board.columnTransitions());
+        assertEquals(-9.348695305445199 * COLS, board.elTetris(), TOLERANCE);
+    }
+
+    @Test
+    void landingOfAnOPieceFillingTheBottomRow() {
+        StackManager manager = new StackManager(RunMode.TRAIN_AI);
+        manager.start();
+        Tetromino piece = new Tetromino(4, 10, Color.WHITE, 2, new int[][]{{1, 1}, {1, 1}});
+        manager.simulatePlacement(stack(new String[]{"####..######"}), piece, 4, 0);
+        // Rows 0 and 1 from the bottom, the middle is 0.5
+        assertEquals(0.5, manager.getSimLandingHeight(), TOLERANCE);
+        // One full row with two cells of the piece
+        assertEquals(2, manager.getSimErodedCells());
+    }
+
+    @Test
+    void landingOfAnIPieceInAWell() {
+        StackManager manager = new StackManager(RunMode.TRAIN_AI);
+        manager.start();
+        Tetromino piece = new Tetromino(1, 10, Color.WHITE, 1, new int[][]{{1}, {1}, {1}, {1}});
+        manager.simulatePlacement(stack(new String[]{".###########", ".###########"}), piece, 0, 0);
+        assertEquals(1.5, manager.getSimLandingHeight(), TOLERANCE);
+        // Two full rows with two cells of the piece each
+        assertEquals(4, manager.getSimErodedCells());
+
+        manager.simulatePlacement(stack(new String[]{"#...........", "#..........."}), piece, 0, 0);
+        // On top of the two cells, rows 2 to 5 from the bottom, no full row
+        assertEquals(3.5, manager.getSimLandingHeight(), TOLERANCE);
+        assertEquals(0, manager.getSimErodedCells());
+    }
+
+    private static FeatureBoard load(String[] bottomRows, double landingHeight, int erodedCells) {
+        int[] columnMasks = new int[COLS];
+        int[] rowMasks = new int[ROWS];
+        for (int i = 0; i < bottomRows.length; i++) {
+            int row = ROWS - bottomRows.length + i;
+            for (int col = 0; col < COLS; col++) {
+                if (bottomRows[i].charAt(col) == '#') {
+                    columnMasks[col] |= 1 << row;
+                    rowMasks[row] |= 1 << col;
+                }
+            }
+        }
+        FeatureBoard board = new FeatureBoard();
+        board.load(columnMasks, rowMasks, 0, landingHeight, erodedCells, 1, 1);
+        board.computeColumnStats();
+        return board;
+    }
+
+    private static Cell[][] stack(String[] bottomRows) {
+        TetrominoFactory factory = TetrominoFactory.getInstance();
+        Cell[][] stack = new Cell[ROWS][COLS];
+        for (int row = 0; row < ROWS; row++) {
+            int i = row - (ROWS - bottomRows.length);
+            for (int col = 0; col < COLS; col++) {
+                boolean occupied = i >= 0 && bottomRows[i].charAt(col) == '#';
+                stack[row][col] = occupied ? factory.getLoadedCell() : factory.getEmptyCell();
+            }
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,22 @@
+package hu.nye.vpe.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Leaf counts of the {@link Perft} default board against {@link Perft#KNOWN_NODES}.
+ */
+class PerftTest {
+    private static final int DEPTH = 3;
+
+    @Test
+    void defaultBoardMatchesKnownNodes() {
+        Perft perft = Perft.createDefault(DEPTH);
+        for (int depth = 1; depth <= DEPTH; depth++) {
+            assertEquals(Perft.KNOWN_NODES[depth], perft.count(depth, false), "depth " + depth);
+        }
+        // A second count runs on the table cleared again and finds the same leaves
+        assertEquals(Perft.KNOWN_NODES[DEPTH], perft.count(DEPTH, false));
+    }
+}
@@ -0,0 +1,120 @@
+package hu.nye.vpe.tetris;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import hu.nye.vpe.gaming.GameConstans;
+import hu.nye.vpe.gaming.GameState;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The incremental Zobrist hashes of {@link StackManager} against {@link ZobristHash#hash(Cell[][])}.
+ *
+ * <p>Random games are played on boards seeded with garbage rows, so that placements, flagged and cleared rows and
+ * inserted pixels all change the stack. After every change the hash maintained by setCell has to equal the hash
+ * recomputed from the cells.</p>
+ */
+class StackManagerHashTest {
+    private static final int ROWS = GameConstans.ROWS;
+    private static final int COLS = GameConstans.COLS;
+    private static final int GAMES = 100;
+    private static final int PIECES = 60;
+    private static final int GARBAGE_ROWS = 6;
+
+    @Test
+    void liveHashFollowsPlacementsAndClears() {
+        Random random = new Random(26);
+        StackManager manager = new StackManager(RunMode.TRAIN_AI);
+        int clears = 0;
+        for (int game = 0; game < GAMES; game++) {
+            manager.start();
+            assertLiveHash(manager, "empty stack");
+            seedGarbage(manager, random);
+            assertLiveHash(manager, "garbage rows");
+            Tetromino[] sequence = Perft.createSequence(random, PIECES + 1);
+            for (int p = 0; p < PIECES && manager.getGameState() != GameState.GAMEOVER; p++) {
+                manager.setTetrominos(sequence[p], sequence[p + 1]);
+                manager.moveAndRotateTetrominoTo(manager.getStackArea(), sequence[p],
+                        random.nextInt(COLS), random.nextInt(StackManager.ROTATION_OUTPUTS));
+                assertLiveHash(manager, "placement");
+                if (manager.getGameState() == GameState.DELETINGROWS) {
+                    manager.setGameState(GameState.RUNNING);
+                    manager.clearRows();
+                    assertLiveHash(manager, "cleared rows");
+                    clears++;
+                }
+            }
+        }
+        assertTrue(clears > 0, "no rows were cleared, the clear path was not tested");
+    }
+
+    @Test
+    void simulatedHashFollowsEveryAction() {
+        Random random = new Random(126);
+        StackManager manager = new StackManager(RunMode.TRAIN_AI);
+        manager.start();
+        seedGarbage(manager, random);
+        Tetromino[] sequence = Perft.createSequence(random, 8);
+        for (Tetromino tetromino : sequence) {
+            long liveHash = manager.getStackHash();
+            for (int x = 0; x < StackManager.X_COORD_OUTPUTS; x++) {
+                for (int rot = 0; rot < StackManager.ROTATION_OUTPUTS; rot++) {
+                    Cell[][] simulated = manager.simulatePlacement(manager.getStackArea(), tetromino, x, rot);
+                    assertEquals(ZobristHash.hash(simulated), manager.getSimStackHash(),
+                            "simulated hash, x=" + x + " rot=" + rot);
+                    assertNotEquals(liveHash, manager.getSimStackHash(), "a placement has to change the hash");
+                }
+            }
+            assertEquals(liveHash, manager.getStackHash(), "a simulation must not touch the live hash");
+        }
+    }
+
+    @Test
+    void insertedPixelsToggleTheHash() {
+        Random random = new Random(226);
+        StackManager manager = new StackManager(RunMode.TRAIN_AI);
+        manager.start();
+        long emptyHash = manager.getStackHash();
+        int row = 1 + random.nextInt(ROWS - GameConstans.ROW_OFFSET);
+        int col = 1 + random.nextInt(COLS);
+        manager.insertPixel(row, col, true);
+        assertLiveHash(manager, "inserted pixel");
+        assertNotEquals(emptyHash, manager.getStackHash());
+        manager.insertPixel(row, col, false);
+        assertEquals(emptyHash, manager.getStackHash(), "removing the pixel restores the hash");
+    }
+
+    @Test
+    void placementKeysSeparatePlacementsOfTheSameStack() {
+        long stackHash = new Random(326).nextLong();
+        long stackKey = ZobristHash.stateKey(stackHash, 1, 2);
+        Set<Long> keys = new HashSet<>();
+        for (int halfRows = 0; halfRows < 2 * ROWS; halfRows++) {
+            for (int eroded = 0; eroded <= 16; eroded++) {
+                long key = ZobristHash.stateKey(stackHash, 1, 2, halfRows / 2.0, eroded);
+                assertNotEquals(stackKey, key);
+                assertTrue(keys.add(key), "distinct key of landing " + halfRows / 2.0 + ", eroded " + eroded);
+            }
+        }
+    }
+
+    // Bottom rows full except one random hole each
+    private static void seedGarbage(StackManager manager, Random random) {
+        int lastRow = ROWS - GameConstans.ROW_OFFSET;
+        for (int row = lastRow - GARBAGE_ROWS + 1; row <= lastRow; row++) {
+            int hole = 1 + random.nextInt(COLS);
+            for (int col = 1; col <= COLS; col++) {
+                manager.insertPixel(row, col, col != hole);
+            }
+        }
+    }
+
+    private static void assertLiveHash(StackManager manager, String after) {
+        assertEquals(ZobristHash.hash(manager.getStackArea()), manager.getStackHash(), "stack hash after " + after);
+    }
+}